@@ -15,6 +15,7 @@ import nl.esciencecenter.esight.ESightGLEventListener;
 import nl.esciencecenter.esight.datastructures.FBO;
 import nl.esciencecenter.esight.datastructures.IntPBO;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.math.Color4;
 import nl.esciencecenter.esight.math.MatF4;
@@ -25,7 +26,7 @@ import nl.esciencecenter.esight.math.VecF4;
 import nl.esciencecenter.esight.models.GeoSphere;
 import nl.esciencecenter.esight.models.Quad;
 import nl.esciencecenter.esight.models.Sphere;
-import nl.esciencecenter.esight.noise.Noise;
+import nl.esciencecenter.esight.noise.NoiseCache;
 import nl.esciencecenter.esight.shaders.ShaderProgram;
 import nl.esciencecenter.esight.swing.ColormapInterpreter;
 import nl.esciencecenter.esight.swing.ColormapInterpreter.Color;
@@ -111,7 +112,7 @@ public class ColormapExampleGLEventListener extends ESightGLEventListener {
             cachedRangeSliderUpperValue;
 
     // private float[][] randomdata;
-    private final FloatBuffer noise = new Noise(8, NOISE_LONS, NOISE_LATS, 1).getFloats();
+    private final FloatBuffer noise = NoiseCache.getInstance().getFloats(8, NOISE_LONS, NOISE_LATS, 1);
 
     /**
      * Basic constructor for ESightExampleGLEventListener.
@@ -277,16 +278,18 @@ public class ColormapExampleGLEventListener extends ESightGLEventListener {
         // Construct a modelview matrix out of camera viewpoint and angle.
         MatF4 modelViewMatrix = MatrixFMath.lookAt(eye, at, up);
 
+        Camera camera = inputHandler.getCamera();
+
         // Translate the camera backwards according to the inputhandler's view
         // distance setting.
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.translate(new VecF3(0f, 0f, inputHandler.getViewDist())));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.translate(new VecF3(0f, 0f, camera.getViewDist())));
 
         // Rotate tha camera according to the rotation angles defined in the
         // inputhandler.
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationX(inputHandler.getRotation().getX()));
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationY(inputHandler.getRotation().getY()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationX(camera.getRotationX()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationY(camera.getRotationY()));
         // modelViewMatrix =
-        // modelViewMatrix.mul(MatrixFMath.rotationZ(inputHandler.getRotation().get(2)));
+        // modelViewMatrix.mul(MatrixFMath.rotationZ(camera.getRotationZ()));
 
         // Render the scene with these modelview settings. In this case, the end
         // result of this action will be that the AxesFBO has been filled with
@@ -358,17 +361,10 @@ public class ColormapExampleGLEventListener extends ESightGLEventListener {
         int rangeSliderLowerValue = settings.getRangeSliderLowerValue();
         int rangeSliderUpperValue = settings.getRangeSliderUpperValue();
 
-        if (cachedColormapIndex != colormapIndex || cachedDataModeIndex != dataModeIndex
+        if (surfaceTex == null || cachedColormapIndex != colormapIndex || cachedDataModeIndex != dataModeIndex
                 || cachedVariableindex != variableIndex || cachedRangeSliderLowerValue != rangeSliderLowerValue
                 || cachedRangeSliderUpperValue != rangeSliderUpperValue) {
 
-            if (surfaceTex != null) {
-                surfaceTex.delete(gl);
-            }
-            if (legendTex != null) {
-                legendTex.delete(gl);
-            }
-
             // re-build the textures
             String varName = settings.getSelectedVariableName();
             String colorMap = settings.getSelectedColormapName();
@@ -406,8 +402,19 @@ public class ColormapExampleGLEventListener extends ESightGLEventListener {
 
             surfaceBuffer.flip();
 
-            surfaceTex = new ByteBufferTexture(GL3.GL_TEXTURE3, surfaceBuffer, NOISE_LONS, NOISE_LATS);
-            surfaceTex.init(gl);
+            if (surfaceTex == null) {
+                surfaceTex = new ByteBufferTexture(GL3.GL_TEXTURE3, surfaceBuffer, NOISE_LONS, NOISE_LATS);
+                surfaceTex.init(gl);
+            } else {
+                // Reuse the storage already on the device
+                surfaceTex.update(gl, surfaceBuffer, 0, 0, NOISE_LONS, NOISE_LATS);
+            }
+
+            cachedColormapIndex = colormapIndex;
+            cachedDataModeIndex = dataModeIndex;
+            cachedVariableindex = variableIndex;
+            cachedRangeSliderLowerValue = rangeSliderLowerValue;
+            cachedRangeSliderUpperValue = rangeSliderUpperValue;
         }
     }
 
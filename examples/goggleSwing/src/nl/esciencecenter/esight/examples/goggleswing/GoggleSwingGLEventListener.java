@@ -11,6 +11,7 @@ import nl.esciencecenter.esight.ESightGLEventListener;
 import nl.esciencecenter.esight.datastructures.FBO;
 import nl.esciencecenter.esight.datastructures.IntPBO;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.math.Color4;
 import nl.esciencecenter.esight.math.MatF4;
@@ -235,15 +236,17 @@ public class GoggleSwingGLEventListener extends ESightGLEventListener {
         // Construct a modelview matrix out of camera viewpoint and angle.
         MatF4 modelViewMatrix = MatrixFMath.lookAt(eye, at, up);
 
+        Camera camera = inputHandler.getCamera();
+
         // Translate the camera backwards according to the inputhandler's view
         // distance setting.
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.translate(new VecF3(0f, 0f, inputHandler.getViewDist())));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.translate(new VecF3(0f, 0f, camera.getViewDist())));
 
         // Rotate tha camera according to the rotation angles defined in the
         // inputhandler.
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationX(inputHandler.getRotation().getX()));
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationY(inputHandler.getRotation().getY()));
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationZ(inputHandler.getRotation().getZ()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationX(camera.getRotationX()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationY(camera.getRotationY()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationZ(camera.getRotationZ()));
 
         // Render the scene with these modelview settings. In this case, the end
         // result of this action will be that the AxesFBO has been filled with
@@ -15,6 +15,7 @@ import nl.esciencecenter.esight.datastructures.InterpolatedGeoGrid;
 import nl.esciencecenter.esight.examples.graphs.DataReader.MapPoint;
 import nl.esciencecenter.esight.exceptions.InverseNotAvailableException;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.math.Color4;
 import nl.esciencecenter.esight.math.MatF4;
@@ -25,6 +26,7 @@ import nl.esciencecenter.esight.math.VecF4;
 import nl.esciencecenter.esight.models.Axis;
 import nl.esciencecenter.esight.models.Model;
 import nl.esciencecenter.esight.models.graphs.BezierGraph2D;
+import nl.esciencecenter.esight.models.graphs.DensityGrid;
 import nl.esciencecenter.esight.models.graphs.Histogram2D;
 import nl.esciencecenter.esight.models.graphs.LineGraph2D;
 import nl.esciencecenter.esight.models.graphs.ScatterPlot3D;
@@ -64,7 +66,8 @@ public class GraphsGLEventListener extends ESightGLEventListener {
     private final static Logger LOGGER = LoggerFactory.getLogger(GraphsGLEventListener.class);
 
     // Two example shader program definitions.
-    private ShaderProgram axesShaderProgram, textShaderProgram, lineShaderProgram;
+    private ShaderProgram axesShaderProgram, textShaderProgram, lineShaderProgram, histogramShaderProgram,
+            densityShaderProgram;
 
     // Model definitions, the quad is necessary for Full-screen rendering. The
     // axes are the model we wish to render (example)
@@ -82,6 +85,7 @@ public class GraphsGLEventListener extends ESightGLEventListener {
     private VisualGrid visualGrid;
 
     private ScatterPlot3D scat;
+    private DensityGrid scatDensity;
 
     // Global (singleton) settings instance.
     private final GraphsSettings settings = GraphsSettings.getInstance();
@@ -185,6 +189,12 @@ public class GraphsGLEventListener extends ESightGLEventListener {
             // Do the same for the line shader
             lineShaderProgram = getLoader().createProgram(gl, "line", new File("shaders/vs_lineShader.vp"),
                     new File("shaders/fs_lineShader.fp"));
+            // And the histogram shader, which draws all bars in one call
+            histogramShaderProgram = getLoader().createProgram(gl, "histogram", new File("shaders/vs_histogram.vp"),
+                    new File("shaders/fs_histogram.fp"));
+            // And the density shader, for scatterplots with too many points
+            densityShaderProgram = getLoader().createProgram(gl, "density", new File("shaders/vs_density.vp"),
+                    new File("shaders/fs_density.fp"));
 
             // Same for the postprocessing shader.
             // postprocessShader = getLoader().createProgram(gl, "postProcess",
@@ -228,8 +238,7 @@ public class GraphsGLEventListener extends ESightGLEventListener {
                 MapPoint mp = dr.getMapPoint();
 
                 if (mp != null) {
-                    intpGeoGrid.addData(mp.getLatitude() / 180f, mp.getLongitude() / 360f,
-                            new float[] { mp.getHeight() });
+                    intpGeoGrid.addData(mp.getLatitude(), mp.getLongitude(), new float[] { mp.getHeight() });
                 }
 
             } while (dr.next());
@@ -239,14 +248,14 @@ public class GraphsGLEventListener extends ESightGLEventListener {
             if (gridifiedData != null) {
                 VecF4[][] points = new VecF4[GRID_HEIGHT][GRID_WIDTH], colors = new VecF4[GRID_HEIGHT][GRID_WIDTH];
 
-                Dimensions dims = new Dimensions(0f, 1f);
+                Dimensions dims = new Dimensions(intpGeoGrid.getMin(0), intpGeoGrid.getMax(0));
 
                 for (int latIndex = 0; latIndex < GRID_HEIGHT; latIndex++) {
                     for (int lonIndex = 0; lonIndex < GRID_WIDTH; lonIndex++) {
                         points[latIndex][lonIndex] = new VecF4((float) latIndex / (float) GRID_HEIGHT, 0f,
                                 (float) lonIndex / (float) GRID_WIDTH, 1f);
 
-                        int visualIndex = latIndex * GRID_HEIGHT + lonIndex;
+                        int visualIndex = latIndex * GRID_WIDTH + lonIndex;
                         float[] gridPointData = gridifiedData[visualIndex];
 
                         Color swingColor = ColormapInterpreter.getColor("hotres", dims, gridPointData[0], Float.NaN);
@@ -301,6 +310,9 @@ public class GraphsGLEventListener extends ESightGLEventListener {
             bezierGraph.init(gl);
 
             scat = new ScatterPlot3D();
+            // Past a million points, draw the scatterplot as a density grid.
+            scatDensity = new DensityGrid(256, 256, 64, GL3.GL_TEXTURE1);
+            scat.setAggregation(scatDensity, 1000000);
 
             dr = new DataReader();
         } catch (FileNotFoundException e) {
@@ -336,16 +348,19 @@ public class GraphsGLEventListener extends ESightGLEventListener {
         // Construct a modelview matrix out of camera viewpoint and angle.
         MatF4 modelViewMatrix = MatrixFMath.lookAt(eye, at, up);
 
+        Camera camera = inputHandler.getCamera();
+        VecF3 translation = inputHandler.getTranslation();
+
         // Translate the camera backwards according to the inputhandler's view
         // distance setting.
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.translate(new VecF3(inputHandler.getTranslation().getX(),
-                inputHandler.getTranslation().getY(), inputHandler.getViewDist())));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.translate(new VecF3(translation.getX(),
+                translation.getY(), camera.getViewDist())));
 
         // Rotate tha camera according to the rotation angles defined in the
         // inputhandler.
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationX(inputHandler.getRotation().getX()));
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationY(inputHandler.getRotation().getY()));
-        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationZ(inputHandler.getRotation().getZ()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationX(camera.getRotationX()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationY(camera.getRotationY()));
+        modelViewMatrix = modelViewMatrix.mul(MatrixFMath.rotationZ(camera.getRotationZ()));
 
         // Render the scene with these modelview settings. In this case, the end
         // result of this action will be that the AxesFBO has been filled with
@@ -405,7 +420,7 @@ public class GraphsGLEventListener extends ESightGLEventListener {
 
             renderVisualGrid(gl, mv, textShaderProgram);
 
-            renderHistogram(gl, mv, axesShaderProgram);
+            renderHistogram(gl, mv, histogramShaderProgram);
             textShaderProgram.setUniformMatrix("PMatrix", makePerspectiveMatrix());
             hist.drawLabels(gl, mv.mul(MatrixFMath.translate(1, 0, 0)), textShaderProgram);
 
@@ -581,15 +596,6 @@ public class GraphsGLEventListener extends ESightGLEventListener {
      * @throws UninitializedException
      */
     private void renderScatterplot(GL3 gl, MatF4 mv, ShaderProgram program) throws UninitializedException {
-        // Stage the Perspective and Modelview matrixes in the ShaderProgram.
-        program.setUniformMatrix("PMatrix", makePerspectiveMatrix());
-        program.setUniformMatrix("MVMatrix",
-                mv.mul(MatrixFMath.translate(0, 0, 1).mul(MatrixFMath.rotationY(90)).mul(MatrixFMath.rotationZ(180))));
-
-        // Load all staged variables into the GPU, check for errors and
-        // omissions.
-        program.use(gl);
-
         MapPoint mp = dr.getMapPoint();
 
         if (mp != null) {
@@ -618,7 +624,10 @@ public class GraphsGLEventListener extends ESightGLEventListener {
             scat.init(gl);
         }
 
-        scat.draw(gl, program);
+        // The scatterplot stages the Perspective and Modelview matrixes in
+        // whichever ShaderProgram it draws with.
+        scat.draw(gl, program, densityShaderProgram, makePerspectiveMatrix(),
+                mv.mul(MatrixFMath.translate(0, 0, 1).mul(MatrixFMath.rotationY(90)).mul(MatrixFMath.rotationZ(180))));
     }
 
     /**
@@ -1,5 +1,6 @@
 package nl.esciencecenter.esight.examples.graphs;
 
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.math.VecF3;
 
@@ -243,6 +244,16 @@ public class GraphsInputHandler extends InputHandler implements MouseListener, K
         this.viewDist = viewDist;
     }
 
+    /**
+     * Getter for a snapshot of the current rotation and view distance.
+     * 
+     * @return the current camera.
+     */
+    @Override
+    public Camera getCamera() {
+        return new Camera(rotation, viewDist);
+    }
+
     public static PickRequest doPick() {
         PickRequest tmp = pickRequest;
         pickRequest = null;
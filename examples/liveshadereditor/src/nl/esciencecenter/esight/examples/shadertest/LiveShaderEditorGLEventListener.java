@@ -12,6 +12,7 @@ import nl.esciencecenter.esight.ESightGLEventListener;
 import nl.esciencecenter.esight.datastructures.FBO;
 import nl.esciencecenter.esight.exceptions.CompilationFailedException;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.math.Color4;
 import nl.esciencecenter.esight.math.MatF3;
 import nl.esciencecenter.esight.math.MatF4;
@@ -119,9 +120,10 @@ public class LiveShaderEditorGLEventListener extends ESightGLEventListener {
         final VecF4 up = new VecF4(0.0f, 1.0f, 0.0f, 0.0f);
 
         MatF4 mv = MatrixFMath.lookAt(eye, at, up);
-        mv = mv.mul(MatrixFMath.translate(new VecF3(0f, 0f, inputHandler.getViewDist())));
-        mv = mv.mul(MatrixFMath.rotationX(inputHandler.getRotation().getX()));
-        mv = mv.mul(MatrixFMath.rotationY(inputHandler.getRotation().getY()));
+        Camera camera = inputHandler.getCamera();
+        mv = mv.mul(MatrixFMath.translate(new VecF3(0f, 0f, camera.getViewDist())));
+        mv = mv.mul(MatrixFMath.rotationX(camera.getRotationX()));
+        mv = mv.mul(MatrixFMath.rotationY(camera.getRotationY()));
 
         // Vertex shader variables
 
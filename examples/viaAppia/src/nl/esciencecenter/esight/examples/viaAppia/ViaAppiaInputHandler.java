@@ -1,5 +1,6 @@
 package nl.esciencecenter.esight.examples.viaAppia;
 
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.math.VecF3;
 
@@ -248,6 +249,16 @@ public class ViaAppiaInputHandler extends InputHandler implements MouseListener,
         this.viewDist = viewDist;
     }
 
+    /**
+     * Getter for a snapshot of the current rotation and view distance.
+     * 
+     * @return the current camera.
+     */
+    @Override
+    public Camera getCamera() {
+        return new Camera(rotation, viewDist);
+    }
+
     public static PickRequest doPick() {
         PickRequest tmp = pickRequest;
         pickRequest = null;
@@ -0,0 +1,11 @@
+#version 140
+
+in vec2 tCoord;
+
+uniform sampler2D density_map;
+
+out vec4 fragColor;
+
+void main() {
+    fragColor = texture(density_map, tCoord);
+}
@@ -0,0 +1,46 @@
+#version 140
+
+in vec4 vColor;
+in vec3 vEyeCenter;
+in float vRadius;
+
+uniform mat4 PMatrix;
+// (x, y, width, height) of the viewport, in pixels.
+uniform vec4 Viewport;
+
+out vec4 fragColor;
+
+const vec3 lightDirection = vec3(0.3713907, 0.5570860, 0.7427813);
+
+void main() {
+    // The ray from the eye through this fragment, in eye space, by undoing
+    // the perspective division of a projection of the glFrustum form.
+    vec2 ndc = (gl_FragCoord.xy - Viewport.xy) / Viewport.zw * 2.0 - 1.0;
+    vec3 ray = normalize(vec3((ndc.x + PMatrix[2][0]) / PMatrix[0][0], (ndc.y + PMatrix[2][1]) / PMatrix[1][1],
+            -1.0));
+
+    // Solve |t * ray - center| = radius for the nearest t.
+    float b = dot(ray, vEyeCenter);
+    float c = dot(vEyeCenter, vEyeCenter) - vRadius * vRadius;
+    float discriminant = b * b - c;
+    if (discriminant < 0.0 || c < 0.0) {
+        // The ray misses the sphere, or the eye is inside it.
+        discard;
+    }
+    float t = b - sqrt(discriminant);
+    if (t <= 0.0) {
+        discard;
+    }
+
+    vec3 hit = ray * t;
+    vec3 normal = (hit - vEyeCenter) / vRadius;
+
+    vec4 clip = PMatrix * vec4(hit, 1.0);
+    float ndcDepth = clip.z / clip.w;
+    gl_FragDepth = (gl_DepthRange.diff * ndcDepth + gl_DepthRange.near + gl_DepthRange.far) * 0.5;
+
+    float diffuse = max(dot(normal, lightDirection), 0.0);
+    float specular = pow(max(dot(normal, normalize(lightDirection - ray)), 0.0), 32.0);
+
+    fragColor = vec4(vColor.rgb * (0.2 + 0.8 * diffuse) + vec3(0.3 * specular), vColor.a);
+}
@@ -0,0 +1,18 @@
+#version 140
+
+in vec2 tCoord;
+in vec4 vColor;
+
+uniform sampler2D atlas_map;
+
+out vec4 fragColor;
+
+void main (void)
+{
+    // 0.5 is the glyph outline, smooth over about one screen pixel.
+    float distance = texture(atlas_map, tCoord).r;
+    float smoothing = max(fwidth(distance) * 0.75, 0.0001);
+    float alpha = smoothstep(0.5 - smoothing, 0.5 + smoothing, distance);
+
+    fragColor = vec4(vColor.rgb, vColor.a * alpha);
+}
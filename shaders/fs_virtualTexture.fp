@@ -0,0 +1,25 @@
+#version 140
+
+in vec2 tCoord;
+
+uniform sampler2D atlas_map;
+uniform sampler2D indirection_map;
+
+uniform vec2 ImageSize;
+uniform vec2 IndirectionSize;
+uniform float TileSize;
+uniform float AtlasSize;
+
+out vec4 fragColor;
+
+void main() {
+    // Position in level 0 tiles, and the resident tile covering it.
+    vec2 tiles = tCoord * ImageSize / TileSize;
+    vec4 page = texture(indirection_map, tiles / IndirectionSize);
+
+    // Position within that (possibly coarser) tile, kept half a texel away
+    // from its borders so neighbouring atlas slots do not bleed in.
+    vec2 inTile = clamp(fract(tiles * page.z), 0.5 / TileSize, 1.0 - 0.5 / TileSize);
+
+    fragColor = vec4(texture(atlas_map, page.xy + inTile * TileSize / AtlasSize).rgb, 1.0);
+}
@@ -0,0 +1,45 @@
+#version 150
+
+// Widens every segment of the edges into a quad of the edge's width in
+// pixels, as core profiles do not support wide lines.
+layout(lines) in;
+layout(triangle_strip, max_vertices = 4) out;
+
+uniform vec2 ViewportSize;
+
+in vec4 vColor[2];
+in float vWidth[2];
+
+out vec4 gColor;
+
+void main() {
+    vec4 p0 = gl_in[0].gl_Position;
+    vec4 p1 = gl_in[1].gl_Position;
+
+    // The direction of the segment on screen, in pixels.
+    vec2 screen0 = p0.xy / p0.w * ViewportSize;
+    vec2 screen1 = p1.xy / p1.w * ViewportSize;
+    vec2 direction = screen1 - screen0;
+    if (dot(direction, direction) < 1e-12) {
+        direction = vec2(1.0, 0.0);
+    }
+    vec2 normal = normalize(vec2(-direction.y, direction.x));
+
+    // Half the width on either side, back in clip space.
+    vec2 offset0 = normal * vWidth[0] / ViewportSize * p0.w;
+    vec2 offset1 = normal * vWidth[1] / ViewportSize * p1.w;
+
+    gColor = vColor[0];
+    gl_Position = vec4(p0.xy + offset0, p0.zw);
+    EmitVertex();
+    gl_Position = vec4(p0.xy - offset0, p0.zw);
+    EmitVertex();
+
+    gColor = vColor[1];
+    gl_Position = vec4(p1.xy + offset1, p1.zw);
+    EmitVertex();
+    gl_Position = vec4(p1.xy - offset1, p1.zw);
+    EmitVertex();
+
+    EndPrimitive();
+}
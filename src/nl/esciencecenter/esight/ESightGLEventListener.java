@@ -7,6 +7,7 @@ import javax.media.opengl.GLEventListener;
 import javax.media.opengl.GLException;
 
 import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.input.Camera;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.math.MatF4;
 import nl.esciencecenter.esight.math.MatrixFMath;
@@ -76,7 +77,7 @@ public abstract class ESightGLEventListener implements GLEventListener {
     /** Ubuntu fontset is used for HUD elements */
     private static final int          fontSet = FontFactory.UBUNTU;
     /** font is used for HUD elements @see fontSet */
-    private final Font                font;
+    private Font                      font;
 
     /**
      * This variable is used (among others) in the lookAt helper function to
@@ -108,7 +109,7 @@ public abstract class ESightGLEventListener implements GLEventListener {
      */
     public ESightGLEventListener() {
         this.loader = new ShaderProgramLoader();
-        this.font = FontFactory.get(fontSet).getDefault();
+        FontFactory.preload(fontSet);
     }
 
     /**
@@ -120,7 +121,7 @@ public abstract class ESightGLEventListener implements GLEventListener {
      */
     public ESightGLEventListener(InputHandler inputHandler) {
         this.loader = new ShaderProgramLoader();
-        this.font = FontFactory.get(fontSet).getDefault();
+        FontFactory.preload(fontSet);
 
         this.inputHandler = inputHandler;
     }
@@ -214,9 +215,10 @@ public abstract class ESightGLEventListener implements GLEventListener {
             mv = mv.mul(MatrixFMath.rotationX(inputRotationX));
             mv = mv.mul(MatrixFMath.rotationY(inputRotationY));
         } else {
-            mv = mv.mul(MatrixFMath.translate(new VecF3(0f, 0f, inputHandler.getViewDist())));
-            mv = mv.mul(MatrixFMath.rotationX(inputHandler.getRotation().getX()));
-            mv = mv.mul(MatrixFMath.rotationY(inputHandler.getRotation().getY()));
+            Camera camera = inputHandler.getCamera();
+            mv = mv.mul(MatrixFMath.translate(new VecF3(0f, 0f, camera.getViewDist())));
+            mv = mv.mul(MatrixFMath.rotationX(camera.getRotationX()));
+            mv = mv.mul(MatrixFMath.rotationY(camera.getRotationY()));
         }
 
         return mv;
@@ -369,7 +371,16 @@ public abstract class ESightGLEventListener implements GLEventListener {
         return zFar;
     }
 
-    public Font getFont() {
+    /**
+     * Getter for the HUD font. The font is parsed in the background from the
+     * moment this listener is constructed, this waits for that to finish.
+     * 
+     * @return the font.
+     */
+    public synchronized Font getFont() {
+        if (font == null) {
+            font = FontFactory.get(fontSet).getDefault();
+        }
         return font;
     }
 }
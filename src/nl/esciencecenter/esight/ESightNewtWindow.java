@@ -1,5 +1,6 @@
 package nl.esciencecenter.esight;
 
+import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLCapabilities;
 import javax.media.opengl.GLEventListener;
 import javax.media.opengl.GLProfile;
@@ -7,6 +8,13 @@ import javax.media.opengl.GLProfile;
 import nl.esciencecenter.esight.input.InputHandler;
 import nl.esciencecenter.esight.util.QuitListener;
 
+import com.jogamp.newt.event.KeyAdapter;
+import com.jogamp.newt.event.KeyEvent;
+import com.jogamp.newt.event.MouseAdapter;
+import com.jogamp.newt.event.MouseEvent;
+import com.jogamp.newt.event.WindowAdapter;
+import com.jogamp.newt.event.WindowEvent;
+import com.jogamp.newt.event.WindowUpdateEvent;
 import com.jogamp.newt.opengl.GLWindow;
 import com.jogamp.opengl.util.Animator;
 
@@ -32,6 +40,9 @@ import com.jogamp.opengl.util.Animator;
  * 
  */
 public class ESightNewtWindow {
+    /** The scheduler for on-demand rendering, null when rendering continuously */
+    private RenderScheduler scheduler;
+
     /**
      * Constructor for this class. Sets up the window and enables common
      * features like anti-aliasing and hardware acceleration.
@@ -51,8 +62,36 @@ public class ESightNewtWindow {
      * @param windowTitle
      *            The window title.
      */
-    public ESightNewtWindow(boolean forceGL2ES2, InputHandler inputHandler, final GLEventListener glEventListener,
+    public ESightNewtWindow(boolean forceGL2ES2, final InputHandler inputHandler, final GLEventListener glEventListener,
             int width, int height, String windowTitle) {
+        this(forceGL2ES2, inputHandler, glEventListener, width, height, windowTitle, false);
+    }
+
+    /**
+     * Constructor for this class. Sets up the window and enables common
+     * features like anti-aliasing and hardware acceleration.
+     * 
+     * @param forceGL2ES2
+     *            Force GL2ES2 support (default on), currently Unused
+     * @param inputHandler
+     *            A predefined InputHandler that is added as event handler for
+     *            input events.
+     * @param glEventListener
+     *            A predefined GLEventListener that is added as event handler
+     *            for openGL events.
+     * @param width
+     *            The initial window width.
+     * @param height
+     *            The initial window height.
+     * @param windowTitle
+     *            The window title.
+     * @param onDemand
+     *            If true, the window is only redrawn when input arrives or a
+     *            redraw is requested through {@link #getScheduler()}. If
+     *            false, the window is redrawn continuously.
+     */
+    public ESightNewtWindow(boolean forceGL2ES2, final InputHandler inputHandler, final GLEventListener glEventListener,
+            int width, int height, String windowTitle, boolean onDemand) {
 
         GLProfile.initSingleton();
 
@@ -72,6 +111,30 @@ public class ESightNewtWindow {
 
         GLWindow window = GLWindow.create(caps);
 
+        // Listeners are called in order, so this applies the queued input at
+        // the start of every frame. Whether that moved the camera is kept in
+        // the input handler, see InputHandler#isCameraChanged().
+        window.addGLEventListener(new GLEventListener() {
+            @Override
+            public void init(GLAutoDrawable drawable) {
+                // Nothing to do
+            }
+
+            @Override
+            public void display(GLAutoDrawable drawable) {
+                inputHandler.applyInput();
+            }
+
+            @Override
+            public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+                // Nothing to do
+            }
+
+            @Override
+            public void dispose(GLAutoDrawable drawable) {
+                // Nothing to do
+            }
+        });
         window.addGLEventListener(glEventListener);
         window.addWindowListener(new QuitListener());
         window.setAutoSwapBufferMode(true);
@@ -80,12 +143,77 @@ public class ESightNewtWindow {
         window.addMouseListener(inputHandler);
         window.addKeyListener(inputHandler);
 
-        Animator animator = new Animator();
-        animator.add(window);
-        animator.start();
-        animator.setUpdateFPSFrames(60, null);
+        if (onDemand) {
+            scheduler = new RenderScheduler(window);
+            addRedrawTriggers(window, scheduler);
+            window.setVisible(true);
+            scheduler.start();
+        } else {
+            Animator animator = new Animator();
+            animator.add(window);
+            animator.start();
+            animator.setUpdateFPSFrames(60, null);
 
-        window.setVisible(true);
+            window.setVisible(true);
+        }
+
+    }
+
+    /**
+     * Redraws the window after every input event, resize or expose.
+     */
+    private static void addRedrawTriggers(GLWindow window, final RenderScheduler scheduler) {
+        window.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                scheduler.requestRedraw();
+            }
 
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                scheduler.requestRedraw();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                scheduler.requestRedraw();
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseEvent e) {
+                scheduler.requestRedraw();
+            }
+        });
+        window.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                scheduler.requestRedraw();
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+                scheduler.requestRedraw();
+            }
+        });
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowResized(WindowEvent e) {
+                scheduler.requestRedraw();
+            }
+
+            @Override
+            public void windowRepaint(WindowUpdateEvent e) {
+                scheduler.requestRedraw();
+            }
+        });
+    }
+
+    /**
+     * Getter for the scheduler that redraws this window on demand.
+     * 
+     * @return the scheduler, or null if this window is redrawn continuously.
+     */
+    public RenderScheduler getScheduler() {
+        return scheduler;
     }
 }
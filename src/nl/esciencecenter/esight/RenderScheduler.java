@@ -0,0 +1,267 @@
+package nl.esciencecenter.esight;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.media.opengl.GLAutoDrawable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Replacement for a free-running Animator that only redraws when something
+ * changed. Input handlers, models, data loaders and settings call
+ * {@link #requestRedraw()} (or {@link #requestRedrawAll()} when they have no
+ * reference to the scheduler), after which the drawable is redrawn once.
+ * While an animation runs, or in continuous mode, the drawable is redrawn
+ * every frame. An optional frame rate cap applies in all modes.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class RenderScheduler implements Runnable {
+    private final static Logger logger = LoggerFactory.getLogger(RenderScheduler.class);
+
+    /** Source of time and of sleep, replaced by tests */
+    interface Clock {
+        long nanoTime();
+
+        void sleep(long nanos) throws InterruptedException;
+    }
+
+    private static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        }
+    };
+
+    /** All running schedulers, for {@link #requestRedrawAll()} */
+    private static final List<RenderScheduler> schedulers = new CopyOnWriteArrayList<RenderScheduler>();
+
+    private final GLAutoDrawable drawable;
+    private final Clock clock;
+    private final Object lock = new Object();
+
+    /** Guarded by lock */
+    private boolean dirty = true;
+    private boolean continuous = false;
+    private int animations = 0;
+    private boolean running = false;
+    /** Whether the thread waits for something to draw */
+    private boolean waiting = false;
+
+    /** The minimum time between two frames, in nanoseconds */
+    private volatile long minFrameInterval = 0L;
+
+    private Thread thread;
+    private volatile long frames = 0L;
+
+    /**
+     * Constructor.
+     *
+     * @param drawable
+     *            The drawable to redraw.
+     */
+    public RenderScheduler(GLAutoDrawable drawable) {
+        this(drawable, SYSTEM_CLOCK);
+    }
+
+    RenderScheduler(GLAutoDrawable drawable, Clock clock) {
+        this.drawable = drawable;
+        this.clock = clock;
+    }
+
+    /**
+     * Starts scheduling redraws, on a thread of its own. The first frame is
+     * drawn right away.
+     */
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            dirty = true;
+        }
+        schedulers.add(this);
+
+        thread = new Thread(this, "Render scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops scheduling redraws, after the frame in progress.
+     */
+    public void stop() {
+        schedulers.remove(this);
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Marks the scene as changed, so it is redrawn as soon as the frame rate
+     * cap allows. May be called from any thread.
+     */
+    public void requestRedraw() {
+        synchronized (lock) {
+            if (!dirty) {
+                dirty = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Marks the scene of every running scheduler as changed. For models, data
+     * loaders and settings that do not know which window shows them.
+     */
+    public static void requestRedrawAll() {
+        for (RenderScheduler scheduler : schedulers) {
+            scheduler.requestRedraw();
+        }
+    }
+
+    /**
+     * Tells the scheduler an animation started. The drawable is redrawn every
+     * frame until every started animation has been stopped again.
+     */
+    public void startAnimation() {
+        synchronized (lock) {
+            animations++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Tells the scheduler an animation stopped.
+     */
+    public void stopAnimation() {
+        synchronized (lock) {
+            if (animations > 0) {
+                animations--;
+            }
+            // Draw the final state of the animation.
+            dirty = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Setter for continuous mode, in which the drawable is redrawn every frame
+     * like the Animator does.
+     *
+     * @param continuous
+     *            true to redraw every frame, false to redraw on demand.
+     */
+    public void setContinuous(boolean continuous) {
+        synchronized (lock) {
+            this.continuous = continuous;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Setter for the frame rate cap.
+     *
+     * @param framesPerSecond
+     *            The maximum number of frames per second, 0 or less for no
+     *            cap.
+     */
+    public void setMaxFrameRate(float framesPerSecond) {
+        if (framesPerSecond > 0f) {
+            minFrameInterval = (long) (1000000000L / framesPerSecond);
+        } else {
+            minFrameInterval = 0L;
+        }
+    }
+
+    /**
+     * Getter for the number of frames drawn so far.
+     *
+     * @return the number of frames.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Waits until the scheduler has drawn every frame requested so far and
+     * waits for the next request, or has stopped.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (lock) {
+            while (running && !(waiting && !frameDue())) {
+                lock.wait();
+            }
+        }
+    }
+
+    /** Guarded by lock */
+    private boolean frameDue() {
+        return dirty || continuous || animations > 0;
+    }
+
+    @Override
+    public void run() {
+        long lastFrame = 0L;
+        try {
+            while (true) {
+                synchronized (lock) {
+                    waiting = true;
+                    lock.notifyAll();
+                    while (running && !frameDue()) {
+                        lock.wait();
+                    }
+                    waiting = false;
+                    if (!running) {
+                        return;
+                    }
+                    dirty = false;
+                }
+
+                long wait = lastFrame + minFrameInterval - clock.nanoTime();
+                if (wait > 0L) {
+                    clock.sleep(wait);
+                }
+
+                lastFrame = clock.nanoTime();
+                try {
+                    drawable.display();
+                    frames++;
+                } catch (RuntimeException e) {
+                    // A broken frame must not stop the frames after it.
+                    logger.error("Frame failed: " + e.getMessage(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Render scheduler interrupted");
+        }
+    }
+}
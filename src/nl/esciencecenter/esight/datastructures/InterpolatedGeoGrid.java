@@ -1,187 +1,836 @@
 package nl.esciencecenter.esight.datastructures;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import nl.esciencecenter.esight.util.WorkerPool;
+
+/**
+ * Interpolates scattered measurements on the globe (stations) onto a regular
+ * latitude/longitude grid with inverse distance weighting. Every cell takes
+ * the weighted average of its k nearest stations, with weights falling off
+ * with the great-circle distance to the power p.
+ * <p>
+ * The stations are indexed with a k-d tree over their positions on the unit
+ * sphere. Straight-line distance through the sphere orders stations the same
+ * as great-circle distance, so the nearest stations are found across the
+ * antimeridian and over the poles without special cases. The rows of the grid
+ * are evaluated in parallel, into one primitive array.
+ * <p>
+ * Cell (latIndex, lonIndex) covers the latitudes from -90 + latIndex * 180 /
+ * height degrees and the longitudes from -180 + lonIndex * 360 / width
+ * degrees, and is evaluated at its center.
+ * <p>
+ * For live data, {@link #refresh} keeps an interpolation up to date
+ * incrementally. Every cell remembers its nearest stations and their weights,
+ * and every tile of {@link #TILE_SIZE} by {@link #TILE_SIZE} cells the
+ * stations its cells depend on. New values of a station
+ * ({@link #updateData}) then only reweigh the tiles depending on it, and
+ * added or removed stations only search the tiles they can affect. The
+ * result is double buffered: the renderer reads {@link #getResult} and
+ * uploads the tiles of {@link #getChangedTiles}, while the next refresh
+ * writes the other buffer.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class InterpolatedGeoGrid {
+    /** The number of rows below which a task is no longer split. */
+    private static final int ROWS_PER_TASK = 4;
 
-import nl.esciencecenter.esight.math.VecF2;
-import nl.esciencecenter.esight.math.VectorFMath;
+    private static final int INITIAL_CAPACITY = 1024;
 
-public class InterpolatedGeoGrid {
-    private class GridPointData {
-        float latitude;
-        float longitude;
-        float[] data;
+    /** The width and height of a tile of the incremental result, in cells. */
+    public static final int TILE_SIZE = 32;
 
-        public GridPointData(float latitude, float longitude, float[] data) {
-            this.latitude = latitude;
-            this.longitude = longitude;
-            this.data = data;
-        }
+    /** What a tile needs before the next refresh */
+    private static final byte CLEAN = 0, REWEIGH = 1, SEARCH = 2;
 
-        public float[] getData() {
-            return data;
+    private final int numberOfLongitudeCoordinates;
+    private final int numberOfLatitudeCoordinates;
+
+    private int neighbours = 4;
+    private float power = 2f;
+
+    /** Station positions on the unit sphere, (x, y, z) per station */
+    private float[] positions = new float[INITIAL_CAPACITY * 3];
+    /** Station data, numDataFields values per station */
+    private float[] stationData = new float[0];
+    private int numStations = 0;
+    private int numDataFields = -1;
+
+    /** Stations removed with {@link #removeData}, which keep their index */
+    private boolean[] removed = new boolean[INITIAL_CAPACITY];
+    private int numRemoved = 0;
+
+    /** The k-d tree: a permutation of the stations, split at the middle of every range */
+    private int[] tree = new int[0];
+    private int treeSize = 0;
+    private byte[] splitAxis = new byte[0];
+    private boolean treeChanged = true;
+
+    /** Cell centers on the unit sphere, per row and per column */
+    private final float[] rowSin, rowCos, columnSin, columnCos;
+
+    /** Bounding balls of the cell centers of every tile */
+    private final int tilesAcross, tilesUp;
+    private final float[] tileCenters, tileRadius;
+
+    /**
+     * The incremental result: the nearest stations of every cell, their
+     * normalized weights and the squared distance of the farthest one, and
+     * the sorted stations and the reach of every tile. Null before the first
+     * refresh.
+     */
+    private int[] cellNeighbours;
+    private float[] cellWeights, cellReach;
+    private int cellK;
+    private int[][] tileStations;
+    private float[] tileReach;
+    private byte[] tileState;
+    private float[] front, back;
+    private int[] changedTiles = new int[0];
+
+    /**
+     * Constructor.
+     *
+     * @param width
+     *            The number of cells along the longitudes.
+     * @param height
+     *            The number of cells along the latitudes.
+     */
+    public InterpolatedGeoGrid(int width, int height) {
+        numberOfLongitudeCoordinates = width;
+        numberOfLatitudeCoordinates = height;
+
+        rowSin = new float[height];
+        rowCos = new float[height];
+        for (int latIndex = 0; latIndex < height; latIndex++) {
+            double latitude = Math.toRadians(-90.0 + (latIndex + 0.5) * 180.0 / height);
+            rowSin[latIndex] = (float) Math.sin(latitude);
+            rowCos[latIndex] = (float) Math.cos(latitude);
+        }
+        columnSin = new float[width];
+        columnCos = new float[width];
+        for (int lonIndex = 0; lonIndex < width; lonIndex++) {
+            double longitude = Math.toRadians(-180.0 + (lonIndex + 0.5) * 360.0 / width);
+            columnSin[lonIndex] = (float) Math.sin(longitude);
+            columnCos[lonIndex] = (float) Math.cos(longitude);
         }
 
-        public float distanceTo(VecF2 targetCoordinates) {
-            VecF2 myCoords = new VecF2(longitude, latitude);
-            float distance = VectorFMath.length(myCoords.sub(targetCoordinates));
+        tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesUp = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tileCenters = new float[tilesAcross * tilesUp * 3];
+        tileRadius = new float[tilesAcross * tilesUp];
+        for (int tile = 0; tile < tileRadius.length; tile++) {
+            int[] region = getTileRegion(tile);
+            float[] center = new float[3];
+            for (int latIndex = region[1]; latIndex < region[1] + region[3]; latIndex++) {
+                for (int lonIndex = region[0]; lonIndex < region[0] + region[2]; lonIndex++) {
+                    center[0] += rowCos[latIndex] * columnCos[lonIndex];
+                    center[1] += rowCos[latIndex] * columnSin[lonIndex];
+                    center[2] += rowSin[latIndex];
+                }
+            }
+            float radius = 0f;
+            for (int c = 0; c < 3; c++) {
+                center[c] /= region[2] * region[3];
+                tileCenters[tile * 3 + c] = center[c];
+            }
+            for (int latIndex = region[1]; latIndex < region[1] + region[3]; latIndex++) {
+                for (int lonIndex = region[0]; lonIndex < region[0] + region[2]; lonIndex++) {
+                    float dx = rowCos[latIndex] * columnCos[lonIndex] - center[0];
+                    float dy = rowCos[latIndex] * columnSin[lonIndex] - center[1];
+                    float dz = rowSin[latIndex] - center[2];
+                    radius = Math.max(radius, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+                }
+            }
+            tileRadius[tile] = radius;
+        }
+    }
 
-            return distance;
+    /**
+     * Adds a station.
+     *
+     * @param lat
+     *            The latitude of the station in degrees.
+     * @param lon
+     *            The longitude of the station in degrees. Any value is wrapped
+     *            around the globe.
+     * @param data
+     *            The values measured at the station. All stations must have
+     *            the same number of values.
+     * @return the index of the station.
+     */
+    public synchronized int addData(float lat, float lon, float[] data) {
+        if (numDataFields < 0) {
+            numDataFields = data.length;
         }
+        checkFields(data);
 
-        public int compareTo(VecF2 targetCoordinates, GridPointData other) {
-            final int BEFORE = -1;
-            final int EQUAL = 0;
-            final int AFTER = 1;
+        if (numStations * 3 == positions.length) {
+            positions = Arrays.copyOf(positions, numStations * 6);
+            removed = Arrays.copyOf(removed, numStations * 2);
+        }
+        if ((numStations + 1) * numDataFields > stationData.length) {
+            stationData = Arrays.copyOf(stationData, Math.max(INITIAL_CAPACITY, numStations * 2) * numDataFields);
+        }
 
-            if (other == null) {
-                return BEFORE;
+        double latitude = Math.toRadians(lat), longitude = Math.toRadians(lon);
+        positions[numStations * 3] = (float) (Math.cos(latitude) * Math.cos(longitude));
+        positions[numStations * 3 + 1] = (float) (Math.cos(latitude) * Math.sin(longitude));
+        positions[numStations * 3 + 2] = (float) Math.sin(latitude);
+        System.arraycopy(data, 0, stationData, numStations * numDataFields, numDataFields);
+
+        treeChanged = true;
+        if (tileState != null) {
+            // Search the tiles with a cell that may now have the station among
+            // its nearest.
+            for (int tile = 0; tile < tileState.length; tile++) {
+                float dx = positions[numStations * 3] - tileCenters[tile * 3];
+                float dy = positions[numStations * 3 + 1] - tileCenters[tile * 3 + 1];
+                float dz = positions[numStations * 3 + 2] - tileCenters[tile * 3 + 2];
+                if (Math.sqrt(dx * dx + dy * dy + dz * dz) <= tileRadius[tile] + tileReach[tile]) {
+                    tileState[tile] = SEARCH;
+                }
             }
+        }
+        return numStations++;
+    }
 
-            if (this == other) {
-                return EQUAL;
-            }
+    private void checkFields(float[] data) {
+        if (data.length != numDataFields) {
+            throw new IllegalArgumentException("Expected " + numDataFields + " values per station, got "
+                    + data.length);
+        }
+    }
 
-            float distanceThis = distanceTo(targetCoordinates);
-            float distanceOther = other.distanceTo(targetCoordinates);
+    private void checkStation(int station) {
+        if (station < 0 || station >= numStations || removed[station]) {
+            throw new IllegalArgumentException("No station " + station);
+        }
+    }
 
-            if (distanceThis < distanceOther) {
-                return BEFORE;
-            } else if (distanceThis > distanceOther) {
-                return AFTER;
-            }
+    /**
+     * Replaces the values measured at a station. Only the tiles depending on
+     * the station are reweighed by the next {@link #refresh}.
+     *
+     * @param station
+     *            The index of the station.
+     * @param data
+     *            The new values.
+     */
+    public synchronized void updateData(int station, float[] data) {
+        checkStation(station);
+        checkFields(data);
+        System.arraycopy(data, 0, stationData, station * numDataFields, numDataFields);
+        markDependents(station, REWEIGH);
+    }
 
-            return EQUAL;
+    /**
+     * Removes a station. The indices of the other stations do not change, and
+     * only the tiles depending on the station are searched again by the next
+     * {@link #refresh}.
+     *
+     * @param station
+     *            The index of the station.
+     */
+    public synchronized void removeData(int station) {
+        checkStation(station);
+        removed[station] = true;
+        numRemoved++;
+        treeChanged = true;
+        markDependents(station, SEARCH);
+    }
+
+    private void markDependents(int station, byte state) {
+        if (tileState != null) {
+            for (int tile = 0; tile < tileState.length; tile++) {
+                if (tileState[tile] < state && Arrays.binarySearch(tileStations[tile], station) >= 0) {
+                    tileState[tile] = state;
+                }
+            }
         }
     }
 
-    private final int numVisualGridPoints;
+    /**
+     * Getter for the number of stations.
+     *
+     * @return the number of stations, not counting removed ones.
+     */
+    public synchronized int getNumStations() {
+        return numStations - numRemoved;
+    }
 
-    private final List<GridPointData> dataGrid;
-    private final int numberOfLongitudeCoordinates;
-    private final int numberOfLatitudeCoordinates;
+    /**
+     * Setter for the number of nearest stations every cell is interpolated
+     * from. Defaults to 4.
+     *
+     * @param neighbours
+     *            The number of stations, at least 1.
+     */
+    public synchronized void setNeighbours(int neighbours) {
+        this.neighbours = Math.max(1, neighbours);
+        markAll(SEARCH);
+    }
 
-    public InterpolatedGeoGrid(int width, int height) {
-        dataGrid = new ArrayList<GridPointData>();
+    /**
+     * Setter for the power of the distance the weights fall off with.
+     * Defaults to 2.
+     *
+     * @param power
+     *            The power, larger for more local interpolation.
+     */
+    public synchronized void setPower(float power) {
+        this.power = power;
+        markAll(SEARCH);
+    }
 
-        numberOfLongitudeCoordinates = width;
-        numberOfLatitudeCoordinates = height;
+    private void markAll(byte state) {
+        if (tileState != null) {
+            Arrays.fill(tileState, state);
+        }
+    }
 
-        numVisualGridPoints = width * height;
+    /**
+     * Getter for the smallest value of a data field over all stations.
+     *
+     * @param field
+     *            The index of the data field.
+     * @return the smallest value.
+     */
+    public synchronized float getMin(int field) {
+        float min = Float.MAX_VALUE;
+        for (int i = 0; i < numStations; i++) {
+            if (!removed[i]) {
+                min = Math.min(min, stationData[i * numDataFields + field]);
+            }
+        }
+        return min;
     }
 
-    public void addData(float lat, float lon, float[] data) {
-        dataGrid.add(new GridPointData(lat, lon, data));
+    /**
+     * Getter for the largest value of a data field over all stations.
+     *
+     * @param field
+     *            The index of the data field.
+     * @return the largest value.
+     */
+    public synchronized float getMax(int field) {
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < numStations; i++) {
+            if (!removed[i]) {
+                max = Math.max(max, stationData[i * numDataFields + field]);
+            }
+        }
+        return max;
     }
 
+    /**
+     * Interpolates all cells.
+     *
+     * @return the values of every cell, per cell index latIndex * width +
+     *         lonIndex, or null if there are no stations.
+     */
     public float[][] calculate() {
-        if (dataGrid.size() > 4) {
-            int numDataFields = dataGrid.get(0).getData().length;
-            float[][] visualGridData = new float[numVisualGridPoints][numDataFields];
-
-            float[] maxes = new float[numDataFields];
-            float[] mins = new float[numDataFields];
-
-            for (int dataIndex = 0; dataIndex < numDataFields; dataIndex++) {
-                maxes[dataIndex] = Float.MIN_VALUE;
-                mins[dataIndex] = Float.MAX_VALUE;
-
-                for (GridPointData gpd : dataGrid) {
-                    for (float singleDataPoint : gpd.getData()) {
-                        if (singleDataPoint > maxes[dataIndex]) {
-                            maxes[dataIndex] = singleDataPoint;
-                        }
-                        if (singleDataPoint < mins[dataIndex]) {
-                            mins[dataIndex] = singleDataPoint;
-                        }
-                    }
+        float[] result = interpolate(null);
+        if (result == null) {
+            return null;
+        }
+
+        float[][] visualGridData = new float[numberOfLatitudeCoordinates * numberOfLongitudeCoordinates][];
+        for (int cell = 0; cell < visualGridData.length; cell++) {
+            visualGridData[cell] = Arrays.copyOfRange(result, cell * numDataFields, (cell + 1) * numDataFields);
+        }
+        return visualGridData;
+    }
+
+    /**
+     * Interpolates all cells into one array.
+     *
+     * @param result
+     *            The array to write into, or null to allocate one. It is
+     *            reused if it is large enough.
+     * @return the values of all cells, the numDataFields values of cell
+     *         latIndex * width + lonIndex from that index times numDataFields
+     *         on, or null if there are no stations.
+     */
+    public synchronized float[] interpolate(float[] result) {
+        if (getNumStations() == 0) {
+            return null;
+        }
+        int size = numberOfLatitudeCoordinates * numberOfLongitudeCoordinates * numDataFields;
+        if (result == null || result.length < size) {
+            result = new float[size];
+        }
+
+        buildTree();
+        WorkerPool.get().invoke(new RowTask(result, 0, numberOfLatitudeCoordinates));
+        return result;
+    }
+
+    private void buildTree() {
+        if (treeChanged) {
+            treeSize = numStations - numRemoved;
+            tree = new int[treeSize];
+            splitAxis = new byte[treeSize];
+            int next = 0;
+            for (int i = 0; i < numStations; i++) {
+                if (!removed[i]) {
+                    tree[next++] = i;
                 }
             }
+            build(0, treeSize);
+            treeChanged = false;
+        }
+    }
 
-            for (int latIndex = 0; latIndex < numberOfLatitudeCoordinates; latIndex++) {
-                float gridPointLatitude = (float) latIndex / (float) numberOfLatitudeCoordinates;
+    /**
+     * Builds the subtree of a range of the tree: the station in the middle
+     * splits the others along the axis with the largest spread.
+     */
+    private void build(int start, int end) {
+        if (end - start < 2) {
+            return;
+        }
 
-                for (int lonIndex = 0; lonIndex < numberOfLongitudeCoordinates; lonIndex++) {
-                    int visualIndex = latIndex * numberOfLatitudeCoordinates + lonIndex;
+        float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (int i = start; i < end; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                float v = positions[tree[i] * 3 + axis];
+                min[axis] = Math.min(min[axis], v);
+                max[axis] = Math.max(max[axis], v);
+            }
+        }
+        int axis = 0;
+        for (int a = 1; a < 3; a++) {
+            if (max[a] - min[a] > max[axis] - min[axis]) {
+                axis = a;
+            }
+        }
 
-                    float gridPointLongitude = (float) lonIndex / (float) numberOfLongitudeCoordinates;
-                    VecF2 targetCoordinates = new VecF2(gridPointLongitude, gridPointLatitude);
+        int middle = (start + end) >>> 1;
+        select(start, end - 1, middle, axis);
+        splitAxis[middle] = (byte) axis;
 
-                    GridPointData[] closestDataPoints = determineClosestData(targetCoordinates);
+        build(start, middle);
+        build(middle + 1, end);
+    }
 
-                    float[] weightedAverages = dataWeigthedAverages(targetCoordinates, closestDataPoints);
-                    for (int dataIndex = 0; dataIndex < numDataFields; dataIndex++) {
-                        float diff = maxes[dataIndex] - mins[dataIndex];
-                        visualGridData[visualIndex][dataIndex] = (weightedAverages[dataIndex] / diff) + mins[dataIndex];
-                    }
+    /** Quickselect: puts the k-th station along the axis at position k. */
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            float pivot = positions[tree[(left + right) >>> 1] * 3 + axis];
+            int i = left, j = right;
+            while (i <= j) {
+                while (positions[tree[i] * 3 + axis] < pivot) {
+                    i++;
+                }
+                while (positions[tree[j] * 3 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = swap;
+                    i++;
+                    j--;
                 }
             }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the nearest stations to a point on the unit sphere.
+     *
+     * @param x
+     *            The x coordinate of the point.
+     * @param y
+     *            The y coordinate of the point.
+     * @param z
+     *            The z coordinate of the point.
+     * @param nearest
+     *            Receives the stations, nearest first.
+     * @param distances
+     *            Receives the squared straight-line distances of the
+     *            stations.
+     * @return the number of stations found, the smaller of the number of
+     *         stations and the length of nearest.
+     */
+    private int findNearest(float x, float y, float z, int[] nearest, float[] distances) {
+        Arrays.fill(distances, Float.MAX_VALUE);
+        return search(x, y, z, 0, treeSize, nearest, distances, 0);
+    }
 
-            return visualGridData;
+    private int search(float x, float y, float z, int start, int end, int[] nearest, float[] distances, int found) {
+        if (start >= end) {
+            return found;
         }
 
-        return null;
+        int middle = (start + end) >>> 1;
+        int station = tree[middle];
+        float dx = positions[station * 3] - x;
+        float dy = positions[station * 3 + 1] - y;
+        float dz = positions[station * 3 + 2] - z;
+        float distance = dx * dx + dy * dy + dz * dz;
+
+        int k = nearest.length;
+        if (found < k || distance < distances[k - 1]) {
+            // Insert into the sorted list of the nearest stations so far.
+            int i = Math.min(found, k - 1);
+            while (i > 0 && distances[i - 1] > distance) {
+                distances[i] = distances[i - 1];
+                nearest[i] = nearest[i - 1];
+                i--;
+            }
+            distances[i] = distance;
+            nearest[i] = station;
+            found = Math.min(found + 1, k);
+        }
+
+        if (end - start == 1) {
+            return found;
+        }
+
+        int axis = splitAxis[middle];
+        float q = axis == 0 ? x : axis == 1 ? y : z;
+        float split = positions[station * 3 + axis] - q;
+        if (split > 0f) {
+            found = search(x, y, z, start, middle, nearest, distances, found);
+            if (found < k || split * split < distances[k - 1]) {
+                found = search(x, y, z, middle + 1, end, nearest, distances, found);
+            }
+        } else {
+            found = search(x, y, z, middle + 1, end, nearest, distances, found);
+            if (found < k || split * split < distances[k - 1]) {
+                found = search(x, y, z, start, middle, nearest, distances, found);
+            }
+        }
+        return found;
     }
 
-    private float[] dataWeigthedAverages(VecF2 targetCoordinates, GridPointData[] input) {
-        int numDataFields = input[0].getData().length;
+    /**
+     * Finds the stations nearest to a location.
+     *
+     * @param lat
+     *            The latitude in degrees.
+     * @param lon
+     *            The longitude in degrees.
+     * @param k
+     *            The number of stations to find.
+     * @return the indices of the stations, nearest first.
+     */
+    synchronized int[] nearest(float lat, float lon, int k) {
+        buildTree();
+        double latitude = Math.toRadians(lat), longitude = Math.toRadians(lon);
+        int[] nearest = new int[Math.min(k, treeSize)];
+        findNearest((float) (Math.cos(latitude) * Math.cos(longitude)),
+                (float) (Math.cos(latitude) * Math.sin(longitude)), (float) Math.sin(latitude), nearest,
+                new float[nearest.length]);
+        return nearest;
+    }
 
-        float totalValue;
-        float totalWeight;
-        float weightedAverages[] = new float[numDataFields];
+    /**
+     * Computes the normalized weights of the nearest stations of a cell.
+     *
+     * @param distances
+     *            The squared straight-line distances of the stations to the
+     *            cell, nearest first.
+     * @param found
+     *            The number of stations.
+     * @param weights
+     *            Receives the weights.
+     * @param offset
+     *            The index of the first weight.
+     */
+    private void weights(float[] distances, int found, float[] weights, int offset) {
+        // A station in the cell center determines it completely.
+        if (distances[0] < 1E-12f) {
+            Arrays.fill(weights, offset, offset + found, 0f);
+            weights[offset] = 1f;
+            return;
+        }
+
+        float totalWeight = 0f;
+        for (int i = 0; i < found; i++) {
+            // The great-circle distance from the chord length.
+            double angle = 2.0 * Math.asin(Math.min(1.0, Math.sqrt(distances[i]) * 0.5));
+            float weight = (float) (power == 2f ? 1.0 / (angle * angle) : Math.pow(angle, -power));
+            weights[offset + i] = weight;
+            totalWeight += weight;
+        }
+        for (int i = 0; i < found; i++) {
+            weights[offset + i] /= totalWeight;
+        }
+    }
 
-        for (int i = 0; i < numDataFields; i++) {
-            totalValue = 0f;
-            totalWeight = 0f;
+    /**
+     * Interpolates one cell from its stations and their weights.
+     *
+     * @param stations
+     *            The stations, -1 for none.
+     * @param weights
+     *            The normalized weights of the stations.
+     * @param from
+     *            The index of the first station and weight.
+     * @param count
+     *            The number of stations.
+     * @param result
+     *            The array to write into.
+     * @param offset
+     *            The index of the first value of the cell in the result.
+     */
+    private void weigh(int[] stations, float[] weights, int from, int count, float[] result, int offset) {
+        Arrays.fill(result, offset, offset + numDataFields, 0f);
+        for (int i = from; i < from + count; i++) {
+            if (stations[i] < 0) {
+                continue;
+            }
+            int data = stations[i] * numDataFields;
+            for (int field = 0; field < numDataFields; field++) {
+                result[offset + field] += stationData[data + field] * weights[i];
+            }
+        }
+    }
 
-            for (int inputIndex = 0; inputIndex < input.length; inputIndex++) {
-                float[] inputData = input[inputIndex].getData();
-                float distance = input[inputIndex].distanceTo(targetCoordinates);
+    /**
+     * Brings the incremental result up to date with the stations: searches
+     * the nearest stations again for the tiles that stations were added to
+     * or removed from, and reweighs the tiles depending on stations with new
+     * values. The tiles are evaluated in parallel, into the back buffer,
+     * which then becomes the result. The first refresh evaluates all tiles.
+     *
+     * @return the number of tiles changed, listed by
+     *         {@link #getChangedTiles}.
+     */
+    public synchronized int refresh() {
+        if (numDataFields < 0) {
+            return 0;
+        }
+        buildTree();
+
+        int cells = numberOfLatitudeCoordinates * numberOfLongitudeCoordinates;
+        int numTiles = tilesAcross * tilesUp;
+        if (front == null) {
+            front = new float[cells * numDataFields];
+            back = new float[cells * numDataFields];
+            tileStations = new int[numTiles][0];
+            tileReach = new float[numTiles];
+            tileState = new byte[numTiles];
+            Arrays.fill(tileState, SEARCH);
+        }
+        if (cellNeighbours == null || cellK != neighbours) {
+            cellK = neighbours;
+            cellNeighbours = new int[cells * cellK];
+            cellWeights = new float[cells * cellK];
+            cellReach = new float[cells];
+            Arrays.fill(tileState, SEARCH);
+        }
 
-                float weight = 1f / (distance * distance);
+        // The back buffer misses the tiles changed by the last refresh.
+        for (int tile : changedTiles) {
+            copyTile(front, back, tile);
+        }
 
-                totalValue += inputData[i] * weight;
-                totalWeight += weight;
+        int dirty = 0;
+        for (byte state : tileState) {
+            if (state != CLEAN) {
+                dirty++;
+            }
+        }
+        int[] dirtyTiles = new int[dirty];
+        dirty = 0;
+        for (int tile = 0; tile < numTiles; tile++) {
+            if (tileState[tile] != CLEAN) {
+                dirtyTiles[dirty++] = tile;
             }
-            weightedAverages[i] = totalValue / totalWeight;
         }
 
-        return weightedAverages;
+        if (dirty > 0) {
+            WorkerPool.get().invoke(new TileTask(dirtyTiles, 0, dirty));
+            Arrays.fill(tileState, CLEAN);
+
+            float[] swap = front;
+            front = back;
+            back = swap;
+        }
+        changedTiles = dirtyTiles;
+        return dirty;
     }
 
-    private GridPointData[] determineClosestData(VecF2 targetCoordinates) {
-        GridPointData[] closestPoints = new GridPointData[4];
+    private void copyTile(float[] from, float[] to, int tile) {
+        int[] region = getTileRegion(tile);
+        for (int latIndex = region[1]; latIndex < region[1] + region[3]; latIndex++) {
+            int offset = (latIndex * numberOfLongitudeCoordinates + region[0]) * numDataFields;
+            System.arraycopy(from, offset, to, offset, region[2] * numDataFields);
+        }
+    }
 
-        // Determine the 4 closest points that we have actual data about
-        closestPoints[0] = null;
-        closestPoints[1] = null;
-        closestPoints[2] = null;
-        closestPoints[3] = null;
+    /**
+     * Evaluates a tile into the back buffer.
+     *
+     * @param tile
+     *            The index of the tile.
+     * @param nearest
+     *            Scratch space for the nearest stations of a cell.
+     * @param distances
+     *            Scratch space for their distances.
+     */
+    private void evaluateTile(int tile, int[] nearest, float[] distances) {
+        int[] region = getTileRegion(tile);
+        boolean search = tileState[tile] == SEARCH;
+        float reach = 0f;
+
+        for (int latIndex = region[1]; latIndex < region[1] + region[3]; latIndex++) {
+            float z = rowSin[latIndex];
+            for (int lonIndex = region[0]; lonIndex < region[0] + region[2]; lonIndex++) {
+                int cell = latIndex * numberOfLongitudeCoordinates + lonIndex;
+                if (search) {
+                    float x = rowCos[latIndex] * columnCos[lonIndex];
+                    float y = rowCos[latIndex] * columnSin[lonIndex];
+
+                    int found = treeSize == 0 ? 0 : findNearest(x, y, z, nearest, distances);
+                    System.arraycopy(nearest, 0, cellNeighbours, cell * cellK, found);
+                    Arrays.fill(cellNeighbours, cell * cellK + found, (cell + 1) * cellK, -1);
+                    if (found > 0) {
+                        weights(distances, found, cellWeights, cell * cellK);
+                    }
+                    cellReach[cell] = found < cellK ? Float.MAX_VALUE : distances[found - 1];
+                    reach = Math.max(reach, cellReach[cell]);
+                }
+                weigh(cellNeighbours, cellWeights, cell * cellK, cellK, back, cell * numDataFields);
+            }
+        }
 
-        for (GridPointData gpd : dataGrid) {
-            int compareTo0 = gpd.compareTo(targetCoordinates, closestPoints[0]);
-            int compareTo1 = gpd.compareTo(targetCoordinates, closestPoints[1]);
-            int compareTo2 = gpd.compareTo(targetCoordinates, closestPoints[2]);
-            int compareTo3 = gpd.compareTo(targetCoordinates, closestPoints[3]);
+        if (search) {
+            tileReach[tile] = reach == Float.MAX_VALUE ? Float.MAX_VALUE : (float) Math.sqrt(reach);
 
-            if (compareTo0 == -1 || compareTo0 == 0) {
-                closestPoints[3] = closestPoints[2];
-                closestPoints[2] = closestPoints[1];
-                closestPoints[1] = closestPoints[0];
-                closestPoints[0] = gpd;
-            } else if (compareTo1 == -1 || compareTo1 == 0) {
-                closestPoints[3] = closestPoints[2];
-                closestPoints[2] = closestPoints[1];
-                closestPoints[1] = gpd;
-            } else if (compareTo2 == -1 || compareTo2 == 0) {
-                closestPoints[3] = closestPoints[2];
-                closestPoints[2] = gpd;
-            } else if (compareTo3 == -1 || compareTo3 == 0) {
-                closestPoints[3] = gpd;
+            int[] stations = new int[region[2] * region[3] * cellK];
+            int count = 0;
+            for (int latIndex = region[1]; latIndex < region[1] + region[3]; latIndex++) {
+                int first = (latIndex * numberOfLongitudeCoordinates + region[0]) * cellK;
+                for (int i = first; i < first + region[2] * cellK; i++) {
+                    if (cellNeighbours[i] >= 0) {
+                        stations[count++] = cellNeighbours[i];
+                    }
+                }
             }
+            Arrays.sort(stations, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (distinct == 0 || stations[distinct - 1] != stations[i]) {
+                    stations[distinct++] = stations[i];
+                }
+            }
+            tileStations[tile] = Arrays.copyOf(stations, distinct);
         }
+    }
+
+    /**
+     * Getter for the incremental result, as of the last {@link #refresh}. The
+     * array is not written until the refresh after the next.
+     *
+     * @return the values of all cells, laid out like those of
+     *         {@link #interpolate}, or null before the first refresh.
+     */
+    public synchronized float[] getResult() {
+        return front;
+    }
+
+    /**
+     * Getter for the tiles changed by the last {@link #refresh}, for partial
+     * texture updates.
+     *
+     * @return the indices of the tiles.
+     */
+    public synchronized int[] getChangedTiles() {
+        return changedTiles.clone();
+    }
 
-        return closestPoints;
+    /**
+     * Getter for the cells of a tile. Tiles are numbered row by row, from
+     * the south-west.
+     *
+     * @param tile
+     *            The index of the tile.
+     * @return (first lonIndex, first latIndex, width, height) of the tile, in
+     *         cells. Tiles on the east and north edges may be smaller than
+     *         {@link #TILE_SIZE}.
+     */
+    public int[] getTileRegion(int tile) {
+        int x = (tile % tilesAcross) * TILE_SIZE, y = (tile / tilesAcross) * TILE_SIZE;
+        return new int[] { x, y, Math.min(TILE_SIZE, numberOfLongitudeCoordinates - x),
+                Math.min(TILE_SIZE, numberOfLatitudeCoordinates - y) };
     }
 
+    /** Fork/join task interpolating a range of rows. */
+    private class RowTask extends RecursiveAction {
+        private static final long serialVersionUID = -3296185011806237717L;
+
+        private final float[] result;
+        private final int startRow, endRow;
+
+        RowTask(float[] result, int startRow, int endRow) {
+            this.result = result;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow <= ROWS_PER_TASK) {
+                int k = Math.min(neighbours, treeSize);
+                int[] nearest = new int[k];
+                float[] distances = new float[k];
+                float[] weights = new float[k];
+
+                for (int latIndex = startRow; latIndex < endRow; latIndex++) {
+                    float z = rowSin[latIndex];
+                    for (int lonIndex = 0; lonIndex < numberOfLongitudeCoordinates; lonIndex++) {
+                        float x = rowCos[latIndex] * columnCos[lonIndex];
+                        float y = rowCos[latIndex] * columnSin[lonIndex];
+
+                        int found = findNearest(x, y, z, nearest, distances);
+                        int cell = latIndex * numberOfLongitudeCoordinates + lonIndex;
+                        weights(distances, found, weights, 0);
+                        weigh(nearest, weights, 0, found, result, cell * numDataFields);
+                    }
+                }
+            } else {
+                int middle = (startRow + endRow) >>> 1;
+                invokeAll(new RowTask(result, startRow, middle), new RowTask(result, middle, endRow));
+            }
+        }
+    }
+
+    /** Fork/join task evaluating a range of the dirty tiles. */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 5518204395717036182L;
+
+        private final int[] tiles;
+        private final int start, end;
+
+        TileTask(int[] tiles, int start, int end) {
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                evaluateTile(tiles[start], new int[cellK], new float[cellK]);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TileTask(tiles, start, middle), new TileTask(tiles, middle, end));
+            }
+        }
+    }
 }
@@ -144,4 +144,36 @@ public class VBO {
             nextStart += attrib.getBuffer().capacity() * Buffers.SIZEOF_FLOAT;
         }
     }
+
+    /**
+     * Update part of a single attribute of this VBO in place, without
+     * reallocating the buffer. The attribute's buffer should still have the
+     * capacity it had when the VBO was created or last updated.
+     * 
+     * @param gl
+     *            The global openGL instance.
+     * @param attribIndex
+     *            The index of the attribute in this VBO.
+     * @param first
+     *            The index of the first float to update.
+     * @param count
+     *            The number of floats to update.
+     */
+    public void updateRange(GL3 gl, int attribIndex, int first, int count) {
+        long offset = 0;
+        for (int i = 0; i < attribIndex; i++) {
+            offset += attribs[i].getBuffer().capacity() * Buffers.SIZEOF_FLOAT;
+        }
+        offset += (long) first * Buffers.SIZEOF_FLOAT;
+
+        Buffer data = attribs[attribIndex].getBuffer();
+        int position = data.position();
+        data.position(first);
+
+        gl.glBindVertexArray(this.vboPointer.get(0));
+        gl.glBindBuffer(GL3.GL_ARRAY_BUFFER, this.bufferPointer.get(0));
+        gl.glBufferSubData(GL3.GL_ARRAY_BUFFER, offset, (long) count * Buffers.SIZEOF_FLOAT, data);
+
+        data.position(position);
+    }
 }
@@ -0,0 +1,90 @@
+package nl.esciencecenter.esight.input;
+
+import nl.esciencecenter.esight.math.VecF3;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Immutable snapshot of the camera controlled by an {@link InputHandler}, as
+ * it was at the start of a frame.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public final class Camera {
+    private final float rotationX, rotationY, rotationZ;
+    private final float viewDist;
+
+    /**
+     * Constructor.
+     *
+     * @param rotation
+     *            The rotation around the X, Y and Z axes, in degrees.
+     * @param viewDist
+     *            The view distance (translation) in openGL units.
+     */
+    public Camera(VecF3 rotation, float viewDist) {
+        this.rotationX = rotation.getX();
+        this.rotationY = rotation.getY();
+        this.rotationZ = rotation.getZ();
+        this.viewDist = viewDist;
+    }
+
+    /**
+     * Getter for the rotation.
+     *
+     * @return a new vector holding the rotation around the X, Y and Z axes.
+     */
+    public VecF3 getRotation() {
+        return new VecF3(rotationX, rotationY, rotationZ);
+    }
+
+    /**
+     * Getter for the rotation around the X axis.
+     *
+     * @return the rotation around the X axis.
+     */
+    public float getRotationX() {
+        return rotationX;
+    }
+
+    /**
+     * Getter for the rotation around the Y axis.
+     *
+     * @return the rotation around the Y axis.
+     */
+    public float getRotationY() {
+        return rotationY;
+    }
+
+    /**
+     * Getter for the rotation around the Z axis.
+     *
+     * @return the rotation around the Z axis.
+     */
+    public float getRotationZ() {
+        return rotationZ;
+    }
+
+    /**
+     * Getter for the view distance.
+     *
+     * @return the view distance (translation) in openGL units.
+     */
+    public float getViewDist() {
+        return viewDist;
+    }
+}
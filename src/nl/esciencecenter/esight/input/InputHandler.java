@@ -1,5 +1,7 @@
 package nl.esciencecenter.esight.input;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 import nl.esciencecenter.esight.math.VecF3;
 
 import com.jogamp.newt.event.KeyEvent;
@@ -26,6 +28,10 @@ import com.jogamp.newt.event.MouseListener;
  * A singleton pattern generic Input event Handler for use in OpenGL
  * applications. Currently handles only basic mouse events (left-click-drag,
  * scrollwheel).
+ * <p>
+ * Events are queued by the window toolkit thread, and applied all at once by
+ * {@link #applyInput()} at the start of a frame, on the render thread. The
+ * render thread then reads the resulting {@link Camera}.
  * 
  * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
  * 
@@ -61,10 +67,30 @@ public class InputHandler implements MouseListener, KeyListener {
     /** Mouse drag start point in Y direction */
     private float dragLeftYorigin;
 
-    /** Final rotation in openGL units */
-    private VecF3 rotation;
-    /** Final view distance (translation) in openGL units */
-    private float viewDist = -5f;
+    /** The camera as of the start of the current frame */
+    private volatile Camera camera;
+    /** Whether the last call to {@link #applyInput()} changed the camera */
+    private volatile boolean cameraChanged;
+
+    /** Input events not yet applied to the camera */
+    private final ConcurrentLinkedQueue<InputEvent> events = new ConcurrentLinkedQueue<InputEvent>();
+
+    private static enum EventType {
+        PRESS, RELEASE, DRAG, WHEEL
+    }
+
+    private static final class InputEvent {
+        private final EventType type;
+        private final float x, y;
+        private final boolean shift;
+
+        InputEvent(EventType type, float x, float y, boolean shift) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.shift = shift;
+        }
+    }
 
     /** Current direction of the view */
 
@@ -82,7 +108,7 @@ public class InputHandler implements MouseListener, KeyListener {
     }
 
     protected InputHandler() {
-        rotation = new VecF3();
+        camera = new Camera(new VecF3(), -5f);
     }
 
     @Override
@@ -102,41 +128,19 @@ public class InputHandler implements MouseListener, KeyListener {
     @Override
     public void mousePressed(MouseEvent e) {
         if (e.isButtonDown(MouseEvent.BUTTON1)) {
-            dragLeftXorigin = e.getX();
-            dragLeftYorigin = e.getY();
+            events.offer(new InputEvent(EventType.PRESS, e.getX(), e.getY(), e.isShiftDown()));
         }
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        rotationXorigin = rotationX;
-        rotationYorigin = rotationY;
+        events.offer(new InputEvent(EventType.RELEASE, e.getX(), e.getY(), e.isShiftDown()));
     }
 
     @Override
     public void mouseDragged(MouseEvent e) {
         if (e.isButtonDown(MouseEvent.BUTTON1)) {
-            // x/y reversed because of axis orientation. (up/down => x axis
-            // rotation in OpenGL)
-            if (e.isShiftDown()) {
-                rotationX = ((e.getX() - dragLeftXorigin) / 10f + rotationXorigin) % 360;
-                rotationY = ((e.getY() - dragLeftYorigin) / 10f + rotationYorigin) % 360;
-            } else {
-                rotationX = ((e.getX() - dragLeftXorigin) + rotationXorigin) % 360;
-                rotationY = ((e.getY() - dragLeftYorigin) + rotationYorigin) % 360;
-            }
-            // Make sure the numbers are always positive (so we can determine
-            // the octant we're in more easily)
-            if (rotationX < 0) {
-                rotationX = 360f + rotationX % 360;
-            }
-            if (rotationY < 0) {
-                rotationY = 360f + rotationY % 360;
-            }
-
-            rotation.setX(rotationY);
-            rotation.setY(rotationX);
-            rotation.setZ(0f); // We never rotate around the Z axis.
+            events.offer(new InputEvent(EventType.DRAG, e.getX(), e.getY(), e.isShiftDown()));
         }
     }
 
@@ -147,16 +151,97 @@ public class InputHandler implements MouseListener, KeyListener {
 
     @Override
     public void mouseWheelMoved(MouseEvent e) {
-        float newViewDist = this.viewDist;
-
         if (e.isShiftDown()) {
-            float wheelRotation = e.getRotation()[0];
-            newViewDist -= wheelRotation * .5;
+            events.offer(new InputEvent(EventType.WHEEL, 0f, e.getRotation()[0] * .5f, true));
+        } else {
+            events.offer(new InputEvent(EventType.WHEEL, 0f, e.getRotation()[1] * 2f, false));
+        }
+    }
+
+    /**
+     * Applies all input events queued since the last call to the camera. Drags
+     * are coalesced into the last one of each press, and wheel movements are
+     * summed. Call once at the start of every frame, on the render thread.
+     * 
+     * @return true if the camera changed.
+     */
+    public synchronized boolean applyInput() {
+        InputEvent lastDrag = null;
+        float wheel = 0f;
+        boolean dragged = false;
+
+        InputEvent event;
+        while ((event = events.poll()) != null) {
+            switch (event.type) {
+            case PRESS:
+                dragged |= drag(lastDrag);
+                lastDrag = null;
+                dragLeftXorigin = event.x;
+                dragLeftYorigin = event.y;
+                break;
+            case DRAG:
+                lastDrag = event;
+                break;
+            case RELEASE:
+                dragged |= drag(lastDrag);
+                lastDrag = null;
+                rotationXorigin = rotationX;
+                rotationYorigin = rotationY;
+                break;
+            case WHEEL:
+                wheel += event.y;
+                break;
+            default:
+                break;
+            }
+        }
+        dragged |= drag(lastDrag);
+
+        cameraChanged = dragged || wheel != 0f;
+        if (cameraChanged) {
+            Camera current = camera;
+            // x/y reversed because of axis orientation. (up/down => x axis
+            // rotation in OpenGL). We never rotate around the Z axis.
+            VecF3 rotation = dragged ? new VecF3(rotationY, rotationX, 0f) : current.getRotation();
+            camera = new Camera(rotation, current.getViewDist() - wheel);
+        }
+        return cameraChanged;
+    }
+
+    /**
+     * Tells whether the input applied at the start of this frame moved the
+     * camera, so a listener can skip work that only depends on the view.
+     * 
+     * @return true if the last call to {@link #applyInput()} changed the
+     *         camera.
+     */
+    public boolean isCameraChanged() {
+        return cameraChanged;
+    }
+
+    /**
+     * Works out the rotation for a drag to the given position.
+     */
+    private boolean drag(InputEvent e) {
+        if (e == null) {
+            return false;
+        }
+        if (e.shift) {
+            rotationX = ((e.x - dragLeftXorigin) / 10f + rotationXorigin) % 360;
+            rotationY = ((e.y - dragLeftYorigin) / 10f + rotationYorigin) % 360;
         } else {
-            float wheelRotation = e.getRotation()[1];
-            newViewDist -= wheelRotation * 2;
+            rotationX = ((e.x - dragLeftXorigin) + rotationXorigin) % 360;
+            rotationY = ((e.y - dragLeftYorigin) + rotationYorigin) % 360;
+        }
+        // Make sure the numbers are always positive (so we can determine
+        // the octant we're in more easily)
+        if (rotationX < 0) {
+            rotationX = 360f + rotationX;
+        }
+        if (rotationY < 0) {
+            rotationY = 360f + rotationY;
         }
-        viewDist = newViewDist;
+        return true;
     }
 
     @Override
@@ -169,27 +254,36 @@ public class InputHandler implements MouseListener, KeyListener {
         // We could add something useful here
     }
 
+    /**
+     * Getter for the camera as of the last call to {@link #applyInput()}.
+     * 
+     * @return the current camera.
+     */
+    public Camera getCamera() {
+        return camera;
+    }
+
     /**
      * 
      * @return the current OpenGL ModelView rotation variable
      */
     public VecF3 getRotation() {
-        return rotation;
+        return camera.getRotation();
     }
 
     /**
      * @param rotation
      *            the current OpenGL ModelView rotation variable to set
      */
-    public void setRotation(VecF3 rotation) {
-        this.rotation = rotation;
+    public synchronized void setRotation(VecF3 rotation) {
+        camera = new Camera(rotation, camera.getViewDist());
     }
 
     /**
      * @return the current OpenGL ModelView View distance (translation) variable
      */
     public float getViewDist() {
-        return viewDist;
+        return camera.getViewDist();
     }
 
     /**
@@ -197,7 +291,7 @@ public class InputHandler implements MouseListener, KeyListener {
      *            the current OpenGL ModelView View distance (translation)
      *            variable to set
      */
-    public void setViewDist(float viewDist) {
-        this.viewDist = viewDist;
+    public synchronized void setViewDist(float viewDist) {
+        camera = new Camera(camera.getRotation(), viewDist);
     }
 }
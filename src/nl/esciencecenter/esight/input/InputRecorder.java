@@ -0,0 +1,209 @@
+package nl.esciencecenter.esight.input;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jogamp.newt.event.KeyEvent;
+import com.jogamp.newt.event.KeyListener;
+import com.jogamp.newt.event.MouseEvent;
+import com.jogamp.newt.event.MouseListener;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Records mouse, key and touch events to a compact binary log, so a session
+ * can be replayed later with an {@link InputReplayer}. Add the recorder as a
+ * listener next to the {@link InputHandler}, pass it the touch events and
+ * call {@link #nextFrame()} at the start of every frame.
+ * <p>
+ * Every record starts with a type byte, the frame number (int) and the time
+ * since the start of the recording in microseconds (long), followed by the
+ * fields of the event.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class InputRecorder implements MouseListener, KeyListener, TouchEventHandler {
+    private final static Logger logger = LoggerFactory.getLogger(InputRecorder.class);
+
+    static final int MAGIC = 0x45534952; // "ESIR"
+    static final short VERSION = 1;
+
+    static final byte FRAME = 0;
+    static final byte MOUSE = 1;
+    static final byte KEY = 2;
+    static final byte TOUCH = 3;
+
+    private final DataOutputStream out;
+    private final long start;
+    private int frame = 0;
+    private boolean failed = false;
+
+    /**
+     * Constructor. Writes the header of the log right away.
+     *
+     * @param stream
+     *            The stream to write the log to.
+     * @throws IOException
+     *             if the header could not be written.
+     */
+    public InputRecorder(OutputStream stream) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        start = System.nanoTime();
+    }
+
+    /**
+     * Marks the start of a new frame. Events recorded after this call are
+     * replayed at the start of the next frame.
+     */
+    public synchronized void nextFrame() {
+        try {
+            header(FRAME);
+        } catch (IOException e) {
+            fail(e);
+        }
+        frame++;
+    }
+
+    private void header(byte type) throws IOException {
+        out.writeByte(type);
+        out.writeInt(frame);
+        out.writeLong((System.nanoTime() - start) / 1000L);
+    }
+
+    private synchronized void record(MouseEvent e) {
+        try {
+            header(MOUSE);
+            out.writeShort(e.getEventType());
+            out.writeInt(e.getModifiers());
+            out.writeInt(e.getX());
+            out.writeInt(e.getY());
+            out.writeShort(e.getButton());
+            out.writeShort(e.getClickCount());
+            float[] rotation = e.getRotation();
+            out.writeFloat(rotation[0]);
+            out.writeFloat(rotation[1]);
+            out.writeFloat(rotation[2]);
+            out.writeFloat(e.getRotationScale());
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    private synchronized void record(KeyEvent e) {
+        try {
+            header(KEY);
+            out.writeShort(e.getEventType());
+            out.writeInt(e.getModifiers());
+            out.writeShort(e.getKeyCode());
+            out.writeShort(e.getKeySymbol());
+            out.writeChar(e.getKeyChar());
+        } catch (IOException ex) {
+            fail(ex);
+        }
+    }
+
+    @Override
+    public synchronized void onTouchPoints(double timestamp, TouchPoint[] points, int n) {
+        try {
+            header(TOUCH);
+            out.writeDouble(timestamp);
+            out.writeByte(n);
+            for (int i = 0; i < n; i++) {
+                out.writeInt(points[i].getId());
+                out.writeInt(points[i].getState());
+                out.writeFloat(points[i].getTx());
+                out.writeFloat(points[i].getTy());
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        if (!failed) {
+            logger.error("Could not record input: " + e.getMessage());
+            failed = true;
+        }
+    }
+
+    /**
+     * Writes the remaining events and closes the log.
+     *
+     * @throws IOException
+     *             if the log could not be written.
+     */
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    @Override
+    public void mouseClicked(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mouseEntered(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mouseExited(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mousePressed(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void mouseWheelMoved(MouseEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void keyPressed(KeyEvent e) {
+        record(e);
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        record(e);
+    }
+}
@@ -0,0 +1,321 @@
+package nl.esciencecenter.esight.input;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jogamp.newt.event.KeyEvent;
+import com.jogamp.newt.event.KeyListener;
+import com.jogamp.newt.event.MouseEvent;
+import com.jogamp.newt.event.MouseListener;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Replays a log written by an {@link InputRecorder}, and measures the frame
+ * times while doing so. Call {@link #nextFrame()} at the start of every
+ * frame; it hands the events that are due to the listeners.
+ * <p>
+ * By default, events are replayed in the same frame they were recorded in,
+ * which makes runs repeatable regardless of how fast the machine is. With a
+ * speed set, events are replayed at the recorded timing instead, sped up by
+ * that factor.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class InputReplayer {
+    private final static Logger logger = LoggerFactory.getLogger(InputReplayer.class);
+
+    private static final class Record {
+        private final byte type;
+        private final int frame;
+        private final long time;
+        private final Object event;
+
+        Record(byte type, int frame, long time, Object event) {
+            this.type = type;
+            this.frame = frame;
+            this.time = time;
+            this.event = event;
+        }
+    }
+
+    private static final class TouchRecord {
+        private final double timestamp;
+        private final TouchPoint[] points;
+
+        TouchRecord(double timestamp, TouchPoint[] points) {
+            this.timestamp = timestamp;
+            this.points = points;
+        }
+    }
+
+    private final List<Record> records = new ArrayList<Record>();
+    private final MouseListener mouseListener;
+    private final KeyListener keyListener;
+    private final TouchEventHandler touchHandler;
+
+    /** Replay speed, 0 to replay by frame number */
+    private float speed = 0f;
+
+    private int next = 0;
+    private int frame = 0;
+    private long replayStart, lastFrameStart;
+
+    private long[] frameTimes = new long[1024];
+    private int numFrameTimes = 0;
+
+    /**
+     * Constructor. Reads the whole log.
+     *
+     * @param stream
+     *            The stream to read the log from.
+     * @param mouseListener
+     *            The listener for mouse events, may be null.
+     * @param keyListener
+     *            The listener for key events, may be null.
+     * @param touchHandler
+     *            The handler for touch events, may be null.
+     * @throws IOException
+     *             if the log could not be read, or is not an input log.
+     */
+    public InputReplayer(InputStream stream, MouseListener mouseListener, KeyListener keyListener,
+            TouchEventHandler touchHandler) throws IOException {
+        this.mouseListener = mouseListener;
+        this.keyListener = keyListener;
+        this.touchHandler = touchHandler;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != InputRecorder.MAGIC || in.readShort() != InputRecorder.VERSION) {
+            throw new IOException("Not an input log of a supported version");
+        }
+
+        try {
+            while (true) {
+                byte type = in.readByte();
+                int recordFrame = in.readInt();
+                long time = in.readLong();
+                records.add(new Record(type, recordFrame, time, readEvent(in, type, time)));
+            }
+        } catch (EOFException e) {
+            // End of the log.
+        }
+        logger.debug("Read " + records.size() + " input records");
+    }
+
+    private Object readEvent(DataInputStream in, byte type, long time) throws IOException {
+        switch (type) {
+        case InputRecorder.FRAME:
+            return null;
+        case InputRecorder.MOUSE:
+            short mouseType = in.readShort();
+            int modifiers = in.readInt();
+            int x = in.readInt();
+            int y = in.readInt();
+            short button = in.readShort();
+            short clickCount = in.readShort();
+            float[] rotation = new float[] { in.readFloat(), in.readFloat(), in.readFloat() };
+            float rotationScale = in.readFloat();
+            return new MouseEvent(mouseType, this, time / 1000L, modifiers, x, y, clickCount, button, rotation,
+                    rotationScale);
+        case InputRecorder.KEY:
+            short keyType = in.readShort();
+            int keyModifiers = in.readInt();
+            short keyCode = in.readShort();
+            short keySymbol = in.readShort();
+            char keyChar = in.readChar();
+            return KeyEvent.create(keyType, this, time / 1000L, keyModifiers, keyCode, keySymbol, keyChar);
+        case InputRecorder.TOUCH:
+            double timestamp = in.readDouble();
+            TouchPoint[] points = new TouchPoint[in.readUnsignedByte()];
+            for (int i = 0; i < points.length; i++) {
+                points[i] = new TouchPoint();
+                points[i].setId(in.readInt());
+                points[i].setState(in.readInt());
+                points[i].setTx(in.readFloat());
+                points[i].setTy(in.readFloat());
+            }
+            return new TouchRecord(timestamp, points);
+        default:
+            throw new IOException("Unknown input record type " + type);
+        }
+    }
+
+    /**
+     * Setter for the replay speed.
+     *
+     * @param speed
+     *            0 or less to replay every event in the frame it was recorded
+     *            in, 1 to replay at the recorded timing, 2 to replay twice as
+     *            fast and so on.
+     */
+    public void setSpeed(float speed) {
+        this.speed = Math.max(0f, speed);
+    }
+
+    /**
+     * Starts a new frame: records the time since the previous frame, and hands
+     * the events that are due to the listeners.
+     *
+     * @return false once all events have been replayed.
+     */
+    public boolean nextFrame() {
+        long now = System.nanoTime();
+        if (frame == 0) {
+            replayStart = now;
+        } else {
+            if (numFrameTimes == frameTimes.length) {
+                frameTimes = Arrays.copyOf(frameTimes, numFrameTimes * 2);
+            }
+            frameTimes[numFrameTimes++] = now - lastFrameStart;
+        }
+        lastFrameStart = now;
+        frame++;
+
+        long replayTime = (long) ((now - replayStart) / 1000L * (double) speed);
+        while (next < records.size()) {
+            Record record = records.get(next);
+            boolean due = speed > 0f ? record.time <= replayTime : record.frame < frame;
+            if (!due) {
+                break;
+            }
+            dispatch(record);
+            next++;
+        }
+        return !isFinished();
+    }
+
+    private void dispatch(Record record) {
+        switch (record.type) {
+        case InputRecorder.MOUSE:
+            if (mouseListener != null) {
+                dispatch((MouseEvent) record.event);
+            }
+            break;
+        case InputRecorder.KEY:
+            if (keyListener != null) {
+                KeyEvent e = (KeyEvent) record.event;
+                if (e.getEventType() == KeyEvent.EVENT_KEY_PRESSED) {
+                    keyListener.keyPressed(e);
+                } else {
+                    keyListener.keyReleased(e);
+                }
+            }
+            break;
+        case InputRecorder.TOUCH:
+            if (touchHandler != null) {
+                TouchRecord touch = (TouchRecord) record.event;
+                touchHandler.onTouchPoints(touch.timestamp, touch.points, touch.points.length);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void dispatch(MouseEvent e) {
+        switch (e.getEventType()) {
+        case MouseEvent.EVENT_MOUSE_CLICKED:
+            mouseListener.mouseClicked(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_ENTERED:
+            mouseListener.mouseEntered(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_EXITED:
+            mouseListener.mouseExited(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_PRESSED:
+            mouseListener.mousePressed(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_RELEASED:
+            mouseListener.mouseReleased(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_MOVED:
+            mouseListener.mouseMoved(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_DRAGGED:
+            mouseListener.mouseDragged(e);
+            break;
+        case MouseEvent.EVENT_MOUSE_WHEEL_MOVED:
+            mouseListener.mouseWheelMoved(e);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Whether all events have been replayed.
+     *
+     * @return true if there are no events left.
+     */
+    public boolean isFinished() {
+        return next >= records.size();
+    }
+
+    /**
+     * Getter for the durations of the frames replayed so far.
+     *
+     * @return the frame times, in nanoseconds.
+     */
+    public long[] getFrameTimes() {
+        return Arrays.copyOf(frameTimes, numFrameTimes);
+    }
+
+    /**
+     * Summarizes the frame times measured so far.
+     *
+     * @return a one-line summary of the frame times, in milliseconds.
+     */
+    public String getSummary() {
+        if (numFrameTimes == 0) {
+            return "No frames";
+        }
+        long[] sorted = getFrameTimes();
+        Arrays.sort(sorted);
+
+        long total = 0L;
+        for (long time : sorted) {
+            total += time;
+        }
+        double mean = total / (double) sorted.length;
+
+        return String.format("%d frames, mean %.2f ms (%.1f fps), median %.2f ms, 95%% %.2f ms, 99%% %.2f ms, "
+                + "max %.2f ms", sorted.length, mean / 1E6, 1E9 / mean, percentile(sorted, 0.5) / 1E6,
+                percentile(sorted, 0.95) / 1E6, percentile(sorted, 0.99) / 1E6, sorted[sorted.length - 1] / 1E6);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Logs the summary of the frame times.
+     */
+    public void printSummary() {
+        logger.info("Replay: " + getSummary());
+    }
+}
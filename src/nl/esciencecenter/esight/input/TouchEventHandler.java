@@ -21,6 +21,6 @@ package nl.esciencecenter.esight.input;
  * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
  * 
  */
-interface TouchEventHandler {
+public interface TouchEventHandler {
     void onTouchPoints(double timestamp, TouchPoint[] points, int n);
 }
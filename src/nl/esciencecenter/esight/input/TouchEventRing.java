@@ -0,0 +1,169 @@
+package nl.esciencecenter.esight.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Lock-free ring of touch events, for exactly one producer thread and one
+ * consumer thread. Events are stored in preallocated primitive arrays, so
+ * neither side allocates. When the ring is full, new events are dropped.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+final class TouchEventRing {
+    private final int mask;
+    private final int maxPoints;
+
+    private final double[] timestamps;
+    private final int[] counts;
+    private final int[] ids;
+    private final int[] states;
+    private final float[] xs;
+    private final float[] ys;
+
+    /** The next slot to write, only advanced by the producer */
+    private final AtomicLong head = new AtomicLong();
+    /** The next slot to read, only advanced by the consumer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Producer-side copy of head, and the slot claimed but not published */
+    private long claimed;
+    private boolean claiming = false;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Consumer-side points handed to the handler */
+    private final TouchPoint[] points;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            The number of events the ring can hold, rounded up to a
+     *            power of two.
+     * @param maxPoints
+     *            The maximum number of touch points per event.
+     */
+    TouchEventRing(int capacity, int maxPoints) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.maxPoints = maxPoints;
+
+        timestamps = new double[size];
+        counts = new int[size];
+        ids = new int[size * maxPoints];
+        states = new int[size * maxPoints];
+        xs = new float[size * maxPoints];
+        ys = new float[size * maxPoints];
+
+        points = new TouchPoint[maxPoints];
+        for (int i = 0; i < maxPoints; i++) {
+            points[i] = new TouchPoint();
+        }
+    }
+
+    /**
+     * Producer side: starts a new event.
+     *
+     * @param timestamp
+     *            The timestamp of the event.
+     * @return false if the ring is full, in which case the event is dropped.
+     */
+    boolean begin(double timestamp) {
+        long position = head.get();
+        if (position - tail.get() > mask) {
+            dropped.incrementAndGet();
+            claiming = false;
+            return false;
+        }
+        claimed = position;
+        claiming = true;
+
+        int slot = (int) position & mask;
+        timestamps[slot] = timestamp;
+        counts[slot] = 0;
+        return true;
+    }
+
+    /**
+     * Producer side: adds a touch point to the event started with
+     * {@link #begin}. Points beyond the maximum are ignored.
+     */
+    void add(int id, int state, float x, float y) {
+        if (!claiming) {
+            return;
+        }
+        int slot = (int) claimed & mask;
+        int n = counts[slot];
+        if (n < maxPoints) {
+            int index = slot * maxPoints + n;
+            ids[index] = id;
+            states[index] = state;
+            xs[index] = x;
+            ys[index] = y;
+            counts[slot] = n + 1;
+        }
+    }
+
+    /**
+     * Producer side: makes the event started with {@link #begin} visible to
+     * the consumer.
+     */
+    void publish() {
+        if (claiming) {
+            claiming = false;
+            head.lazySet(claimed + 1);
+        }
+    }
+
+    /**
+     * Consumer side: hands all published events to the handler, oldest first.
+     * The touch points passed to the handler are reused for every event.
+     *
+     * @param handler
+     *            The handler for the events.
+     * @return the number of events handled.
+     */
+    int drain(TouchEventHandler handler) {
+        long position = tail.get();
+        long end = head.get();
+        for (long i = position; i < end; i++) {
+            int slot = (int) i & mask;
+            int n = counts[slot];
+            for (int p = 0; p < n; p++) {
+                int index = slot * maxPoints + p;
+                points[p].setId(ids[index]);
+                points[p].setState(states[index]);
+                points[p].setTx(xs[index]);
+                points[p].setTy(ys[index]);
+            }
+            handler.onTouchPoints(timestamps[slot], points, n);
+        }
+        tail.lazySet(end);
+        return (int) (end - position);
+    }
+
+    /**
+     * Getter for the number of events dropped because the ring was full.
+     *
+     * @return the number of dropped events.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
@@ -21,7 +21,7 @@ package nl.esciencecenter.esight.input;
  * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
  * 
  */
-class TouchPoint {
+public class TouchPoint {
     private int id;
     private int state;
 
@@ -0,0 +1,283 @@
+package nl.esciencecenter.esight.input;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Server for touch table clients (collab). A single thread serves all
+ * clients through one {@link Selector}. Messages are parsed in place from a
+ * direct buffer per client, and the touch events are handed to the render
+ * thread through a lock-free ring; call {@link #poll} once per frame to
+ * receive them.
+ * <p>
+ * Every message is a little-endian int holding the length of the rest of the
+ * message, followed by a double timestamp, an int number of touch points and,
+ * for every touch point, an int id, an int state and two float coordinates.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class TouchServer implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(TouchServer.class);
+
+    private static final int LENGTH_SIZE = 4;
+    private static final int MAX_MESSAGE_LENGTH = 2048;
+    private static final int MAX_TOUCH_EVENTS = 6;
+    private static final int POINT_SIZE = 16;
+    private static final int RING_CAPACITY = 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final TouchEventRing ring;
+    private final Set<SocketChannel> clients = Collections
+            .newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+
+    private Thread thread;
+
+    /**
+     * Constructor. Binds the server socket, but does not accept clients until
+     * {@link #start} is called.
+     *
+     * @param port
+     *            The port to listen on, or 0 for any free port.
+     * @throws IOException
+     *             if the socket could not be bound.
+     */
+    public TouchServer(int port) throws IOException {
+        ring = new TouchEventRing(RING_CAPACITY, MAX_TOUCH_EVENTS);
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts serving clients on a daemon thread.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "Touch server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Getter for the port the server listens on.
+     *
+     * @return the port.
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Hands all touch events received since the last call to the handler.
+     * Call from one thread only, usually the render thread. The touch points
+     * are reused between events and calls.
+     *
+     * @param handler
+     *            The handler for the touch events.
+     * @return the number of events handled.
+     */
+    public int poll(TouchEventHandler handler) {
+        return ring.drain(handler);
+    }
+
+    /**
+     * Getter for the number of events dropped because the render thread did
+     * not poll often enough.
+     *
+     * @return the number of dropped events.
+     */
+    public long getDropped() {
+        return ring.getDropped();
+    }
+
+    /**
+     * Disconnects all clients and stops the server.
+     */
+    public void close() {
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+        for (SocketChannel client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+        }
+        clients.clear();
+    }
+
+    @Override
+    public void run() {
+        logger.debug("Touch server started on port " + getPort());
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // Closed by close(), we are done.
+        } catch (IOException e) {
+            logger.error("Touch server stopped: " + e.getMessage());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(LENGTH_SIZE + MAX_MESSAGE_LENGTH);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            clients.add(channel);
+            try {
+                channel.register(selector, SelectionKey.OP_READ, buffer);
+            } catch (ClosedSelectorException e) {
+                // Closed by close() while accepting, which may have missed
+                // this client.
+                channel.close();
+                throw e;
+            }
+
+            logger.debug("Touch client connected: " + channel.socket().getRemoteSocketAddress());
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+
+        try {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                disconnect(key);
+                return;
+            }
+
+            buffer.flip();
+            boolean valid;
+            try {
+                valid = parse(buffer);
+            } catch (RuntimeException e) {
+                // Whatever a client sends, it must not stop the server.
+                valid = false;
+            }
+            if (!valid) {
+                logger.error("Invalid touch message from " + channel.socket().getRemoteSocketAddress());
+                disconnect(key);
+                return;
+            }
+            buffer.compact();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+            disconnect(key);
+        }
+    }
+
+    /**
+     * Parses all complete messages in the buffer and publishes their events.
+     * Leaves the buffer positioned at the first incomplete message.
+     *
+     * @param buffer
+     *            The buffer, ready for reading, in little-endian order.
+     * @return false if the buffer holds a malformed message.
+     */
+    boolean parse(ByteBuffer buffer) {
+        while (buffer.remaining() >= LENGTH_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 12 || length > MAX_MESSAGE_LENGTH) {
+                return false;
+            }
+            if (buffer.remaining() < LENGTH_SIZE + length) {
+                return true;
+            }
+
+            int offset = start + LENGTH_SIZE;
+            double timestamp = buffer.getDouble(offset);
+            int numTouches = buffer.getInt(offset + 8);
+            // Divide rather than multiply, which a huge count would overflow.
+            if (numTouches < 0 || numTouches > (length - 12) / POINT_SIZE) {
+                return false;
+            }
+
+            if (ring.begin(timestamp)) {
+                int point = offset + 12;
+                for (int i = 0; i < numTouches; i++) {
+                    ring.add(buffer.getInt(point), buffer.getInt(point + 4), buffer.getFloat(point + 8),
+                            buffer.getFloat(point + 12));
+                    point += POINT_SIZE;
+                }
+                ring.publish();
+            }
+
+            buffer.position(start + LENGTH_SIZE + length);
+        }
+        return true;
+    }
+
+    private void disconnect(SelectionKey key) {
+        clients.remove(key.channel());
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+        logger.debug("Touch client disconnected");
+    }
+}
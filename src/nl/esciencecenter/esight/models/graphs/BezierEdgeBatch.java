@@ -0,0 +1,429 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.VecF2;
+import nl.esciencecenter.esight.math.VecF3;
+import nl.esciencecenter.esight.models.Model;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+import nl.esciencecenter.esight.util.WorkerPool;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * All edges of a graph as cubic Bezier curves in one model. The curves are
+ * tessellated into a single vertex buffer and drawn as line strips with one
+ * draw call, separated by a primitive restart index. Every curve gets just
+ * enough segments to look smooth at its size on screen, and the curves are
+ * tessellated in parallel.
+ * <p>
+ * Every edge has its own color and width. Draw the batch with
+ * shaders/vs_bezierEdges.vp, shaders/gs_bezierEdges.gp and
+ * shaders/fs_bezierEdges.fp; the geometry shader widens the lines.
+ * <p>
+ * The control points are given like those of
+ * {@link nl.esciencecenter.esight.math.VectorFMath#bezierCurve}: the start
+ * control is relative to the start, and the end control is subtracted from
+ * the end.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class BezierEdgeBatch extends Model {
+    /** The number of edges below which a task is no longer split. */
+    private static final int EDGES_PER_TASK = 512;
+
+    /** Separates the line strips in the index buffer. */
+    static final int RESTART_INDEX = 0xFFFFFFFF;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The four control points (x, y, z) of every edge */
+    private float[] edges = new float[INITIAL_CAPACITY * 12];
+    private float[] edgeColors = new float[INITIAL_CAPACITY * 4];
+    private float[] edgeWidths = new float[INITIAL_CAPACITY];
+    private int numEdges = 0;
+
+    /** The number of segments and the first vertex of every edge */
+    private int[] steps = new int[INITIAL_CAPACITY];
+    private int[] firstVertex = new int[INITIAL_CAPACITY + 1];
+
+    /** The tessellated vertices and the line strip indices */
+    private float[] vertices = new float[0], vertexColors = new float[0], vertexWidths = new float[0];
+    private int[] indices = new int[0];
+    private int numIndices = 0;
+
+    private float tolerance = 0.5f;
+    private int maxSteps = 64;
+
+    private int viewportWidth = 1, viewportHeight = 1;
+
+    private final IntBuffer indexBufferPointer = Buffers.newDirectIntBuffer(1);
+    private boolean initialized = false;
+    private boolean tessellationChanged = false, capacityChanged = false;
+
+    /**
+     * Constructor. Add edges, then call {@link #tessellate} before the first
+     * draw and whenever the view changes noticeably.
+     */
+    public BezierEdgeBatch() {
+        super(VertexFormat.LINES);
+    }
+
+    /**
+     * Adds an edge.
+     *
+     * @param start
+     *            The start of the edge.
+     * @param startControl
+     *            The first control point, relative to the start.
+     * @param endControl
+     *            The second control point, relative to the end and negated.
+     * @param end
+     *            The end of the edge.
+     * @param color
+     *            The color of the edge.
+     * @param width
+     *            The width of the edge, in pixels.
+     * @return the index of the edge.
+     */
+    public int addEdge(VecF3 start, VecF3 startControl, VecF3 endControl, VecF3 end, Color4 color, float width) {
+        if (numEdges == edgeWidths.length) {
+            int capacity = numEdges * 2;
+            edges = Arrays.copyOf(edges, capacity * 12);
+            edgeColors = Arrays.copyOf(edgeColors, capacity * 4);
+            edgeWidths = Arrays.copyOf(edgeWidths, capacity);
+            steps = Arrays.copyOf(steps, capacity);
+            firstVertex = Arrays.copyOf(firstVertex, capacity + 1);
+        }
+
+        int e = numEdges * 12;
+        edges[e] = start.getX();
+        edges[e + 1] = start.getY();
+        edges[e + 2] = start.getZ();
+        edges[e + 3] = start.getX() + startControl.getX();
+        edges[e + 4] = start.getY() + startControl.getY();
+        edges[e + 5] = start.getZ() + startControl.getZ();
+        edges[e + 6] = end.getX() - endControl.getX();
+        edges[e + 7] = end.getY() - endControl.getY();
+        edges[e + 8] = end.getZ() - endControl.getZ();
+        edges[e + 9] = end.getX();
+        edges[e + 10] = end.getY();
+        edges[e + 11] = end.getZ();
+
+        edgeColors[numEdges * 4] = color.getX();
+        edgeColors[numEdges * 4 + 1] = color.getY();
+        edgeColors[numEdges * 4 + 2] = color.getZ();
+        edgeColors[numEdges * 4 + 3] = color.getW();
+        edgeWidths[numEdges] = width;
+
+        return numEdges++;
+    }
+
+    /**
+     * Removes all edges. The next {@link #tessellate} empties the buffers.
+     */
+    public void clear() {
+        numEdges = 0;
+    }
+
+    /**
+     * Getter for the number of edges.
+     *
+     * @return the number of edges.
+     */
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    /**
+     * Setter for the tessellation tolerance.
+     *
+     * @param pixels
+     *            The largest distance between a curve and its segments, in
+     *            pixels.
+     */
+    public void setTolerance(float pixels) {
+        this.tolerance = pixels;
+    }
+
+    /**
+     * Setter for the maximum number of segments per curve.
+     *
+     * @param maxSteps
+     *            The maximum number of segments, at least 1.
+     */
+    public void setMaxSteps(int maxSteps) {
+        this.maxSteps = Math.max(1, maxSteps);
+    }
+
+    /**
+     * Tessellates all curves for the given view. Curves get a number of
+     * segments from their curvature on screen, and curves (partly) behind the
+     * camera get the maximum.
+     *
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix.
+     * @param viewportWidth
+     *            The width of the viewport in pixels.
+     * @param viewportHeight
+     *            The height of the viewport in pixels.
+     * @return the number of vertices.
+     */
+    public int tessellate(MatF4 p, MatF4 mv, int viewportWidth, int viewportHeight) {
+        this.viewportWidth = viewportWidth;
+        this.viewportHeight = viewportHeight;
+
+        float[] matrix = p.mul(mv).asArray();
+        if (numEdges > 0) {
+            WorkerPool.get().invoke(new StepsTask(matrix, 0, numEdges));
+        }
+
+        firstVertex[0] = 0;
+        for (int i = 0; i < numEdges; i++) {
+            firstVertex[i + 1] = firstVertex[i] + steps[i] + 1;
+        }
+        int numVertices = firstVertex[numEdges];
+        numIndices = numVertices + numEdges;
+
+        boolean oversized = vertexWidths.length > INITIAL_CAPACITY && numVertices < vertexWidths.length / 4;
+        if (numVertices > vertexWidths.length || oversized) {
+            int capacity = Math.max(INITIAL_CAPACITY, numVertices + numVertices / 2);
+            vertices = new float[capacity * 4];
+            vertexColors = new float[capacity * 4];
+            vertexWidths = new float[capacity];
+            indices = new int[capacity + numEdges + numEdges / 2];
+            capacityChanged = true;
+        } else if (numIndices > indices.length) {
+            indices = new int[numIndices + numEdges / 2];
+        }
+
+        if (numEdges > 0) {
+            WorkerPool.get().invoke(new TessellateTask(0, numEdges));
+        }
+
+        setNumVertices(numVertices);
+        tessellationChanged = true;
+        return numVertices;
+    }
+
+    /**
+     * The number of segments a curve needs for its deviation from its
+     * segments to stay within the tolerance (Wang's formula).
+     */
+    private int stepsFor(float[] m, int edge) {
+        int e = edge * 12;
+        float maxSecondDifference = 0f;
+        float[] screen = new float[8];
+        for (int i = 0; i < 4; i++) {
+            float x = edges[e + i * 3], y = edges[e + i * 3 + 1], z = edges[e + i * 3 + 2];
+            float w = m[12] * x + m[13] * y + m[14] * z + m[15];
+            if (w <= 1E-6f) {
+                return maxSteps;
+            }
+            screen[i * 2] = (m[0] * x + m[1] * y + m[2] * z + m[3]) / w * 0.5f * viewportWidth;
+            screen[i * 2 + 1] = (m[4] * x + m[5] * y + m[6] * z + m[7]) / w * 0.5f * viewportHeight;
+        }
+        for (int i = 0; i < 2; i++) {
+            float dx = screen[i * 2] - 2f * screen[i * 2 + 2] + screen[i * 2 + 4];
+            float dy = screen[i * 2 + 1] - 2f * screen[i * 2 + 3] + screen[i * 2 + 5];
+            maxSecondDifference = Math.max(maxSecondDifference, (float) Math.sqrt(dx * dx + dy * dy));
+        }
+
+        int n = (int) Math.ceil(Math.sqrt(0.75 * maxSecondDifference / tolerance));
+        return Math.max(1, Math.min(maxSteps, n));
+    }
+
+    private void tessellateEdge(int edge) {
+        int e = edge * 12;
+        int n = steps[edge];
+        int vertex = firstVertex[edge];
+        int index = vertex + edge;
+
+        for (int i = 0; i <= n; i++) {
+            float t = i / (float) n;
+            float u = 1f - t;
+            float b0 = u * u * u, b1 = 3f * u * u * t, b2 = 3f * u * t * t, b3 = t * t * t;
+
+            int v = (vertex + i) * 4;
+            for (int c = 0; c < 3; c++) {
+                vertices[v + c] = b0 * edges[e + c] + b1 * edges[e + 3 + c] + b2 * edges[e + 6 + c] + b3
+                        * edges[e + 9 + c];
+            }
+            vertices[v + 3] = 1f;
+            System.arraycopy(edgeColors, edge * 4, vertexColors, v, 4);
+            vertexWidths[vertex + i] = edgeWidths[edge];
+
+            indices[index + i] = vertex + i;
+        }
+        indices[index + n + 1] = RESTART_INDEX;
+    }
+
+    /**
+     * Getter for the number of segments of an edge, as of the last
+     * tessellation.
+     *
+     * @param edge
+     *            The index of the edge.
+     * @return the number of segments.
+     */
+    int getSteps(int edge) {
+        return steps[edge];
+    }
+
+    /**
+     * Getter for a tessellated vertex.
+     *
+     * @param vertex
+     *            The index of the vertex.
+     * @return the vertex (x, y, z).
+     */
+    VecF3 getVertex(int vertex) {
+        return new VecF3(vertices[vertex * 4], vertices[vertex * 4 + 1], vertices[vertex * 4 + 2]);
+    }
+
+    /**
+     * Getter for the line strip indices, as of the last tessellation.
+     *
+     * @return a copy of the indices.
+     */
+    int[] getIndices() {
+        return Arrays.copyOf(indices, numIndices);
+    }
+
+    @Override
+    public void init(GL3 gl) {
+        if (!initialized) {
+            gl.glGenBuffers(1, indexBufferPointer);
+            capacityChanged = true;
+            initialized = true;
+        }
+    }
+
+    private void upload(GL3 gl) {
+        if (capacityChanged) {
+            GLSLAttrib vAttrib = new GLSLAttrib(FloatBuffer.wrap(vertices), "MCvertex", GLSLAttrib.SIZE_FLOAT, 4);
+            GLSLAttrib cAttrib = new GLSLAttrib(FloatBuffer.wrap(vertexColors), "EdgeColor", GLSLAttrib.SIZE_FLOAT, 4);
+            GLSLAttrib wAttrib = new GLSLAttrib(FloatBuffer.wrap(vertexWidths), "EdgeWidth", GLSLAttrib.SIZE_FLOAT, 1);
+            if (getVbo() == null) {
+                setVbo(new VBO(gl, vAttrib, cAttrib, wAttrib));
+            } else {
+                getVbo().update(gl, vAttrib, cAttrib, wAttrib);
+            }
+            capacityChanged = false;
+        } else {
+            getVbo().updateRange(gl, 0, 0, getNumVertices() * 4);
+            getVbo().updateRange(gl, 1, 0, getNumVertices() * 4);
+            getVbo().updateRange(gl, 2, 0, getNumVertices());
+        }
+
+        getVbo().bind(gl);
+        gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, indexBufferPointer.get(0));
+        gl.glBufferData(GL3.GL_ELEMENT_ARRAY_BUFFER, numIndices * Buffers.SIZEOF_INT,
+                IntBuffer.wrap(indices, 0, numIndices), GL3.GL_DYNAMIC_DRAW);
+
+        tessellationChanged = false;
+    }
+
+    @Override
+    public void draw(GL3 gl, ShaderProgram program) throws UninitializedException {
+        if (!initialized) {
+            throw new UninitializedException();
+        }
+        if (numIndices == 0) {
+            return;
+        }
+        if (tessellationChanged) {
+            upload(gl);
+        }
+
+        program.setUniformVector("ViewportSize", new VecF2(viewportWidth, viewportHeight));
+
+        getVbo().bind(gl);
+        program.linkAttribs(gl, getVbo().getAttribs());
+        gl.glBindBuffer(GL3.GL_ELEMENT_ARRAY_BUFFER, indexBufferPointer.get(0));
+
+        program.use(gl);
+
+        gl.glEnable(GL3.GL_PRIMITIVE_RESTART);
+        gl.glPrimitiveRestartIndex(RESTART_INDEX);
+        gl.glDrawElements(GL3.GL_LINE_STRIP, numIndices, GL3.GL_UNSIGNED_INT, 0L);
+        gl.glDisable(GL3.GL_PRIMITIVE_RESTART);
+    }
+
+    @Override
+    public void delete(GL3 gl) {
+        if (initialized) {
+            if (getVbo() != null) {
+                getVbo().delete(gl);
+                setVbo(null);
+            }
+            gl.glDeleteBuffers(1, indexBufferPointer);
+            initialized = false;
+        }
+    }
+
+    /** Fork/join task computing the number of segments of a range of edges. */
+    private class StepsTask extends RecursiveAction {
+        private static final long serialVersionUID = 7630581183618447017L;
+
+        private final float[] matrix;
+        private final int start, end;
+
+        StepsTask(float[] matrix, int start, int end) {
+            this.matrix = matrix;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= EDGES_PER_TASK) {
+                for (int i = start; i < end; i++) {
+                    steps[i] = stepsFor(matrix, i);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new StepsTask(matrix, start, middle), new StepsTask(matrix, middle, end));
+            }
+        }
+    }
+
+    /**
+     * Fork/join task tessellating a range of edges. Every edge writes to its
+     * own part of the buffers.
+     */
+    private class TessellateTask extends RecursiveAction {
+        private static final long serialVersionUID = -4955328466120871021L;
+
+        private final int start, end;
+
+        TessellateTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= EDGES_PER_TASK) {
+                for (int i = start; i < end; i++) {
+                    tessellateEdge(i);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new TessellateTask(start, middle), new TessellateTask(middle, end));
+            }
+        }
+    }
+}
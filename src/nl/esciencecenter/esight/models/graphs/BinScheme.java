@@ -0,0 +1,156 @@
+package nl.esciencecenter.esight.models.graphs;
+
+/**
+ * Maps values to the bins of a histogram, with bins of equal width on a
+ * linear or a logarithmic scale. Values outside [min, max] and NaN have no
+ * bin.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public final class BinScheme {
+    private final boolean logarithmic;
+    private final int bins;
+    private final float min, max;
+
+    /** The bounds and bin width on the binning scale (log or linear) */
+    private final double scaledMin, scaledMax, binsPerUnit;
+
+    private BinScheme(boolean logarithmic, float min, float max, int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("A histogram needs at least one bin, not " + bins);
+        }
+        if (!(min < max)) {
+            throw new IllegalArgumentException("The minimum (" + min + ") should be smaller than the maximum (" + max
+                    + ")");
+        }
+        if (logarithmic && min <= 0f) {
+            throw new IllegalArgumentException("Logarithmic bins need a positive minimum, not " + min);
+        }
+        this.logarithmic = logarithmic;
+        this.bins = bins;
+        this.min = min;
+        this.max = max;
+
+        scaledMin = logarithmic ? Math.log(min) : min;
+        scaledMax = logarithmic ? Math.log(max) : max;
+        binsPerUnit = bins / (scaledMax - scaledMin);
+    }
+
+    /**
+     * Bins of equal width between min and max.
+     *
+     * @param min
+     *            The lower bound of the first bin.
+     * @param max
+     *            The upper bound of the last bin.
+     * @param bins
+     *            The number of bins.
+     * @return the bin scheme.
+     */
+    public static BinScheme linear(float min, float max, int bins) {
+        return new BinScheme(false, min, max, bins);
+    }
+
+    /**
+     * Bins of equal width on a logarithmic scale between min and max, so every
+     * bin spans the same ratio.
+     *
+     * @param min
+     *            The lower bound of the first bin, larger than 0.
+     * @param max
+     *            The upper bound of the last bin.
+     * @param bins
+     *            The number of bins.
+     * @return the bin scheme.
+     */
+    public static BinScheme logarithmic(float min, float max, int bins) {
+        return new BinScheme(true, min, max, bins);
+    }
+
+    /**
+     * Finds the bin of a value.
+     *
+     * @param value
+     *            The value.
+     * @return the index of the bin, or -1 if the value is outside the range
+     *         or NaN.
+     */
+    public int bin(float value) {
+        if (!(value >= min && value <= max)) {
+            return -1;
+        }
+        double scaled = logarithmic ? Math.log(value) : value;
+        int bin = (int) ((scaled - scaledMin) * binsPerUnit);
+        // The maximum itself belongs to the last bin, and rounding may push
+        // values just inside the range out of it.
+        return Math.max(0, Math.min(bins - 1, bin));
+    }
+
+    /**
+     * Getter for the lower bound of a bin.
+     *
+     * @param bin
+     *            The index of the bin, or the number of bins for the upper
+     *            bound of the last bin.
+     * @return the lower bound.
+     */
+    public float getLowerBound(int bin) {
+        double scaled = scaledMin + bin / binsPerUnit;
+        return (float) (logarithmic ? Math.exp(scaled) : scaled);
+    }
+
+    /**
+     * Getter for the number of bins.
+     *
+     * @return the number of bins.
+     */
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * Getter for the lower bound of the first bin.
+     *
+     * @return the minimum.
+     */
+    public float getMin() {
+        return min;
+    }
+
+    /**
+     * Getter for the upper bound of the last bin.
+     *
+     * @return the maximum.
+     */
+    public float getMax() {
+        return max;
+    }
+
+    /**
+     * Whether the bins are of equal width on a logarithmic scale.
+     *
+     * @return true for logarithmic bins, false for linear bins.
+     */
+    public boolean isLogarithmic() {
+        return logarithmic;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof BinScheme)) {
+            return false;
+        }
+        BinScheme that = (BinScheme) other;
+        return logarithmic == that.logarithmic && bins == that.bins && Float.compare(min, that.min) == 0
+                && Float.compare(max, that.max) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = logarithmic ? 1 : 0;
+        result = 31 * result + bins;
+        result = 31 * result + Float.floatToIntBits(min);
+        result = 31 * result + Float.floatToIntBits(max);
+        return result;
+    }
+}
@@ -0,0 +1,387 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+import nl.esciencecenter.esight.util.WorkerPool;
+
+/**
+ * Counts values into the bins of a 1D or 2D histogram. Large inputs are split
+ * into chunks that are counted into partial histograms on all cores, and the
+ * partial histograms are summed as the fork/join tasks complete. Data may be
+ * added in any number of chunks, from several threads, and histograms with
+ * the same bins can be merged, so the data never needs to be in memory at
+ * once.
+ * <p>
+ * {@link #toBarValues} produces the normalized values a {@link Histogram2D}
+ * takes.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class BinnedHistogram {
+    /** The smallest number of values worth a task of its own. */
+    private static final int VALUES_PER_TASK = 1 << 16;
+
+    private final BinScheme xBins, yBins;
+    private final int numBins;
+
+    /** Guarded by this */
+    private final long[] counts;
+    private long outOfRange = 0L;
+
+    /**
+     * Constructor for a 1D histogram.
+     *
+     * @param bins
+     *            The bins.
+     */
+    public BinnedHistogram(BinScheme bins) {
+        this(bins, null);
+    }
+
+    /**
+     * Constructor for a 2D histogram. Bin (x, y) has index y * (number of x
+     * bins) + x.
+     *
+     * @param xBins
+     *            The bins along the first dimension.
+     * @param yBins
+     *            The bins along the second dimension, or null for a 1D
+     *            histogram.
+     */
+    public BinnedHistogram(BinScheme xBins, BinScheme yBins) {
+        this.xBins = xBins;
+        this.yBins = yBins;
+        this.numBins = xBins.getBins() * (yBins == null ? 1 : yBins.getBins());
+        this.counts = new long[numBins];
+    }
+
+    /**
+     * Counts a single value of a 1D histogram.
+     *
+     * @param value
+     *            The value.
+     */
+    public synchronized void add(float value) {
+        int bin = xBins.bin(value);
+        if (bin < 0) {
+            outOfRange++;
+        } else {
+            counts[bin]++;
+        }
+    }
+
+    /**
+     * Counts a single pair of values of a 2D histogram.
+     *
+     * @param x
+     *            The value along the first dimension.
+     * @param y
+     *            The value along the second dimension.
+     */
+    public synchronized void add(float x, float y) {
+        int bin = bin(x, y);
+        if (bin < 0) {
+            outOfRange++;
+        } else {
+            counts[bin]++;
+        }
+    }
+
+    /**
+     * Counts the values of a 1D histogram.
+     *
+     * @param values
+     *            The values.
+     */
+    public void add(float[] values) {
+        add(values, 0, values.length);
+    }
+
+    /**
+     * Counts part of the values of a 1D histogram.
+     *
+     * @param values
+     *            The values.
+     * @param offset
+     *            The index of the first value to count.
+     * @param length
+     *            The number of values to count.
+     */
+    public void add(float[] values, int offset, int length) {
+        checkDimensions(false);
+        count(values, null, null, null, offset, offset + length);
+    }
+
+    /**
+     * Counts the values of a 1D histogram from the position of the buffer up
+     * to its limit. The position of the buffer is left as it is.
+     *
+     * @param values
+     *            The values.
+     */
+    public void add(FloatBuffer values) {
+        checkDimensions(false);
+        if (values.hasArray()) {
+            add(values.array(), values.arrayOffset() + values.position(), values.remaining());
+        } else {
+            count(null, null, values, null, values.position(), values.limit());
+        }
+    }
+
+    /**
+     * Counts the pairs of values of a 2D histogram.
+     *
+     * @param xs
+     *            The values along the first dimension.
+     * @param ys
+     *            The values along the second dimension, as many as xs.
+     */
+    public void add(float[] xs, float[] ys) {
+        add(xs, ys, 0, xs.length);
+    }
+
+    /**
+     * Counts part of the pairs of values of a 2D histogram.
+     *
+     * @param xs
+     *            The values along the first dimension.
+     * @param ys
+     *            The values along the second dimension.
+     * @param offset
+     *            The index of the first pair to count.
+     * @param length
+     *            The number of pairs to count.
+     */
+    public void add(float[] xs, float[] ys, int offset, int length) {
+        checkDimensions(true);
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("Got " + xs.length + " x values but " + ys.length + " y values");
+        }
+        count(xs, ys, null, null, offset, offset + length);
+    }
+
+    /**
+     * Counts the pairs of values of a 2D histogram from the positions of the
+     * buffers up to their limits. The positions are left as they are.
+     *
+     * @param xs
+     *            The values along the first dimension.
+     * @param ys
+     *            The values along the second dimension, as many as xs.
+     */
+    public void add(FloatBuffer xs, FloatBuffer ys) {
+        checkDimensions(true);
+        if (xs.remaining() != ys.remaining()) {
+            throw new IllegalArgumentException("Got " + xs.remaining() + " x values but " + ys.remaining()
+                    + " y values");
+        }
+        // Index both buffers from 0, whatever their positions.
+        count(null, null, xs.slice(), ys.slice(), 0, xs.remaining());
+    }
+
+    private void count(float[] xArray, float[] yArray, FloatBuffer xBuffer, FloatBuffer yBuffer, int start, int end) {
+        // One range per worker, so the workers fill one partial each.
+        int chunk = WorkerPool.chunkSize(end - start, VALUES_PER_TASK);
+        addPartial(WorkerPool.get().invoke(new CountTask(xArray, yArray, xBuffer, yBuffer, start, end, chunk)));
+    }
+
+    private void checkDimensions(boolean twoDimensional) {
+        if (twoDimensional != (yBins != null)) {
+            throw new IllegalArgumentException("This is a " + (yBins == null ? "1D" : "2D") + " histogram");
+        }
+    }
+
+    private int bin(float x, float y) {
+        int xBin = xBins.bin(x);
+        int yBin = yBins.bin(y);
+        if (xBin < 0 || yBin < 0) {
+            return -1;
+        }
+        return yBin * xBins.getBins() + xBin;
+    }
+
+    /**
+     * Adds the counts of another histogram with the same bins to this one.
+     *
+     * @param other
+     *            The other histogram.
+     */
+    public void merge(BinnedHistogram other) {
+        if (!xBins.equals(other.xBins) || (yBins == null ? other.yBins != null : !yBins.equals(other.yBins))) {
+            throw new IllegalArgumentException("Only histograms with the same bins can be merged");
+        }
+        long[] partial;
+        synchronized (other) {
+            partial = Arrays.copyOf(other.counts, numBins + 1);
+            partial[numBins] = other.outOfRange;
+        }
+        addPartial(partial);
+    }
+
+    /** Adds partial counts, with the number of values out of range last. */
+    private synchronized void addPartial(long[] partial) {
+        for (int i = 0; i < numBins; i++) {
+            counts[i] += partial[i];
+        }
+        outOfRange += partial[numBins];
+    }
+
+    /**
+     * Resets all counts to 0.
+     */
+    public synchronized void clear() {
+        Arrays.fill(counts, 0L);
+        outOfRange = 0L;
+    }
+
+    /**
+     * Getter for the count of a bin.
+     *
+     * @param bin
+     *            The index of the bin.
+     * @return the count.
+     */
+    public synchronized long getCount(int bin) {
+        return counts[bin];
+    }
+
+    /**
+     * Getter for the count of a bin of a 2D histogram.
+     *
+     * @param x
+     *            The index of the bin along the first dimension.
+     * @param y
+     *            The index of the bin along the second dimension.
+     * @return the count.
+     */
+    public synchronized long getCount(int x, int y) {
+        return counts[y * xBins.getBins() + x];
+    }
+
+    /**
+     * Getter for all counts.
+     *
+     * @return a copy of the counts, indexed like the bins.
+     */
+    public synchronized long[] getCounts() {
+        return Arrays.copyOf(counts, numBins);
+    }
+
+    /**
+     * Getter for the number of values that fell outside the bins.
+     *
+     * @return the number of values out of range, including NaN.
+     */
+    public synchronized long getOutOfRange() {
+        return outOfRange;
+    }
+
+    /**
+     * Getter for the number of bins.
+     *
+     * @return the number of bins, over both dimensions for a 2D histogram.
+     */
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /**
+     * Getter for the bins along the first dimension.
+     *
+     * @return the bins.
+     */
+    public BinScheme getXBins() {
+        return xBins;
+    }
+
+    /**
+     * Getter for the bins along the second dimension.
+     *
+     * @return the bins, or null for a 1D histogram.
+     */
+    public BinScheme getYBins() {
+        return yBins;
+    }
+
+    /**
+     * Normalizes the counts to the largest count, as taken by
+     * {@link Histogram2D#setValues}.
+     *
+     * @return the bar values, between 0 and 1.
+     */
+    public float[] toBarValues() {
+        return toBarValues(new float[numBins]);
+    }
+
+    /**
+     * Normalizes the counts to the largest count, as taken by
+     * {@link Histogram2D#setValues}, into an existing array.
+     *
+     * @param result
+     *            The array to fill, with room for every bin.
+     * @return the result array.
+     */
+    public synchronized float[] toBarValues(float[] result) {
+        long max = 0L;
+        for (long count : counts) {
+            max = Math.max(max, count);
+        }
+        for (int i = 0; i < numBins; i++) {
+            result[i] = max == 0L ? 0f : counts[i] / (float) max;
+        }
+        return result;
+    }
+
+    /**
+     * Fork/join task counting a range of the input into a partial histogram,
+     * with the number of values out of range in its last element.
+     */
+    private class CountTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = -2399284651702419839L;
+
+        private final float[] xArray, yArray;
+        private final FloatBuffer xBuffer, yBuffer;
+        private final int start, end, chunk;
+
+        CountTask(float[] xArray, float[] yArray, FloatBuffer xBuffer, FloatBuffer yBuffer, int start, int end,
+                int chunk) {
+            this.xArray = xArray;
+            this.yArray = yArray;
+            this.xBuffer = xBuffer;
+            this.yBuffer = yBuffer;
+            this.start = start;
+            this.end = end;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (end - start <= chunk) {
+                long[] partial = new long[numBins + 1];
+                for (int i = start; i < end; i++) {
+                    float x = xArray != null ? xArray[i] : xBuffer.get(i);
+                    int bin;
+                    if (yBins == null) {
+                        bin = xBins.bin(x);
+                    } else {
+                        bin = bin(x, yArray != null ? yArray[i] : yBuffer.get(i));
+                    }
+                    partial[bin < 0 ? numBins : bin]++;
+                }
+                return partial;
+            }
+
+            int middle = (start + end) >>> 1;
+            CountTask right = new CountTask(xArray, yArray, xBuffer, yBuffer, middle, end, chunk);
+            right.fork();
+            long[] partial = new CountTask(xArray, yArray, xBuffer, yBuffer, start, middle, chunk).compute();
+            long[] rightPartial = right.join();
+            for (int i = 0; i <= numBins; i++) {
+                partial[i] += rightPartial[i];
+            }
+            return partial;
+        }
+    }
+}
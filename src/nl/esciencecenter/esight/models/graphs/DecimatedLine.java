@@ -0,0 +1,224 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF4;
+import nl.esciencecenter.esight.models.Model;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+
+/**
+ * Line graph of a series of any length, drawn through a
+ * {@link DecimationPyramid}. Every draw sends a few vertices per pixel of the
+ * visible range, whatever the number of samples in it, into a VBO of fixed
+ * size. Draw it with shaders/vs_timeSeries.vp, which fits the visible range
+ * into the unit square of the graph.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class DecimatedLine extends Model {
+    /** Room for the ragged edges of the decimation */
+    private static final int EDGE_VERTICES = 256;
+
+    private final Color4 color;
+    private final int maxPixels;
+    private final DecimationPyramid pyramid;
+    private final FloatBuffer vertices;
+
+    private float fromTime = 0f, toTime = 0f;
+    /** The value range of the samples in the visible range, at the last draw */
+    private float minValue = 0f, maxValue = 0f;
+    private boolean autoRange = true;
+    private boolean useLttb = false;
+
+    private boolean initialized = false;
+
+    /**
+     * Constructor.
+     *
+     * @param color
+     *            The color of the line.
+     * @param maxPixels
+     *            The widest the graph will be drawn, in pixels.
+     */
+    public DecimatedLine(Color4 color, int maxPixels) {
+        super(VertexFormat.LINES);
+        this.color = color;
+        this.maxPixels = maxPixels;
+        this.pyramid = new DecimationPyramid();
+        this.vertices = FloatBuffer.allocate((maxPixels * 4 + EDGE_VERTICES) * 2);
+    }
+
+    /**
+     * Appends a sample.
+     *
+     * @param time
+     *            The time of the sample, not smaller than that of the previous
+     *            sample.
+     * @param value
+     *            The value of the sample.
+     */
+    public void addData(float time, float value) {
+        pyramid.add(time, value);
+    }
+
+    /**
+     * Shows only part of the series.
+     *
+     * @param fromTime
+     *            The start of the visible range.
+     * @param toTime
+     *            The end of the visible range.
+     */
+    public void setVisibleRange(float fromTime, float toTime) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        autoRange = false;
+    }
+
+    /**
+     * Shows the whole series, including samples added later.
+     */
+    public void showAll() {
+        autoRange = true;
+    }
+
+    /**
+     * Setter for the decimation method.
+     *
+     * @param useLttb
+     *            true to reduce the line to one point per pixel with
+     *            Largest-Triangle-Three-Buckets, false to draw the minimum and
+     *            maximum of every bucket.
+     */
+    public void setLttb(boolean useLttb) {
+        this.useLttb = useLttb;
+    }
+
+    /**
+     * Getter for the pyramid holding the series.
+     *
+     * @return the pyramid.
+     */
+    public DecimationPyramid getPyramid() {
+        return pyramid;
+    }
+
+    @Override
+    public void init(GL3 gl) {
+        if (!initialized) {
+            GLSLAttrib vAttrib = new GLSLAttrib(vertices, "MCvertex", GLSLAttrib.SIZE_FLOAT, 2);
+            setVbo(new VBO(gl, vAttrib));
+            initialized = true;
+        }
+    }
+
+    /**
+     * Draws the visible range of the series.
+     *
+     * @param gl
+     *            The global openGL instance.
+     * @param program
+     *            The shader program, with vs_timeSeries.vp as its vertex
+     *            shader.
+     * @param pixels
+     *            The width of the graph on screen, in pixels.
+     * @throws UninitializedException
+     *             if {@link #init} has not been called.
+     */
+    public void draw(GL3 gl, ShaderProgram program, int pixels) throws UninitializedException {
+        if (!initialized) {
+            throw new UninitializedException();
+        }
+
+        if (pyramid.size() < 2) {
+            return;
+        }
+
+        int count = decimate(pixels);
+        getVbo().updateRange(gl, 0, 0, count * 2);
+
+        program.setUniformVector("Color", color);
+        program.setUniformVector("DataRange", getDataRange());
+
+        getVbo().bind(gl);
+        program.linkAttribs(gl, getVbo().getAttribs());
+        program.use(gl);
+
+        gl.glDrawArrays(GL3.GL_LINE_STRIP, 0, count);
+    }
+
+    /**
+     * Fills the vertices with the decimated visible range, and finds the range
+     * of the values in it.
+     *
+     * @param pixels
+     *            The width of the graph on screen, in pixels.
+     * @return the number of vertices.
+     */
+    int decimate(int pixels) {
+        if (autoRange) {
+            fromTime = pyramid.getFirstTime();
+            toTime = pyramid.getLastTime();
+        }
+
+        int width = Math.max(1, Math.min(pixels, maxPixels));
+        FloatBuffer decimated = useLttb ? pyramid.lttb(fromTime, toTime, width) : pyramid.decimate(fromTime,
+                toTime, width);
+        int count = Math.min(decimated.limit(), vertices.capacity()) / 2;
+
+        minValue = Float.MAX_VALUE;
+        maxValue = -Float.MAX_VALUE;
+        vertices.clear();
+        for (int i = 0; i < count; i++) {
+            float time = decimated.get(i * 2);
+            float value = decimated.get(i * 2 + 1);
+            if (time >= fromTime && time <= toTime) {
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+            }
+            vertices.put(time);
+            vertices.put(value);
+        }
+        vertices.rewind();
+        setNumVertices(count);
+
+        // Nothing falls inside the visible range, only the samples around it.
+        if (minValue > maxValue) {
+            minValue = 0f;
+            maxValue = 0f;
+        }
+
+        return count;
+    }
+
+    /**
+     * Getter for the data range of the last draw, in the form expected by the
+     * DataRange uniform of shaders/vs_timeSeries.vp.
+     *
+     * @return (start of the visible range, end of the visible range, minimum
+     *         value, maximum value), with a value range of (0, 0) if no sample
+     *         falls inside the visible range.
+     */
+    public VecF4 getDataRange() {
+        return new VecF4(fromTime, toTime, minValue, maxValue);
+    }
+
+    @Override
+    public void draw(GL3 gl, ShaderProgram program) throws UninitializedException {
+        draw(gl, program, maxPixels);
+    }
+
+    @Override
+    public void delete(GL3 gl) {
+        if (initialized) {
+            getVbo().delete(gl);
+            initialized = false;
+        }
+    }
+}
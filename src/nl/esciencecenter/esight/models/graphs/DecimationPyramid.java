@@ -0,0 +1,331 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Multi-resolution min/max pyramid over a line series, for drawing series
+ * with far more samples than there are pixels. Level k summarizes buckets of
+ * 2^k consecutive samples by their minimum and maximum, which is all a line
+ * graph can show of a bucket that is narrower than a pixel. The pyramid is
+ * extended as samples arrive, at amortized O(1) per sample.
+ * <p>
+ * {@link #decimate} picks the level from the visible range and the width in
+ * pixels, so the number of vertices stays roughly constant (about 4 per
+ * pixel) at any zoom level. {@link #lttb} further reduces that to a fixed
+ * number of points with Largest-Triangle-Three-Buckets.
+ * <p>
+ * Sample times must not decrease.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class DecimationPyramid {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** One level of buckets, holding the sample indices of the extremes */
+    private static class Level {
+        private int[] minIndex = new int[INITIAL_CAPACITY];
+        private int[] maxIndex = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        void add(int min, int max) {
+            if (size == minIndex.length) {
+                minIndex = Arrays.copyOf(minIndex, size * 2);
+                maxIndex = Arrays.copyOf(maxIndex, size * 2);
+            }
+            minIndex[size] = min;
+            maxIndex[size] = max;
+            size++;
+        }
+    }
+
+    private float[] times = new float[INITIAL_CAPACITY];
+    private float[] values = new float[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /** Levels 1 and up, level 0 being the samples themselves */
+    private final List<Level> levels = new ArrayList<Level>();
+
+    private FloatBuffer result = FloatBuffer.allocate(INITIAL_CAPACITY * 2);
+    private FloatBuffer lttbResult = FloatBuffer.allocate(INITIAL_CAPACITY * 2);
+
+    /**
+     * Appends a sample.
+     *
+     * @param time
+     *            The time of the sample, not smaller than that of the previous
+     *            sample.
+     * @param value
+     *            The value of the sample.
+     */
+    public void add(float time, float value) {
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        times[size] = time;
+        values[size] = value;
+        size++;
+
+        // Every pair of completed buckets completes a bucket on the level
+        // above.
+        int completed = size;
+        for (int level = 1; completed % 2 == 0; level++) {
+            completed /= 2;
+            if (levels.size() < level) {
+                levels.add(new Level());
+            }
+            int left = (completed - 1) * 2;
+            levels.get(level - 1).add(lower(minOf(level - 1, left), minOf(level - 1, left + 1)),
+                    higher(maxOf(level - 1, left), maxOf(level - 1, left + 1)));
+        }
+    }
+
+    private int minOf(int level, int bucket) {
+        return level == 0 ? bucket : levels.get(level - 1).minIndex[bucket];
+    }
+
+    private int maxOf(int level, int bucket) {
+        return level == 0 ? bucket : levels.get(level - 1).maxIndex[bucket];
+    }
+
+    private int lower(int a, int b) {
+        return values[b] < values[a] ? b : a;
+    }
+
+    private int higher(int a, int b) {
+        return values[b] > values[a] ? b : a;
+    }
+
+    /**
+     * Removes all samples.
+     */
+    public void clear() {
+        size = 0;
+        levels.clear();
+    }
+
+    /**
+     * Getter for the number of samples.
+     *
+     * @return the number of samples.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Getter for the time of the first sample.
+     *
+     * @return the time of the first sample, or 0 if there are none.
+     */
+    public float getFirstTime() {
+        return size == 0 ? 0f : times[0];
+    }
+
+    /**
+     * Getter for the time of the last sample.
+     *
+     * @return the time of the last sample, or 0 if there are none.
+     */
+    public float getLastTime() {
+        return size == 0 ? 0f : times[size - 1];
+    }
+
+    /**
+     * Getter for the number of levels above the samples themselves.
+     *
+     * @return the number of levels.
+     */
+    public int getNumLevels() {
+        return levels.size();
+    }
+
+    /**
+     * The level {@link #decimate} uses for a number of samples and pixels.
+     *
+     * @param samples
+     *            The number of samples in the visible range.
+     * @param pixels
+     *            The width of the graph in pixels.
+     * @return the level, 0 for the samples themselves.
+     */
+    public int levelFor(int samples, int pixels) {
+        int level = 0;
+        while (level < levels.size() && (2L << level) * pixels <= samples) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Decimates the samples in a time range for a graph of the given width.
+     * The samples just outside the range are included, so the line runs to
+     * the edges of the graph.
+     *
+     * @param fromTime
+     *            The start of the visible range.
+     * @param toTime
+     *            The end of the visible range.
+     * @param pixels
+     *            The width of the graph in pixels.
+     * @return (time, value) pairs in time order, from position 0 up to the
+     *         limit. The buffer is reused by the next call.
+     */
+    public FloatBuffer decimate(float fromTime, float toTime, int pixels) {
+        result.clear();
+
+        int from = Math.max(0, firstAtOrAfter(fromTime) - 1);
+        int to = Math.min(size, firstAfter(toTime) + 1);
+        if (from < to) {
+            int maxLevel = levelFor(to - from, Math.max(1, pixels));
+
+            // Keep both end points, and walk the samples in between with the
+            // largest aligned, complete bucket that fits, so only the ragged
+            // edges use the finer levels.
+            put(from);
+            int index = from + 1;
+            int last = to - 1;
+            while (index < last) {
+                int level = 0;
+                while (level < maxLevel && index % (2 << level) == 0 && index + (2 << level) <= last) {
+                    level++;
+                }
+                if (level == 0) {
+                    put(index);
+                } else {
+                    Level l = levels.get(level - 1);
+                    int bucket = index >> level;
+                    int min = l.minIndex[bucket], max = l.maxIndex[bucket];
+                    put(Math.min(min, max));
+                    if (min != max) {
+                        put(Math.max(min, max));
+                    }
+                }
+                index += 1 << level;
+            }
+            if (last > from) {
+                put(last);
+            }
+        }
+
+        result.flip();
+        return result;
+    }
+
+    private void put(int index) {
+        if (result.remaining() < 2) {
+            result = grow(result);
+        }
+        result.put(times[index]);
+        result.put(values[index]);
+    }
+
+    private static FloatBuffer grow(FloatBuffer buffer) {
+        FloatBuffer bigger = FloatBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Reduces the samples in a time range to at most the given number of
+     * points with Largest-Triangle-Three-Buckets. The reduction runs over the
+     * min/max decimation of the range, so its cost does not depend on the
+     * number of samples.
+     *
+     * @param fromTime
+     *            The start of the visible range.
+     * @param toTime
+     *            The end of the visible range.
+     * @param threshold
+     *            The maximum number of points, at least 3.
+     * @return (time, value) pairs in time order, from position 0 up to the
+     *         limit. The buffer is reused by the next call.
+     */
+    public FloatBuffer lttb(float fromTime, float toTime, int threshold) {
+        FloatBuffer input = decimate(fromTime, toTime, threshold);
+        int n = input.limit() / 2;
+        if (threshold < 3 || n <= threshold) {
+            return input;
+        }
+
+        if (lttbResult.capacity() < threshold * 2) {
+            lttbResult = FloatBuffer.allocate(threshold * 2);
+        }
+        lttbResult.clear();
+
+        // Always keep the first and last point, and from every bucket in
+        // between the point forming the largest triangle with the point kept
+        // before it and the average of the next bucket.
+        float bucketSize = (n - 2) / (float) (threshold - 2);
+        int kept = 0;
+        lttbResult.put(input.get(0));
+        lttbResult.put(input.get(1));
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+
+            int nextStart = end;
+            int nextEnd = Math.min(n, (int) ((bucket + 2) * bucketSize) + 1);
+            float averageTime = 0f, averageValue = 0f;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageTime += input.get(i * 2);
+                averageValue += input.get(i * 2 + 1);
+            }
+            averageTime /= nextEnd - nextStart;
+            averageValue /= nextEnd - nextStart;
+
+            float keptTime = input.get(kept * 2), keptValue = input.get(kept * 2 + 1);
+            float largestArea = -1f;
+            int largest = start;
+            for (int i = start; i < end; i++) {
+                float area = Math.abs((keptTime - averageTime) * (input.get(i * 2 + 1) - keptValue)
+                        - (keptTime - input.get(i * 2)) * (averageValue - keptValue));
+                if (area > largestArea) {
+                    largestArea = area;
+                    largest = i;
+                }
+            }
+
+            lttbResult.put(input.get(largest * 2));
+            lttbResult.put(input.get(largest * 2 + 1));
+            kept = largest;
+        }
+
+        lttbResult.put(input.get((n - 1) * 2));
+        lttbResult.put(input.get((n - 1) * 2 + 1));
+
+        lttbResult.flip();
+        return lttbResult;
+    }
+
+    private int firstAtOrAfter(float time) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstAfter(float time) {
+        int low = 0, high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
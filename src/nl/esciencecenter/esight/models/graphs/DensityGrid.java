@@ -0,0 +1,615 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.VecF3;
+import nl.esciencecenter.esight.models.Model;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+import nl.esciencecenter.esight.textures.ByteBufferTexture;
+import nl.esciencecenter.esight.util.WorkerPool;
+
+import com.jogamp.common.nio.Buffers;
+
+/**
+ * Density view of a point cloud too large to draw point by point. The points
+ * are counted into a grid of screen cells on all cores, the counts are mapped
+ * through a colormap on a logarithmic scale, and the result is drawn as one
+ * textured quad over the viewport. What a frame costs depends on the size of
+ * the grid, not on the number of points.
+ * <p>
+ * In {@link Mode#SCREEN} mode the points themselves are projected into the
+ * grid. A new view restarts the count, which is then refined over as many
+ * frames as it takes to count all points at {@link #setPointsPerFrame} points
+ * per frame. In {@link Mode#VOXEL} mode the points are counted once into a 3D
+ * grid of voxels within fixed bounds, and every view projects only the voxels
+ * that hold points, so changing the view no longer touches the points at all.
+ * In both modes points added later are counted incrementally.
+ * <p>
+ * Draw the grid with shaders/vs_density.vp and shaders/fs_density.fp.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class DensityGrid extends Model {
+    /** The smallest number of points worth a task of its own. */
+    private static final int POINTS_PER_TASK = 1 << 16;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int COLORMAP_ENTRIES = 256;
+
+    /** What the points are counted into. */
+    public enum Mode {
+        /** Cells of the screen, recounted for every view */
+        SCREEN,
+        /** Voxels within fixed bounds, projected for every view */
+        VOXEL
+    }
+
+    private final int width, height, voxels;
+    private final int glMultitexUnit;
+
+    private Mode mode = Mode.SCREEN;
+    private float[] voxelMin = new float[] { -1f, -1f, -1f };
+    private float[] voxelMax = new float[] { 1f, 1f, 1f };
+
+    /** (x, y, z) of every point, guarded by this */
+    private float[] points = new float[INITIAL_CAPACITY * 3];
+    private int numPoints = 0;
+
+    /** The number of points counted into the current cells and voxels */
+    private int pointsInCells = 0, pointsInVoxels = 0;
+    private int pointsPerFrame = 1 << 20;
+
+    private final AtomicIntegerArray cells;
+    private AtomicIntegerArray voxelCounts;
+    private float[] lastMatrix;
+
+    private final float[] colormap = new float[COLORMAP_ENTRIES * 4];
+    private final ByteBuffer pixels;
+    private ByteBufferTexture texture;
+
+    private boolean initialized = false;
+    private boolean pixelsChanged = false;
+
+    /**
+     * Constructor.
+     *
+     * @param width
+     *            The number of cells across the viewport.
+     * @param height
+     *            The number of cells up the viewport.
+     * @param voxels
+     *            The number of voxels along every axis in {@link Mode#VOXEL}
+     *            mode.
+     * @param glMultitexUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) the density
+     *            texture uses.
+     */
+    public DensityGrid(int width, int height, int voxels, int glMultitexUnit) {
+        super(VertexFormat.TRIANGLES);
+        this.width = width;
+        this.height = height;
+        this.voxels = voxels;
+        this.glMultitexUnit = glMultitexUnit;
+
+        cells = new AtomicIntegerArray(width * height);
+        pixels = Buffers.newDirectByteBuffer(width * height * 4);
+
+        setColormap(new Color4[] { new Color4(0f, 0f, 0.5f, 1f), Color4.RED, Color4.YELLOW, Color4.WHITE });
+    }
+
+    /**
+     * Appends a point.
+     *
+     * @param x
+     *            The x coordinate of the point.
+     * @param y
+     *            The y coordinate of the point.
+     * @param z
+     *            The z coordinate of the point.
+     */
+    public synchronized void add(float x, float y, float z) {
+        ensureCapacity(numPoints + 1);
+        points[numPoints * 3] = x;
+        points[numPoints * 3 + 1] = y;
+        points[numPoints * 3 + 2] = z;
+        numPoints++;
+    }
+
+    /**
+     * Appends points from a buffer, from its position up to its limit. The
+     * position of the buffer is not changed.
+     *
+     * @param vertices
+     *            The points.
+     * @param stride
+     *            The number of floats per point, 3 for (x, y, z) or 4 for
+     *            (x, y, z, w).
+     */
+    public synchronized void addAll(FloatBuffer vertices, int stride) {
+        int count = vertices.remaining() / stride;
+        ensureCapacity(numPoints + count);
+        int start = vertices.position();
+        for (int i = 0; i < count; i++) {
+            vertices.position(start + i * stride);
+            vertices.get(points, (numPoints + i) * 3, 3);
+        }
+        vertices.position(start);
+        numPoints += count;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count * 3 > points.length) {
+            points = Arrays.copyOf(points, Math.max(count, numPoints * 2) * 3);
+        }
+    }
+
+    /**
+     * Removes all points.
+     */
+    public synchronized void clear() {
+        numPoints = 0;
+        pointsInCells = 0;
+        pointsInVoxels = 0;
+        reset(cells);
+        if (voxelCounts != null) {
+            reset(voxelCounts);
+        }
+        pixelsChanged = true;
+    }
+
+    /**
+     * Getter for the number of points.
+     *
+     * @return the number of points.
+     */
+    public synchronized int size() {
+        return numPoints;
+    }
+
+    /**
+     * Setter for what the points are counted into.
+     *
+     * @param mode
+     *            The new mode.
+     */
+    public synchronized void setMode(Mode mode) {
+        if (this.mode != mode) {
+            this.mode = mode;
+            lastMatrix = null;
+        }
+    }
+
+    /**
+     * Setter for the bounds of the voxels. Points outside are not counted in
+     * {@link Mode#VOXEL} mode. Counting starts over.
+     *
+     * @param min
+     *            The lower corner of the bounds.
+     * @param max
+     *            The upper corner of the bounds.
+     */
+    public synchronized void setVoxelBounds(VecF3 min, VecF3 max) {
+        voxelMin = new float[] { min.getX(), min.getY(), min.getZ() };
+        voxelMax = new float[] { max.getX(), max.getY(), max.getZ() };
+        pointsInVoxels = 0;
+        if (voxelCounts != null) {
+            reset(voxelCounts);
+        }
+        lastMatrix = null;
+    }
+
+    /**
+     * Setter for the number of points counted per call to {@link #update},
+     * which bounds the time a frame spends counting.
+     *
+     * @param pointsPerFrame
+     *            The number of points.
+     */
+    public synchronized void setPointsPerFrame(int pointsPerFrame) {
+        this.pointsPerFrame = Math.max(1, pointsPerFrame);
+    }
+
+    /**
+     * Setter for the colormap. The lowest density gets the first color, the
+     * highest the last, and the colors in between are spaced evenly. Empty
+     * cells are transparent.
+     *
+     * @param colors
+     *            At least two colors.
+     */
+    public synchronized void setColormap(Color4[] colors) {
+        if (colors.length < 2) {
+            throw new IllegalArgumentException("A colormap needs at least 2 colors");
+        }
+        for (int i = 0; i < COLORMAP_ENTRIES; i++) {
+            float position = i / (float) (COLORMAP_ENTRIES - 1) * (colors.length - 1);
+            int low = Math.min((int) position, colors.length - 2);
+            float t = position - low;
+            Color4 a = colors[low], b = colors[low + 1];
+            colormap[i * 4] = a.getX() + (b.getX() - a.getX()) * t;
+            colormap[i * 4 + 1] = a.getY() + (b.getY() - a.getY()) * t;
+            colormap[i * 4 + 2] = a.getZ() + (b.getZ() - a.getZ()) * t;
+            colormap[i * 4 + 3] = a.getW() + (b.getW() - a.getW()) * t;
+        }
+        pixelsChanged = true;
+    }
+
+    /**
+     * Counts points for a view. If the view differs from the last one, the
+     * cells are recounted. At most {@link #setPointsPerFrame} points are
+     * counted per call, so a large cloud is refined over several calls.
+     *
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix.
+     * @return true if the density changed.
+     */
+    public synchronized boolean update(MatF4 p, MatF4 mv) {
+        float[] matrix = p.mul(mv).asArray();
+        boolean newView = !Arrays.equals(matrix, lastMatrix);
+        lastMatrix = matrix;
+
+        boolean changed = false;
+        if (mode == Mode.SCREEN) {
+            if (newView) {
+                reset(cells);
+                pointsInCells = 0;
+                changed = true;
+            }
+            int end = Math.min(numPoints, pointsInCells + pointsPerFrame);
+            if (end > pointsInCells) {
+                count(new ScreenTask(matrix, points, null, pointsInCells, end, chunkSize(end - pointsInCells)));
+                pointsInCells = end;
+                changed = true;
+            }
+        } else {
+            if (voxelCounts == null) {
+                voxelCounts = new AtomicIntegerArray(voxels * voxels * voxels);
+            }
+            int end = Math.min(numPoints, pointsInVoxels + pointsPerFrame);
+            if (end > pointsInVoxels) {
+                count(new VoxelTask(pointsInVoxels, end, chunkSize(end - pointsInVoxels)));
+                pointsInVoxels = end;
+                changed = true;
+            }
+            if (newView || changed) {
+                projectVoxels(matrix);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            pixelsChanged = true;
+        }
+        return changed;
+    }
+
+    private static void reset(AtomicIntegerArray counts) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static int chunkSize(int points) {
+        return WorkerPool.chunkSize(points, POINTS_PER_TASK);
+    }
+
+    private static void count(CountTask task) {
+        WorkerPool.get().invoke(task);
+    }
+
+    /**
+     * Recounts the cells from the centers of the voxels that hold points,
+     * weighted by their counts.
+     */
+    private void projectVoxels(float[] matrix) {
+        int filled = 0;
+        for (int i = 0; i < voxelCounts.length(); i++) {
+            if (voxelCounts.get(i) > 0) {
+                filled++;
+            }
+        }
+
+        float[] centers = new float[filled * 3];
+        int[] weights = new int[filled];
+        int next = 0;
+        for (int i = 0; i < voxelCounts.length(); i++) {
+            int count = voxelCounts.get(i);
+            if (count > 0) {
+                int x = i % voxels, y = (i / voxels) % voxels, z = i / (voxels * voxels);
+                centers[next * 3] = voxelMin[0] + (x + 0.5f) * (voxelMax[0] - voxelMin[0]) / voxels;
+                centers[next * 3 + 1] = voxelMin[1] + (y + 0.5f) * (voxelMax[1] - voxelMin[1]) / voxels;
+                centers[next * 3 + 2] = voxelMin[2] + (z + 0.5f) * (voxelMax[2] - voxelMin[2]) / voxels;
+                weights[next] = count;
+                next++;
+            }
+        }
+
+        reset(cells);
+        if (filled > 0) {
+            count(new ScreenTask(matrix, centers, weights, 0, filled, chunkSize(filled)));
+        }
+    }
+
+    /**
+     * Whether all points are counted into the cells for the last view.
+     *
+     * @return true if the density is complete.
+     */
+    public synchronized boolean isComplete() {
+        return mode == Mode.SCREEN ? pointsInCells == numPoints : pointsInVoxels == numPoints;
+    }
+
+    /**
+     * Getter for the count of a cell, as of the last {@link #update}.
+     *
+     * @param x
+     *            The column of the cell, 0 being the left of the viewport.
+     * @param y
+     *            The row of the cell, 0 being the bottom of the viewport.
+     * @return the number of points in the cell.
+     */
+    public synchronized int getCount(int x, int y) {
+        return cells.get(y * width + x);
+    }
+
+    /**
+     * Getter for the count of a voxel.
+     *
+     * @param x
+     *            The voxel along the x axis.
+     * @param y
+     *            The voxel along the y axis.
+     * @param z
+     *            The voxel along the z axis.
+     * @return the number of points in the voxel, 0 before the first
+     *         {@link #update} in {@link Mode#VOXEL} mode.
+     */
+    public synchronized int getVoxelCount(int x, int y, int z) {
+        return voxelCounts == null ? 0 : voxelCounts.get((z * voxels + y) * voxels + x);
+    }
+
+    /**
+     * Maps the counts through the colormap into the pixels of the texture.
+     * Densities are scaled logarithmically up to the fullest cell.
+     */
+    synchronized ByteBuffer colorize() {
+        int max = 0;
+        for (int i = 0; i < cells.length(); i++) {
+            max = Math.max(max, cells.get(i));
+        }
+        double scale = max > 0 ? (COLORMAP_ENTRIES - 1) / Math.log1p(max) : 0.0;
+
+        pixels.clear();
+        for (int i = 0; i < cells.length(); i++) {
+            int count = cells.get(i);
+            if (count == 0) {
+                pixels.putInt(0);
+            } else {
+                int entry = (int) Math.round(Math.log1p(count) * scale) * 4;
+                for (int c = 0; c < 4; c++) {
+                    pixels.put((byte) Math.round(colormap[entry + c] * 255f));
+                }
+            }
+        }
+        pixels.rewind();
+        return pixels;
+    }
+
+    @Override
+    public void init(GL3 gl) {
+        if (!initialized) {
+            FloatBuffer corners = FloatBuffer.wrap(new float[] { -1f, -1f, 1f, -1f, -1f, 1f, 1f, 1f });
+            GLSLAttrib vAttrib = new GLSLAttrib(corners, "MCvertex", GLSLAttrib.SIZE_FLOAT, 2);
+            setVbo(new VBO(gl, vAttrib));
+            setNumVertices(4);
+
+            texture = new ByteBufferTexture(glMultitexUnit, colorize(), width, height);
+            texture.init(gl);
+            pixelsChanged = false;
+
+            initialized = true;
+        }
+    }
+
+    @Override
+    public void draw(GL3 gl, ShaderProgram program) throws UninitializedException {
+        if (!initialized) {
+            throw new UninitializedException();
+        }
+
+        if (pixelsChanged) {
+            texture.update(gl, colorize(), 0, 0, width, height);
+            pixelsChanged = false;
+        }
+
+        texture.use(gl);
+        program.setUniform("density_map", texture.getMultitexNumber());
+
+        getVbo().bind(gl);
+        program.linkAttribs(gl, getVbo().getAttribs());
+        program.use(gl);
+
+        // The density stands for points at every depth, so it is drawn over
+        // the scene rather than at some depth within it.
+        boolean depthTest = gl.glIsEnabled(GL3.GL_DEPTH_TEST);
+        gl.glDisable(GL3.GL_DEPTH_TEST);
+        gl.glDrawArrays(GL3.GL_TRIANGLE_STRIP, 0, getNumVertices());
+        if (depthTest) {
+            gl.glEnable(GL3.GL_DEPTH_TEST);
+        }
+    }
+
+    @Override
+    public void delete(GL3 gl) {
+        if (initialized) {
+            getVbo().delete(gl);
+            texture.delete(gl);
+            initialized = false;
+        }
+    }
+
+    /**
+     * Fork/join task counting a range of points into cells or voxels. The
+     * range is split into about one task per worker. A task with more points
+     * than there are counters counts into a partial array of its own, which
+     * it adds to the shared counters when done; a task with fewer points adds
+     * to the shared counters directly, so a large grid is never allocated
+     * once per task.
+     */
+    private abstract class CountTask extends RecursiveAction {
+        private static final long serialVersionUID = 2871203529561338208L;
+
+        private final AtomicIntegerArray counts;
+        final int start, end, chunk;
+
+        CountTask(AtomicIntegerArray counts, int start, int end, int chunk) {
+            this.counts = counts;
+            this.start = start;
+            this.end = end;
+            this.chunk = chunk;
+        }
+
+        /**
+         * The counter a point is counted in.
+         *
+         * @param i
+         *            The index of the point.
+         * @return the index of the counter, or -1 if the point is not
+         *         counted.
+         */
+        abstract int counter(int i);
+
+        /**
+         * The amount a point adds to its counter.
+         *
+         * @param i
+         *            The index of the point.
+         * @return the weight of the point.
+         */
+        abstract int weight(int i);
+
+        abstract CountTask split(int from, int to);
+
+        @Override
+        protected void compute() {
+            if (end - start > chunk) {
+                int middle = (start + end) >>> 1;
+                invokeAll(split(start, middle), split(middle, end));
+                return;
+            }
+
+            if (counts.length() <= end - start) {
+                int[] partial = new int[counts.length()];
+                for (int i = start; i < end; i++) {
+                    int counter = counter(i);
+                    if (counter >= 0) {
+                        partial[counter] += weight(i);
+                    }
+                }
+                for (int c = 0; c < partial.length; c++) {
+                    if (partial[c] != 0) {
+                        counts.addAndGet(c, partial[c]);
+                    }
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    int counter = counter(i);
+                    if (counter >= 0) {
+                        counts.addAndGet(counter, weight(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fork/join task projecting a range of points into the cells. Points
+     * behind the camera or outside the viewport are not counted.
+     */
+    private class ScreenTask extends CountTask {
+        private static final long serialVersionUID = 4619542836103497150L;
+
+        private final float[] m, source;
+        private final int[] weights;
+
+        ScreenTask(float[] m, float[] source, int[] weights, int start, int end, int chunk) {
+            super(cells, start, end, chunk);
+            this.m = m;
+            this.source = source;
+            this.weights = weights;
+        }
+
+        @Override
+        int counter(int i) {
+            float x = source[i * 3], y = source[i * 3 + 1], z = source[i * 3 + 2];
+            float w = m[12] * x + m[13] * y + m[14] * z + m[15];
+            if (w <= 1E-6f) {
+                return -1;
+            }
+            float cx = ((m[0] * x + m[1] * y + m[2] * z + m[3]) / w * 0.5f + 0.5f) * width;
+            float cy = ((m[4] * x + m[5] * y + m[6] * z + m[7]) / w * 0.5f + 0.5f) * height;
+            if (cx >= 0f && cx < width && cy >= 0f && cy < height) {
+                return (int) cy * width + (int) cx;
+            }
+            return -1;
+        }
+
+        @Override
+        int weight(int i) {
+            return weights == null ? 1 : weights[i];
+        }
+
+        @Override
+        CountTask split(int from, int to) {
+            return new ScreenTask(m, source, weights, from, to, chunk);
+        }
+    }
+
+    /**
+     * Fork/join task counting a range of points into the voxels. Points
+     * outside the bounds are not counted.
+     */
+    private class VoxelTask extends CountTask {
+        private static final long serialVersionUID = -7165204377251360928L;
+
+        VoxelTask(int start, int end, int chunk) {
+            super(voxelCounts, start, end, chunk);
+        }
+
+        @Override
+        int counter(int i) {
+            int counter = 0;
+            for (int c = 2; c >= 0; c--) {
+                float v = (points[i * 3 + c] - voxelMin[c]) / (voxelMax[c] - voxelMin[c]) * voxels;
+                if (!(v >= 0f && v < voxels)) {
+                    return -1;
+                }
+                counter = counter * voxels + (int) v;
+            }
+            return counter;
+        }
+
+        @Override
+        int weight(int i) {
+            return 1;
+        }
+
+        @Override
+        CountTask split(int from, int to) {
+            return new VoxelTask(from, to, chunk);
+        }
+    }
+}
@@ -0,0 +1,611 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+
+import nl.esciencecenter.esight.util.WorkerPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Force-directed (Fruchterman-Reingold) layout of a graph in 2D or 3D. The
+ * repulsion between all pairs of nodes is approximated with a Barnes-Hut
+ * quadtree (2D) or octree (3D), so an iteration costs O(n log n) instead of
+ * O(n^2), and the forces on the nodes are accumulated in parallel.
+ * <p>
+ * Nodes are stored as separate coordinate arrays. The layout can be stepped
+ * by hand, or run on a thread of its own with {@link #start()}; the renderer
+ * then picks up the most recent positions with {@link #acquireSnapshot()}
+ * every frame, without waiting for the iteration in progress.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class ForceLayout implements Runnable {
+    private final static Logger logger = LoggerFactory.getLogger(ForceLayout.class);
+
+    /** The number of nodes below which a task is no longer split. */
+    private static final int NODES_PER_TASK = 1024;
+
+    /** Cells are not split beyond this depth, for (nearly) coincident nodes. */
+    private static final int MAX_DEPTH = 32;
+
+    private static final int INITIAL_CELLS = 1024;
+
+    private final int numNodes, dimensions, numChildren;
+
+    /** Node positions and the forces of the current iteration */
+    private final float[] x, y, z;
+    private final float[] fx, fy, fz;
+
+    /** The neighbors of node i are adjacency[adjacencyStart[i]] up to adjacencyStart[i + 1] */
+    private final int[] adjacencyStart;
+    private int[] adjacency = new int[0];
+
+    /** The tree, built every iteration. Cells hold the range of their nodes in order. */
+    private final int[] order, scratch;
+    private final int[][] octantCounts = new int[MAX_DEPTH + 1][];
+    private int numCells = 0;
+    private float[] cellX = new float[INITIAL_CELLS], cellY = new float[INITIAL_CELLS],
+            cellZ = new float[INITIAL_CELLS], cellHalf = new float[INITIAL_CELLS];
+    private float[] cellMass = new float[INITIAL_CELLS], comX = new float[INITIAL_CELLS],
+            comY = new float[INITIAL_CELLS], comZ = new float[INITIAL_CELLS];
+    private int[] firstChild = new int[INITIAL_CELLS], cellStart = new int[INITIAL_CELLS],
+            cellEnd = new int[INITIAL_CELLS];
+
+    private float edgeLength = 1f;
+    private float gravity = 0.01f;
+    private float theta = 0.8f;
+    private float cooling = 0.97f;
+    private float temperature, minTemperature;
+
+    private volatile int iterations = 0;
+
+    /** Triple buffered snapshots of the positions, (x, y, z) per node */
+    private final Object snapshotLock = new Object();
+    private float[] front, ready, back;
+    private boolean readyIsNew = false;
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    /**
+     * Constructor. The nodes start out at random positions.
+     *
+     * @param numNodes
+     *            The number of nodes.
+     * @param dimensions
+     *            2 for a layout in the XY plane, 3 for a layout in space.
+     */
+    public ForceLayout(int numNodes, int dimensions) {
+        if (dimensions != 2 && dimensions != 3) {
+            throw new IllegalArgumentException("A layout is either 2D or 3D, not " + dimensions + "D");
+        }
+        this.numNodes = numNodes;
+        this.dimensions = dimensions;
+        this.numChildren = 1 << dimensions;
+
+        x = new float[numNodes];
+        y = new float[numNodes];
+        z = new float[numNodes];
+        fx = new float[numNodes];
+        fy = new float[numNodes];
+        fz = new float[numNodes];
+        adjacencyStart = new int[numNodes + 1];
+        order = new int[numNodes];
+        scratch = new int[numNodes];
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            octantCounts[depth] = new int[numChildren];
+        }
+
+        front = new float[numNodes * 3];
+        ready = new float[numNodes * 3];
+        back = new float[numNodes * 3];
+
+        randomize(0L);
+    }
+
+    /**
+     * Places the nodes at random positions, and restarts the cooling.
+     *
+     * @param seed
+     *            The seed of the random positions.
+     */
+    public void randomize(long seed) {
+        Random random = new Random(seed);
+        float size = initialSize();
+        for (int i = 0; i < numNodes; i++) {
+            x[i] = (random.nextFloat() - 0.5f) * size;
+            y[i] = (random.nextFloat() - 0.5f) * size;
+            z[i] = dimensions == 3 ? (random.nextFloat() - 0.5f) * size : 0f;
+        }
+        reheat();
+        publish();
+    }
+
+    private float initialSize() {
+        return edgeLength * (float) Math.pow(Math.max(1, numNodes), 1.0 / dimensions);
+    }
+
+    /**
+     * Restarts the cooling, for instance after the graph changed.
+     */
+    public void reheat() {
+        temperature = initialSize() / 4f;
+        minTemperature = edgeLength / 100f;
+    }
+
+    /**
+     * Sets the edges of the graph. Edges are undirected.
+     *
+     * @param from
+     *            The first node of every edge.
+     * @param to
+     *            The second node of every edge.
+     */
+    public void setEdges(int[] from, int[] to) {
+        if (from.length != to.length) {
+            throw new IllegalArgumentException("Got " + from.length + " edge starts but " + to.length + " ends");
+        }
+        checkNotRunning();
+
+        // Store the edges as adjacency lists, in both directions, so every
+        // node can sum its own attraction without sharing writes.
+        Arrays.fill(adjacencyStart, 0);
+        for (int e = 0; e < from.length; e++) {
+            adjacencyStart[from[e] + 1]++;
+            adjacencyStart[to[e] + 1]++;
+        }
+        for (int i = 0; i < numNodes; i++) {
+            adjacencyStart[i + 1] += adjacencyStart[i];
+        }
+        adjacency = new int[from.length * 2];
+        int[] next = Arrays.copyOf(adjacencyStart, numNodes);
+        for (int e = 0; e < from.length; e++) {
+            adjacency[next[from[e]]++] = to[e];
+            adjacency[next[to[e]]++] = from[e];
+        }
+    }
+
+    /**
+     * Moves a node.
+     *
+     * @param node
+     *            The index of the node.
+     * @param px
+     *            The x coordinate.
+     * @param py
+     *            The y coordinate.
+     * @param pz
+     *            The z coordinate, ignored for 2D layouts.
+     */
+    public void setPosition(int node, float px, float py, float pz) {
+        checkNotRunning();
+        x[node] = px;
+        y[node] = py;
+        z[node] = dimensions == 3 ? pz : 0f;
+    }
+
+    /**
+     * Setter for the ideal edge length, which sets the scale of the layout.
+     *
+     * @param edgeLength
+     *            The ideal edge length.
+     */
+    public void setEdgeLength(float edgeLength) {
+        this.edgeLength = edgeLength;
+    }
+
+    /**
+     * Setter for the pull towards the origin, which keeps unconnected parts of
+     * the graph together.
+     *
+     * @param gravity
+     *            The gravity, 0 for none.
+     */
+    public void setGravity(float gravity) {
+        this.gravity = gravity;
+    }
+
+    /**
+     * Setter for the Barnes-Hut opening criterion.
+     *
+     * @param theta
+     *            The largest ratio of cell size to distance at which a cell is
+     *            treated as a single mass. 0 for the exact (O(n^2)) forces.
+     */
+    public void setTheta(float theta) {
+        this.theta = theta;
+    }
+
+    /**
+     * Setter for the cooling rate.
+     *
+     * @param cooling
+     *            The factor the largest displacement is multiplied with every
+     *            iteration, below 1.
+     */
+    public void setCooling(float cooling) {
+        this.cooling = cooling;
+    }
+
+    private void checkNotRunning() {
+        if (running) {
+            throw new IllegalStateException("The layout is running");
+        }
+    }
+
+    /**
+     * Runs one iteration of the layout, and publishes the new positions.
+     */
+    public void step() {
+        computeForces();
+
+        for (int i = 0; i < numNodes; i++) {
+            float length = (float) Math.sqrt(fx[i] * fx[i] + fy[i] * fy[i] + fz[i] * fz[i]);
+            if (length > 0f) {
+                float displacement = Math.min(length, temperature) / length;
+                x[i] += fx[i] * displacement;
+                y[i] += fy[i] * displacement;
+                z[i] += fz[i] * displacement;
+            }
+        }
+
+        temperature = Math.max(minTemperature * cooling, temperature * cooling);
+        iterations++;
+        publish();
+    }
+
+    /**
+     * Whether the layout has cooled down, after which further iterations
+     * barely move the nodes.
+     *
+     * @return true if the layout converged.
+     */
+    public boolean isConverged() {
+        return temperature < minTemperature;
+    }
+
+    /**
+     * Getter for the number of iterations run since construction.
+     *
+     * @return the number of iterations.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Computes the forces on all nodes, in parallel.
+     */
+    void computeForces() {
+        buildTree();
+        if (numNodes > 0) {
+            WorkerPool.get().invoke(new ForceTask(0, numNodes));
+        }
+    }
+
+    float getForceX(int node) {
+        return fx[node];
+    }
+
+    float getForceY(int node) {
+        return fy[node];
+    }
+
+    float getForceZ(int node) {
+        return fz[node];
+    }
+
+    int getNumCells() {
+        return numCells;
+    }
+
+    float getRootMass() {
+        return numCells > 0 ? cellMass[0] : 0f;
+    }
+
+    private void buildTree() {
+        numCells = 0;
+        if (numNodes == 0) {
+            return;
+        }
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for (int i = 0; i < numNodes; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+            minZ = Math.min(minZ, z[i]);
+            maxZ = Math.max(maxZ, z[i]);
+            order[i] = i;
+        }
+        float half = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) / 2f * 1.001f + 1E-6f;
+
+        newCell((minX + maxX) / 2f, (minY + maxY) / 2f, (minZ + maxZ) / 2f, half);
+        build(0, 0, numNodes, 0);
+    }
+
+    private int newCell(float cx, float cy, float cz, float half) {
+        if (numCells == cellX.length) {
+            int capacity = numCells * 2;
+            cellX = Arrays.copyOf(cellX, capacity);
+            cellY = Arrays.copyOf(cellY, capacity);
+            cellZ = Arrays.copyOf(cellZ, capacity);
+            cellHalf = Arrays.copyOf(cellHalf, capacity);
+            cellMass = Arrays.copyOf(cellMass, capacity);
+            comX = Arrays.copyOf(comX, capacity);
+            comY = Arrays.copyOf(comY, capacity);
+            comZ = Arrays.copyOf(comZ, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            cellStart = Arrays.copyOf(cellStart, capacity);
+            cellEnd = Arrays.copyOf(cellEnd, capacity);
+        }
+        int cell = numCells++;
+        cellX[cell] = cx;
+        cellY[cell] = cy;
+        cellZ[cell] = cz;
+        cellHalf[cell] = half;
+        return cell;
+    }
+
+    /**
+     * Builds the cell holding order[start] up to order[end], by sorting those
+     * nodes by octant and building a child cell per octant.
+     */
+    private void build(int cell, int start, int end, int depth) {
+        cellStart[cell] = start;
+        cellEnd[cell] = end;
+
+        if (end - start <= 1 || depth == MAX_DEPTH) {
+            firstChild[cell] = -1;
+            float sumX = 0f, sumY = 0f, sumZ = 0f;
+            for (int i = start; i < end; i++) {
+                sumX += x[order[i]];
+                sumY += y[order[i]];
+                sumZ += z[order[i]];
+            }
+            int count = end - start;
+            cellMass[cell] = count;
+            if (count > 0) {
+                comX[cell] = sumX / count;
+                comY[cell] = sumY / count;
+                comZ[cell] = sumZ / count;
+            }
+            return;
+        }
+
+        float cx = cellX[cell], cy = cellY[cell], cz = cellZ[cell];
+        int[] counts = octantCounts[depth];
+        Arrays.fill(counts, 0);
+        for (int i = start; i < end; i++) {
+            counts[octant(order[i], cx, cy, cz)]++;
+        }
+        int offset = start;
+        for (int o = 0; o < numChildren; o++) {
+            int count = counts[o];
+            counts[o] = offset;
+            offset += count;
+        }
+        for (int i = start; i < end; i++) {
+            int node = order[i];
+            scratch[counts[octant(node, cx, cy, cz)]++] = node;
+        }
+        System.arraycopy(scratch, start, order, start, end - start);
+
+        float quarter = cellHalf[cell] / 2f;
+        int first = numCells;
+        for (int o = 0; o < numChildren; o++) {
+            newCell(cx + ((o & 1) != 0 ? quarter : -quarter), cy + ((o & 2) != 0 ? quarter : -quarter),
+                    cz + ((o & 4) != 0 ? quarter : -quarter), quarter);
+        }
+        firstChild[cell] = first;
+
+        // counts[o] now holds the end of octant o.
+        int[] ends = Arrays.copyOf(counts, numChildren);
+        int childStart = start;
+        float mass = 0f, sumX = 0f, sumY = 0f, sumZ = 0f;
+        for (int o = 0; o < numChildren; o++) {
+            int child = first + o;
+            build(child, childStart, ends[o], depth + 1);
+            childStart = ends[o];
+
+            float childMass = cellMass[child];
+            mass += childMass;
+            sumX += comX[child] * childMass;
+            sumY += comY[child] * childMass;
+            sumZ += comZ[child] * childMass;
+        }
+        cellMass[cell] = mass;
+        comX[cell] = sumX / mass;
+        comY[cell] = sumY / mass;
+        comZ[cell] = sumZ / mass;
+    }
+
+    private int octant(int node, float cx, float cy, float cz) {
+        int o = x[node] > cx ? 1 : 0;
+        if (y[node] > cy) {
+            o |= 2;
+        }
+        if (dimensions == 3 && z[node] > cz) {
+            o |= 4;
+        }
+        return o;
+    }
+
+    private void computeForce(int i, int[] stack) {
+        float k2 = edgeLength * edgeLength;
+        float px = x[i], py = y[i], pz = z[i];
+        float forceX = 0f, forceY = 0f, forceZ = 0f;
+
+        // Repulsion: k^2 / d, from every other node or the cells far enough
+        // away to count as a single mass.
+        float theta2 = theta * theta;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int cell = stack[--top];
+            if (cellMass[cell] == 0f) {
+                continue;
+            }
+            if (firstChild[cell] < 0) {
+                for (int n = cellStart[cell]; n < cellEnd[cell]; n++) {
+                    int j = order[n];
+                    if (j != i) {
+                        float dx = px - x[j], dy = py - y[j], dz = pz - z[j];
+                        float d2 = dx * dx + dy * dy + dz * dz;
+                        if (d2 > 0f) {
+                            float f = k2 / d2;
+                            forceX += dx * f;
+                            forceY += dy * f;
+                            forceZ += dz * f;
+                        }
+                    }
+                }
+                continue;
+            }
+
+            float dx = px - comX[cell], dy = py - comY[cell], dz = pz - comZ[cell];
+            float d2 = dx * dx + dy * dy + dz * dz;
+            float size = cellHalf[cell] * 2f;
+            if (size * size < theta2 * d2) {
+                float f = k2 * cellMass[cell] / d2;
+                forceX += dx * f;
+                forceY += dy * f;
+                forceZ += dz * f;
+            } else {
+                int first = firstChild[cell];
+                for (int o = 0; o < numChildren; o++) {
+                    stack[top++] = first + o;
+                }
+            }
+        }
+
+        // Attraction along the edges: d^2 / k.
+        for (int n = adjacencyStart[i]; n < adjacencyStart[i + 1]; n++) {
+            int j = adjacency[n];
+            float dx = x[j] - px, dy = y[j] - py, dz = z[j] - pz;
+            float d = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            float f = d / edgeLength;
+            forceX += dx * f;
+            forceY += dy * f;
+            forceZ += dz * f;
+        }
+
+        fx[i] = forceX - gravity * px;
+        fy[i] = forceY - gravity * py;
+        fz[i] = forceZ - gravity * pz;
+    }
+
+    /** Fork/join task computing the forces on a range of nodes. */
+    private class ForceTask extends RecursiveAction {
+        private static final long serialVersionUID = -1290481634209468311L;
+
+        private final int start, end;
+
+        ForceTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= NODES_PER_TASK) {
+                int[] stack = new int[MAX_DEPTH * numChildren + 1];
+                for (int i = start; i < end; i++) {
+                    computeForce(i, stack);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ForceTask(start, middle), new ForceTask(middle, end));
+            }
+        }
+    }
+
+    private void publish() {
+        for (int i = 0; i < numNodes; i++) {
+            back[i * 3] = x[i];
+            back[i * 3 + 1] = y[i];
+            back[i * 3 + 2] = z[i];
+        }
+        synchronized (snapshotLock) {
+            float[] swap = ready;
+            ready = back;
+            back = swap;
+            readyIsNew = true;
+        }
+    }
+
+    /**
+     * Picks up the most recently published positions. The returned array is
+     * not written to until the next call, so the renderer can use it for the
+     * whole frame.
+     *
+     * @return the positions, (x, y, z) per node.
+     */
+    public float[] acquireSnapshot() {
+        synchronized (snapshotLock) {
+            if (readyIsNew) {
+                float[] swap = front;
+                front = ready;
+                ready = swap;
+                readyIsNew = false;
+            }
+            return front;
+        }
+    }
+
+    /**
+     * Starts running iterations on a daemon thread, until the layout
+     * converges or {@link #stop()} is called.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            thread = new Thread(this, "Force layout");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops running iterations, and waits for the iteration in progress.
+     */
+    public void stop() {
+        running = false;
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null && current != Thread.currentThread()) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Whether iterations are running on the layout thread.
+     *
+     * @return true if the layout is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        while (running && !isConverged()) {
+            step();
+        }
+        running = false;
+        logger.debug("Layout of " + numNodes + " nodes ran " + iterations + " iterations in "
+                + (System.nanoTime() - start) / 1000000L + " ms");
+    }
+}
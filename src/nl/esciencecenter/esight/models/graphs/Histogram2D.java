@@ -1,24 +1,40 @@
 package nl.esciencecenter.esight.models.graphs;
 
+import java.nio.FloatBuffer;
+
 import javax.media.opengl.GL3;
 
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
 import nl.esciencecenter.esight.math.Color4;
 import nl.esciencecenter.esight.math.MatF4;
 import nl.esciencecenter.esight.math.MatrixFMath;
 import nl.esciencecenter.esight.math.VecF3;
-import nl.esciencecenter.esight.models.LeftBottomQuad;
 import nl.esciencecenter.esight.shaders.ShaderProgram;
 import nl.esciencecenter.esight.text.MultiColorText;
 import nl.esciencecenter.esight.text.jogampexperimental.Font;
 import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
 
+/**
+ * 2D histogram, drawn as instances of a single unit quad. The VBO holds the
+ * quad, followed by a height and a color per bar; updating the values is one
+ * sub-buffer write of the heights. Draw the bars with
+ * shaders/vs_histogram.vp and shaders/fs_histogram.fp.
+ */
 public class Histogram2D {
-    private final float[] data;
-    private final LeftBottomQuad[] bars;
-    private final Color4[] colors;
+    private static final float[] UNIT_QUAD = new float[] { 0f, 0f, 0f, 1f, 0f, 1f, 0f, 1f, 1f, 1f, 0f, 1f, 0f, 0f,
+            0f, 1f, 1f, 1f, 0f, 1f, 1f, 0f, 0f, 1f };
+    private static final int VERTICES_PER_QUAD = 6;
+
+    /** The index of the heights in the VBO */
+    private static final int HEIGHT_ATTRIB = 1;
+
+    private final int numBars;
+    private final FloatBuffer quad, heights, barColors;
     private final MultiColorText[] barLabels;
     private final String[] barLabelTexts;
+    private final MatF4[] labelMatrices;
 
     private static final float DEFAULT_WIDTH = 1f;
     private static final float DEFAULT_HEIGHT = 1f;
@@ -31,35 +47,47 @@ public class Histogram2D {
     private final Font font;
     private final int FONTSIZE = 20;
 
+    private VBO vbo;
+    private boolean heightsChanged = false;
+
     public Histogram2D(Color4[] barColors, String[] labels) {
         this.leftBottomCoordinates = new VecF3();
 
-        int numBars = barColors.length;
-
-        float widthPerQuad = DEFAULT_WIDTH / numBars;
-
-        data = new float[numBars];
-        bars = new LeftBottomQuad[numBars];
-        for (int i = 0; i < numBars; i++) {
-            data[i] = 0f;
+        numBars = barColors.length;
 
-            VecF3 newLeftBottom = leftBottomCoordinates.add(new VecF3(i * widthPerQuad, 0f, 0f));
-            bars[i] = new LeftBottomQuad(DEFAULT_HEIGHT, widthPerQuad, newLeftBottom);
+        quad = FloatBuffer.wrap(UNIT_QUAD);
+        heights = FloatBuffer.allocate(numBars);
+        this.barColors = FloatBuffer.allocate(numBars * 4);
+        for (Color4 color : barColors) {
+            this.barColors.put(color.asBuffer());
         }
-
-        this.colors = barColors;
+        this.barColors.rewind();
 
         this.font = FontFactory.get(fontSet).getDefault();
         this.barLabels = new MultiColorText[numBars];
         this.barLabelTexts = labels;
+
+        // The bin layout never changes, so neither do the label transforms.
+        float widthPerQuad = DEFAULT_WIDTH / numBars;
+        float scale = .0025f;
+        MatF4 scaledRotationMatrix = MatrixFMath.scale(scale).mul(MatrixFMath.rotationZ(-90f));
+
+        labelMatrices = new MatF4[numBars];
+        for (int i = 0; i < numBars; i++) {
+            VecF3 newLeftBottom = leftBottomCoordinates.add(new VecF3(0.5f, ((widthPerQuad / scale) * i)
+                    + ((.2f * widthPerQuad / scale)), 0f));
+            labelMatrices[i] = scaledRotationMatrix.mul(MatrixFMath.translate(newLeftBottom));
+        }
     }
 
     public void init(GL3 gl) {
-        for (LeftBottomQuad q : bars) {
-            q.init(gl);
+        if (vbo == null) {
+            vbo = new VBO(gl, new GLSLAttrib(quad, "MCvertex", GLSLAttrib.SIZE_FLOAT, 4), new GLSLAttrib(heights,
+                    "BarHeight", GLSLAttrib.SIZE_FLOAT, 1), new GLSLAttrib(barColors, "BarColor",
+                    GLSLAttrib.SIZE_FLOAT, 4));
+            heightsChanged = false;
         }
 
-        int numBars = data.length;
         for (int i = 0; i < numBars; i++) {
             if (barLabels[i] == null) {
                 barLabels[i] = new MultiColorText(gl, font, barLabelTexts[i], Color4.WHITE, FONTSIZE);
@@ -69,56 +97,74 @@ public class Histogram2D {
     }
 
     public void drawBars(GL3 gl, ShaderProgram program) throws UninitializedException {
-        for (int i = 0; i < bars.length; i++) {
-            LeftBottomQuad q = bars[i];
-
-            // Set the color for the current Quad
-            program.setUniformVector("Color", colors[i]);
-
-            // Load all staged variables into the GPU, check for errors and
-            // omissions.
-            program.use(gl);
-            q.draw(gl, program);
+        if (vbo == null) {
+            throw new UninitializedException();
+        }
+        if (heightsChanged) {
+            vbo.updateRange(gl, HEIGHT_ATTRIB, 0, numBars);
+            heightsChanged = false;
         }
-    }
-
-    public void drawLabels(GL3 gl, MatF4 mv, ShaderProgram program) throws UninitializedException {
-        float widthPerQuad = DEFAULT_WIDTH / bars.length;
-
-        float scale = .0025f;
 
-        MatF4 scaleMatrix = MatrixFMath.scale(scale);
-        MatF4 scaledRotationMatrix = scaleMatrix.mul(MatrixFMath.rotationZ(-90f));
+        program.setUniform("BarWidth", DEFAULT_WIDTH / numBars);
 
-        for (int i = 0; i < bars.length; i++) {
-            MultiColorText label = barLabels[i];
-            VecF3 newLeftBottom = leftBottomCoordinates.add(new VecF3(0.5f, ((widthPerQuad / scale) * i)
-                    + ((.2f * widthPerQuad / scale)), 0f));
+        vbo.bind(gl);
+        program.linkAttribs(gl, vbo.getAttribs());
 
-            MatF4 scaledRotationTranslatedMatrix = scaledRotationMatrix.mul(MatrixFMath.translate(newLeftBottom));
+        // The quad is shared, the heights and colors advance once per bar.
+        gl.glVertexAttribDivisor(gl.glGetAttribLocation(program.getPointer(), "BarHeight"), 1);
+        gl.glVertexAttribDivisor(gl.glGetAttribLocation(program.getPointer(), "BarColor"), 1);
 
-            program.setUniformMatrix("MVMatrix", mv.mul(scaledRotationTranslatedMatrix));
+        // Load all staged variables into the GPU, check for errors and
+        // omissions.
+        program.use(gl);
+        gl.glDrawArraysInstanced(GL3.GL_TRIANGLES, 0, VERTICES_PER_QUAD, numBars);
+    }
 
-            label.draw(gl, program);
+    public void drawLabels(GL3 gl, MatF4 mv, ShaderProgram program) throws UninitializedException {
+        for (int i = 0; i < numBars; i++) {
+            program.setUniformMatrix("MVMatrix", mv.mul(labelMatrices[i]));
+            barLabels[i].draw(gl, program);
         }
     }
 
     public void setValues(GL3 gl, float[] newData) throws IllegalArgumentException {
-        int numBars = data.length;
-        float widthPerQuad = DEFAULT_WIDTH / numBars;
-
         if (newData.length != numBars) {
             throw new IllegalArgumentException("The size of this histogram was " + numBars
                     + " while you gave me data for a size " + newData.length);
         }
 
-        for (int i = 0; i < bars.length; i++) {
-            bars[i].delete(gl);
+        for (int i = 0; i < numBars; i++) {
+            heights.put(i, newData[i] * DEFAULT_HEIGHT);
+        }
 
-            VecF3 newLeftBottom = leftBottomCoordinates.add(new VecF3(i * widthPerQuad, 0f, 0f));
-            bars[i] = new LeftBottomQuad(newData[i] * DEFAULT_HEIGHT, widthPerQuad, newLeftBottom);
-            bars[i].init(gl);
+        if (vbo != null) {
+            vbo.updateRange(gl, HEIGHT_ATTRIB, 0, numBars);
         }
     }
 
+    public void setValue(int bar, float value) {
+        heights.put(bar, value * DEFAULT_HEIGHT);
+        heightsChanged = true;
+    }
+
+    public float getValue(int bar) {
+        return heights.get(bar) / DEFAULT_HEIGHT;
+    }
+
+    public int getNumBars() {
+        return numBars;
+    }
+
+    public void delete(GL3 gl) {
+        if (vbo != null) {
+            vbo.delete(gl);
+            vbo = null;
+        }
+        for (int i = 0; i < numBars; i++) {
+            if (barLabels[i] != null) {
+                barLabels[i].delete(gl);
+                barLabels[i] = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,352 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF3;
+import nl.esciencecenter.esight.math.VecF4;
+import nl.esciencecenter.esight.models.Model;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+
+/**
+ * Particles drawn as shaded spheres at the cost of points. Every particle is
+ * one vertex with a radius and a color. The vertex shader sizes its point
+ * sprite to cover the silhouette of the sphere, the cone of rays from the eye
+ * tangent to it. The fragment shader intersects the eye ray through each
+ * fragment with the sphere, discards the fragments that miss, lights the
+ * nearest hit and writes its depth, so spheres intersect correctly with each
+ * other and with the rest of the scene.
+ * <p>
+ * Draw the spheres with shaders/vs_impostorSpheres.vp and
+ * shaders/fs_impostorSpheres.fp, under a perspective projection of the
+ * glFrustum form, and tell them the viewport with {@link #setViewport}.
+ * Sprites are limited to the largest point size of the implementation, so
+ * spheres very close to the camera are clipped to a square. A sphere whose
+ * center leaves the view is culled whole, like any point.
+ * <p>
+ * Only particles added or changed since the last draw are uploaded.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class ImpostorSpheres extends Model {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** (x, y, z, 1) of every particle */
+    private float[] centers = new float[INITIAL_CAPACITY * 4];
+    private float[] colors = new float[INITIAL_CAPACITY * 4];
+    private float[] radii = new float[INITIAL_CAPACITY];
+    private int numParticles = 0;
+
+    /** The range of particles not yet uploaded */
+    private int dirtyFrom = Integer.MAX_VALUE, dirtyTo = 0;
+
+    private float radiusScale = 1f;
+    private int viewportX = 0, viewportY = 0, viewportWidth = 1, viewportHeight = 1;
+
+    private boolean initialized = false;
+    private boolean capacityChanged = false;
+
+    /**
+     * Constructor.
+     */
+    public ImpostorSpheres() {
+        super(VertexFormat.POINTS);
+    }
+
+    /**
+     * Adds a particle.
+     *
+     * @param center
+     *            The center of the sphere.
+     * @param radius
+     *            The radius of the sphere.
+     * @param color
+     *            The color of the sphere.
+     * @return the index of the particle.
+     */
+    public synchronized int add(VecF3 center, float radius, Color4 color) {
+        ensureCapacity(numParticles + 1);
+        int index = numParticles++;
+        setParticle(index, center.getX(), center.getY(), center.getZ(), radius);
+        setColor(index, color);
+        return index;
+    }
+
+    /**
+     * Adds particles from buffers, from their positions up to their limits.
+     * The positions of the buffers are not changed.
+     *
+     * @param inCenters
+     *            The centers, (x, y, z) per particle.
+     * @param inRadii
+     *            The radii, one per particle.
+     * @param inColors
+     *            The colors, (r, g, b, a) per particle.
+     */
+    public synchronized void addAll(FloatBuffer inCenters, FloatBuffer inRadii, FloatBuffer inColors) {
+        int count = inRadii.remaining();
+        if (inCenters.remaining() != count * 3 || inColors.remaining() != count * 4) {
+            throw new IllegalArgumentException("Expected 3 center coordinates and 4 color components per radius");
+        }
+        ensureCapacity(numParticles + count);
+
+        int centersStart = inCenters.position();
+        for (int i = 0; i < count; i++) {
+            int c = centersStart + i * 3;
+            centers[(numParticles + i) * 4] = inCenters.get(c);
+            centers[(numParticles + i) * 4 + 1] = inCenters.get(c + 1);
+            centers[(numParticles + i) * 4 + 2] = inCenters.get(c + 2);
+            centers[(numParticles + i) * 4 + 3] = 1f;
+        }
+        inRadii.duplicate().get(radii, numParticles, count);
+        inColors.duplicate().get(colors, numParticles * 4, count * 4);
+
+        markDirty(numParticles, numParticles + count);
+        numParticles += count;
+    }
+
+    private void ensureCapacity(int count) {
+        if (count > radii.length) {
+            int capacity = Math.max(count, radii.length * 2);
+            centers = Arrays.copyOf(centers, capacity * 4);
+            colors = Arrays.copyOf(colors, capacity * 4);
+            radii = Arrays.copyOf(radii, capacity);
+            capacityChanged = true;
+        }
+    }
+
+    private void setParticle(int index, float x, float y, float z, float radius) {
+        centers[index * 4] = x;
+        centers[index * 4 + 1] = y;
+        centers[index * 4 + 2] = z;
+        centers[index * 4 + 3] = 1f;
+        radii[index] = radius;
+        markDirty(index, index + 1);
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyFrom = Math.min(dirtyFrom, from);
+        dirtyTo = Math.max(dirtyTo, to);
+    }
+
+    /**
+     * Moves a particle.
+     *
+     * @param index
+     *            The index of the particle.
+     * @param center
+     *            The new center of the sphere.
+     */
+    public synchronized void setCenter(int index, VecF3 center) {
+        setParticle(index, center.getX(), center.getY(), center.getZ(), radii[index]);
+    }
+
+    /**
+     * Resizes a particle.
+     *
+     * @param index
+     *            The index of the particle.
+     * @param radius
+     *            The new radius of the sphere.
+     */
+    public synchronized void setRadius(int index, float radius) {
+        radii[index] = radius;
+        markDirty(index, index + 1);
+    }
+
+    /**
+     * Recolors a particle.
+     *
+     * @param index
+     *            The index of the particle.
+     * @param color
+     *            The new color of the sphere.
+     */
+    public synchronized void setColor(int index, Color4 color) {
+        colors[index * 4] = color.getX();
+        colors[index * 4 + 1] = color.getY();
+        colors[index * 4 + 2] = color.getZ();
+        colors[index * 4 + 3] = color.getW();
+        markDirty(index, index + 1);
+    }
+
+    /**
+     * Getter for the center of a particle.
+     *
+     * @param index
+     *            The index of the particle.
+     * @return the center of the sphere.
+     */
+    public synchronized VecF3 getCenter(int index) {
+        return new VecF3(centers[index * 4], centers[index * 4 + 1], centers[index * 4 + 2]);
+    }
+
+    /**
+     * Getter for the radius of a particle, before scaling.
+     *
+     * @param index
+     *            The index of the particle.
+     * @return the radius of the sphere.
+     */
+    public synchronized float getRadius(int index) {
+        return radii[index];
+    }
+
+    /**
+     * Removes all particles.
+     */
+    public synchronized void clear() {
+        numParticles = 0;
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+    }
+
+    /**
+     * Getter for the number of particles.
+     *
+     * @return the number of particles.
+     */
+    public synchronized int size() {
+        return numParticles;
+    }
+
+    /**
+     * Setter for the factor all radii are multiplied with when drawn, so the
+     * spheres can be shrunk or grown without touching the particles.
+     *
+     * @param radiusScale
+     *            The factor.
+     */
+    public void setRadiusScale(float radiusScale) {
+        this.radiusScale = radiusScale;
+    }
+
+    /**
+     * Getter for the factor all radii are multiplied with when drawn.
+     *
+     * @return the factor.
+     */
+    public float getRadiusScale() {
+        return radiusScale;
+    }
+
+    /**
+     * Setter for the viewport, as passed to glViewport. The shaders need it to
+     * size the sprites and to find the eye ray through each fragment.
+     *
+     * @param x
+     *            The left edge of the viewport in pixels.
+     * @param y
+     *            The bottom edge of the viewport in pixels.
+     * @param width
+     *            The width of the viewport in pixels.
+     * @param height
+     *            The height of the viewport in pixels.
+     */
+    public void setViewport(int x, int y, int width, int height) {
+        this.viewportX = x;
+        this.viewportY = y;
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+    }
+
+    /**
+     * Getter for the number of particles not yet uploaded to the GPU,
+     * counting the unchanged ones between changed ones.
+     *
+     * @return the number of pending particles.
+     */
+    synchronized int getPending() {
+        return Math.max(0, Math.min(dirtyTo, numParticles) - dirtyFrom);
+    }
+
+    @Override
+    public synchronized void init(GL3 gl) {
+        if (!initialized) {
+            capacityChanged = true;
+            initialized = true;
+        }
+    }
+
+    private void upload(GL3 gl) {
+        if (capacityChanged || getVbo() == null) {
+            GLSLAttrib vAttrib = new GLSLAttrib(FloatBuffer.wrap(centers), "MCvertex", GLSLAttrib.SIZE_FLOAT, 4);
+            GLSLAttrib cAttrib = new GLSLAttrib(FloatBuffer.wrap(colors), "ParticleColor", GLSLAttrib.SIZE_FLOAT, 4);
+            GLSLAttrib rAttrib = new GLSLAttrib(FloatBuffer.wrap(radii), "ParticleRadius", GLSLAttrib.SIZE_FLOAT, 1);
+            if (getVbo() == null) {
+                setVbo(new VBO(gl, vAttrib, cAttrib, rAttrib));
+            } else {
+                getVbo().update(gl, vAttrib, cAttrib, rAttrib);
+            }
+            capacityChanged = false;
+        } else if (getPending() > 0) {
+            int count = getPending();
+            getVbo().updateRange(gl, 0, dirtyFrom * 4, count * 4);
+            getVbo().updateRange(gl, 1, dirtyFrom * 4, count * 4);
+            getVbo().updateRange(gl, 2, dirtyFrom, count);
+        }
+
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = 0;
+        setNumVertices(numParticles);
+    }
+
+    @Override
+    public synchronized void draw(GL3 gl, ShaderProgram program) throws UninitializedException {
+        if (!initialized) {
+            throw new UninitializedException();
+        }
+        upload(gl);
+        if (numParticles == 0) {
+            return;
+        }
+
+        program.setUniform("RadiusScale", radiusScale);
+        program.setUniformVector("Viewport", new VecF4(viewportX, viewportY, viewportWidth, viewportHeight));
+
+        getVbo().bind(gl);
+        program.linkAttribs(gl, getVbo().getAttribs());
+        program.use(gl);
+
+        gl.glEnable(GL3.GL_PROGRAM_POINT_SIZE);
+        gl.glDrawArrays(GL3.GL_POINTS, 0, numParticles);
+    }
+
+    /**
+     * Draws the spheres into a viewport at the origin of the window.
+     *
+     * @param gl
+     *            The global openGL instance.
+     * @param program
+     *            The shader program, with shaders/vs_impostorSpheres.vp and
+     *            shaders/fs_impostorSpheres.fp.
+     * @param viewportWidth
+     *            The width of the viewport in pixels.
+     * @param viewportHeight
+     *            The height of the viewport in pixels.
+     * @throws UninitializedException
+     *             if {@link #init} has not been called.
+     */
+    public void draw(GL3 gl, ShaderProgram program, int viewportWidth, int viewportHeight)
+            throws UninitializedException {
+        setViewport(0, 0, viewportWidth, viewportHeight);
+        draw(gl, program);
+    }
+
+    @Override
+    public synchronized void delete(GL3 gl) {
+        if (initialized) {
+            if (getVbo() != null) {
+                getVbo().delete(gl);
+                setVbo(null);
+            }
+            initialized = false;
+        }
+    }
+}
@@ -44,6 +44,9 @@ public class LineGraph2D {
     private final String horizontalAxisString, verticalAxisString;
     private MultiColorText horizontalAxisText, verticalAxisText;
 
+    /** Whether the horizontal labels need to be rebuilt in the next init */
+    private boolean labelsChanged = true;
+
     public LineGraph2D(int horizontalSegments, Color4[] colors, String[] seperateColorNames,
             String horizontalAxisString, String verticalAxisString) {
         this.horizontalAxisString = horizontalAxisString;
@@ -66,6 +69,8 @@ public class LineGraph2D {
 
     public void addData(int colorIndex, float horizontal, float vertical) {
         SegmentedLine sl = segmentedLines.get(colorIndex);
+        float binOrigin = sl.getBinOrigin();
+        float binWidth = sl.getBinWidth();
         boolean dimensionsChanged = sl.addData(horizontal, vertical);
 
         if (dimensionsChanged) {
@@ -78,10 +83,15 @@ public class LineGraph2D {
             // the current one.
             for (SegmentedLine sl2 : segmentedLines.values()) {
                 if (!sl2.equals(sl)) {
-                    sl2.applyNewDimensions(minHorizontal, maxHorizontal, minVertical, maxVertical);
+                    sl2.applyNewDimensions(minHorizontal, maxHorizontal, minVertical, maxVertical, sl.getBinOrigin(),
+                            sl.getBinWidth());
                 }
             }
         }
+
+        if (sl.getBinOrigin() != binOrigin || sl.getBinWidth() != binWidth) {
+            labelsChanged = true;
+        }
     }
 
     public void init(GL3 gl) {
@@ -105,6 +115,11 @@ public class LineGraph2D {
             }
         }
 
+        if (!labelsChanged) {
+            return;
+        }
+        labelsChanged = false;
+
         for (int i = 0; i < NR_OF_HORIZONTAL_LABELS; i++) {
             int segmentIndex = (horizontalSegments / NR_OF_HORIZONTAL_LABELS) * i;
             if (horizontalLabels[i] != null) {
@@ -133,6 +148,8 @@ public class LineGraph2D {
         for (SegmentedLine sl : segmentedLines.values()) {
             ModelViewStack linesStack = new ModelViewStack(mvStack);
             linesStack.putBottom(MatrixFMath.translate(0f, 0f, i * (DEFAULT_WIDTH / colors.length)));
+            // The vertices hold totals per segment, scale them to shares.
+            linesStack.putTop(MatrixFMath.scale(1f, sl.getHeightScale(), 1f));
             program.setUniformMatrix("MVMatrix", linesStack.calc(mv));
 
             gl.glLineWidth(3f);
@@ -10,6 +10,7 @@ import nl.esciencecenter.esight.datastructures.GLSLAttrib;
 import nl.esciencecenter.esight.datastructures.VBO;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
 import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
 import nl.esciencecenter.esight.math.Point4;
 import nl.esciencecenter.esight.math.VecF4;
 import nl.esciencecenter.esight.math.VectorFMath;
@@ -30,6 +31,9 @@ public class ScatterPlot3D extends Model {
 
     private boolean initialized = false;
 
+    private DensityGrid density;
+    private int aggregationThreshold = Integer.MAX_VALUE;
+
     public ScatterPlot3D() {
         super(VertexFormat.POINTS);
 
@@ -45,6 +49,9 @@ public class ScatterPlot3D extends Model {
     public void add(Point4 point, Color4 color) {
         points.add(point);
         colors.add(color);
+        if (density != null) {
+            density.add(point.getX(), point.getY(), point.getZ());
+        }
 
         initialized = false;
     }
@@ -52,6 +59,11 @@ public class ScatterPlot3D extends Model {
     public void addAll(List<Point4> newPoints, List<Color4> newColors) {
         points.addAll(newPoints);
         colors.addAll(newColors);
+        if (density != null) {
+            for (Point4 point : newPoints) {
+                density.add(point.getX(), point.getY(), point.getZ());
+            }
+        }
 
         initialized = false;
     }
@@ -63,6 +75,11 @@ public class ScatterPlot3D extends Model {
         newVertices.put(getVertices());
         newVertices.put(inPoints);
 
+        if (density != null) {
+            inPoints.rewind();
+            density.addAll(inPoints, 4);
+        }
+
         newVertexColors.put(vertexColors);
         newVertexColors.put(inColors);
 
@@ -75,6 +92,43 @@ public class ScatterPlot3D extends Model {
         initialized = false;
     }
 
+    /**
+     * Draws the plot as a density grid instead of as points once it holds more
+     * than a number of points, so drawing no longer slows down as the plot
+     * grows. Only {@link #draw(GL3, ShaderProgram, ShaderProgram, MatF4, MatF4)}
+     * switches.
+     * 
+     * @param density
+     *            The density grid, which is given all points in the plot. It
+     *            is not deleted with the plot.
+     * @param threshold
+     *            The number of points above which the density is drawn.
+     */
+    public synchronized void setAggregation(DensityGrid density, int threshold) {
+        this.density = density;
+        this.aggregationThreshold = threshold;
+
+        density.clear();
+        if (newVertices != null) {
+            newVertices.rewind();
+            density.addAll(newVertices, 4);
+        } else {
+            for (VecF4 point : points) {
+                density.add(point.getX(), point.getY(), point.getZ());
+            }
+        }
+    }
+
+    /**
+     * Whether the plot is drawn as a density grid.
+     * 
+     * @return true if the plot holds more points than the aggregation
+     *         threshold.
+     */
+    public boolean isAggregated() {
+        return density != null && density.size() > aggregationThreshold;
+    }
+
     public void prepareBuffers() {
         newVertices = VectorFMath.vec4ListToBuffer(points);
         newColors = VectorFMath.vec4ListToBuffer(colors);
@@ -82,7 +136,10 @@ public class ScatterPlot3D extends Model {
 
     @Override
     public synchronized void init(GL3 gl) {
-        if (!initialized) {
+        if (isAggregated()) {
+            // The points are rebuilt into the VBO if they are drawn again.
+            density.init(gl);
+        } else if (!initialized) {
             delete(gl);
 
             if (newVertices == null) {
@@ -127,4 +184,38 @@ public class ScatterPlot3D extends Model {
         }
     }
 
+    /**
+     * Draws the plot as points, or as a density grid if it holds more points
+     * than the aggregation threshold. The density is refined a bit more with
+     * every draw until all points are counted.
+     * 
+     * @param gl
+     *            The global openGL instance.
+     * @param pointProgram
+     *            The shader program for the points.
+     * @param densityProgram
+     *            The shader program for the density grid, with
+     *            shaders/vs_density.vp and shaders/fs_density.fp.
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix.
+     * @throws UninitializedException
+     *             if {@link #init} has not been called.
+     */
+    public void draw(GL3 gl, ShaderProgram pointProgram, ShaderProgram densityProgram, MatF4 p, MatF4 mv)
+            throws UninitializedException {
+        if (isAggregated()) {
+            density.init(gl);
+            density.update(p, mv);
+            density.draw(gl, densityProgram);
+        } else {
+            init(gl);
+
+            pointProgram.setUniformMatrix("PMatrix", p);
+            pointProgram.setUniformMatrix("MVMatrix", mv);
+            draw(gl, pointProgram);
+        }
+    }
+
 }
@@ -1,8 +1,7 @@
 package nl.esciencecenter.esight.models.graphs;
 
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 import javax.media.opengl.GL3;
 
@@ -10,60 +9,82 @@ import nl.esciencecenter.esight.datastructures.GLSLAttrib;
 import nl.esciencecenter.esight.datastructures.VBO;
 import nl.esciencecenter.esight.exceptions.UninitializedException;
 import nl.esciencecenter.esight.math.Color4;
-import nl.esciencecenter.esight.math.VecF4;
 import nl.esciencecenter.esight.models.Model;
 import nl.esciencecenter.esight.shaders.ShaderProgram;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Line graph of the share of all data that falls into each of a number of
+ * horizontal bins.
+ * <p>
+ * The bins keep running totals, so adding a data point is O(1) and only the
+ * vertices of the bin it falls into are uploaded. The heights are the totals;
+ * the division by the number of data points is left to the modelview matrix
+ * (see {@link #getHeightScale()}). When a point falls right of the binned
+ * range, the bins are merged pairwise until it fits, which doubles the range
+ * without revisiting the data. Only points left of the range, or a binning
+ * imposed by another line, make the bins be recounted from the data.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
 public class SegmentedLine extends Model {
     private final static Logger LOGGER = LoggerFactory.getLogger(SegmentedLine.class);
 
     private final Color4 color;
-    private final List<VecF4> points;
-
+    private final int numBins;
     private final float widthPerSegment;
 
-    private class DataPoint {
-        private final float horizontal, vertical;
-
-        public DataPoint(float horizontal, float vertical) {
-            this.horizontal = horizontal;
-            this.vertical = vertical;
-        }
+    /** The data points, in order of arrival */
+    private float[] horizontals, verticals;
+    private int numData = 0;
 
-        public float getHorizontal() {
-            return horizontal;
-        }
+    private float minHorizontal, maxHorizontal, minVertical, maxVertical;
 
-        public float getVertical() {
-            return vertical;
-        }
-    }
+    /** Bin i covers [binOrigin + i * binWidth, binOrigin + (i + 1) * binWidth) */
+    private float binOrigin = 0f, binWidth = 0f;
+    /** The sum of the vertical values of the data points in each bin */
+    private final float[] binTotals;
 
-    private final List<DataPoint> dataPoints;
-
-    private float minHorizontal, maxHorizontal, minVertical, maxVertical;
+    /** Two vertices per line segment, of four floats each */
+    private final FloatBuffer vertices;
+    /** The first and last bin changed since the last upload, or -1 */
+    private int dirtyFrom = -1, dirtyTo = -1;
 
     public SegmentedLine(int numSegments, float widthPerSegment, Color4 color) {
         super(VertexFormat.LINES);
 
         this.widthPerSegment = widthPerSegment;
-
         this.color = color;
-        points = new ArrayList<VecF4>();
-        for (int i = 0; i < numSegments + 1; i++) {
-            points.add(new VecF4(i * widthPerSegment, 0f, 0f, 1f));
+
+        numBins = numSegments + 1;
+        binTotals = new float[numBins];
+
+        vertices = FloatBuffer.allocate((numBins - 1) * 2 * 4);
+        for (int i = 0; i < numBins; i++) {
+            writeBin(i);
         }
-        this.dataPoints = new ArrayList<DataPoint>();
+        setNumVertices((numBins - 1) * 2);
+
+        horizontals = new float[16];
+        verticals = new float[16];
 
         this.minHorizontal = Float.MAX_VALUE;
         this.minVertical = Float.MAX_VALUE;
-        this.maxHorizontal = Float.MIN_VALUE;
-        this.maxVertical = Float.MIN_VALUE;
+        this.maxHorizontal = -Float.MAX_VALUE;
+        this.maxVertical = -Float.MAX_VALUE;
     }
 
+    /**
+     * Adds a data point.
+     *
+     * @param horizontal
+     *            The horizontal value of the point.
+     * @param vertical
+     *            The vertical value of the point.
+     * @return whether the minimum or maximum of either dimension changed.
+     */
     public boolean addData(float horizontal, float vertical) {
         boolean dimensionsChanged = false;
 
@@ -84,67 +105,196 @@ public class SegmentedLine extends Model {
             dimensionsChanged = true;
         }
 
-        dataPoints.add(new DataPoint(horizontal, vertical));
-
-        recalculatePoints();
+        if (numData == horizontals.length) {
+            horizontals = Arrays.copyOf(horizontals, numData * 2);
+            verticals = Arrays.copyOf(verticals, numData * 2);
+        }
+        horizontals[numData] = horizontal;
+        verticals[numData] = vertical;
+        numData++;
+
+        if (covers(horizontal)) {
+            addToBin(horizontal, vertical);
+        } else if (binWidth > 0f && horizontal > binOrigin) {
+            while (!covers(horizontal)) {
+                mergeBins();
+            }
+            addToBin(horizontal, vertical);
+        } else {
+            rebin(minHorizontal, fittingWidth());
+        }
 
         return dimensionsChanged;
     }
 
-    public void applyNewDimensions(float minHorizontal, float maxHorizontal, float minVertical, float maxVertical) {
+    /**
+     * Widens the extent of this line to the given one, and makes it use the
+     * given binning if it differs from the current one.
+     *
+     * @param minHorizontal
+     *            The new horizontal minimum.
+     * @param maxHorizontal
+     *            The new horizontal maximum.
+     * @param minVertical
+     *            The new vertical minimum.
+     * @param maxVertical
+     *            The new vertical maximum.
+     * @param binOrigin
+     *            The left edge of the first bin.
+     * @param binWidth
+     *            The width of each bin.
+     */
+    public void applyNewDimensions(float minHorizontal, float maxHorizontal, float minVertical, float maxVertical,
+            float binOrigin, float binWidth) {
         this.minHorizontal = minHorizontal;
         this.maxHorizontal = maxHorizontal;
         this.minVertical = minVertical;
         this.maxVertical = maxVertical;
 
-        recalculatePoints();
+        if (binOrigin == this.binOrigin && binWidth == this.binWidth) {
+            return;
+        }
+        if (binOrigin == this.binOrigin && this.binWidth > 0f) {
+            // A coarser binning from the same origin is reached by merging.
+            while (this.binWidth < binWidth) {
+                mergeBins();
+            }
+            if (this.binWidth == binWidth) {
+                return;
+            }
+        }
+        rebin(binOrigin, binWidth);
     }
 
-    private void recalculatePoints() {
-        int numSegments = points.size();
+    private boolean covers(float horizontal) {
+        if (binWidth == 0f) {
+            return numData > 1 && horizontal == binOrigin;
+        }
+        return horizontal >= binOrigin && horizontal < binOrigin + numBins * binWidth;
+    }
 
-        float diffHorizontal = maxHorizontal - minHorizontal;
+    /**
+     * Getter for the width of the bins that make the current horizontal extent
+     * fit, with the maximum inside the last bin.
+     *
+     * @return the width, 0 if all data has the same horizontal value.
+     */
+    private float fittingWidth() {
+        float width = (maxHorizontal - minHorizontal) / (numBins - 1);
+        // Guard against rounding putting the maximum just past the last bin.
+        while (width > 0f && minHorizontal + numBins * width <= maxHorizontal) {
+            width = Math.nextUp(width);
+        }
+        return width;
+    }
 
-        float segmentWidth = diffHorizontal / numSegments;
+    private int binOf(float horizontal) {
+        if (binWidth == 0f) {
+            return 0;
+        }
+        int bin = (int) ((horizontal - binOrigin) / binWidth);
+        return Math.max(0, Math.min(numBins - 1, bin));
+    }
 
-        points.clear();
+    private void addToBin(float horizontal, float vertical) {
+        int bin = binOf(horizontal);
+        binTotals[bin] += vertical;
+        writeBin(bin);
+    }
 
-        for (int i = 0; i < numSegments; i++) {
-            float lowerSegmentBoundary = i * segmentWidth;
-            float upperSegmentBoundary = (i + 1) * segmentWidth;
+    /** Doubles the width of the bins, keeping the origin. */
+    private void mergeBins() {
+        for (int i = 0; i < numBins; i++) {
+            float total = 0f;
+            if (i * 2 < numBins) {
+                total += binTotals[i * 2];
+            }
+            if (i * 2 + 1 < numBins) {
+                total += binTotals[i * 2 + 1];
+            }
+            binTotals[i] = total;
+        }
+        binWidth *= 2f;
+        writeAllBins();
+    }
 
-            float qualifyingDataTotal = 0f;
-            for (DataPoint d : dataPoints) {
-                if (d.getHorizontal() > lowerSegmentBoundary && d.getHorizontal() < upperSegmentBoundary) {
-                    qualifyingDataTotal += d.getVertical();
-                }
+    /** Recounts all data into new bins. */
+    private void rebin(float origin, float width) {
+        binOrigin = origin;
+        binWidth = width;
+
+        Arrays.fill(binTotals, 0f);
+        for (int i = 0; i < numData; i++) {
+            if (binWidth == 0f || horizontals[i] < binOrigin + numBins * binWidth) {
+                binTotals[binOf(horizontals[i])] += verticals[i];
             }
+        }
+        writeAllBins();
+    }
 
-            float segmentHeight = qualifyingDataTotal / dataPoints.size();
+    private void writeAllBins() {
+        for (int i = 0; i < numBins; i++) {
+            writeBin(i);
+        }
+    }
 
-            VecF4 segmentPoint = new VecF4(i * widthPerSegment, segmentHeight, 0f, 1f);
+    /** Writes the height of a bin into the vertices of the segments it ends. */
+    private void writeBin(int bin) {
+        if (bin > 0) {
+            putVertex((bin - 1) * 2 + 1, bin);
+        }
+        if (bin < numBins - 1) {
+            putVertex(bin * 2, bin);
+        }
 
-            points.add(segmentPoint);
+        if (dirtyFrom < 0 || bin < dirtyFrom) {
+            dirtyFrom = bin;
+        }
+        if (bin > dirtyTo) {
+            dirtyTo = bin;
         }
     }
 
+    private void putVertex(int vertex, int bin) {
+        vertices.put(vertex * 4, bin * widthPerSegment);
+        vertices.put(vertex * 4 + 1, binTotals[bin]);
+        vertices.put(vertex * 4 + 2, 0f);
+        vertices.put(vertex * 4 + 3, 1f);
+    }
+
+    /**
+     * Getter for the horizontal value at the start of a segment.
+     *
+     * @param segmentIndex
+     *            The index of the segment.
+     * @return the left edge of its bin.
+     */
     public float getSegmentValue(int segmentIndex) {
-        int numSegments = points.size();
-        float diffHorizontal = maxHorizontal - minHorizontal;
-        float segmentWidth = diffHorizontal / numSegments;
+        return binOrigin + segmentIndex * binWidth;
+    }
 
-        return segmentIndex * segmentWidth;
+    /**
+     * Getter for the vertical scale that turns the bin totals in the vertices
+     * into the share of all data, to be applied to the modelview matrix.
+     *
+     * @return 1 over the number of data points, or 1 if there are none.
+     */
+    public float getHeightScale() {
+        return numData == 0 ? 1f : 1f / numData;
     }
 
+    /**
+     * Getter for the heights of the line, already scaled by
+     * {@link #getHeightScale()}.
+     *
+     * @return two points per line segment.
+     */
     public FloatBuffer pointsAsBuffer() {
-        FloatBuffer result = FloatBuffer.allocate(points.size() * 2 * 4);
-
-        for (int i = 0; i < points.size() - 1; i++) {
-            VecF4 thisPoint = points.get(i);
-            VecF4 nextPoint = points.get(i + 1);
+        float scale = getHeightScale();
 
-            result.put(thisPoint.asBuffer());
-            result.put(nextPoint.asBuffer());
+        FloatBuffer result = FloatBuffer.allocate(vertices.capacity());
+        for (int i = 0; i < vertices.capacity(); i++) {
+            result.put(i % 4 == 1 ? vertices.get(i) * scale : vertices.get(i));
         }
         result.rewind();
 
@@ -171,18 +321,68 @@ public class SegmentedLine extends Model {
         return maxVertical;
     }
 
+    public float getBinOrigin() {
+        return binOrigin;
+    }
+
+    public float getBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * Getter for the vertices of the bins changed since the last upload.
+     *
+     * @return (first vertex, number of vertices), or null if nothing changed.
+     */
+    int[] getDirtyVertices() {
+        if (dirtyFrom < 0) {
+            return null;
+        }
+        int first = Math.max(0, dirtyFrom * 2 - 1);
+        int last = Math.min(getNumVertices() - 1, dirtyTo * 2);
+        return new int[] { first, last - first + 1 };
+    }
+
     @Override
     public void init(GL3 gl) {
-        delete(gl);
+        if (getVbo() == null) {
+            setVbo(new VBO(gl, new GLSLAttrib(vertices, "MCvertex", GLSLAttrib.SIZE_FLOAT, 4)));
+            dirtyFrom = dirtyTo = -1;
+        } else {
+            upload(gl);
+        }
+    }
 
-        setNumVertices(points.size() * 2);
-        GLSLAttrib vAttrib = new GLSLAttrib(pointsAsBuffer(), "MCvertex", GLSLAttrib.SIZE_FLOAT, 4);
+    /**
+     * Uploads the vertices of the bins changed since the last upload. Called
+     * by {@link #draw}, so there is rarely a need to call this directly.
+     *
+     * @param gl
+     *            The global openGL instance.
+     */
+    public void upload(GL3 gl) {
+        int[] dirty = getDirtyVertices();
+        if (dirty != null) {
+            getVbo().updateRange(gl, 0, dirty[0] * 4, dirty[1] * 4);
+            dirtyFrom = dirtyTo = -1;
+        }
+    }
 
-        setVbo(new VBO(gl, vAttrib));
+    @Override
+    public void delete(GL3 gl) {
+        if (getVbo() != null) {
+            getVbo().delete(gl);
+            setVbo(null);
+        }
     }
 
     @Override
     public void draw(GL3 gl, ShaderProgram program) throws UninitializedException {
+        if (getVbo() == null) {
+            throw new UninitializedException();
+        }
+        upload(gl);
+
         program.setUniformVector("Color", color);
 
         getVbo().bind(gl);
@@ -0,0 +1,298 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF4;
+import nl.esciencecenter.esight.models.Model;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+
+/**
+ * Streaming line graph over a sliding window of the most recent samples.
+ * Samples are kept in a ring of primitive floats, so appending one is O(1)
+ * and only the new samples are uploaded to the GPU. The minimum and maximum
+ * of the window are maintained incrementally with monotonic deques.
+ * <p>
+ * The VBO holds the raw (time, value) pairs. Fitting them into the graph is
+ * left to the vertex shader (shaders/vs_timeSeries.vp) through the DataRange
+ * uniform, so rescaling the axes never touches the vertices.
+ * <p>
+ * The ring is stored twice in the VBO, back to back, so the window is always
+ * one contiguous line strip regardless of where the ring wraps.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class TimeSeries extends Model {
+    private final int capacity;
+    private final Color4 color;
+
+    /** (time, value) pairs, mirrored in two halves of capacity samples each */
+    private final FloatBuffer samples;
+
+    /** The total number of samples ever appended */
+    private long appended = 0L;
+    /** The total number of samples uploaded to the VBO */
+    private long uploaded = 0L;
+
+    /**
+     * Monotonic deques of sample numbers for the window minimum (values
+     * ascending) and maximum (values descending). Rings of capacity entries.
+     */
+    private final long[] minDeque, maxDeque;
+    private int minHead = 0, minSize = 0, maxHead = 0, maxSize = 0;
+
+    private final float[] times, values;
+
+    private boolean initialized = false;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            The number of most recent samples shown.
+     * @param color
+     *            The color of the line.
+     */
+    public TimeSeries(int capacity, Color4 color) {
+        super(VertexFormat.LINES);
+        if (capacity < 2) {
+            throw new IllegalArgumentException("A time series needs room for at least 2 samples");
+        }
+        this.capacity = capacity;
+        this.color = color;
+
+        samples = FloatBuffer.allocate(capacity * 2 * 2);
+        times = new float[capacity];
+        values = new float[capacity];
+        minDeque = new long[capacity];
+        maxDeque = new long[capacity];
+    }
+
+    /**
+     * Appends a sample, dropping the oldest one if the window is full. Times
+     * must not decrease.
+     *
+     * @param time
+     *            The time of the sample.
+     * @param value
+     *            The value of the sample.
+     */
+    public void addData(float time, float value) {
+        long sample = appended;
+        int slot = (int) (sample % capacity);
+
+        times[slot] = time;
+        values[slot] = value;
+        samples.put(slot * 2, time);
+        samples.put(slot * 2 + 1, value);
+        samples.put((slot + capacity) * 2, time);
+        samples.put((slot + capacity) * 2 + 1, value);
+
+        appended++;
+
+        // Drop the sample that just left the window from the deque fronts.
+        long oldest = appended - size();
+        if (minSize > 0 && minDeque[minHead] < oldest) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+        if (maxSize > 0 && maxDeque[maxHead] < oldest) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+
+        // Samples that can never be the extreme again leave from the back.
+        while (minSize > 0 && values[slotOf(minDeque[(minHead + minSize - 1) % capacity])] >= value) {
+            minSize--;
+        }
+        minDeque[(minHead + minSize) % capacity] = sample;
+        minSize++;
+
+        while (maxSize > 0 && values[slotOf(maxDeque[(maxHead + maxSize - 1) % capacity])] <= value) {
+            maxSize--;
+        }
+        maxDeque[(maxHead + maxSize) % capacity] = sample;
+        maxSize++;
+    }
+
+    private int slotOf(long sample) {
+        return (int) (sample % capacity);
+    }
+
+    /**
+     * Removes all samples.
+     */
+    public void clear() {
+        appended = 0L;
+        uploaded = 0L;
+        minHead = minSize = 0;
+        maxHead = maxSize = 0;
+    }
+
+    /**
+     * Getter for the number of samples in the window.
+     *
+     * @return the number of samples.
+     */
+    public int size() {
+        return (int) Math.min(appended, capacity);
+    }
+
+    /**
+     * Getter for the capacity of the window.
+     *
+     * @return the maximum number of samples.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Getter for the time of the oldest sample in the window.
+     *
+     * @return the time of the oldest sample, or 0 if there are none.
+     */
+    public float getMinTime() {
+        return size() == 0 ? 0f : times[slotOf(appended - size())];
+    }
+
+    /**
+     * Getter for the time of the newest sample in the window.
+     *
+     * @return the time of the newest sample, or 0 if there are none.
+     */
+    public float getMaxTime() {
+        return size() == 0 ? 0f : times[slotOf(appended - 1)];
+    }
+
+    /**
+     * Getter for the smallest value in the window.
+     *
+     * @return the smallest value, or 0 if there are no samples.
+     */
+    public float getMinValue() {
+        return minSize == 0 ? 0f : values[slotOf(minDeque[minHead])];
+    }
+
+    /**
+     * Getter for the largest value in the window.
+     *
+     * @return the largest value, or 0 if there are no samples.
+     */
+    public float getMaxValue() {
+        return maxSize == 0 ? 0f : values[slotOf(maxDeque[maxHead])];
+    }
+
+    /**
+     * Getter for the value of a sample in the window.
+     *
+     * @param index
+     *            The index of the sample, 0 being the oldest.
+     * @return the value of the sample.
+     */
+    public float getValue(int index) {
+        return values[slotOf(appended - size() + index)];
+    }
+
+    /**
+     * Getter for the time of a sample in the window.
+     *
+     * @param index
+     *            The index of the sample, 0 being the oldest.
+     * @return the time of the sample.
+     */
+    public float getTime(int index) {
+        return times[slotOf(appended - size() + index)];
+    }
+
+    /**
+     * Getter for the data range of the window, in the form expected by the
+     * DataRange uniform of shaders/vs_timeSeries.vp.
+     *
+     * @return (minimum time, maximum time, minimum value, maximum value).
+     */
+    public VecF4 getDataRange() {
+        return new VecF4(getMinTime(), getMaxTime(), getMinValue(), getMaxValue());
+    }
+
+    /**
+     * Getter for the number of samples not yet uploaded to the GPU.
+     *
+     * @return the number of pending samples, at most the capacity.
+     */
+    int getPending() {
+        return (int) Math.min(appended - uploaded, capacity);
+    }
+
+    @Override
+    public void init(GL3 gl) {
+        if (!initialized) {
+            GLSLAttrib vAttrib = new GLSLAttrib(samples, "MCvertex", GLSLAttrib.SIZE_FLOAT, 2);
+            setVbo(new VBO(gl, vAttrib));
+            uploaded = appended;
+            initialized = true;
+        }
+    }
+
+    /**
+     * Uploads the samples appended since the last upload. Called by
+     * {@link #draw}, so there is rarely a need to call this directly.
+     *
+     * @param gl
+     *            The global openGL instance.
+     */
+    public void upload(GL3 gl) {
+        int pending = getPending();
+        if (pending == 0) {
+            return;
+        }
+
+        int first = slotOf(appended - pending);
+        int firstRun = Math.min(pending, capacity - first);
+        uploadRun(gl, first, firstRun);
+        if (firstRun < pending) {
+            uploadRun(gl, 0, pending - firstRun);
+        }
+        uploaded = appended;
+    }
+
+    private void uploadRun(GL3 gl, int slot, int count) {
+        getVbo().updateRange(gl, 0, slot * 2, count * 2);
+        getVbo().updateRange(gl, 0, (slot + capacity) * 2, count * 2);
+    }
+
+    @Override
+    public void draw(GL3 gl, ShaderProgram program) throws UninitializedException {
+        if (!initialized) {
+            throw new UninitializedException();
+        }
+        upload(gl);
+
+        int size = size();
+        if (size < 2) {
+            return;
+        }
+
+        program.setUniformVector("Color", color);
+        program.setUniformVector("DataRange", getDataRange());
+
+        getVbo().bind(gl);
+        program.linkAttribs(gl, getVbo().getAttribs());
+        program.use(gl);
+
+        gl.glDrawArrays(GL3.GL_LINE_STRIP, slotOf(appended - size), size);
+    }
+
+    @Override
+    public void delete(GL3 gl) {
+        if (initialized) {
+            getVbo().delete(gl);
+            initialized = false;
+        }
+    }
+}
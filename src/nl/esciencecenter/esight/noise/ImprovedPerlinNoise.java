@@ -1,5 +1,7 @@
 package nl.esciencecenter.esight.noise;
 
+import java.util.Random;
+
 //JAVA REFERENCE IMPLEMENTATION OF IMPROVED NOISE - COPYRIGHT 2002 KEN PERLIN.
 
 /**
@@ -47,6 +49,117 @@ public final class ImprovedPerlinNoise {
                                 grad(p[iBB + 1], tmpX - 1, tmpY - 1, tmpZ - 1))));
     }
 
+    /**
+     * Batch version of {@link #noise(double, double, double)} for a row of
+     * samples along the z axis. Sample i of the row is evaluated at (x, y,
+     * (zStart + i) * zFrequency), with the z coordinate calculated in float
+     * precision before being widened, which is how {@link Noise} has always
+     * calculated its sample coordinates. Everything that only depends on x and
+     * y (the fade curves and the first two levels of the permutation lookup)
+     * is calculated once for the whole row. Results are identical, bit for
+     * bit, to calling {@link #noise(double, double, double)} per sample.
+     * 
+     * @param perm
+     *            The permutation table (512 entries) to use, see
+     *            {@link #getPermutation()} and {@link #newPermutation(long)}.
+     * @param x
+     *            The x coordinate of the row.
+     * @param y
+     *            The y coordinate of the row.
+     * @param zFrequency
+     *            The distance between two samples in the z direction.
+     * @param zStart
+     *            The index of the first sample of the row.
+     * @param out
+     *            The array to store the results in.
+     * @param offset
+     *            The index of out to store the first result in.
+     * @param count
+     *            The number of samples in the row.
+     */
+    public static void noiseRow(int[] perm, double x, double y, float zFrequency, int zStart, float[] out,
+            int offset, int count) {
+        double tmpX = x, tmpY = y;
+
+        // Find the unit square that contains the row.
+        int iX = (int) Math.floor(tmpX) & 255;
+        int iY = (int) Math.floor(tmpY) & 255;
+
+        // Find relative X,Y of the row in the square.
+        tmpX -= Math.floor(tmpX);
+        tmpY -= Math.floor(tmpY);
+
+        // Compute fade curves for X,Y
+        double u = fade(tmpX);
+        double v = fade(tmpY);
+
+        // Hoisted hash coordinates of the 4 square corners
+        int iA = perm[iX] + iY;
+        int pA = perm[iA];
+        int pAB = perm[iA + 1];
+        int iB = perm[iX + 1] + iY;
+        int pB = perm[iB];
+        int pBB = perm[iB + 1];
+
+        for (int i = 0; i < count; i++) {
+            double z = (zStart + i) * zFrequency;
+            double tmpZ = z;
+
+            int iZ = (int) Math.floor(tmpZ) & 255;
+            tmpZ -= Math.floor(tmpZ);
+            double w = fade(tmpZ);
+
+            int iAA = pA + iZ;
+            int iAB = pAB + iZ;
+            int iBA = pB + iZ;
+            int iBB = pBB + iZ;
+
+            out[offset + i] = (float) lerp(
+                    w,
+                    lerp(v, lerp(u, grad(perm[iAA], tmpX, tmpY, tmpZ), grad(perm[iBA], tmpX - 1, tmpY, tmpZ)),
+                            lerp(u, grad(perm[iAB], tmpX, tmpY - 1, tmpZ), grad(perm[iBB], tmpX - 1, tmpY - 1, tmpZ))),
+                    lerp(v,
+                            lerp(u, grad(perm[iAA + 1], tmpX, tmpY, tmpZ - 1),
+                                    grad(perm[iBA + 1], tmpX - 1, tmpY, tmpZ - 1)),
+                            lerp(u, grad(perm[iAB + 1], tmpX, tmpY - 1, tmpZ - 1),
+                                    grad(perm[iBB + 1], tmpX - 1, tmpY - 1, tmpZ - 1))));
+        }
+    }
+
+    /**
+     * Getter for (a copy of) Ken Perlin's reference permutation table, as used
+     * by {@link #noise(double, double, double)}.
+     * 
+     * @return The reference permutation table, doubled to 512 entries.
+     */
+    public static int[] getPermutation() {
+        return p.clone();
+    }
+
+    /**
+     * Creates a new permutation table by shuffling the numbers 0-255 with the
+     * given seed. The same seed always results in the same table.
+     * 
+     * @param seed
+     *            The seed for the shuffle.
+     * @return A permutation table, doubled to 512 entries.
+     */
+    public static int[] newPermutation(long seed) {
+        Random random = new Random(seed);
+        int[] result = new int[512];
+        for (int i = 0; i < 256; i++) {
+            result[i] = i;
+        }
+        for (int i = 255; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = result[i];
+            result[i] = result[j];
+            result[j] = tmp;
+        }
+        System.arraycopy(result, 0, result, 256, 256);
+        return result;
+    }
+
     static double fade(double t) {
         return t * t * t * (t * (t * 6 - 15) + 10);
     }
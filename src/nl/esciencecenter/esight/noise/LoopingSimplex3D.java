@@ -0,0 +1,174 @@
+package nl.esciencecenter.esight.noise;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import nl.esciencecenter.esight.textures.Texture3D;
+import nl.esciencecenter.esight.util.WorkerPool;
+
+import com.jogamp.common.nio.Buffers;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Animated 2D simplex noise, stored as a 3D texture with one frame per
+ * layer. The animation loops seamlessly: the last layer blends into the
+ * first, so shaders can scroll through the r texture coordinate with
+ * GL_REPEAT-like behaviour, see {@link SimplexNoise}. The pixel format is the
+ * same as that of {@link Perlin3D}.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class LoopingSimplex3D extends Texture3D {
+    private static final int OCTAVES = 4;
+    private static final float PERSISTENCE = .75f;
+    private static final float BASE_FREQUENCY = 0.05f;
+
+    /** The number of frames below which a task is no longer split. */
+    private static final int FRAMES_PER_TASK = 2;
+
+    private final int[] permutation;
+
+    /**
+     * Generates a looping animation of simplex noise, with the reference
+     * permutation table.
+     *
+     * Do not forget to call {@link #init(javax.media.opengl.GL3)} before use.
+     *
+     * @param glMultitexUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) this texture
+     *            uses.
+     * @param width
+     *            The width of this texture.
+     * @param height
+     *            The height of this texture.
+     * @param frames
+     *            The number of frames in the loop, the depth of this texture.
+     */
+    public LoopingSimplex3D(int glMultitexUnit, int width, int height, int frames) {
+        this(glMultitexUnit, width, height, frames, ImprovedPerlinNoise.getPermutation());
+    }
+
+    /**
+     * Generates a looping animation of simplex noise, with a seeded
+     * permutation table.
+     *
+     * Do not forget to call {@link #init(javax.media.opengl.GL3)} before use.
+     *
+     * @param glMultitexUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) this texture
+     *            uses.
+     * @param width
+     *            The width of this texture.
+     * @param height
+     *            The height of this texture.
+     * @param frames
+     *            The number of frames in the loop, the depth of this texture.
+     * @param seed
+     *            The seed for the permutation table.
+     */
+    public LoopingSimplex3D(int glMultitexUnit, int width, int height, int frames, long seed) {
+        this(glMultitexUnit, width, height, frames, ImprovedPerlinNoise.newPermutation(seed));
+    }
+
+    private LoopingSimplex3D(int glMultitexUnit, int width, int height, int frames, int[] permutation) {
+        super(glMultitexUnit);
+
+        this.width = width;
+        this.height = height;
+        this.depth = frames;
+        this.permutation = permutation;
+
+        pixelBuffer = Buffers.newDirectByteBuffer(width * height * frames * 4);
+        WorkerPool.get().invoke(new FrameTask(0, frames));
+        pixelBuffer.rewind();
+    }
+
+    /**
+     * Fork/join task that calculates a range of frames of the animation.
+     */
+    private class FrameTask extends RecursiveAction {
+        private static final long serialVersionUID = -2716005284637163290L;
+
+        private final int start, end;
+
+        FrameTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= FRAMES_PER_TASK) {
+                computeFrames(start, end);
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new FrameTask(start, middle), new FrameTask(middle, end));
+            }
+        }
+    }
+
+    private void computeFrames(int start, int end) {
+        ByteBuffer out = pixelBuffer.duplicate();
+        float[] row = new float[width];
+        float[] total = new float[width];
+
+        // Normalize the octave weights so the result fits in a byte.
+        float weights = 0f;
+        float weight = 1f;
+        for (int i = 0; i < OCTAVES; i++) {
+            weights += weight;
+            weight *= PERSISTENCE;
+        }
+
+        for (int t = start; t < end; t++) {
+            double angle = 2.0 * Math.PI * t / depth;
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+
+            for (int y = 0; y < height; y++) {
+                Arrays.fill(total, 127.5f);
+
+                float amplitude = 127.5f / weights;
+                float frequency = BASE_FREQUENCY;
+                for (int i = 0; i < OCTAVES; i++) {
+                    // Time runs along a circle, so the animation loops.
+                    double radius = depth * frequency / (2.0 * Math.PI);
+
+                    // The row runs along the 4th noise dimension.
+                    SimplexNoise.noiseRow(permutation, y * frequency, radius * cos, radius * sin, frequency, 0, row,
+                            0, width);
+                    for (int x = 0; x < width; x++) {
+                        total[x] += row[x] * amplitude;
+                    }
+
+                    amplitude *= PERSISTENCE;
+                    frequency *= 2;
+                }
+
+                int index = (t * height + y) * width * 4;
+                for (int x = 0; x < width; x++) {
+                    int val = Math.max(0, Math.min(255, (int) total[x]));
+                    // All four bytes are equal, so the byte order does not
+                    // matter.
+                    out.putInt(index + x * 4, val * 0x01010101);
+                }
+            }
+        }
+    }
+}
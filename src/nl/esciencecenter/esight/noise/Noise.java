@@ -2,6 +2,10 @@ package nl.esciencecenter.esight.noise;
 
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import nl.esciencecenter.esight.util.WorkerPool;
 
 import com.jogamp.common.nio.Buffers;
 
@@ -29,109 +33,240 @@ import com.jogamp.common.nio.Buffers;
  * 
  */
 public class Noise {
+    /** The number of slices below which a task is no longer split. */
+    private static final int SLICES_PER_TASK = 4;
+
+    /** Mixes the seed into the hash of the 2D noise. */
+    private static final int NOISE_MAGIC_SEED = 1013;
+
     private final FloatBuffer tempBuf;
     private final int pixels;
 
+    private final int channels, width, height, depth;
+    private final int[] permutation;
+    private final int seed;
+
+    /**
+     * Constructor for a noise field using the reference permutation table.
+     * 
+     * @param channels
+     *            The number of octaves of noise to add together.
+     * @param width
+     *            The width of the field.
+     * @param height
+     *            The height of the field.
+     * @param depth
+     *            The depth of the field, 0 or 1 results in a 2D field.
+     */
     public Noise(int channels, int width, int height, int depth) {
-        pixels = width * height * depth;
+        this(channels, width, height, depth, ImprovedPerlinNoise.getPermutation(), 0);
+    }
+
+    /**
+     * Constructor for a noise field with a seeded permutation table. The same
+     * seed always results in the same noise field.
+     * 
+     * @param channels
+     *            The number of octaves of noise to add together.
+     * @param width
+     *            The width of the field.
+     * @param height
+     *            The height of the field.
+     * @param depth
+     *            The depth of the field, 0 or 1 results in a 2D field.
+     * @param seed
+     *            The seed for the permutation table.
+     */
+    public Noise(int channels, int width, int height, int depth, long seed) {
+        this(channels, width, height, depth, ImprovedPerlinNoise.newPermutation(seed), (int) seed);
+    }
+
+    private Noise(int channels, int width, int height, int depth, int[] permutation, int seed) {
+        this.channels = channels;
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.permutation = permutation;
+        this.seed = seed;
+
+        pixels = width * height * Math.max(depth, 1);
 
         tempBuf = Buffers.newDirectFloatBuffer(pixels);
 
         if (depth == 0 || depth == 1) {
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    float noise = perlinNoise2D(channels, x, y);
-                    tempBuf.put(noise);
-                }
-            }
-
+            WorkerPool.get().invoke(new SliceTask(0, height));
         } else {
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    for (int z = 0; z < depth; z++) {
-                        float noise = perlinNoise3D(channels, x, y, z);
-                        tempBuf.put(noise);
-                    }
+            WorkerPool.get().invoke(new SliceTask(0, width));
+        }
+
+        tempBuf.rewind();
+    }
+
+    /**
+     * Fork/join task that calculates a range of slices of the noise field. A
+     * slice is a row (constant y) for 2D fields, and a plane (constant x) for
+     * 3D fields. Every slice is written to its own part of the output buffer.
+     */
+    private class SliceTask extends RecursiveAction {
+        private static final long serialVersionUID = 4270851727286213185L;
+
+        private final int start, end;
+
+        SliceTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= SLICES_PER_TASK) {
+                if (depth == 0 || depth == 1) {
+                    computeRows2D(start, end);
+                } else {
+                    computeSlices3D(start, end);
                 }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new SliceTask(start, middle), new SliceTask(middle, end));
             }
         }
+    }
 
-        tempBuf.rewind();
+    private void computeSlices3D(int start, int end) {
+        FloatBuffer out = tempBuf.duplicate();
+        float[] row = new float[depth];
+        float[] total = new float[depth];
+
+        for (int x = start; x < end; x++) {
+            out.position(x * height * depth);
+            for (int y = 0; y < height; y++) {
+                perlinNoise3DRow(x, y, row, total);
+                out.put(total);
+            }
+        }
     }
 
-    private float perlinNoise3D(int channels, int x, int y, int z) {
-        float total = 0f;
+    private void perlinNoise3DRow(int x, int y, float[] row, float[] total) {
         float p = .75f;
 
         float amplitude = 128.0f;
         float frequency = 0.05f;
 
+        Arrays.fill(total, 0f);
         for (int i = 0; i < channels; i++) {
-            total += (float) ImprovedPerlinNoise.noise(x * frequency, y * frequency, z * frequency) * amplitude;
+            ImprovedPerlinNoise.noiseRow(permutation, x * frequency, y * frequency, frequency, 0, row, 0, depth);
+            for (int z = 0; z < depth; z++) {
+                total[z] += row[z] * amplitude;
+            }
 
             amplitude *= p;
             frequency *= 2;
         }
-        return total + 128f;
+
+        for (int z = 0; z < depth; z++) {
+            total[z] += 128f;
+        }
     }
 
-    private float perlinNoise2D(int channels, int x, int y) {
-        float total = 0f;
+    private void computeRows2D(int start, int end) {
+        FloatBuffer out = tempBuf.duplicate();
+        float[] total = new float[width];
+
+        for (int y = start; y < end; y++) {
+            out.position(y * width);
+            perlinNoise2DRow(y, total);
+            out.put(total);
+        }
+    }
+
+    private void perlinNoise2DRow(int y, float[] total) {
         float p = .75f;
 
         float amplitude = 128.0f;
         float frequency = 0.05f;
 
+        Arrays.fill(total, 0f);
         for (int i = 0; i < channels; i++) {
-            total += interpolatedNoise(x * frequency, y * frequency) * amplitude;
+            interpolatedNoiseRow(y * frequency, frequency, amplitude, total);
 
             amplitude *= p;
             frequency *= 2;
         }
 
-        return total + 128f;
+        for (int x = 0; x < width; x++) {
+            total[x] += 128f;
+        }
     }
 
+    /**
+     * Getter for the generated noise, one float per pixel.
+     * 
+     * @return A (direct) duplicate of the noise buffer.
+     */
     public FloatBuffer getFloats() {
         return tempBuf.duplicate();
     }
 
+    /**
+     * Converts the generated noise into an RGBA texture, with the same byte
+     * value in all four channels, as expected by {@link Perlin2D} and
+     * {@link Perlin3D}.
+     * 
+     * @return A direct ByteBuffer with 4 bytes per pixel.
+     */
     public ByteBuffer getPixelBuffer() {
-        ByteBuffer result = ByteBuffer.allocate(pixels * 4);
-
-        for (int i = 0; i < tempBuf.capacity(); i++) {
-            float val = tempBuf.get(i);
-            result.put((byte) (val));
-            result.put((byte) (val));
-            result.put((byte) (val));
-            result.put((byte) (val));
+        ByteBuffer result = Buffers.newDirectByteBuffer(pixels * 4);
+
+        for (int i = 0; i < pixels; i++) {
+            // All four bytes are equal, so the byte order does not matter.
+            int val = ((byte) tempBuf.get(i)) & 0xff;
+            result.putInt(i * 4, val * 0x01010101);
         }
 
         result.rewind();
-        tempBuf.rewind();
 
         return result;
     }
 
-    // 2D Noise maps
-    private float interpolatedNoise(float xf, float yf) {
-        int x = (int) xf;
+    /**
+     * Adds one octave of 2D noise, multiplied by amplitude, to a row of the
+     * field. The smoothed noise at the corners of a cell is shared by all
+     * samples in that cell, so it is only calculated when the row enters a new
+     * cell.
+     */
+    private void interpolatedNoiseRow(float yf, float frequency, float amplitude, float[] total) {
         int y = (int) yf;
-        float fracX = xf - x;
         float fracY = yf - y;
 
-        float noiseCurvePoint00 = smoothNoise(x, y);
-        float noiseCurvePoint10 = smoothNoise(x + 1, y);
-
-        float noiseCurvePoint01 = smoothNoise(x, y + 1);
-        float noiseCurvePoint11 = smoothNoise(x + 1, y + 1);
+        int cell = Integer.MIN_VALUE;
+        float noiseCurvePoint00 = 0f, noiseCurvePoint10 = 0f, noiseCurvePoint01 = 0f, noiseCurvePoint11 = 0f;
+
+        for (int i = 0; i < width; i++) {
+            float xf = i * frequency;
+            int x = (int) xf;
+            float fracX = xf - x;
+
+            if (x != cell) {
+                if (x == cell + 1) {
+                    noiseCurvePoint00 = noiseCurvePoint10;
+                    noiseCurvePoint01 = noiseCurvePoint11;
+                } else {
+                    noiseCurvePoint00 = smoothNoise(x, y);
+                    noiseCurvePoint01 = smoothNoise(x, y + 1);
+                }
+                noiseCurvePoint10 = smoothNoise(x + 1, y);
+                noiseCurvePoint11 = smoothNoise(x + 1, y + 1);
+                cell = x;
+            }
 
-        float i1 = cosInterpolate(noiseCurvePoint00, noiseCurvePoint10, fracX);
-        float i2 = cosInterpolate(noiseCurvePoint01, noiseCurvePoint11, fracX);
+            float i1 = cosInterpolate(noiseCurvePoint00, noiseCurvePoint10, fracX);
+            float i2 = cosInterpolate(noiseCurvePoint01, noiseCurvePoint11, fracX);
 
-        return cosInterpolate(i1, i2, fracY);
+            total[i] += cosInterpolate(i1, i2, fracY) * amplitude;
+        }
     }
 
+    // 2D Noise maps
     private float smoothNoise(int x, int y) {
         float corners = (noise2(x - 1, y - 1) + noise2(x + 1, y - 1) + noise2(x - 1, y + 1) + noise2(x + 1, y + 1)) / 16f;
         float sides = (noise2(x - 1, y) + noise2(x + 1, y) + noise2(x, y - 1) + noise2(x, y + 1)) / 8f;
@@ -141,7 +276,7 @@ public class Noise {
     }
 
     private float noise2(int x, int y) {
-        int n = x + y * 57;
+        int n = x + y * 57 + seed * NOISE_MAGIC_SEED;
         n = (n << 13) ^ n;
 
         return (1.0f - ((n * (n * n * 15731 + 789221) + 1376312589) & 0x7fffffff) / 1073741824f);
@@ -0,0 +1,368 @@
+package nl.esciencecenter.esight.noise;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Persistent on-disk cache for generated {@link Noise} fields. Every field is
+ * stored in its own file, named after a hash of the parameters it was
+ * generated with, so a field that was generated once (even in an earlier run
+ * of the application) is never generated again. Cached fields are returned as
+ * memory-mapped buffers, which can be handed to OpenGL directly without being
+ * copied into the Java heap.
+ *
+ * The total size of the cache is capped; when a new field pushes the cache
+ * over its limit, the least recently used files are removed. If the cache
+ * directory cannot be used, fields are generated in memory instead.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class NoiseCache {
+    private final static Logger logger = LoggerFactory.getLogger(NoiseCache.class);
+
+    /**
+     * Version of the generator output. Increase this whenever {@link Noise}
+     * starts producing different values, to invalidate existing cache files.
+     */
+    private static final int GENERATOR_VERSION = 1;
+
+    private static final String SUFFIX = ".noise";
+
+    /** The number of floats converted to native order per write. */
+    private static final int WRITE_CHUNK_FLOATS = 64 * 1024;
+
+    /** Default location of the cache. */
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".esight"
+            + File.separator + "cache");
+
+    /** Default maximum size of the cache, in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+
+    /** The data formats a noise field can be cached in. */
+    public enum Format {
+        /** One native-order float per pixel, as in {@link Noise#getFloats()}. */
+        FLOATS,
+        /** Four bytes per pixel, as in {@link Noise#getPixelBuffer()}. */
+        RGBA_BYTES
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    private static class SingletonHolder {
+        public final static NoiseCache instance = new NoiseCache(DEFAULT_DIRECTORY, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Getter for the application-wide cache, stored in
+     * {@link #DEFAULT_DIRECTORY}.
+     *
+     * @return the default cache.
+     */
+    public static NoiseCache getInstance() {
+        return SingletonHolder.instance;
+    }
+
+    /**
+     * Constructor for a cache in a custom location.
+     *
+     * @param directory
+     *            The directory to store the cache files in. Will be created
+     *            when needed.
+     * @param maxBytes
+     *            The maximum total size of the cache files.
+     */
+    public NoiseCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Getter for the noise values of a field generated with
+     * {@link Noise#Noise(int, int, int, int)}.
+     *
+     * @param channels
+     *            The number of octaves of noise.
+     * @param width
+     *            The width of the field.
+     * @param height
+     *            The height of the field.
+     * @param depth
+     *            The depth of the field.
+     * @return A (memory-mapped) buffer with the noise values.
+     */
+    public FloatBuffer getFloats(int channels, int width, int height, int depth) {
+        return get(channels, width, height, depth, false, 0L, Format.FLOATS).asFloatBuffer();
+    }
+
+    /**
+     * Getter for the noise values of a field generated with
+     * {@link Noise#Noise(int, int, int, int, long)}.
+     *
+     * @param channels
+     *            The number of octaves of noise.
+     * @param width
+     *            The width of the field.
+     * @param height
+     *            The height of the field.
+     * @param depth
+     *            The depth of the field.
+     * @param seed
+     *            The seed of the field.
+     * @return A (memory-mapped) buffer with the noise values.
+     */
+    public FloatBuffer getFloats(int channels, int width, int height, int depth, long seed) {
+        return get(channels, width, height, depth, true, seed, Format.FLOATS).asFloatBuffer();
+    }
+
+    /**
+     * Getter for the RGBA texture of a field generated with
+     * {@link Noise#Noise(int, int, int, int)}.
+     *
+     * @param channels
+     *            The number of octaves of noise.
+     * @param width
+     *            The width of the field.
+     * @param height
+     *            The height of the field.
+     * @param depth
+     *            The depth of the field.
+     * @return A (memory-mapped) buffer with the pixels.
+     */
+    public ByteBuffer getPixelBuffer(int channels, int width, int height, int depth) {
+        return get(channels, width, height, depth, false, 0L, Format.RGBA_BYTES);
+    }
+
+    /**
+     * Getter for the RGBA texture of a field generated with
+     * {@link Noise#Noise(int, int, int, int, long)}.
+     *
+     * @param channels
+     *            The number of octaves of noise.
+     * @param width
+     *            The width of the field.
+     * @param height
+     *            The height of the field.
+     * @param depth
+     *            The depth of the field.
+     * @param seed
+     *            The seed of the field.
+     * @return A (memory-mapped) buffer with the pixels.
+     */
+    public ByteBuffer getPixelBuffer(int channels, int width, int height, int depth, long seed) {
+        return get(channels, width, height, depth, true, seed, Format.RGBA_BYTES);
+    }
+
+    private synchronized ByteBuffer get(int channels, int width, int height, int depth, boolean seeded, long seed,
+            Format format) {
+        File file = new File(directory, key(channels, width, height, depth, seeded, seed, format) + SUFFIX);
+
+        if (file.isFile()) {
+            try {
+                ByteBuffer result = map(file);
+                // Remember when this file was last used, for the LRU cleanup.
+                if (!file.setLastModified(System.currentTimeMillis())) {
+                    logger.debug("Could not update the access time of " + file);
+                }
+                return result;
+            } catch (IOException e) {
+                logger.warn("Unreadable noise cache file " + file + ", regenerating: " + e.getMessage());
+            }
+        }
+
+        Noise noise;
+        if (seeded) {
+            noise = new Noise(channels, width, height, depth, seed);
+        } else {
+            noise = new Noise(channels, width, height, depth);
+        }
+
+        try {
+            store(file, noise, format);
+            cleanup(file);
+            return map(file);
+        } catch (IOException e) {
+            logger.warn("Could not store noise in cache " + directory + ": " + e.getMessage());
+        }
+
+        // Fall back to the in-memory result.
+        if (format == Format.FLOATS) {
+            FloatBuffer floats = noise.getFloats();
+            ByteBuffer result = ByteBuffer.allocateDirect(floats.capacity() * 4).order(ByteOrder.nativeOrder());
+            result.asFloatBuffer().put(floats);
+            return result;
+        }
+        return noise.getPixelBuffer();
+    }
+
+    /**
+     * Writes the noise to a temporary file, which is renamed when complete so
+     * other processes never see a partially written file.
+     */
+    private void store(File file, Noise noise, Format format) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        File tmpFile = File.createTempFile("tmp", SUFFIX + ".part", directory);
+        boolean renamed = false;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+            try {
+                FileChannel channel = raf.getChannel();
+                if (format == Format.FLOATS) {
+                    // Written through the channel rather than a mapping, since
+                    // a file that is still mapped cannot be renamed on every
+                    // platform, and the mapping lives until it is collected.
+                    FloatBuffer floats = noise.getFloats();
+                    floats.rewind();
+                    ByteBuffer out = ByteBuffer.allocateDirect(WRITE_CHUNK_FLOATS * 4).order(ByteOrder.nativeOrder());
+                    FloatBuffer outFloats = out.asFloatBuffer();
+                    while (floats.hasRemaining()) {
+                        int count = Math.min(floats.remaining(), WRITE_CHUNK_FLOATS);
+                        FloatBuffer chunk = floats.duplicate();
+                        chunk.limit(chunk.position() + count);
+                        outFloats.clear();
+                        outFloats.put(chunk);
+                        floats.position(floats.position() + count);
+
+                        out.clear();
+                        out.limit(count * 4);
+                        while (out.hasRemaining()) {
+                            channel.write(out);
+                        }
+                    }
+                } else {
+                    ByteBuffer pixels = noise.getPixelBuffer();
+                    while (pixels.hasRemaining()) {
+                        channel.write(pixels);
+                    }
+                }
+                channel.force(true);
+            } finally {
+                raf.close();
+            }
+
+            renamed = tmpFile.renameTo(file);
+            if (!renamed && !file.isFile()) {
+                throw new IOException("Could not rename " + tmpFile + " to " + file);
+            }
+            // Otherwise another process stored the same noise first, which
+            // is just as good.
+        } finally {
+            if (!renamed && !tmpFile.delete()) {
+                logger.debug("Could not delete " + tmpFile + ", deleting it on exit");
+                tmpFile.deleteOnExit();
+            }
+        }
+    }
+
+    private ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed.
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                    .order(ByteOrder.nativeOrder());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Removes the least recently used files until the cache fits within its
+     * maximum size again. The file that was just added is never removed.
+     */
+    private void cleanup(File keep) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> cached = new ArrayList<File>();
+        long total = 0L;
+        for (File f : files) {
+            if (f.isFile() && f.getName().endsWith(SUFFIX)) {
+                cached.add(f);
+                total += f.length();
+            }
+        }
+
+        Collections.sort(cached, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File f : cached) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!f.equals(keep)) {
+                long length = f.length();
+                if (f.delete()) {
+                    total -= length;
+                } else {
+                    logger.debug("Could not remove noise cache file " + f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the content address of a noise field out of all parameters that
+     * influence its contents.
+     */
+    static String key(int channels, int width, int height, int depth, boolean seeded, long seed, Format format) {
+        String description = "noise/v" + GENERATOR_VERSION + "/octaves=" + channels + "/size=" + width + "x"
+                + height + "x" + depth + "/seed=" + (seeded ? Long.toString(seed) : "reference") + "/format="
+                + format + "/order=" + ByteOrder.nativeOrder();
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(description.getBytes(Charset.forName("UTF-8")));
+
+            StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                result.append(String.format("%02x", b & 0xff));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-1, but just in case.
+            return Integer.toHexString(Arrays.hashCode(description.getBytes(Charset.forName("UTF-8"))));
+        }
+    }
+}
@@ -46,8 +46,7 @@ public class Perlin2D extends Texture2D {
         this.width = width;
         this.height = height;
 
-        Noise n = new Noise(4, width, height, 1);
-
-        pixelBuffer = n.getPixelBuffer();
+        // Generated once, and read from the noise cache on later runs.
+        pixelBuffer = NoiseCache.getInstance().getPixelBuffer(4, width, height, 1);
     }
 }
@@ -47,8 +47,7 @@ public class Perlin3D extends Texture3D {
         this.height = height;
         this.depth = depth;
 
-        Noise n = new Noise(4, width, height, depth);
-
-        pixelBuffer = n.getPixelBuffer();
+        // Generated once, and read from the noise cache on later runs.
+        pixelBuffer = NoiseCache.getInstance().getPixelBuffer(4, width, height, depth);
     }
 }
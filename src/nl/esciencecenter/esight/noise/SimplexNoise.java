@@ -0,0 +1,635 @@
+package nl.esciencecenter.esight.noise;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Simplex noise generator in 2, 3 and 4 dimensions, after Stefan Gustavson's
+ * public domain reference implementation, see
+ * http://staffwww.itn.liu.se/~stegu/simplexnoise/. Compared to
+ * {@link ImprovedPerlinNoise}, a sample needs only n+1 gradient evaluations
+ * instead of 2^n, which makes 4D (3D plus time) noise affordable. Besides the
+ * plain generators this class offers seamlessly tileable 2D noise and
+ * time-looping noise, both made by sampling 4D noise on circles.
+ *
+ * All methods take the permutation table to use, which should be one of the
+ * tables provided by {@link ImprovedPerlinNoise#getPermutation()} or
+ * {@link ImprovedPerlinNoise#newPermutation(long)}. Results are in the range
+ * [-1, 1].
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public final class SimplexNoise {
+    private SimplexNoise() {
+        // Utility class
+    }
+
+    private static final double TWO_PI = 2.0 * Math.PI;
+
+    // Skewing and unskewing factors for 2, 3 and 4 dimensions
+    private static final double F2 = 0.5 * (Math.sqrt(3.0) - 1.0);
+    private static final double G2 = (3.0 - Math.sqrt(3.0)) / 6.0;
+    private static final double F3 = 1.0 / 3.0;
+    private static final double G3 = 1.0 / 6.0;
+    private static final double F4 = (Math.sqrt(5.0) - 1.0) / 4.0;
+    private static final double G4 = (5.0 - Math.sqrt(5.0)) / 20.0;
+
+    private static final int[][] GRAD3 = { { 1, 1, 0 }, { -1, 1, 0 }, { 1, -1, 0 }, { -1, -1, 0 }, { 1, 0, 1 },
+            { -1, 0, 1 }, { 1, 0, -1 }, { -1, 0, -1 }, { 0, 1, 1 }, { 0, -1, 1 }, { 0, 1, -1 }, { 0, -1, -1 } };
+
+    private static final int[][] GRAD4 = { { 0, 1, 1, 1 }, { 0, 1, 1, -1 }, { 0, 1, -1, 1 }, { 0, 1, -1, -1 },
+            { 0, -1, 1, 1 }, { 0, -1, 1, -1 }, { 0, -1, -1, 1 }, { 0, -1, -1, -1 }, { 1, 0, 1, 1 }, { 1, 0, 1, -1 },
+            { 1, 0, -1, 1 }, { 1, 0, -1, -1 }, { -1, 0, 1, 1 }, { -1, 0, 1, -1 }, { -1, 0, -1, 1 },
+            { -1, 0, -1, -1 }, { 1, 1, 0, 1 }, { 1, 1, 0, -1 }, { 1, -1, 0, 1 }, { 1, -1, 0, -1 },
+            { -1, 1, 0, 1 }, { -1, 1, 0, -1 }, { -1, -1, 0, 1 }, { -1, -1, 0, -1 }, { 1, 1, 1, 0 },
+            { 1, 1, -1, 0 }, { 1, -1, 1, 0 }, { 1, -1, -1, 0 }, { -1, 1, 1, 0 }, { -1, 1, -1, 0 },
+            { -1, -1, 1, 0 }, { -1, -1, -1, 0 } };
+
+    /**
+     * 2D simplex noise.
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate.
+     * @param y
+     *            The y coordinate.
+     * @return The noise value at (x, y).
+     */
+    public static double noise(int[] perm, double x, double y) {
+        // Skew the input space to determine which simplex cell we're in
+        double s = (x + y) * F2;
+        int i = fastFloor(x + s);
+        int j = fastFloor(y + s);
+
+        // Unskew the cell origin back to (x,y) space
+        double t = (i + j) * G2;
+        double x0 = x - (i - t);
+        double y0 = y - (j - t);
+
+        // Determine which of the two triangles we're in
+        int i1, j1;
+        if (x0 > y0) {
+            i1 = 1;
+            j1 = 0;
+        } else {
+            i1 = 0;
+            j1 = 1;
+        }
+
+        double x1 = x0 - i1 + G2;
+        double y1 = y0 - j1 + G2;
+        double x2 = x0 - 1.0 + 2.0 * G2;
+        double y2 = y0 - 1.0 + 2.0 * G2;
+
+        // Hashed gradient indices of the three simplex corners
+        int ii = i & 255;
+        int jj = j & 255;
+        int gi0 = perm[ii + perm[jj]] % 12;
+        int gi1 = perm[ii + i1 + perm[jj + j1]] % 12;
+        int gi2 = perm[ii + 1 + perm[jj + 1]] % 12;
+
+        // Add the contributions of the three corners
+        double n = corner(GRAD3[gi0], x0, y0) + corner(GRAD3[gi1], x1, y1) + corner(GRAD3[gi2], x2, y2);
+
+        // Scale the result to [-1,1]
+        return 70.0 * n;
+    }
+
+    /**
+     * 3D simplex noise.
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate.
+     * @param y
+     *            The y coordinate.
+     * @param z
+     *            The z coordinate.
+     * @return The noise value at (x, y, z).
+     */
+    public static double noise(int[] perm, double x, double y, double z) {
+        // Skew the input space to determine which simplex cell we're in
+        double s = (x + y + z) * F3;
+        int i = fastFloor(x + s);
+        int j = fastFloor(y + s);
+        int k = fastFloor(z + s);
+
+        // Unskew the cell origin back to (x,y,z) space
+        double t = (i + j + k) * G3;
+        double x0 = x - (i - t);
+        double y0 = y - (j - t);
+        double z0 = z - (k - t);
+
+        // Determine which of the six tetrahedra we're in
+        int i1, j1, k1, i2, j2, k2;
+        if (x0 >= y0) {
+            if (y0 >= z0) {
+                i1 = 1;
+                j1 = 0;
+                k1 = 0;
+                i2 = 1;
+                j2 = 1;
+                k2 = 0;
+            } else if (x0 >= z0) {
+                i1 = 1;
+                j1 = 0;
+                k1 = 0;
+                i2 = 1;
+                j2 = 0;
+                k2 = 1;
+            } else {
+                i1 = 0;
+                j1 = 0;
+                k1 = 1;
+                i2 = 1;
+                j2 = 0;
+                k2 = 1;
+            }
+        } else {
+            if (y0 < z0) {
+                i1 = 0;
+                j1 = 0;
+                k1 = 1;
+                i2 = 0;
+                j2 = 1;
+                k2 = 1;
+            } else if (x0 < z0) {
+                i1 = 0;
+                j1 = 1;
+                k1 = 0;
+                i2 = 0;
+                j2 = 1;
+                k2 = 1;
+            } else {
+                i1 = 0;
+                j1 = 1;
+                k1 = 0;
+                i2 = 1;
+                j2 = 1;
+                k2 = 0;
+            }
+        }
+
+        double x1 = x0 - i1 + G3;
+        double y1 = y0 - j1 + G3;
+        double z1 = z0 - k1 + G3;
+        double x2 = x0 - i2 + 2.0 * G3;
+        double y2 = y0 - j2 + 2.0 * G3;
+        double z2 = z0 - k2 + 2.0 * G3;
+        double x3 = x0 - 1.0 + 3.0 * G3;
+        double y3 = y0 - 1.0 + 3.0 * G3;
+        double z3 = z0 - 1.0 + 3.0 * G3;
+
+        // Hashed gradient indices of the four simplex corners
+        int ii = i & 255;
+        int jj = j & 255;
+        int kk = k & 255;
+        int gi0 = perm[ii + perm[jj + perm[kk]]] % 12;
+        int gi1 = perm[ii + i1 + perm[jj + j1 + perm[kk + k1]]] % 12;
+        int gi2 = perm[ii + i2 + perm[jj + j2 + perm[kk + k2]]] % 12;
+        int gi3 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1]]] % 12;
+
+        // Add the contributions of the four corners
+        double n = corner(GRAD3[gi0], x0, y0, z0) + corner(GRAD3[gi1], x1, y1, z1)
+                + corner(GRAD3[gi2], x2, y2, z2) + corner(GRAD3[gi3], x3, y3, z3);
+
+        // Scale the result to [-1,1]
+        return 32.0 * n;
+    }
+
+    /**
+     * 4D simplex noise.
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate.
+     * @param y
+     *            The y coordinate.
+     * @param z
+     *            The z coordinate.
+     * @param w
+     *            The w coordinate.
+     * @return The noise value at (x, y, z, w).
+     */
+    public static double noise(int[] perm, double x, double y, double z, double w) {
+        // Skew the input space to determine which simplex cell we're in
+        double s = (x + y + z + w) * F4;
+        int i = fastFloor(x + s);
+        int j = fastFloor(y + s);
+        int k = fastFloor(z + s);
+        int l = fastFloor(w + s);
+
+        // Unskew the cell origin back to (x,y,z,w) space
+        double t = (i + j + k + l) * G4;
+        double x0 = x - (i - t);
+        double y0 = y - (j - t);
+        double z0 = z - (k - t);
+        double w0 = w - (l - t);
+
+        // Rank the coordinates to determine which of the 24 simplices we're
+        // in, the largest coordinate gets the first step, and so on.
+        int rankx = 0, ranky = 0, rankz = 0, rankw = 0;
+        if (x0 > y0) {
+            rankx++;
+        } else {
+            ranky++;
+        }
+        if (x0 > z0) {
+            rankx++;
+        } else {
+            rankz++;
+        }
+        if (x0 > w0) {
+            rankx++;
+        } else {
+            rankw++;
+        }
+        if (y0 > z0) {
+            ranky++;
+        } else {
+            rankz++;
+        }
+        if (y0 > w0) {
+            ranky++;
+        } else {
+            rankw++;
+        }
+        if (z0 > w0) {
+            rankz++;
+        } else {
+            rankw++;
+        }
+
+        int i1 = rankx >= 3 ? 1 : 0, j1 = ranky >= 3 ? 1 : 0, k1 = rankz >= 3 ? 1 : 0, l1 = rankw >= 3 ? 1 : 0;
+        int i2 = rankx >= 2 ? 1 : 0, j2 = ranky >= 2 ? 1 : 0, k2 = rankz >= 2 ? 1 : 0, l2 = rankw >= 2 ? 1 : 0;
+        int i3 = rankx >= 1 ? 1 : 0, j3 = ranky >= 1 ? 1 : 0, k3 = rankz >= 1 ? 1 : 0, l3 = rankw >= 1 ? 1 : 0;
+
+        double x1 = x0 - i1 + G4, y1 = y0 - j1 + G4, z1 = z0 - k1 + G4, w1 = w0 - l1 + G4;
+        double x2 = x0 - i2 + 2.0 * G4, y2 = y0 - j2 + 2.0 * G4, z2 = z0 - k2 + 2.0 * G4, w2 = w0 - l2 + 2.0
+                * G4;
+        double x3 = x0 - i3 + 3.0 * G4, y3 = y0 - j3 + 3.0 * G4, z3 = z0 - k3 + 3.0 * G4, w3 = w0 - l3 + 3.0
+                * G4;
+        double x4 = x0 - 1.0 + 4.0 * G4, y4 = y0 - 1.0 + 4.0 * G4, z4 = z0 - 1.0 + 4.0 * G4, w4 = w0 - 1.0 + 4.0
+                * G4;
+
+        // Hashed gradient indices of the five simplex corners
+        int ii = i & 255;
+        int jj = j & 255;
+        int kk = k & 255;
+        int ll = l & 255;
+        int gi0 = perm[ii + perm[jj + perm[kk + perm[ll]]]] % 32;
+        int gi1 = perm[ii + i1 + perm[jj + j1 + perm[kk + k1 + perm[ll + l1]]]] % 32;
+        int gi2 = perm[ii + i2 + perm[jj + j2 + perm[kk + k2 + perm[ll + l2]]]] % 32;
+        int gi3 = perm[ii + i3 + perm[jj + j3 + perm[kk + k3 + perm[ll + l3]]]] % 32;
+        int gi4 = perm[ii + 1 + perm[jj + 1 + perm[kk + 1 + perm[ll + 1]]]] % 32;
+
+        // Add the contributions of the five corners
+        double n = corner(GRAD4[gi0], x0, y0, z0, w0) + corner(GRAD4[gi1], x1, y1, z1, w1)
+                + corner(GRAD4[gi2], x2, y2, z2, w2) + corner(GRAD4[gi3], x3, y3, z3, w3)
+                + corner(GRAD4[gi4], x4, y4, z4, w4);
+
+        // Scale the result to [-1,1]
+        return 27.0 * n;
+    }
+
+    /**
+     * Batch version of {@link #noise(int[], double, double, double)} for a row
+     * of samples along the z axis, with the same signature as
+     * {@link ImprovedPerlinNoise#noiseRow(int[], double, double, float, int, float[], int, int)}
+     * . Sample i of the row is evaluated at (x, y, (zStart + i) * zFrequency).
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate of the row.
+     * @param y
+     *            The y coordinate of the row.
+     * @param zFrequency
+     *            The distance between two samples in the z direction.
+     * @param zStart
+     *            The index of the first sample of the row.
+     * @param out
+     *            The array to store the results in.
+     * @param offset
+     *            The index of out to store the first result in.
+     * @param count
+     *            The number of samples in the row.
+     */
+    public static void noiseRow(int[] perm, double x, double y, float zFrequency, int zStart, float[] out,
+            int offset, int count) {
+        // The x and y part of the skew is the same for the whole row
+        double xy = x + y;
+
+        // Hashed gradient indices of the 8 corners of the current cell, which
+        // only change when the row enters the next cell.
+        int[] grads = new int[8];
+        int cellI = 0, cellJ = 0, cellK = 0;
+        boolean cached = false;
+
+        for (int n = 0; n < count; n++) {
+            double z = (zStart + n) * zFrequency;
+
+            double s = (xy + z) * F3;
+            int i = fastFloor(x + s);
+            int j = fastFloor(y + s);
+            int k = fastFloor(z + s);
+
+            if (!cached || i != cellI || j != cellJ || k != cellK) {
+                int ii = i & 255;
+                int jj = j & 255;
+                int kk = k & 255;
+                for (int c = 0; c < 8; c++) {
+                    int ci = c >> 2, cj = (c >> 1) & 1, ck = c & 1;
+                    grads[c] = perm[ii + ci + perm[jj + cj + perm[kk + ck]]] % 12;
+                }
+                cellI = i;
+                cellJ = j;
+                cellK = k;
+                cached = true;
+            }
+
+            double t = (i + j + k) * G3;
+            double x0 = x - (i - t);
+            double y0 = y - (j - t);
+            double z0 = z - (k - t);
+
+            // Rank the coordinates to determine which of the six tetrahedra
+            // we're in, breaking ties the same way noise() does.
+            int rankx = 0, ranky = 0, rankz = 0;
+            if (x0 >= y0) {
+                rankx++;
+            } else {
+                ranky++;
+            }
+            if (x0 >= z0) {
+                rankx++;
+            } else {
+                rankz++;
+            }
+            if (y0 >= z0) {
+                ranky++;
+            } else {
+                rankz++;
+            }
+
+            int i1 = rankx >= 2 ? 1 : 0, j1 = ranky >= 2 ? 1 : 0, k1 = rankz >= 2 ? 1 : 0;
+            int i2 = rankx >= 1 ? 1 : 0, j2 = ranky >= 1 ? 1 : 0, k2 = rankz >= 1 ? 1 : 0;
+
+            double x1 = x0 - i1 + G3;
+            double y1 = y0 - j1 + G3;
+            double z1 = z0 - k1 + G3;
+            double x2 = x0 - i2 + 2.0 * G3;
+            double y2 = y0 - j2 + 2.0 * G3;
+            double z2 = z0 - k2 + 2.0 * G3;
+            double x3 = x0 - 1.0 + 3.0 * G3;
+            double y3 = y0 - 1.0 + 3.0 * G3;
+            double z3 = z0 - 1.0 + 3.0 * G3;
+
+            int gi0 = grads[0];
+            int gi1 = grads[i1 << 2 | j1 << 1 | k1];
+            int gi2 = grads[i2 << 2 | j2 << 1 | k2];
+            int gi3 = grads[7];
+
+            double sum = corner(GRAD3[gi0], x0, y0, z0) + corner(GRAD3[gi1], x1, y1, z1)
+                    + corner(GRAD3[gi2], x2, y2, z2) + corner(GRAD3[gi3], x3, y3, z3);
+
+            out[offset + n] = (float) (32.0 * sum);
+        }
+    }
+
+    /**
+     * Batch version of {@link #noise(int[], double, double, double, double)}
+     * for a row of samples along the w axis. Sample i of the row is evaluated
+     * at (x, y, z, (wStart + i) * wFrequency).
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate of the row.
+     * @param y
+     *            The y coordinate of the row.
+     * @param z
+     *            The z coordinate of the row.
+     * @param wFrequency
+     *            The distance between two samples in the w direction.
+     * @param wStart
+     *            The index of the first sample of the row.
+     * @param out
+     *            The array to store the results in.
+     * @param offset
+     *            The index of out to store the first result in.
+     * @param count
+     *            The number of samples in the row.
+     */
+    public static void noiseRow(int[] perm, double x, double y, double z, float wFrequency, int wStart,
+            float[] out, int offset, int count) {
+        // The x, y and z part of the skew is the same for the whole row
+        double xyz = x + y + z;
+
+        // Hashed gradient indices of the 16 corners of the current cell, which
+        // only change when the row enters the next cell.
+        int[] grads = new int[16];
+        int cellI = 0, cellJ = 0, cellK = 0, cellL = 0;
+        boolean cached = false;
+
+        for (int n = 0; n < count; n++) {
+            double w = (wStart + n) * wFrequency;
+
+            double s = (xyz + w) * F4;
+            int i = fastFloor(x + s);
+            int j = fastFloor(y + s);
+            int k = fastFloor(z + s);
+            int l = fastFloor(w + s);
+
+            if (!cached || i != cellI || j != cellJ || k != cellK || l != cellL) {
+                int ii = i & 255;
+                int jj = j & 255;
+                int kk = k & 255;
+                int ll = l & 255;
+                for (int c = 0; c < 16; c++) {
+                    int ci = c >> 3, cj = (c >> 2) & 1, ck = (c >> 1) & 1, cl = c & 1;
+                    grads[c] = perm[ii + ci + perm[jj + cj + perm[kk + ck + perm[ll + cl]]]] % 32;
+                }
+                cellI = i;
+                cellJ = j;
+                cellK = k;
+                cellL = l;
+                cached = true;
+            }
+
+            double t = (i + j + k + l) * G4;
+            double x0 = x - (i - t);
+            double y0 = y - (j - t);
+            double z0 = z - (k - t);
+            double w0 = w - (l - t);
+
+            int rankx = 0, ranky = 0, rankz = 0, rankw = 0;
+            if (x0 > y0) {
+                rankx++;
+            } else {
+                ranky++;
+            }
+            if (x0 > z0) {
+                rankx++;
+            } else {
+                rankz++;
+            }
+            if (x0 > w0) {
+                rankx++;
+            } else {
+                rankw++;
+            }
+            if (y0 > z0) {
+                ranky++;
+            } else {
+                rankz++;
+            }
+            if (y0 > w0) {
+                ranky++;
+            } else {
+                rankw++;
+            }
+            if (z0 > w0) {
+                rankz++;
+            } else {
+                rankw++;
+            }
+
+            int i1 = rankx >= 3 ? 1 : 0, j1 = ranky >= 3 ? 1 : 0, k1 = rankz >= 3 ? 1 : 0, l1 = rankw >= 3 ? 1 : 0;
+            int i2 = rankx >= 2 ? 1 : 0, j2 = ranky >= 2 ? 1 : 0, k2 = rankz >= 2 ? 1 : 0, l2 = rankw >= 2 ? 1 : 0;
+            int i3 = rankx >= 1 ? 1 : 0, j3 = ranky >= 1 ? 1 : 0, k3 = rankz >= 1 ? 1 : 0, l3 = rankw >= 1 ? 1 : 0;
+
+            double x1 = x0 - i1 + G4, y1 = y0 - j1 + G4, z1 = z0 - k1 + G4, w1 = w0 - l1 + G4;
+            double x2 = x0 - i2 + 2.0 * G4, y2 = y0 - j2 + 2.0 * G4, z2 = z0 - k2 + 2.0 * G4, w2 = w0 - l2 + 2.0
+                    * G4;
+            double x3 = x0 - i3 + 3.0 * G4, y3 = y0 - j3 + 3.0 * G4, z3 = z0 - k3 + 3.0 * G4, w3 = w0 - l3 + 3.0
+                    * G4;
+            double x4 = x0 - 1.0 + 4.0 * G4, y4 = y0 - 1.0 + 4.0 * G4, z4 = z0 - 1.0 + 4.0 * G4, w4 = w0 - 1.0
+                    + 4.0 * G4;
+
+            int gi0 = grads[0];
+            int gi1 = grads[i1 << 3 | j1 << 2 | k1 << 1 | l1];
+            int gi2 = grads[i2 << 3 | j2 << 2 | k2 << 1 | l2];
+            int gi3 = grads[i3 << 3 | j3 << 2 | k3 << 1 | l3];
+            int gi4 = grads[15];
+
+            double sum = corner(GRAD4[gi0], x0, y0, z0, w0) + corner(GRAD4[gi1], x1, y1, z1, w1)
+                    + corner(GRAD4[gi2], x2, y2, z2, w2) + corner(GRAD4[gi3], x3, y3, z3, w3)
+                    + corner(GRAD4[gi4], x4, y4, z4, w4);
+
+            out[offset + n] = (float) (27.0 * sum);
+        }
+    }
+
+    /**
+     * Seamlessly tileable 2D noise. The result repeats itself every periodX in
+     * the x direction and every periodY in the y direction. This is done by
+     * mapping both axes onto a circle in 4D noise space, so the features have
+     * roughly the same size as those of {@link #noise(int[], double, double)}.
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate.
+     * @param y
+     *            The y coordinate.
+     * @param periodX
+     *            The period in the x direction.
+     * @param periodY
+     *            The period in the y direction.
+     * @return The noise value at (x, y).
+     */
+    public static double tileableNoise(int[] perm, double x, double y, double periodX, double periodY) {
+        double angleX = TWO_PI * x / periodX;
+        double angleY = TWO_PI * y / periodY;
+        double radiusX = periodX / TWO_PI;
+        double radiusY = periodY / TWO_PI;
+
+        return noise(perm, radiusX * Math.cos(angleX), radiusX * Math.sin(angleX), radiusY * Math.cos(angleY),
+                radiusY * Math.sin(angleY));
+    }
+
+    /**
+     * Time-looping 2D noise, for animations. Frame i of the row is evaluated
+     * at (x, y) and time (tStart + i) * tFrequency, where the time axis
+     * repeats itself every period frames. Time is mapped onto a circle in 4D
+     * noise space, so consecutive frames are tFrequency apart, like the
+     * samples of the spatial axes are.
+     *
+     * @param perm
+     *            The permutation table (512 entries) to use.
+     * @param x
+     *            The x coordinate of the row.
+     * @param y
+     *            The y coordinate of the row.
+     * @param tFrequency
+     *            The distance between two frames in noise space.
+     * @param period
+     *            The number of frames after which the animation repeats.
+     * @param tStart
+     *            The frame number of the first sample of the row.
+     * @param out
+     *            The array to store the results in.
+     * @param offset
+     *            The index of out to store the first result in.
+     * @param count
+     *            The number of frames in the row.
+     */
+    public static void loopingNoiseRow(int[] perm, double x, double y, float tFrequency, int period, int tStart,
+            float[] out, int offset, int count) {
+        double radius = period * tFrequency / TWO_PI;
+
+        for (int i = 0; i < count; i++) {
+            double angle = TWO_PI * ((tStart + i) % period) / period;
+            out[offset + i] = (float) noise(perm, x, y, radius * Math.cos(angle), radius * Math.sin(angle));
+        }
+    }
+
+    private static int fastFloor(double x) {
+        int xi = (int) x;
+        return x < xi ? xi - 1 : xi;
+    }
+
+    private static double corner(int[] g, double x, double y) {
+        double t = 0.5 - x * x - y * y;
+        if (t < 0) {
+            return 0.0;
+        }
+        t *= t;
+        return t * t * (g[0] * x + g[1] * y);
+    }
+
+    private static double corner(int[] g, double x, double y, double z) {
+        double t = 0.6 - x * x - y * y - z * z;
+        if (t < 0) {
+            return 0.0;
+        }
+        t *= t;
+        return t * t * (g[0] * x + g[1] * y + g[2] * z);
+    }
+
+    private static double corner(int[] g, double x, double y, double z, double w) {
+        double t = 0.6 - x * x - y * y - z * z - w * w;
+        if (t < 0) {
+            return 0.0;
+        }
+        t *= t;
+        return t * t * (g[0] * x + g[1] * y + g[2] * z + g[3] * w);
+    }
+}
@@ -0,0 +1,215 @@
+package nl.esciencecenter.esight.text;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.esight.text.jogampexperimental.Font;
+import nl.esciencecenter.esight.text.jogampexperimental.GlyphShape;
+import nl.esciencecenter.esight.text.jogampexperimental.OutlineShape;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jogamp.graph.geom.Triangle;
+import com.jogamp.graph.geom.Vertex;
+import com.jogamp.graph.geom.opengl.SVertex;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Process-wide cache of triangulated glyphs. Triangulating a glyph outline is
+ * expensive, so every (font, character, size) combination is triangulated
+ * only once, at the origin. Text models assemble their strings by copying the
+ * cached triangles, offset by the pen position of each character. The cache
+ * holds at most {@link #MAX_CACHED_GLYPHS} glyphs, dropping the least
+ * recently used ones first, so text in ever-changing sizes cannot grow it
+ * without bound.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public final class GlyphMeshCache {
+    private final static Logger logger = LoggerFactory.getLogger(GlyphMeshCache.class);
+
+    /** The maximum number of glyphs kept in the cache */
+    static final int MAX_CACHED_GLYPHS = 4096;
+
+    private static final GlyphMeshCache instance = new GlyphMeshCache();
+
+    private final Map<Key, GlyphMesh> meshes = Collections.synchronizedMap(new LinkedHashMap<Key, GlyphMesh>(256,
+            0.75f, true) {
+        private static final long serialVersionUID = -3416946208218393862L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, GlyphMesh> eldest) {
+            return size() > MAX_CACHED_GLYPHS;
+        }
+    });
+
+    /**
+     * A triangulated glyph, positioned with its pen origin at (0,0).
+     */
+    public static final class GlyphMesh {
+        private final float[] vertices;
+        private final float advance;
+
+        GlyphMesh(float[] vertices, float advance) {
+            this.vertices = vertices;
+            this.advance = advance;
+        }
+
+        /**
+         * Getter for the triangle vertices, as consecutive x,y pairs, three
+         * vertices per triangle. The array is shared and should not be
+         * modified.
+         *
+         * @return the vertices.
+         */
+        public float[] getVertices() {
+            return vertices;
+        }
+
+        /**
+         * Getter for the number of vertices of this glyph.
+         *
+         * @return the number of vertices.
+         */
+        public int getNumVertices() {
+            return vertices.length / 2;
+        }
+
+        /**
+         * Getter for the distance the pen moves after this glyph.
+         *
+         * @return the advance.
+         */
+        public float getAdvance() {
+            return advance;
+        }
+    }
+
+    private static final class Key {
+        private final Font font;
+        private final char symbol;
+        private final float size;
+
+        Key(Font font, char symbol, float size) {
+            this.font = font;
+            this.symbol = symbol;
+            this.size = size;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(font) * 31 + symbol) * 31 + Float.floatToIntBits(size);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return font == other.font && symbol == other.symbol
+                    && Float.floatToIntBits(size) == Float.floatToIntBits(other.size);
+        }
+    }
+
+    private GlyphMeshCache() {
+    }
+
+    /**
+     * Getter for the process-wide cache.
+     *
+     * @return the cache.
+     */
+    public static GlyphMeshCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the triangulated glyph for a character, triangulating it if this
+     * is the first request for this font, character and size.
+     *
+     * @param font
+     *            The font.
+     * @param symbol
+     *            The character. Line breaks are not glyphs and should be
+     *            handled by the caller.
+     * @param size
+     *            The font size in pixels.
+     * @return The triangulated glyph, without vertices for whitespace.
+     */
+    public GlyphMesh get(TypecastFont font, char symbol, float size) {
+        Key key = new Key(font, symbol, size);
+        GlyphMesh mesh = meshes.get(key);
+        if (mesh == null) {
+            // Triangulate outside the lock, another thread may race us to
+            // the same glyph, but the results are interchangeable.
+            mesh = triangulate(font, symbol, size);
+            meshes.put(key, mesh);
+        }
+        return mesh;
+    }
+
+    private GlyphMesh triangulate(TypecastFont font, char symbol, float size) {
+        float advance = font.getAdvance(symbol, size);
+        if (symbol == ' ') {
+            return new GlyphMesh(new float[0], advance);
+        }
+
+        List<OutlineShape> shapes = font.getOutlineShapes(String.valueOf(symbol), size, SVertex.factory());
+        if (shapes.isEmpty() || shapes.get(0) == null) {
+            return new GlyphMesh(new float[0], advance);
+        }
+
+        GlyphShape glyphShape = new GlyphShape(SVertex.factory(), shapes.get(0));
+        if (glyphShape.getNumVertices() < 3) {
+            return new GlyphMesh(new float[0], advance);
+        }
+
+        List<Triangle> triangles = glyphShape.triangulate();
+        float[] vertices = new float[triangles.size() * 6];
+        int index = 0;
+        for (Triangle t : triangles) {
+            for (Vertex v : t.getVertices()) {
+                vertices[index++] = v.getX();
+                vertices[index++] = v.getY();
+            }
+        }
+
+        return new GlyphMesh(vertices, advance);
+    }
+
+    /**
+     * Getter for the number of glyphs in the cache.
+     *
+     * @return the number of cached glyphs.
+     */
+    public int size() {
+        return meshes.size();
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear() {
+        meshes.clear();
+    }
+}
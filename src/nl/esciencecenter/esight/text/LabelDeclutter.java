@@ -0,0 +1,341 @@
+package nl.esciencecenter.esight.text;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.VecF3;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Optional declutter stage for a {@link LabelLayer}. Projects the labels to
+ * the screen, places them in order of priority in a uniform screen-space
+ * grid, and hides every label that would overlap one placed before it.
+ * Labels that were hidden need some extra room before they are shown again,
+ * so labels on the edge of a collision do not flicker while the camera moves.
+ * <p>
+ * Call {@link #update} once per frame, before drawing the layer. Nothing is
+ * done while the camera and the labels stay the same. A budget can be set to
+ * spread a pass over a number of frames; the visibility of the labels changes
+ * only when a pass is complete.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class LabelDeclutter {
+    private static final int DEFAULT_CELL_SIZE = 64;
+    private static final float DEFAULT_HYSTERESIS = 4f;
+
+    private final LabelLayer layer;
+    private final int cellSize;
+    private final float hysteresis;
+
+    /** The maximum number of labels placed per call to {@link #update} */
+    private int budget = Integer.MAX_VALUE;
+
+    /** The priority of each label, by id */
+    private float[] priorities = new float[0];
+    /** The visibility decided by the last complete pass, by id */
+    private boolean[] shown = new boolean[0];
+    /** The visibility decided by the current pass, by id */
+    private boolean[] nextShown = new boolean[0];
+
+    /** State of the last complete pass, to skip passes that change nothing */
+    private float[] lastMatrix;
+    private int lastWidth, lastHeight, lastModifications;
+    private boolean prioritiesChanged = false;
+
+    /** State of the current pass */
+    private boolean passActive = false;
+    private Integer[] order;
+    private int passIndex;
+    private float[] matrix;
+    private int width, height, modifications;
+
+    /** The grid, as a linked list of entries per cell */
+    private int columns, rows;
+    private int[] cellHeads = new int[0];
+    private int[] entryNext = new int[256];
+    private int[] entryRect = new int[256];
+    private int numEntries;
+    /** The rectangles placed so far in this pass, as left, bottom, right, top */
+    private float[] rects = new float[256];
+    private int numRects;
+
+    /**
+     * Constructor for a declutter stage with default settings.
+     *
+     * @param layer
+     *            The labels to declutter.
+     */
+    public LabelDeclutter(LabelLayer layer) {
+        this(layer, DEFAULT_CELL_SIZE, DEFAULT_HYSTERESIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param layer
+     *            The labels to declutter.
+     * @param cellSize
+     *            The size of the grid cells, in pixels. About the size of a
+     *            typical label works best.
+     * @param hysteresis
+     *            The extra space, in pixels, a hidden label needs around it to
+     *            be shown again.
+     */
+    public LabelDeclutter(LabelLayer layer, int cellSize, float hysteresis) {
+        this.layer = layer;
+        this.cellSize = cellSize;
+        this.hysteresis = hysteresis;
+    }
+
+    /**
+     * Setter for the priority of a label. Labels with a higher priority are
+     * placed first. The default priority is 0.
+     *
+     * @param id
+     *            The id of the label.
+     * @param priority
+     *            The new priority.
+     */
+    public void setPriority(int id, float priority) {
+        if (id >= priorities.length) {
+            priorities = Arrays.copyOf(priorities, Math.max(id + 1, priorities.length * 2));
+        }
+        if (priorities[id] != priority) {
+            priorities[id] = priority;
+            prioritiesChanged = true;
+        }
+    }
+
+    /**
+     * Setter for the number of labels placed per call to {@link #update}.
+     *
+     * @param budget
+     *            The maximum number of labels per call.
+     */
+    public void setBudget(int budget) {
+        this.budget = Math.max(1, budget);
+    }
+
+    /**
+     * Places the labels for the given camera, continuing the pass in progress
+     * if there is one.
+     *
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix.
+     * @param viewportWidth
+     *            The width of the viewport, in pixels.
+     * @param viewportHeight
+     *            The height of the viewport, in pixels.
+     * @return true if a pass was completed and the label visibility updated.
+     */
+    public boolean update(MatF4 p, MatF4 mv, int viewportWidth, int viewportHeight) {
+        if (passActive && modifications != layer.getModifications()) {
+            // Labels were added or removed halfway through, start over.
+            passActive = false;
+        }
+
+        if (!passActive) {
+            float[] m = p.mul(mv).asArray();
+            if (!prioritiesChanged && Arrays.equals(m, lastMatrix) && viewportWidth == lastWidth
+                    && viewportHeight == lastHeight && layer.getModifications() == lastModifications) {
+                return false;
+            }
+            startPass(m, viewportWidth, viewportHeight);
+        }
+
+        int end = (int) Math.min(order.length, (long) passIndex + budget);
+        for (; passIndex < end; passIndex++) {
+            place(order[passIndex]);
+        }
+
+        if (passIndex == order.length) {
+            finishPass();
+            return true;
+        }
+        return false;
+    }
+
+    private void startPass(float[] m, int viewportWidth, int viewportHeight) {
+        matrix = m;
+        width = viewportWidth;
+        height = viewportHeight;
+        modifications = layer.getModifications();
+        prioritiesChanged = false;
+
+        int[] ids = layer.getIds();
+        int maxId = ids.length > 0 ? ids[ids.length - 1] : -1;
+        if (maxId >= priorities.length) {
+            priorities = Arrays.copyOf(priorities, maxId + 1);
+        }
+        if (maxId >= shown.length) {
+            shown = Arrays.copyOf(shown, maxId + 1);
+            nextShown = new boolean[maxId + 1];
+        }
+        Arrays.fill(nextShown, false);
+
+        order = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = ids[i];
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = Float.compare(priorities[b], priorities[a]);
+                if (result == 0 && shown[a] != shown[b]) {
+                    // Labels already on screen win ties.
+                    result = shown[a] ? -1 : 1;
+                }
+                if (result == 0) {
+                    result = a.compareTo(b);
+                }
+                return result;
+            }
+        });
+        passIndex = 0;
+
+        columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        if (cellHeads.length < columns * rows) {
+            cellHeads = new int[columns * rows];
+        }
+        Arrays.fill(cellHeads, -1);
+        numEntries = 0;
+        numRects = 0;
+
+        passActive = true;
+    }
+
+    private void finishPass() {
+        Arrays.fill(shown, false);
+        for (Integer id : order) {
+            boolean visible = nextShown[id];
+            shown[id] = visible;
+            if (layer.isVisible(id) != visible) {
+                layer.setVisible(id, visible);
+            }
+        }
+
+        lastMatrix = matrix;
+        lastWidth = width;
+        lastHeight = height;
+        lastModifications = modifications;
+        passActive = false;
+    }
+
+    /**
+     * Tries to place a single label, and records whether it fits.
+     */
+    private void place(int id) {
+        VecF3 position = layer.getPosition(id);
+        float[] m = matrix;
+        float x = position.getX(), y = position.getY(), z = position.getZ();
+        float clipX = m[0] * x + m[1] * y + m[2] * z + m[3];
+        float clipY = m[4] * x + m[5] * y + m[6] * z + m[7];
+        float clipW = m[12] * x + m[13] * y + m[14] * z + m[15];
+        if (clipW <= 0f) {
+            // Behind the camera.
+            return;
+        }
+
+        float screenX = (clipX / clipW * 0.5f + 0.5f) * width;
+        float screenY = (clipY / clipW * 0.5f + 0.5f) * height;
+        float[] bounds = layer.getPixelBounds(id);
+        float left = screenX + bounds[0], bottom = screenY + bounds[1];
+        float right = screenX + bounds[2], top = screenY + bounds[3];
+        if (right < 0f || top < 0f || left > width || bottom > height) {
+            return;
+        }
+
+        float margin = shown[id] ? 0f : hysteresis;
+        if (collides(left - margin, bottom - margin, right + margin, top + margin)) {
+            return;
+        }
+
+        insert(left, bottom, right, top);
+        nextShown[id] = true;
+    }
+
+    private boolean collides(float left, float bottom, float right, float top) {
+        int c0 = column(left), c1 = column(right);
+        int r0 = row(bottom), r1 = row(top);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int e = cellHeads[r * columns + c]; e >= 0; e = entryNext[e]) {
+                    int rect = entryRect[e] * 4;
+                    if (left < rects[rect + 2] && rects[rect] < right && bottom < rects[rect + 3]
+                            && rects[rect + 1] < top) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void insert(float left, float bottom, float right, float top) {
+        if ((numRects + 1) * 4 > rects.length) {
+            rects = Arrays.copyOf(rects, rects.length * 2);
+        }
+        int rect = numRects++;
+        rects[rect * 4] = left;
+        rects[rect * 4 + 1] = bottom;
+        rects[rect * 4 + 2] = right;
+        rects[rect * 4 + 3] = top;
+
+        int c0 = column(left), c1 = column(right);
+        int r0 = row(bottom), r1 = row(top);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                if (numEntries == entryNext.length) {
+                    entryNext = Arrays.copyOf(entryNext, numEntries * 2);
+                    entryRect = Arrays.copyOf(entryRect, numEntries * 2);
+                }
+                int cell = r * columns + c;
+                entryRect[numEntries] = rect;
+                entryNext[numEntries] = cellHeads[cell];
+                cellHeads[cell] = numEntries++;
+            }
+        }
+    }
+
+    private int column(float x) {
+        return Math.min(columns - 1, Math.max(0, (int) (x / cellSize)));
+    }
+
+    private int row(float y) {
+        return Math.min(rows - 1, Math.max(0, (int) (y / cellSize)));
+    }
+
+    /**
+     * Getter for the number of labels shown after the last complete pass.
+     *
+     * @return the number of visible labels.
+     */
+    public int getNumShown() {
+        int count = 0;
+        for (boolean visible : shown) {
+            if (visible) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,688 @@
+package nl.esciencecenter.esight.text;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.datastructures.GLSLAttrib;
+import nl.esciencecenter.esight.datastructures.VBO;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.MatrixFMath;
+import nl.esciencecenter.esight.math.VecF2;
+import nl.esciencecenter.esight.math.VecF3;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A batch of text labels that share one {@link SDFGlyphAtlas}, one
+ * {@link VBO} and one draw call. Each label has its own anchor position,
+ * font size, alignment and color. Labels keep a constant size in pixels, so
+ * the same layer can be drawn in world space (labels follow their 3D anchor
+ * points) or as a HUD (anchor positions are pixel coordinates). Changing a
+ * label only uploads the vertices of that label. Draw with the
+ * shaders/vs_labelLayer.vp and shaders/fs_sdfText.fp program.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public class LabelLayer {
+    private final static Logger LOGGER = LoggerFactory.getLogger(LabelLayer.class);
+
+    private static final int VERTICES_PER_GLYPH = 6;
+    private static final int INITIAL_CAPACITY = 1024 * VERTICES_PER_GLYPH;
+
+    /**
+     * The point of a label that is placed at its anchor position.
+     */
+    public static enum Anchor {
+        BOTTOM_LEFT(0f, 0f), BOTTOM(0.5f, 0f), BOTTOM_RIGHT(1f, 0f), LEFT(0f, 0.5f), CENTER(0.5f, 0.5f), RIGHT(1f,
+                0.5f), TOP_LEFT(0f, 1f), TOP(0.5f, 1f), TOP_RIGHT(1f, 1f);
+
+        private final float fractionX, fractionY;
+
+        private Anchor(float fractionX, float fractionY) {
+            this.fractionX = fractionX;
+            this.fractionY = fractionY;
+        }
+    }
+
+    private static final class Label {
+        private String text;
+        private VecF3 position;
+        private float size;
+        private Color4 color;
+        private Anchor anchor;
+        private boolean visible = true;
+
+        /** The vertex range reserved for this label */
+        private int start, capacity;
+        /** The number of vertices used of the reserved range */
+        private int used;
+
+        /** The bounds of the text in pixels, relative to the anchor */
+        private float left, bottom, right, top;
+        /** The translation from the pen origin to the anchor */
+        private float shiftX, shiftY;
+    }
+
+    /** The atlas holding the glyphs */
+    private final SDFGlyphAtlas atlas;
+
+    /** The labels, by id. Removed labels leave a null entry. */
+    private final List<Label> labels = new ArrayList<Label>();
+    /** Ids of removed labels, for re-use */
+    private final List<Integer> freeIds = new ArrayList<Integer>();
+
+    /** Per-vertex anchor positions, pixel offsets, texture coordinates and colors */
+    private FloatBuffer positions, offsets, texCoords, colors;
+
+    private VBO vbo;
+
+    /** The number of vertices in use, including those of deleted ranges */
+    private int numVertices = 0;
+    /** The number of vertices in ranges no label uses anymore */
+    private int garbage = 0;
+
+    /** Counts changes to the text, position or number of labels */
+    private int modifications = 0;
+
+    /** Whether the buffers have been reallocated since the last upload */
+    private boolean reallocated = true;
+    /** The range of vertices changed since the last upload */
+    private int dirtyStart = Integer.MAX_VALUE, dirtyEnd = 0;
+
+    /**
+     * Constructor, doesn't actually do any work, only prepares storage.
+     *
+     * @param atlas
+     *            The glyph atlas for the labels in this layer.
+     */
+    public LabelLayer(SDFGlyphAtlas atlas) {
+        this.atlas = atlas;
+
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds a label to this layer.
+     *
+     * @param text
+     *            The text of the label. Line breaks start a new line below
+     *            the previous one.
+     * @param position
+     *            The anchor position of the label. In world coordinates when
+     *            drawn with {@link #draw}, in pixels when drawn with
+     *            {@link #drawHud}.
+     * @param size
+     *            The font size, in pixels.
+     * @param color
+     *            The color of the label.
+     * @param anchor
+     *            The point of the label that is placed at its position.
+     * @return The id of the new label.
+     */
+    public int add(String text, VecF3 position, float size, Color4 color, Anchor anchor) {
+        Label label = new Label();
+        label.text = text;
+        label.position = position;
+        label.size = size;
+        label.color = color;
+        label.anchor = anchor;
+
+        layout(label);
+        reserve(label);
+        write(label);
+        modifications++;
+
+        if (freeIds.isEmpty()) {
+            labels.add(label);
+            return labels.size() - 1;
+        }
+        int id = freeIds.remove(freeIds.size() - 1);
+        labels.set(id, label);
+        return id;
+    }
+
+    /**
+     * Setter for the text of a label.
+     *
+     * @param id
+     *            The id of the label.
+     * @param text
+     *            The new text.
+     */
+    public void setText(int id, String text) {
+        Label label = get(id);
+        if (!label.text.equals(text)) {
+            label.text = text;
+            layout(label);
+            reserve(label);
+            write(label);
+            modifications++;
+
+            // A label that outgrew its range left the old one behind.
+            compactIfWasteful();
+        }
+    }
+
+    /**
+     * Setter for the anchor position of a label.
+     *
+     * @param id
+     *            The id of the label.
+     * @param position
+     *            The new position.
+     */
+    public void setPosition(int id, VecF3 position) {
+        Label label = get(id);
+        label.position = position;
+        write(label);
+        modifications++;
+    }
+
+    /**
+     * Setter for the color of a label.
+     *
+     * @param id
+     *            The id of the label.
+     * @param color
+     *            The new color.
+     */
+    public void setColor(int id, Color4 color) {
+        Label label = get(id);
+        if (!label.color.equals(color)) {
+            label.color = color;
+            write(label);
+        }
+    }
+
+    /**
+     * Shows or hides a label. Hidden labels keep their place in the buffer.
+     *
+     * @param id
+     *            The id of the label.
+     * @param visible
+     *            Whether the label should be drawn.
+     */
+    public void setVisible(int id, boolean visible) {
+        Label label = get(id);
+        if (label.visible != visible) {
+            label.visible = visible;
+            write(label);
+        }
+    }
+
+    /**
+     * Removes a label from this layer. Its id may be handed out again by
+     * {@link #add}.
+     *
+     * @param id
+     *            The id of the label.
+     */
+    public void remove(int id) {
+        Label label = get(id);
+        release(label);
+        labels.set(id, null);
+        freeIds.add(id);
+        modifications++;
+
+        compactIfWasteful();
+    }
+
+    /**
+     * Removes all labels from this layer.
+     */
+    public void clear() {
+        labels.clear();
+        freeIds.clear();
+        numVertices = 0;
+        garbage = 0;
+        reallocated = true;
+        modifications++;
+    }
+
+    /**
+     * Getter for the number of labels in this layer.
+     *
+     * @return the number of labels.
+     */
+    public int size() {
+        return labels.size() - freeIds.size();
+    }
+
+    /**
+     * Getter for the ids in use, in the order the labels were added.
+     *
+     * @return the ids of the labels in this layer.
+     */
+    public int[] getIds() {
+        int[] result = new int[size()];
+        int index = 0;
+        for (int i = 0; i < labels.size(); i++) {
+            if (labels.get(i) != null) {
+                result[index++] = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Getter for the anchor position of a label.
+     *
+     * @param id
+     *            The id of the label.
+     * @return the anchor position.
+     */
+    public VecF3 getPosition(int id) {
+        return get(id).position;
+    }
+
+    /**
+     * Getter for the visibility of a label.
+     *
+     * @param id
+     *            The id of the label.
+     * @return true if the label is drawn.
+     */
+    public boolean isVisible(int id) {
+        return get(id).visible;
+    }
+
+    /**
+     * Getter for the extent of a label on screen, in pixels relative to its
+     * (projected) anchor position.
+     *
+     * @param id
+     *            The id of the label.
+     * @return the left, bottom, right and top of the label.
+     */
+    public float[] getPixelBounds(int id) {
+        Label label = get(id);
+        return new float[] { label.left, label.bottom, label.right, label.top };
+    }
+
+    /**
+     * Getter for the number of vertices drawn, including those of freed
+     * ranges that have not been compacted yet.
+     *
+     * @return the number of vertices.
+     */
+    int getNumVertices() {
+        return numVertices;
+    }
+
+    /**
+     * Getter for the per-vertex pixel offsets from the anchor positions, two
+     * floats per vertex.
+     *
+     * @return the offsets.
+     */
+    FloatBuffer getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Getter for a counter that changes whenever a label is added, removed,
+     * moved or given a new text.
+     *
+     * @return the modification count.
+     */
+    int getModifications() {
+        return modifications;
+    }
+
+    private Label get(int id) {
+        Label label = id >= 0 && id < labels.size() ? labels.get(id) : null;
+        if (label == null) {
+            throw new IllegalArgumentException("No label with id " + id);
+        }
+        return label;
+    }
+
+    /**
+     * Measures the text of a label, and works out how many vertices it needs.
+     */
+    private void layout(Label label) {
+        float penX = 0f, penY = 0f;
+        float left = Float.MAX_VALUE, bottom = Float.MAX_VALUE, right = -Float.MAX_VALUE, top = -Float.MAX_VALUE;
+        int glyphs = 0;
+
+        for (int i = 0; i < label.text.length(); i++) {
+            char character = label.text.charAt(i);
+            if (character == '\n') {
+                penX = 0f;
+                penY -= atlas.getLineAdvance() * label.size;
+                continue;
+            }
+            if (i > 0 && label.text.charAt(i - 1) != '\n') {
+                penX += atlas.getKerning(label.text.charAt(i - 1), character) * label.size;
+            }
+
+            SDFGlyphAtlas.Glyph glyph = atlas.getGlyph(character);
+            if (glyph.isVisible()) {
+                left = Math.min(left, penX + glyph.getLeft() * label.size);
+                right = Math.max(right, penX + glyph.getRight() * label.size);
+                bottom = Math.min(bottom, penY + glyph.getBottom() * label.size);
+                top = Math.max(top, penY + glyph.getTop() * label.size);
+                glyphs++;
+            }
+            penX += glyph.getAdvance() * label.size;
+        }
+
+        if (glyphs == 0) {
+            left = bottom = right = top = 0f;
+        }
+
+        // Shift the bounds so the anchor point ends up at (0,0).
+        label.shiftX = -(left + (right - left) * label.anchor.fractionX);
+        label.shiftY = -(bottom + (top - bottom) * label.anchor.fractionY);
+        label.left = left + label.shiftX;
+        label.right = right + label.shiftX;
+        label.bottom = bottom + label.shiftY;
+        label.top = top + label.shiftY;
+
+        label.used = glyphs * VERTICES_PER_GLYPH;
+    }
+
+    /**
+     * Makes sure the label has a vertex range large enough for its text.
+     */
+    private void reserve(Label label) {
+        if (label.used <= label.capacity) {
+            return;
+        }
+        release(label);
+
+        if (numVertices + label.used > positions.capacity() / 4) {
+            int capacity = positions.capacity() / 4;
+            while (numVertices + label.used > capacity) {
+                capacity *= 2;
+            }
+            grow(capacity);
+        }
+
+        label.start = numVertices;
+        label.capacity = label.used;
+        numVertices += label.used;
+    }
+
+    /**
+     * Returns the vertex range of a label to the garbage, drawn as nothing.
+     */
+    private void release(Label label) {
+        if (label.capacity > 0) {
+            clearVertices(label.start, label.start + label.capacity);
+            markDirty(label.start, label.start + label.capacity);
+            garbage += label.capacity;
+            label.capacity = 0;
+        }
+    }
+
+    /**
+     * Writes the vertices of a label into its range. Vertices of hidden labels
+     * and the unused tail of the range collapse onto the anchor, so they are
+     * not rasterised.
+     */
+    private void write(Label label) {
+        int vertex = label.start;
+        if (label.visible) {
+            float penX = 0f, penY = 0f;
+            for (int i = 0; i < label.text.length(); i++) {
+                char character = label.text.charAt(i);
+                if (character == '\n') {
+                    penX = 0f;
+                    penY -= atlas.getLineAdvance() * label.size;
+                    continue;
+                }
+                if (i > 0 && label.text.charAt(i - 1) != '\n') {
+                    penX += atlas.getKerning(label.text.charAt(i - 1), character) * label.size;
+                }
+                SDFGlyphAtlas.Glyph glyph = atlas.getGlyph(character);
+                if (glyph.isVisible()) {
+                    float left = label.shiftX + penX + glyph.getLeft() * label.size;
+                    float right = label.shiftX + penX + glyph.getRight() * label.size;
+                    float bottom = label.shiftY + penY + glyph.getBottom() * label.size;
+                    float top = label.shiftY + penY + glyph.getTop() * label.size;
+
+                    putQuad(vertex, label, left, bottom, right, top, glyph);
+                    vertex += VERTICES_PER_GLYPH;
+                }
+                penX += glyph.getAdvance() * label.size;
+            }
+        }
+
+        clearVertices(vertex, label.start + label.capacity);
+        markDirty(label.start, label.start + label.capacity);
+    }
+
+    private void putQuad(int vertex, Label label, float left, float bottom, float right, float top,
+            SDFGlyphAtlas.Glyph glyph) {
+        VecF3 p = label.position;
+        Color4 c = label.color;
+
+        positions.position(vertex * 4);
+        offsets.position(vertex * 2);
+        texCoords.position(vertex * 2);
+        colors.position(vertex * 4);
+        for (int v = 0; v < VERTICES_PER_GLYPH; v++) {
+            positions.put(p.getX()).put(p.getY()).put(p.getZ()).put(1f);
+            colors.put(c.getX()).put(c.getY()).put(c.getZ()).put(c.getW());
+        }
+
+        offsets.put(left).put(bottom);
+        offsets.put(right).put(bottom);
+        offsets.put(right).put(top);
+        offsets.put(left).put(bottom);
+        offsets.put(right).put(top);
+        offsets.put(left).put(top);
+
+        texCoords.put(glyph.getU0()).put(glyph.getV0());
+        texCoords.put(glyph.getU1()).put(glyph.getV0());
+        texCoords.put(glyph.getU1()).put(glyph.getV1());
+        texCoords.put(glyph.getU0()).put(glyph.getV0());
+        texCoords.put(glyph.getU1()).put(glyph.getV1());
+        texCoords.put(glyph.getU0()).put(glyph.getV1());
+    }
+
+    private void clearVertices(int from, int to) {
+        for (int i = from * 4; i < to * 4; i++) {
+            positions.put(i, 0f);
+            colors.put(i, 0f);
+        }
+        for (int i = from * 2; i < to * 2; i++) {
+            offsets.put(i, 0f);
+            texCoords.put(i, 0f);
+        }
+    }
+
+    private void markDirty(int from, int to) {
+        dirtyStart = Math.min(dirtyStart, from);
+        dirtyEnd = Math.max(dirtyEnd, to);
+    }
+
+    private void allocate(int capacity) {
+        positions = FloatBuffer.allocate(capacity * 4);
+        offsets = FloatBuffer.allocate(capacity * 2);
+        texCoords = FloatBuffer.allocate(capacity * 2);
+        colors = FloatBuffer.allocate(capacity * 4);
+        reallocated = true;
+    }
+
+    private void grow(int capacity) {
+        FloatBuffer oldPositions = positions, oldOffsets = offsets, oldTexCoords = texCoords, oldColors = colors;
+        allocate(capacity);
+
+        oldPositions.rewind();
+        oldOffsets.rewind();
+        oldTexCoords.rewind();
+        oldColors.rewind();
+        positions.put(oldPositions);
+        offsets.put(oldOffsets);
+        texCoords.put(oldTexCoords);
+        colors.put(oldColors);
+    }
+
+    /**
+     * Compacts once more than half of the vertices are garbage, so the
+     * buffer stays at most twice the size of the labels in it.
+     */
+    private void compactIfWasteful() {
+        if (garbage > numVertices / 2) {
+            compact();
+        }
+    }
+
+    /**
+     * Packs all labels together again, dropping the ranges that were freed
+     * since the last compaction.
+     */
+    private void compact() {
+        allocate(positions.capacity() / 4);
+        numVertices = 0;
+        garbage = 0;
+
+        for (Label label : labels) {
+            if (label != null) {
+                label.capacity = 0;
+                reserve(label);
+                write(label);
+            }
+        }
+    }
+
+    /**
+     * Uploads the changes since the last call to the device.
+     *
+     * @param gl
+     *            The global openGL instance.
+     */
+    public void init(GL3 gl) {
+        if (vbo == null || reallocated) {
+            positions.rewind();
+            offsets.rewind();
+            texCoords.rewind();
+            colors.rewind();
+
+            GLSLAttrib vAttrib = new GLSLAttrib(positions, "MCvertex", GLSLAttrib.SIZE_FLOAT, 4);
+            GLSLAttrib oAttrib = new GLSLAttrib(offsets, "MCoffset", GLSLAttrib.SIZE_FLOAT, 2);
+            GLSLAttrib tAttrib = new GLSLAttrib(texCoords, "MCtexCoord", GLSLAttrib.SIZE_FLOAT, 2);
+            GLSLAttrib cAttrib = new GLSLAttrib(colors, "MCvertexColor", GLSLAttrib.SIZE_FLOAT, 4);
+            if (vbo == null) {
+                vbo = new VBO(gl, vAttrib, oAttrib, tAttrib, cAttrib);
+            } else {
+                vbo.update(gl, vAttrib, oAttrib, tAttrib, cAttrib);
+            }
+            reallocated = false;
+        } else if (dirtyStart < dirtyEnd) {
+            int count = dirtyEnd - dirtyStart;
+            vbo.updateRange(gl, 0, dirtyStart * 4, count * 4);
+            vbo.updateRange(gl, 1, dirtyStart * 2, count * 2);
+            vbo.updateRange(gl, 2, dirtyStart * 2, count * 2);
+            vbo.updateRange(gl, 3, dirtyStart * 4, count * 4);
+        }
+
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = 0;
+    }
+
+    /**
+     * Draws all labels of this layer in world space, at a constant size in
+     * pixels.
+     *
+     * @param gl
+     *            The global openGL instance.
+     * @param program
+     *            The shader program to be used for this drawing instance.
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix.
+     * @param viewportWidth
+     *            The width of the viewport, in pixels.
+     * @param viewportHeight
+     *            The height of the viewport, in pixels.
+     * @throws UninitializedException
+     */
+    public void draw(GL3 gl, ShaderProgram program, MatF4 p, MatF4 mv, float viewportWidth, float viewportHeight)
+            throws UninitializedException {
+        init(gl);
+
+        atlas.init(gl);
+        if (!atlas.isInitialized() || numVertices == 0) {
+            return;
+        }
+
+        atlas.use(gl);
+        program.setUniform("atlas_map", atlas.getMultitexNumber());
+        program.setUniformMatrix("PMatrix", p);
+        program.setUniformMatrix("MVMatrix", mv);
+        program.setUniformVector("ViewportSize", new VecF2(viewportWidth, viewportHeight));
+
+        vbo.bind(gl);
+
+        program.linkAttribs(gl, vbo.getAttribs());
+
+        try {
+            program.use(gl);
+        } catch (UninitializedException e) {
+            LOGGER.error(e.getMessage());
+        }
+
+        gl.glDrawArrays(GL3.GL_TRIANGLES, 0, numVertices);
+    }
+
+    /**
+     * Draws all labels of this layer on the HUD. The anchor positions of the
+     * labels are taken as pixel coordinates, with (0,0) in the lower left
+     * corner of the canvas.
+     *
+     * @param gl
+     *            The global openGL instance.
+     * @param program
+     *            The shader program to be used for this drawing instance.
+     * @param canvasWidth
+     *            The width of the HUD (canvas).
+     * @param canvasHeight
+     *            The height of the HUD (canvas).
+     * @throws UninitializedException
+     */
+    public void drawHud(GL3 gl, ShaderProgram program, float canvasWidth, float canvasHeight)
+            throws UninitializedException {
+        draw(gl, program, MatrixFMath.ortho(0f, canvasWidth, 0f, canvasHeight, -1f, 1f), new MatF4(), canvasWidth,
+                canvasHeight);
+    }
+
+    /**
+     * Releases the device memory of this layer.
+     *
+     * @param gl
+     *            The global openGL instance.
+     */
+    public void delete(GL3 gl) {
+        if (vbo != null) {
+            vbo.delete(gl);
+            vbo = null;
+        }
+        reallocated = true;
+    }
+}
@@ -1,9 +1,9 @@
 package nl.esciencecenter.esight.text;
 
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -18,22 +18,16 @@ import nl.esciencecenter.esight.math.MatF4;
 import nl.esciencecenter.esight.math.MatrixFMath;
 import nl.esciencecenter.esight.math.VecF3;
 import nl.esciencecenter.esight.math.VecF4;
-import nl.esciencecenter.esight.math.VectorFMath;
 import nl.esciencecenter.esight.models.BoundingBox;
 import nl.esciencecenter.esight.models.Model;
 import nl.esciencecenter.esight.shaders.ShaderProgram;
+import nl.esciencecenter.esight.text.GlyphMeshCache.GlyphMesh;
 import nl.esciencecenter.esight.text.jogampexperimental.Font;
-import nl.esciencecenter.esight.text.jogampexperimental.GlyphShape;
-import nl.esciencecenter.esight.text.jogampexperimental.OutlineShape;
 import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.jogamp.graph.geom.Triangle;
-import com.jogamp.graph.geom.Vertex;
-import com.jogamp.graph.geom.opengl.SVertex;
-
 /* Copyright 2013 Netherlands eScience Center
  * 
  * Licensed under the Apache License, Version 2.0 (the "License")
@@ -59,14 +53,33 @@ import com.jogamp.graph.geom.opengl.SVertex;
 public class MultiColorText extends Model {
     private final static Logger LOGGER = LoggerFactory.getLogger(MultiColorText.class);
 
+    /** The maximum number of word patterns kept in the pattern cache */
+    private static final int MAX_CACHED_PATTERNS = 256;
+
+    /**
+     * Compiled patterns for {@link #setSubstringColorWordBounded}, shared by
+     * all instances, so recoloring the same words does not recompile them.
+     */
+    private static final Map<String, Pattern> WORD_PATTERNS = Collections
+            .synchronizedMap(new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+                private static final long serialVersionUID = 4337166196567931556L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                    return size() > MAX_CACHED_PATTERNS;
+                }
+            });
+
     /** Initialization is needed for certain functions to work properly */
     private boolean initialized = false;
 
     /**
-     * Private storage construct for glyph shapes (one per character in the
-     * text)
+     * Private storage construct for glyph meshes (one per character in the
+     * text), shared through the {@link GlyphMeshCache}
      */
-    private final Map<Integer, GlyphShape> glyphs;
+    private final Map<Integer, GlyphMesh> glyphs;
+    /** The pen position of each character in the text, as x,y pairs */
+    private float[] penPositions;
     /**
      * Private storage construct for character colors (one per character in the
      * text)
@@ -75,6 +88,10 @@ public class MultiColorText extends Model {
 
     /** Buffer for final per-vertex colors */
     private FloatBuffer vertexColors;
+    /** The first vertex of each character in the vertex buffers */
+    private int[] glyphVertexStarts = new int[0];
+    /** The range of characters whose color changed since the last VBO update */
+    private int dirtyStart = Integer.MAX_VALUE, dirtyEnd = -1;
 
     /** internal-use only bounding box for the model */
     private final BoundingBox bbox;
@@ -113,7 +130,7 @@ public class MultiColorText extends Model {
 
         this.bbox = new BoundingBox();
         colors = new HashMap<Integer, VecF4>();
-        glyphs = new HashMap<Integer, GlyphShape>();
+        glyphs = new HashMap<Integer, GlyphMesh>();
 
         setNumVertices(0);
     }
@@ -127,7 +144,7 @@ public class MultiColorText extends Model {
 
         this.bbox = new BoundingBox();
         colors = new HashMap<Integer, VecF4>();
-        glyphs = new HashMap<Integer, GlyphShape>();
+        glyphs = new HashMap<Integer, GlyphMesh>();
 
         setFields(gl, text, initialColor, fontSize);
     }
@@ -146,27 +163,44 @@ public class MultiColorText extends Model {
     }
 
     private void setFields(GL3 gl, String str, Color4 basicColor, int size) {
-        // Get the outline shapes for the current string in this font
-        List<OutlineShape> shapes = ((TypecastFont) font).getOutlineShapes(str, size, SVertex.factory());
-
-        // Make a set of glyph shapes from the outlines
-        int numGlyps = shapes.size();
-
-        for (int index = 0; index < numGlyps; index++) {
-            if (shapes.get(index) == null) {
+        TypecastFont typecastFont = (TypecastFont) font;
+        Font.Metrics metrics = typecastFont.getMetrics();
+        float lineAdvance = metrics.getLineGap(size) - metrics.getDescent(size) + metrics.getAscent(size);
+
+        // Look up the (cached) glyphs for the current string in this font,
+        // and place them along the same pen path the font renderer uses.
+        penPositions = new float[str.length() * 2];
+        float penX = 0f, penY = 0f;
+        char previous = '\n';
+
+        for (int index = 0; index < str.length(); index++) {
+            char character = str.charAt(index);
+            if (character == '\n') {
+                penX = 0f;
+                penY += lineAdvance;
+                previous = character;
                 colors.put(index, null);
                 glyphs.put(index, null);
                 continue;
             }
-            GlyphShape glyphShape = new GlyphShape(SVertex.factory(), shapes.get(index));
 
-            if (glyphShape.getNumVertices() < 3) {
+            if (previous != '\n') {
+                penX += typecastFont.getKerning(previous, character, size);
+            }
+            previous = character;
+
+            GlyphMesh glyph = GlyphMeshCache.getInstance().get(typecastFont, character, size);
+            penPositions[index * 2] = penX;
+            penPositions[index * 2 + 1] = penY;
+            penX += glyph.getAdvance();
+
+            if (glyph.getNumVertices() == 0) {
                 colors.put(index, null);
                 glyphs.put(index, null);
                 continue;
             }
             colors.put(index, basicColor);
-            glyphs.put(index, glyphShape);
+            glyphs.put(index, glyph);
         }
 
         initialized = false;
@@ -188,11 +222,20 @@ public class MultiColorText extends Model {
      * @param size
      */
     public void setString(GL3 gl, String str, Color4 basicColor, int size) {
-        if (cachedString.compareTo(str) != 0 || cachedSize != size || !cachedColor.equals(basicColor)) {
+        if (cachedString.compareTo(str) != 0 || cachedSize != size) {
             colors.clear();
             glyphs.clear();
 
             setFields(gl, str, basicColor, size);
+        } else if (!cachedColor.equals(basicColor)) {
+            // Same geometry, only recolor.
+            for (int i = 0; i < glyphs.size(); i++) {
+                if (glyphs.get(i) != null) {
+                    setColor(i, basicColor);
+                }
+            }
+            finalizeColorScheme(gl);
+            this.cachedColor = basicColor;
         }
     }
 
@@ -205,51 +248,64 @@ public class MultiColorText extends Model {
      */
     private void makeVBO(GL3 gl) {
         if (!initialized) {
-            // Create list of vertices based on the glyph shapes
-            ArrayList<Vertex> vertices = new ArrayList<Vertex>();
-            ArrayList<VecF4> tmpVertexColors = new ArrayList<VecF4>();
+            int numVertices = 0;
             for (int i = 0; i < glyphs.size(); i++) {
                 if (glyphs.get(i) != null) {
-                    GlyphShape glyph = glyphs.get(i);
-                    VecF4 glypColor = colors.get(i);
+                    numVertices += glyphs.get(i).getNumVertices();
+                }
+            }
 
-                    List<Triangle> gtris = glyph.triangulate();
-                    for (Triangle t : gtris) {
-                        vertices.add(t.getVertices()[0]);
-                        vertices.add(t.getVertices()[1]);
-                        vertices.add(t.getVertices()[2]);
+            // Copy the cached glyph vertices to their pen positions, and
+            // update the BoundingBox.
+            FloatBuffer vertices = FloatBuffer.allocate(numVertices * 4);
+            FloatBuffer tmpVertexColors = FloatBuffer.allocate(numVertices * 4);
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
 
-                        tmpVertexColors.add(glypColor);
-                        tmpVertexColors.add(glypColor);
-                        tmpVertexColors.add(glypColor);
+            glyphVertexStarts = new int[glyphs.size()];
+            for (int i = 0; i < glyphs.size(); i++) {
+                glyphVertexStarts[i] = vertices.position() / 4;
+                if (glyphs.get(i) != null) {
+                    float[] glyphVertices = glyphs.get(i).getVertices();
+                    VecF4 glypColor = colors.get(i);
+                    float penX = penPositions[i * 2];
+                    float penY = penPositions[i * 2 + 1];
+
+                    for (int v = 0; v < glyphVertices.length; v += 2) {
+                        float x = glyphVertices[v] + penX;
+                        float y = glyphVertices[v + 1] + penY;
+                        minX = Math.min(minX, x);
+                        maxX = Math.max(maxX, x);
+                        minY = Math.min(minY, y);
+                        maxY = Math.max(maxY, y);
+
+                        vertices.put(x).put(y).put(0f).put(1f);
+                        tmpVertexColors.put(glypColor.getX()).put(glypColor.getY()).put(glypColor.getZ())
+                                .put(glypColor.getW());
                     }
                 }
             }
+            vertices.rewind();
+            tmpVertexColors.rewind();
 
-            // Transform the vertices from Vertex objects to Vec4 objects
-            // and
-            // update BoundingBox.
-            VecF4[] myVertices = new VecF4[vertices.size()];
-            int i = 0;
-            for (Vertex v : vertices) {
-                VecF3 vec = new VecF3(v.getX(), v.getY(), v.getZ());
-                bbox.resize(vec);
-
-                myVertices[i] = new VecF4(vec, 1f);
-
-                i++;
+            if (numVertices > 0) {
+                bbox.resize(new VecF3(minX, minY, 0f));
+                bbox.resize(new VecF3(maxX, maxY, 0f));
             }
 
-            if (getVbo() != null) {
-                getVbo().delete(gl);
-            }
-            this.setVertices(VectorFMath.toBuffer(myVertices));
-            this.vertexColors = VectorFMath.vec4ListToBuffer(tmpVertexColors);
+            this.setVertices(vertices);
+            this.vertexColors = tmpVertexColors;
             GLSLAttrib vAttrib = new GLSLAttrib(this.getVertices(), "MCvertex", GLSLAttrib.SIZE_FLOAT, 4);
             GLSLAttrib cAttrib = new GLSLAttrib(this.vertexColors, "MCvertexColor", GLSLAttrib.SIZE_FLOAT, 4);
-            setVbo(new VBO(gl, vAttrib, cAttrib));
+            if (getVbo() == null) {
+                setVbo(new VBO(gl, vAttrib, cAttrib));
+            } else {
+                getVbo().update(gl, vAttrib, cAttrib);
+            }
+            dirtyStart = Integer.MAX_VALUE;
+            dirtyEnd = -1;
 
-            this.setNumVertices(vertices.size());
+            this.setNumVertices(numVertices);
 
             initialized = true;
         }
@@ -281,14 +337,13 @@ public class MultiColorText extends Model {
      */
     public void setSubstringColorWordBounded(GL3 gl, String subString, Color4 newColor) {
         if (cachedString.contains(subString) && subString.compareTo("") != 0) {
-            Pattern p = Pattern.compile("\\b" + subString + "\\b");
-            Matcher m = p.matcher(cachedString);
+            Matcher m = wordPattern(subString).matcher(cachedString);
 
             int startIndex = 0;
             while (m.find(startIndex)) {
                 startIndex = m.start();
                 for (int i = 0; i < subString.length(); i++) {
-                    colors.put(startIndex + i, newColor);
+                    setColor(startIndex + i, newColor);
                 }
                 startIndex++; // read past to avoid never-ending loop
             }
@@ -310,7 +365,7 @@ public class MultiColorText extends Model {
             int startIndex = cachedString.indexOf(subString);
             while (startIndex > -1) {
                 for (int i = 0; i < subString.length(); i++) {
-                    colors.put(startIndex + i, newColor);
+                    setColor(startIndex + i, newColor);
                 }
                 startIndex = cachedString.indexOf(subString, startIndex + 1);
             }
@@ -334,14 +389,86 @@ public class MultiColorText extends Model {
     public void setSubstringAtIndexColor(GL3 gl, int startIndex, String subString, Color4 newColor) {
         if (cachedString.contains(subString) && subString.compareTo("") != 0) {
             for (int i = 0; i < subString.length(); i++) {
-                colors.put(startIndex + i, newColor);
+                setColor(startIndex + i, newColor);
             }
         }
     }
 
+    /**
+     * Returns the (cached) pattern matching the given substring as a whole
+     * word.
+     * 
+     * @param subString
+     *            The substring.
+     * @return The compiled pattern.
+     */
+    static Pattern wordPattern(String subString) {
+        Pattern p = WORD_PATTERNS.get(subString);
+        if (p == null) {
+            p = Pattern.compile("\\b" + subString + "\\b");
+            WORD_PATTERNS.put(subString, p);
+        }
+        return p;
+    }
+
+    private void setColor(int index, VecF4 color) {
+        colors.put(index, color);
+        dirtyStart = Math.min(dirtyStart, index);
+        dirtyEnd = Math.max(dirtyEnd, index);
+    }
+
+    /**
+     * Applies the colors set since the last call. Only the color range of the
+     * {@link VBO} covering the changed characters is rewritten, the geometry
+     * stays as it is.
+     * 
+     * @param gl
+     *            The global openGL instance.
+     */
     public void finalizeColorScheme(GL3 gl) {
-        initialized = false;
-        makeVBO(gl);
+        if (!initialized || getVbo() == null) {
+            makeVBO(gl);
+            return;
+        }
+
+        int end = Math.min(dirtyEnd, glyphVertexStarts.length - 1);
+        if (dirtyStart > end) {
+            dirtyStart = Integer.MAX_VALUE;
+            dirtyEnd = -1;
+            return;
+        }
+
+        int firstVertex = glyphVertexStarts[dirtyStart];
+        int lastVertex = firstVertex;
+        for (int i = dirtyStart; i <= end; i++) {
+            GlyphMesh glyph = glyphs.get(i);
+            if (glyph != null) {
+                VecF4 color = colors.get(i);
+                int start = glyphVertexStarts[i];
+                lastVertex = start + glyph.getNumVertices();
+
+                vertexColors.position(start * 4);
+                for (int v = 0; v < glyph.getNumVertices(); v++) {
+                    vertexColors.put(color.getX()).put(color.getY()).put(color.getZ()).put(color.getW());
+                }
+            }
+        }
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = -1;
+
+        vertexColors.rewind();
+        if (lastVertex > firstVertex) {
+            getVbo().updateRange(gl, 1, firstVertex * 4, (lastVertex - firstVertex) * 4);
+        }
+    }
+
+    /**
+     * Getter for the per-vertex colors, four floats per vertex.
+     * 
+     * @return the vertex colors.
+     */
+    FloatBuffer getVertexColors() {
+        return vertexColors;
     }
 
     public void drawHudRelative(GL3 gl, ShaderProgram program, float canvasWidth, float canvasHeight, float rasterPosX,
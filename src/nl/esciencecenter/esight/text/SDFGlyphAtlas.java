@@ -0,0 +1,559 @@
+package nl.esciencecenter.esight.text;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.opengl.GL3;
+
+import jogamp.graph.geom.plane.Path2D;
+import jogamp.graph.geom.plane.PathIterator;
+import nl.esciencecenter.esight.exceptions.FontException;
+import nl.esciencecenter.esight.text.jogampexperimental.Font;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastGlyph;
+import nl.esciencecenter.esight.textures.Texture2D;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jogamp.opengl.math.geom.AABBox;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Texture atlas holding a signed distance field for every glyph of a set of
+ * characters of a {@link TypecastFont}. Texels store the distance to the glyph
+ * outline, 0.5 being the outline itself and larger values inside the glyph, so
+ * the glyphs stay sharp at any size when drawn with
+ * shaders/fs_sdfText.fp. See {@link SDFText} for drawing strings with it.
+ *
+ * The glyph layout is available right after construction, the distance
+ * fields themselves are rasterised on a background thread. The texture is
+ * uploaded on the first {@link #init(GL3)} after they are done.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class SDFGlyphAtlas extends Texture2D {
+    private final static Logger logger = LoggerFactory.getLogger(SDFGlyphAtlas.class);
+
+    /** The printable ASCII characters. */
+    public static final String DEFAULT_CHARACTERS;
+    /** The default width and height of the atlas. */
+    public static final int DEFAULT_ATLAS_SIZE = 1024;
+    /** The default size of the em square in the atlas, in pixels. */
+    public static final int DEFAULT_EM_PIXELS = 48;
+    /** The default distance covered by the field around the glyphs, in pixels. */
+    public static final int DEFAULT_SPREAD = 6;
+
+    /** The outlines are rendered at this multiple of the atlas resolution. */
+    private static final int SUPERSAMPLING = 4;
+
+    static {
+        StringBuilder characters = new StringBuilder();
+        for (char c = 32; c < 127; c++) {
+            characters.append(c);
+        }
+        DEFAULT_CHARACTERS = characters.toString();
+    }
+
+    private static final ExecutorService rasterizer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "SDFGlyphAtlas rasterizer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Placement of a single glyph. Distances are in em units, relative to the
+     * pen position.
+     */
+    public static final class Glyph {
+        private final float advance;
+        private final float left, bottom, right, top;
+        private final float u0, v0, u1, v1;
+        private final boolean visible;
+
+        Glyph(float advance) {
+            this.advance = advance;
+            this.left = this.bottom = this.right = this.top = 0f;
+            this.u0 = this.v0 = this.u1 = this.v1 = 0f;
+            this.visible = false;
+        }
+
+        Glyph(float advance, float left, float bottom, float right, float top, float u0, float v0, float u1, float v1) {
+            this.advance = advance;
+            this.left = left;
+            this.bottom = bottom;
+            this.right = right;
+            this.top = top;
+            this.u0 = u0;
+            this.v0 = v0;
+            this.u1 = u1;
+            this.v1 = v1;
+            this.visible = true;
+        }
+
+        /** @return the distance the pen moves after this glyph. */
+        public float getAdvance() {
+            return advance;
+        }
+
+        /** @return the left edge of the quad. */
+        public float getLeft() {
+            return left;
+        }
+
+        /** @return the bottom edge of the quad. */
+        public float getBottom() {
+            return bottom;
+        }
+
+        /** @return the right edge of the quad. */
+        public float getRight() {
+            return right;
+        }
+
+        /** @return the top edge of the quad. */
+        public float getTop() {
+            return top;
+        }
+
+        /** @return the left texture coordinate of the quad. */
+        public float getU0() {
+            return u0;
+        }
+
+        /** @return the bottom texture coordinate of the quad. */
+        public float getV0() {
+            return v0;
+        }
+
+        /** @return the right texture coordinate of the quad. */
+        public float getU1() {
+            return u1;
+        }
+
+        /** @return the top texture coordinate of the quad. */
+        public float getV1() {
+            return v1;
+        }
+
+        /** @return whether this glyph has a quad, whitespace has none. */
+        public boolean isVisible() {
+            return visible;
+        }
+    }
+
+    /** A glyph waiting to be rasterised. */
+    private static class Cell {
+        final Path2D path;
+        final AABBox bounds;
+        final int x, y, w, h;
+
+        Cell(Path2D path, AABBox bounds, int x, int y, int w, int h) {
+            this.path = path;
+            this.bounds = bounds;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    private final TypecastFont font;
+    private final Map<Character, Glyph> glyphs = new HashMap<Character, Glyph>();
+    private final Glyph missing;
+    private final float lineAdvance;
+    private final int emPixels, spread;
+    private final Future<ByteBuffer> pixels;
+
+    /**
+     * Constructor for an atlas of the printable ASCII characters, with default
+     * settings. Do not forget to call {@link #init(GL3)} before use.
+     *
+     * @param font
+     *            The font to take the glyphs from.
+     * @param glMultitexUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) this texture
+     *            uses.
+     */
+    public SDFGlyphAtlas(TypecastFont font, int glMultitexUnit) {
+        this(font, DEFAULT_CHARACTERS, glMultitexUnit, DEFAULT_ATLAS_SIZE, DEFAULT_EM_PIXELS, DEFAULT_SPREAD);
+    }
+
+    /**
+     * Constructor. Do not forget to call {@link #init(GL3)} before use.
+     *
+     * @param font
+     *            The font to take the glyphs from.
+     * @param characters
+     *            The characters to put in the atlas. Other characters are
+     *            drawn as the missing glyph.
+     * @param glMultitexUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) this texture
+     *            uses.
+     * @param atlasSize
+     *            The width and height of the atlas texture.
+     * @param emPixels
+     *            The size of the em square in the atlas, in pixels.
+     * @param spread
+     *            The distance covered by the field around the glyphs, in
+     *            pixels.
+     */
+    public SDFGlyphAtlas(TypecastFont font, String characters, int glMultitexUnit, int atlasSize, int emPixels,
+            int spread) {
+        super(glMultitexUnit);
+
+        this.font = font;
+        this.width = atlasSize;
+        this.height = atlasSize;
+        this.emPixels = emPixels;
+        this.spread = spread;
+
+        Font.Metrics metrics = font.getMetrics();
+        // The metrics are inverted, downwards is positive.
+        lineAdvance = -(metrics.getLineGap(1f) - metrics.getDescent(1f) + metrics.getAscent(1f));
+
+        // Shelf-pack the glyphs, bottom up, with a pixel of space in between.
+        final List<Cell> cells = new ArrayList<Cell>();
+        float scale = metrics.getScale(1f);
+        float pixelsPerUnit = emPixels * scale;
+        int shelfX = 0, shelfY = 0, shelfHeight = 0;
+
+        for (int i = 0; i < characters.length(); i++) {
+            char character = characters.charAt(i);
+            if (character == ' ') {
+                glyphs.put(character, new Glyph(font.getAdvance(character, 1f)));
+                continue;
+            }
+
+            TypecastGlyph glyph;
+            try {
+                glyph = (TypecastGlyph) font.getGlyph(character);
+            } catch (FontException e) {
+                logger.error(e.getMessage());
+                continue;
+            }
+
+            float advance = font.getAdvance(character, 1f);
+            Path2D path = glyph.getPath();
+            if (path == null || path.iterator().isDone()) {
+                glyphs.put(character, new Glyph(advance));
+                continue;
+            }
+
+            AABBox bounds = path.getBounds2D();
+            int w = (int) Math.ceil((bounds.getMaxX() - bounds.getMinX()) * pixelsPerUnit) + 2 * spread;
+            int h = (int) Math.ceil((bounds.getMaxY() - bounds.getMinY()) * pixelsPerUnit) + 2 * spread;
+
+            if (shelfX + w > atlasSize) {
+                shelfX = 0;
+                shelfY += shelfHeight + 1;
+                shelfHeight = 0;
+            }
+            if (w > atlasSize || shelfY + h > atlasSize) {
+                logger.error("Glyph atlas of " + atlasSize + " pixels is full, leaving out '" + character + "'.");
+                glyphs.put(character, new Glyph(advance));
+                continue;
+            }
+
+            float left = bounds.getMinX() * scale - (float) spread / emPixels;
+            float bottom = bounds.getMinY() * scale - (float) spread / emPixels;
+            glyphs.put(character, new Glyph(advance, left, bottom, left + (float) w / emPixels, bottom + (float) h
+                    / emPixels, (float) shelfX / atlasSize, (float) shelfY / atlasSize, (float) (shelfX + w)
+                    / atlasSize, (float) (shelfY + h) / atlasSize));
+            cells.add(new Cell(path, bounds, shelfX, shelfY, w, h));
+
+            shelfX += w + 1;
+            shelfHeight = Math.max(shelfHeight, h);
+        }
+
+        Glyph unknown = glyphs.get('?');
+        missing = unknown != null ? unknown : new Glyph(0f);
+
+        pixels = rasterizer.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() {
+                ByteBuffer result = ByteBuffer.allocateDirect(width * height);
+                for (Cell cell : cells) {
+                    rasterize(cell, result);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Renders a glyph outline at a multiple of the atlas resolution, and
+     * stores the signed distance to the outline for every texel of its cell.
+     */
+    private void rasterize(Cell cell, ByteBuffer target) {
+        int sw = cell.w * SUPERSAMPLING;
+        int sh = cell.h * SUPERSAMPLING;
+        float pixelsPerUnit = emPixels * font.getMetrics().getScale(1f) * SUPERSAMPLING;
+        float margin = spread * SUPERSAMPLING;
+
+        BufferedImage image = new BufferedImage(sw, sh, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2.setColor(Color.WHITE);
+        // Font units, y up, to image pixels, y down.
+        g2.transform(new AffineTransform(pixelsPerUnit, 0, 0, -pixelsPerUnit, margin - cell.bounds.getMinX()
+                * pixelsPerUnit, sh - margin + cell.bounds.getMinY() * pixelsPerUnit));
+        g2.fill(toShape(cell.path));
+        g2.dispose();
+
+        Raster raster = image.getRaster();
+        boolean[] inside = new boolean[sw * sh];
+        boolean[] outside = new boolean[sw * sh];
+        for (int y = 0; y < sh; y++) {
+            for (int x = 0; x < sw; x++) {
+                inside[y * sw + x] = raster.getSample(x, y, 0) > 127;
+                outside[y * sw + x] = !inside[y * sw + x];
+            }
+        }
+
+        float[] toInside = distanceTransform(inside, sw, sh);
+        float[] toOutside = distanceTransform(outside, sw, sh);
+
+        for (int py = 0; py < cell.h; py++) {
+            // Cell rows are stored bottom up, like the texture.
+            int sy = sh - 1 - (py * SUPERSAMPLING + SUPERSAMPLING / 2);
+            for (int px = 0; px < cell.w; px++) {
+                int index = sy * sw + px * SUPERSAMPLING + SUPERSAMPLING / 2;
+                float distance = (float) (Math.sqrt(toOutside[index]) - Math.sqrt(toInside[index])) / SUPERSAMPLING;
+
+                float value = 0.5f + distance / (2f * spread);
+                int texel = Math.max(0, Math.min(255, Math.round(value * 255f)));
+                target.put((cell.y + py) * width + cell.x + px, (byte) texel);
+            }
+        }
+    }
+
+    private static java.awt.geom.Path2D toShape(Path2D path) {
+        java.awt.geom.Path2D.Float shape = new java.awt.geom.Path2D.Float(java.awt.geom.Path2D.WIND_NON_ZERO);
+        float[] coords = new float[6];
+        for (PathIterator it = path.iterator(); !it.isDone(); it.next()) {
+            switch (it.currentSegment(coords)) {
+            case PathIterator.SEG_MOVETO:
+                shape.moveTo(coords[0], coords[1]);
+                break;
+            case PathIterator.SEG_LINETO:
+                shape.lineTo(coords[0], coords[1]);
+                break;
+            case PathIterator.SEG_QUADTO:
+                shape.quadTo(coords[0], coords[1], coords[2], coords[3]);
+                break;
+            case PathIterator.SEG_CUBICTO:
+                shape.curveTo(coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                break;
+            case PathIterator.SEG_CLOSE:
+                shape.closePath();
+                break;
+            default:
+                break;
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * Squared euclidean distance to the nearest target pixel, for every pixel
+     * of an image (Felzenszwalb and Huttenlocher).
+     */
+    static float[] distanceTransform(boolean[] targets, int w, int h) {
+        final float INF = 1E20f;
+        float[] grid = new float[w * h];
+        for (int i = 0; i < grid.length; i++) {
+            grid[i] = targets[i] ? 0f : INF;
+        }
+
+        int n = Math.max(w, h);
+        float[] f = new float[n];
+        float[] d = new float[n];
+        float[] z = new float[n + 1];
+        int[] v = new int[n];
+
+        for (int x = 0; x < w; x++) {
+            for (int y = 0; y < h; y++) {
+                f[y] = grid[y * w + x];
+            }
+            distanceTransform(f, h, d, v, z);
+            for (int y = 0; y < h; y++) {
+                grid[y * w + x] = d[y];
+            }
+        }
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(grid, y * w, f, 0, w);
+            distanceTransform(f, w, d, v, z);
+            System.arraycopy(d, 0, grid, y * w, w);
+        }
+        return grid;
+    }
+
+    private static void distanceTransform(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = -Float.MAX_VALUE;
+        z[1] = Float.MAX_VALUE;
+
+        for (int q = 1; q < n; q++) {
+            float s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = Float.MAX_VALUE;
+        }
+
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            d[q] = (q - v[k]) * (q - v[k]) + f[v[k]];
+        }
+    }
+
+    /**
+     * Uploads the atlas to the device, once the background rasterisation is
+     * done. Until then, this method does nothing.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     */
+    @Override
+    public void init(GL3 gl) {
+        if (!initialized && pixels.isDone()) {
+            try {
+                pixelBuffer = pixels.get();
+            } catch (InterruptedException e) {
+                logger.error(e.getMessage());
+                return;
+            } catch (ExecutionException e) {
+                logger.error("Could not rasterise glyph atlas: " + e.getCause());
+                return;
+            }
+
+            gl.glActiveTexture(getGlMultiTexUnit());
+
+            pointer = IntBuffer.allocate(1);
+            gl.glGenTextures(1, pointer);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, pointer.get(0));
+
+            gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_S, GL3.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_T, GL3.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MIN_FILTER, GL3.GL_LINEAR);
+            gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAG_FILTER, GL3.GL_LINEAR);
+
+            gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+            gl.glTexImage2D(GL3.GL_TEXTURE_2D, 0, GL3.GL_R8, width, height, 0, GL3.GL_RED, GL3.GL_UNSIGNED_BYTE,
+                    pixelBuffer);
+
+            initialized = true;
+        }
+    }
+
+    /**
+     * Whether the background rasterisation of the distance fields is done.
+     *
+     * @return true if the atlas can be uploaded.
+     */
+    public boolean isReady() {
+        return pixels.isDone();
+    }
+
+    /**
+     * Getter for the placement of a glyph. Characters that are not in the
+     * atlas get the placement of '?'.
+     *
+     * @param character
+     *            The character.
+     * @return The glyph placement.
+     */
+    public Glyph getGlyph(char character) {
+        Glyph glyph = glyphs.get(character);
+        if (glyph == null) {
+            return missing;
+        }
+        return glyph;
+    }
+
+    /**
+     * Getter for the distance between two lines of text, in em units. The next
+     * line goes this far below the previous one.
+     *
+     * @return the line advance.
+     */
+    public float getLineAdvance() {
+        return lineAdvance;
+    }
+
+    /**
+     * Getter for the kerning adjustment between two characters, in em units,
+     * to be added to the advance of the left one.
+     *
+     * @param left
+     *            The left character.
+     * @param right
+     *            The right character.
+     * @return the adjustment, 0 if the font has none for this pair.
+     */
+    public float getKerning(char left, char right) {
+        return font.getKerning(left, right, 1f);
+    }
+
+    /**
+     * Getter for the font.
+     *
+     * @return the font the glyphs are taken from.
+     */
+    public TypecastFont getFont() {
+        return font;
+    }
+
+    /**
+     * Getter for the distance covered by the field around the glyphs, in em
+     * units.
+     *
+     * @return the spread.
+     */
+    public float getSpread() {
+        return (float) spread / emPixels;
+    }
+}
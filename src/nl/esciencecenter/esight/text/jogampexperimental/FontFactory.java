@@ -31,6 +31,8 @@ package nl.esciencecenter.esight.text.jogampexperimental;
 import java.io.File;
 import java.io.IOException;
 import java.net.URLConnection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class FontFactory {
     /** Ubuntu is the default font family */
@@ -38,16 +40,52 @@ public class FontFactory {
 
     private static final TypecastFontConstructor fontConstr = new TypecastFontConstructor();
 
+    /** Fonts loaded from files, shared by the whole process */
+    private static final ConcurrentMap<String, Font> fileFonts = new ConcurrentHashMap<String, Font>();
+
     public static final FontSet getDefault() {
         return get(UBUNTU);
     }
 
     public static final FontSet get(int font) {
+        checkFontSet(font);
         return UbuntuFontLoader.get();
     }
 
+    /**
+     * Starts parsing the default font of a font set in the background. Call
+     * this early, for instance at application launch, so that the font is
+     * ready by the time it is needed.
+     * 
+     * @param font
+     *            The font set, {@link #UBUNTU} being the only one.
+     * @throws IllegalArgumentException
+     *             if there is no such font set.
+     */
+    public static final void preload(int font) {
+        checkFontSet(font);
+        UbuntuFontLoader.fontLoader.preload(FontSet.FAMILY_REGULAR, 0);
+    }
+
+    private static void checkFontSet(int font) {
+        if (font != UBUNTU) {
+            throw new IllegalArgumentException("No font set " + font);
+        }
+    }
+
     public static final Font get(File file) throws IOException {
-        return fontConstr.create(file);
+        String path = file.getCanonicalPath();
+        Font result = fileFonts.get(path);
+        if (result == null) {
+            result = fontConstr.create(file);
+            if (result != null) {
+                Font previous = fileFonts.putIfAbsent(path, result);
+                if (previous != null) {
+                    result = previous;
+                }
+            }
+        }
+        return result;
     }
 
     public static final Font get(final URLConnection url) throws IOException {
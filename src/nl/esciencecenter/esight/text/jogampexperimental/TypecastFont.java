@@ -28,6 +28,7 @@ package nl.esciencecenter.esight.text.jogampexperimental;
  * or implied, of JogAmp Community.
  */
 
+import java.util.Arrays;
 import java.util.List;
 
 import jogamp.graph.font.typecast.ot.OTFont;
@@ -36,9 +37,13 @@ import jogamp.graph.font.typecast.ot.table.CmapFormat;
 import jogamp.graph.font.typecast.ot.table.CmapIndexEntry;
 import jogamp.graph.font.typecast.ot.table.CmapTable;
 import jogamp.graph.font.typecast.ot.table.HdmxTable;
+import jogamp.graph.font.typecast.ot.table.HmtxTable;
 import jogamp.graph.font.typecast.ot.table.ID;
+import jogamp.graph.font.typecast.ot.table.KernSubtable;
+import jogamp.graph.font.typecast.ot.table.KernTable;
+import jogamp.graph.font.typecast.ot.table.KerningPair;
+import jogamp.graph.font.typecast.ot.table.Table;
 import jogamp.graph.geom.plane.AffineTransform;
-import jogamp.graph.geom.plane.Path2D;
 import nl.esciencecenter.esight.exceptions.FontException;
 
 import org.slf4j.Logger;
@@ -60,9 +65,18 @@ public class TypecastFont implements FontInt {
     private final CmapFormat cmapFormat;
     private int cmapentries;
 
-    // Add cache size to limit memory usage ??
+    // Filled as glyphs are asked for, the outlines are decoded on first use.
     private IntObjectHashMap char2Glyph;
 
+    /** Glyph ids by character, in pages of 256 characters made on first use */
+    private final short[][] glyphIdPages = new short[256][];
+    /** Advance widths in font units, by glyph id */
+    private int[] advanceWidths;
+    /** Kerning pairs as (left glyph id << 16 | right glyph id), sorted */
+    private int[] kerningKeys;
+    /** Kerning values in font units, matching kerningKeys */
+    private short[] kerningValues;
+
     public TypecastFont(OTFontCollection fontset) throws FontException {
         this.fontset = fontset;
         this.font = fontset.getFont(0);
@@ -143,7 +157,7 @@ public class TypecastFont implements FontInt {
                 }
             }
         }
-        char2Glyph = new IntObjectHashMap(cmapentries + cmapentries / 4);
+        char2Glyph = new IntObjectHashMap();
     }
 
     @Override
@@ -178,23 +192,10 @@ public class TypecastFont implements FontInt {
     }
 
     @Override
-    public Glyph getGlyph(char symbol) throws FontException {
+    public synchronized Glyph getGlyph(char symbol) throws FontException {
         TypecastGlyph result = (TypecastGlyph) getChar2Glyph().get(symbol);
         if (null == result) {
-            short code = (short) getCmapFormat().mapCharCode(symbol);
-            if (0 == code && 0 != symbol) {
-                // reserved special glyph IDs by convention
-                switch (symbol) {
-                case ' ':
-                    code = Glyph.ID_SPACE;
-                    break;
-                case '\n':
-                    code = Glyph.ID_CR;
-                    break;
-                default:
-                    code = Glyph.ID_UNKNOWN;
-                }
-            }
+            short code = mapCharCode(symbol);
 
             jogamp.graph.font.typecast.ot.OTGlyph glyph = getFont().getGlyph(code);
             if (null == glyph) {
@@ -204,14 +205,13 @@ public class TypecastFont implements FontInt {
                 throw new FontException("Could not retrieve glyph for symbol: <" + symbol + "> " + (int) symbol
                         + " -> glyph id " + code);
             }
-            Path2D path = TypecastRenderer.buildPath(glyph);
-            result = new TypecastGlyph(this, symbol, (short) 0, new AABBox(), 1, path);
+            result = new TypecastGlyph(this, symbol, (short) 0, new AABBox(), 1, glyph);
             if (DEBUG) {
                 logger.debug("New glyph: " + (int) symbol + " ( " + symbol + " ) -> " + code + ", contours "
-                        + glyph.getPointCount() + ": " + path);
+                        + glyph.getPointCount());
             }
             final HdmxTable hdmx = getFont().getHdmxTable();
-            if (null != result && null != hdmx) {
+            if (null != hdmx) {
                 for (int i = 0; i < hdmx.getNumberOfRecords(); i++) {
                     final HdmxTable.DeviceRecord dr = hdmx.getRecord(i);
                     result.addAdvance(dr.getWidth(code), dr.getPixelSize());
@@ -222,6 +222,149 @@ public class TypecastFont implements FontInt {
         return result;
     }
 
+    /**
+     * Maps a character to its glyph id, falling back on the reserved glyph
+     * ids for characters the font does not have.
+     */
+    private short mapCharCode(char symbol) {
+        short code = (short) getCmapFormat().mapCharCode(symbol);
+        if (0 == code && 0 != symbol) {
+            // reserved special glyph IDs by convention
+            switch (symbol) {
+            case ' ':
+                code = Glyph.ID_SPACE;
+                break;
+            case '\n':
+                code = Glyph.ID_CR;
+                break;
+            default:
+                code = Glyph.ID_UNKNOWN;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Getter for the glyph id of a character, without decoding the glyph.
+     * 
+     * @param symbol
+     *            The character.
+     * @return the glyph id.
+     */
+    public synchronized int getGlyphId(char symbol) {
+        short[] page = glyphIdPages[symbol >> 8];
+        if (page == null) {
+            page = new short[256];
+            char first = (char) (symbol & 0xFF00);
+            for (int i = 0; i < 256; i++) {
+                page[i] = mapCharCode((char) (first + i));
+            }
+            glyphIdPages[symbol >> 8] = page;
+        }
+        return page[symbol & 0xFF] & 0xFFFF;
+    }
+
+    /**
+     * Getter for the advance width of a character in font units, without
+     * decoding the glyph.
+     * 
+     * @param symbol
+     *            The character.
+     * @return the advance width.
+     */
+    public int getAdvanceWidth(char symbol) {
+        int id = getGlyphId(symbol);
+        int[] widths = getAdvanceWidths();
+        return id < widths.length ? widths[id] : 0;
+    }
+
+    /**
+     * Getter for the advance width of a character, without decoding the
+     * glyph.
+     * 
+     * @param symbol
+     *            The character.
+     * @param pixelSize
+     *            The font size.
+     * @return the advance width at the given size.
+     */
+    public float getAdvance(char symbol, float pixelSize) {
+        return getAdvanceWidth(symbol) * getMetrics().getScale(pixelSize);
+    }
+
+    /**
+     * Getter for the kerning adjustment between two characters, to be added
+     * to the advance of the left one.
+     * 
+     * @param left
+     *            The left character.
+     * @param right
+     *            The right character.
+     * @param pixelSize
+     *            The font size.
+     * @return the adjustment at the given size, 0 if the font has none for
+     *         this pair.
+     */
+    public float getKerning(char left, char right, float pixelSize) {
+        int[] keys = getKerningKeys();
+        if (keys.length == 0) {
+            return 0f;
+        }
+        int index = Arrays.binarySearch(keys, getGlyphId(left) << 16 | getGlyphId(right));
+        if (index < 0) {
+            return 0f;
+        }
+        return kerningValues[index] * getMetrics().getScale(pixelSize);
+    }
+
+    private synchronized int[] getAdvanceWidths() {
+        if (advanceWidths == null) {
+            HmtxTable hmtx = getFont().getHmtxTable();
+            int[] widths = new int[getFont().getNumGlyphs()];
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = hmtx.getAdvanceWidth(i);
+            }
+            advanceWidths = widths;
+        }
+        return advanceWidths;
+    }
+
+    private synchronized int[] getKerningKeys() {
+        if (kerningKeys == null) {
+            // Keys and values are packed together so they sort as one.
+            long[] packed = new long[0];
+            int count = 0;
+
+            Table table = getFont().getTable(Table.kern);
+            if (table instanceof KernTable) {
+                KernTable kern = (KernTable) table;
+                for (int i = 0; i < kern.getSubtableCount(); i++) {
+                    KernSubtable subtable = kern.getSubtable(i);
+                    if (subtable == null) {
+                        continue;
+                    }
+                    packed = Arrays.copyOf(packed, count + subtable.getKerningPairCount());
+                    for (int j = 0; j < subtable.getKerningPairCount(); j++) {
+                        KerningPair pair = subtable.getKerningPair(j);
+                        long key = pair.getLeft() << 16 | pair.getRight();
+                        packed[count++] = key << 16 | (pair.getValue() & 0xFFFF);
+                    }
+                }
+            }
+            Arrays.sort(packed, 0, count);
+
+            int[] keys = new int[count];
+            short[] values = new short[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = (int) (packed[i] >> 16);
+                values[i] = (short) packed[i];
+            }
+            kerningValues = values;
+            kerningKeys = keys;
+        }
+        return kerningKeys;
+    }
+
     @Override
     public List<OutlineShape> getOutlineShapes(CharSequence string, float pixelSize,
             Factory<? extends Vertex> vertexFactory) {
@@ -238,13 +381,10 @@ public class TypecastFont implements FontInt {
             if (character == '\n') {
                 width = 0;
             } else {
-                Glyph glyph;
-                try {
-                    glyph = getGlyph(character);
-                    width += glyph.getAdvance(pixelSize, false);
-                } catch (FontException e) {
-                    logger.error(e.getMessage());
+                if (i > 0 && string.charAt(i - 1) != '\n') {
+                    width += getKerning(string.charAt(i - 1), character, pixelSize);
                 }
+                width += getAdvance(character, pixelSize);
             }
         }
 
@@ -292,13 +432,10 @@ public class TypecastFont implements FontInt {
                 totalHeight -= advanceY;
                 continue;
             }
-            Glyph glyph;
-            try {
-                glyph = getGlyph(character);
-                curLineWidth += glyph.getAdvance(pixelSize, true);
-            } catch (FontException e) {
-                logger.error(e.getMessage());
+            if (i > 0 && string.charAt(i - 1) != '\n') {
+                curLineWidth += getKerning(string.charAt(i - 1), character, pixelSize);
             }
+            curLineWidth += getAdvance(character, pixelSize);
         }
         if (curLineWidth > 0) {
             totalHeight -= advanceY;
@@ -31,6 +31,7 @@ package nl.esciencecenter.esight.text.jogampexperimental;
 import java.util.HashMap;
 import java.util.Map;
 
+import jogamp.graph.font.typecast.ot.OTGlyph;
 import jogamp.graph.geom.plane.AffineTransform;
 import jogamp.graph.geom.plane.Path2D;
 
@@ -124,6 +125,7 @@ public class TypecastGlyph implements FontInt.Glyph {
     private Metrics metrics;
 
     private Path2D path; // in EM units
+    private OTGlyph outline; // decoded into path on first use
     private Path2D pathSized;
     private float numberSized;
 
@@ -146,14 +148,24 @@ public class TypecastGlyph implements FontInt.Glyph {
         this.numberSized = 0.0f;
     }
 
+    /**
+     * Constructor for a glyph whose outline is only converted to a path when
+     * it is first asked for.
+     */
+    TypecastGlyph(Font font, char symbol, short id, AABBox bbox, int advance, OTGlyph outline) {
+        this(font, symbol, id, bbox, advance, (Path2D) null);
+        this.outline = outline;
+    }
+
     void init(short id, AABBox bbox, int advance) {
         this.id = id;
         this.advance = advance;
         this.metrics = new Metrics(this.font, bbox, this.advance);
     }
 
-    public void reset(Path2D path) {
+    public synchronized void reset(Path2D path) {
         this.path = path;
+        this.outline = null;
         this.metrics.reset();
     }
 
@@ -205,7 +217,11 @@ public class TypecastGlyph implements FontInt.Glyph {
     }
 
     @Override
-    public Path2D getPath() {
+    public synchronized Path2D getPath() {
+        if (this.path == null && this.outline != null) {
+            this.path = TypecastRenderer.buildPath(this.outline);
+            this.outline = null;
+        }
         return this.path;
     }
 
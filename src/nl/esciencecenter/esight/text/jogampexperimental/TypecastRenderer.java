@@ -82,9 +82,12 @@ public final class TypecastRenderer {
                 y += advanceY;
                 advanceTotal = 0;
                 continue;
-            } else if (character == ' ') {
-                advanceTotal += font.getFont().getHmtxTable().getAdvanceWidth(TypecastGlyph.ID_SPACE)
-                        * metrics.getScale(pixelSize);
+            }
+            if (i > 0 && string.charAt(i - 1) != '\n') {
+                advanceTotal += font.getKerning(string.charAt(i - 1), character, pixelSize);
+            }
+            if (character == ' ') {
+                advanceTotal += font.getAdvance(character, pixelSize);
                 continue;
             }
             TypecastGlyph glyph;
@@ -95,7 +98,7 @@ public final class TypecastRenderer {
                 t.translate(advanceTotal, y);
                 t.scale(scale, scale);
                 p[i].append(gp.iterator(t), false);
-                advanceTotal += glyph.getAdvance(pixelSize, true);
+                advanceTotal += font.getAdvance(character, pixelSize);
             } catch (FontException e) {
                 logger.error(e.getMessage());
             }
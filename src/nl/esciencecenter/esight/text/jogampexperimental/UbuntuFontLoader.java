@@ -30,14 +30,23 @@ package nl.esciencecenter.esight.text.jogampexperimental;
 
 import java.io.IOException;
 import java.net.URLConnection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 import javax.media.opengl.GLException;
 
 import com.jogamp.common.util.IOUtil;
-import com.jogamp.common.util.IntObjectHashMap;
 
 public final class UbuntuFontLoader implements FontSet {
-    final static FontSet fontLoader = new UbuntuFontLoader();
+    final static UbuntuFontLoader fontLoader = new UbuntuFontLoader();
 
     public static FontSet get() {
         return fontLoader;
@@ -65,7 +74,22 @@ public final class UbuntuFontLoader implements FontSet {
         // Utility class
     }
 
-    static final IntObjectHashMap fontMap = new IntObjectHashMap();
+    /** The fonts, shared by the whole process, parsed or being parsed */
+    static final ConcurrentMap<Integer, FutureTask<Font>> fontMap = new ConcurrentHashMap<Integer, FutureTask<Font>>();
+
+    /** The tasks handed to the preloader, so each is queued only once */
+    private static final Set<FutureTask<Font>> preloading = Collections
+            .newSetFromMap(new ConcurrentHashMap<FutureTask<Font>, Boolean>());
+
+    /** The one thread parsing fonts in the background */
+    private static final ExecutorService preloader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Font loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     static boolean is(int bits, int bit) {
         return 0 != (bits & bit);
@@ -78,48 +102,88 @@ public final class UbuntuFontLoader implements FontSet {
 
     @Override
     public Font get(int family, int style) {
-        Font font = (Font) fontMap.get((family << FONT_FAMILIES) | style);
-        if (font != null) {
-            return font;
+        FutureTask<Font> task = task(family, style);
+        // Parse here, unless another thread already is.
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GLException(e);
+        } catch (ExecutionException e) {
+            // Allow a later attempt to try again.
+            fontMap.remove((family << FONT_FAMILIES) | style, task);
+            preloading.remove(task);
+            if (e.getCause() instanceof GLException) {
+                throw (GLException) e.getCause();
+            }
+            throw new GLException(e.getCause());
         }
+    }
 
+    /**
+     * Starts parsing a font in the background, so that a later {@link #get}
+     * for the same font does not have to wait as long.
+     * 
+     * @param family
+     *            The font family.
+     * @param style
+     *            The font style.
+     */
+    public void preload(int family, int style) {
+        FutureTask<Font> task = task(family, style);
+        if (!task.isDone() && preloading.add(task)) {
+            preloader.execute(task);
+        }
+    }
+
+    private FutureTask<Font> task(final int family, final int style) {
+        Integer key = (family << FONT_FAMILIES) | style;
+        FutureTask<Font> task = fontMap.get(key);
+        if (task == null) {
+            FutureTask<Font> newTask = new FutureTask<Font>(new Callable<Font>() {
+                @Override
+                public Font call() {
+                    return abspath(fileName(family, style), family, style);
+                }
+            });
+            task = fontMap.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+            }
+        }
+        return task;
+    }
+
+    static String fileName(int family, int style) {
         switch (family) {
         case FAMILY_MONOSPACED:
         case FAMILY_CONDENSED:
         case FAMILY_REGULAR:
             if (is(style, STYLE_BOLD)) {
                 if (is(style, STYLE_ITALIC)) {
-                    font = abspath(availableFontFileNames[REGULAR_BOLD_ITALIC], family, style);
-                } else {
-                    font = abspath(availableFontFileNames[REGULAR_BOLD], family, style);
+                    return availableFontFileNames[REGULAR_BOLD_ITALIC];
                 }
+                return availableFontFileNames[REGULAR_BOLD];
             } else if (is(style, STYLE_ITALIC)) {
-                font = abspath(availableFontFileNames[REGULAR_ITALIC], family, style);
-            } else {
-                font = abspath(availableFontFileNames[REGULAR], family, style);
+                return availableFontFileNames[REGULAR_ITALIC];
             }
-            break;
+            return availableFontFileNames[REGULAR];
 
         case FAMILY_LIGHT:
             if (is(style, STYLE_ITALIC)) {
-                font = abspath(availableFontFileNames[LIGHT_ITALIC], family, style);
-            } else {
-                font = abspath(availableFontFileNames[LIGHT], family, style);
+                return availableFontFileNames[LIGHT_ITALIC];
             }
-            break;
+            return availableFontFileNames[LIGHT];
 
         case FAMILY_MEDIUM:
             if (is(style, STYLE_ITALIC)) {
-                font = abspath(availableFontFileNames[MEDIUM_ITALIC], family, style);
-            } else {
-                font = abspath(availableFontFileNames[MEDIUM], family, style);
+                return availableFontFileNames[MEDIUM_ITALIC];
             }
-            break;
+            return availableFontFileNames[MEDIUM];
         default:
-            font = abspath(availableFontFileNames[REGULAR], family, style);
+            return availableFontFileNames[REGULAR];
         }
-
-        return font;
     }
 
     Font abspath(String fname, int family, int style) {
@@ -131,7 +195,6 @@ public final class UbuntuFontLoader implements FontSet {
             }
             final Font f = FontFactory.get(urlc);
             if (null != f) {
-                fontMap.put((family << FONT_FAMILIES) | style, f);
                 return f;
             }
             throw new GLException(err + " " + urlc);
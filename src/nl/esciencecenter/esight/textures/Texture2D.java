@@ -1,5 +1,6 @@
 package nl.esciencecenter.esight.textures;
 
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 
 import javax.media.opengl.GL3;
@@ -101,6 +102,64 @@ public abstract class Texture2D extends Texture {
         gl.glBindTexture(GL3.GL_TEXTURE_2D, getPointer().get(0));
     }
 
+    /**
+     * Replaces a region of this texture with new pixels, reusing the storage
+     * already allocated on the device. For large or frequent updates, consider
+     * streaming them through a {@link TextureStreamer} instead.
+     * 
+     * @param gl
+     *            The current OpenGL instance.
+     * @param region
+     *            The new pixels, in the same format as the pixelBuffer, tightly
+     *            packed, bottom row first.
+     * @param x
+     *            The horizontal offset of the region in pixels.
+     * @param y
+     *            The vertical offset of the region in pixels.
+     * @param w
+     *            The width of the region in pixels.
+     * @param h
+     *            The height of the region in pixels.
+     */
+    public void update(GL3 gl, ByteBuffer region, int x, int y, int w, int h) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        gl.glActiveTexture(getGlMultiTexUnit());
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, pointer.get(0));
+        gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+        gl.glTexSubImage2D(GL3.GL_TEXTURE_2D, 0, x, y, w, h, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, region);
+    }
+
+    /**
+     * Replaces a region of this texture with the pixels in the currently bound
+     * GL_PIXEL_UNPACK_BUFFER.
+     * 
+     * @param gl
+     *            The current OpenGL instance.
+     * @param offset
+     *            The offset of the pixels in the bound buffer, in bytes.
+     * @param x
+     *            The horizontal offset of the region in pixels.
+     * @param y
+     *            The vertical offset of the region in pixels.
+     * @param w
+     *            The width of the region in pixels.
+     * @param h
+     *            The height of the region in pixels.
+     */
+    void update(GL3 gl, long offset, int x, int y, int w, int h) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        gl.glActiveTexture(getGlMultiTexUnit());
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, pointer.get(0));
+        gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+        gl.glTexSubImage2D(GL3.GL_TEXTURE_2D, 0, x, y, w, h, GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, offset);
+    }
+
     public void unBind(GL3 gl) {
         gl.glBindTexture(GL3.GL_TEXTURE_2D, 0);
     }
@@ -1,5 +1,7 @@
 package nl.esciencecenter.esight.textures;
 
+import java.nio.ByteBuffer;
+
 import javax.media.opengl.GL3;
 
 import nl.esciencecenter.esight.exceptions.UninitializedException;
@@ -98,4 +100,70 @@ public abstract class Texture3D extends Texture {
         gl.glActiveTexture(getGlMultiTexUnit());
         gl.glBindTexture(GL3.GL_TEXTURE_3D, getPointer().get(0));
     }
+
+    /**
+     * Replaces a region of this texture with new voxels, reusing the storage
+     * already allocated on the device. For large or frequent updates, consider
+     * streaming them through a {@link TextureStreamer} instead.
+     * 
+     * @param gl
+     *            The current OpenGL instance.
+     * @param region
+     *            The new voxels, in the same format as the pixelBuffer, tightly
+     *            packed.
+     * @param x
+     *            The offset of the region along the width, in voxels.
+     * @param y
+     *            The offset of the region along the height, in voxels.
+     * @param z
+     *            The offset of the region along the depth, in voxels.
+     * @param w
+     *            The width of the region in voxels.
+     * @param h
+     *            The height of the region in voxels.
+     * @param d
+     *            The depth of the region in voxels.
+     */
+    public void update(GL3 gl, ByteBuffer region, int x, int y, int z, int w, int h, int d) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        gl.glActiveTexture(getGlMultiTexUnit());
+        gl.glBindTexture(GL3.GL_TEXTURE_3D, pointer.get(0));
+        gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+        gl.glTexSubImage3D(GL3.GL_TEXTURE_3D, 0, x, y, z, w, h, d, GL3.GL_RGBA, GL3.GL_BYTE, region);
+    }
+
+    /**
+     * Replaces a region of this texture with the voxels in the currently bound
+     * GL_PIXEL_UNPACK_BUFFER.
+     * 
+     * @param gl
+     *            The current OpenGL instance.
+     * @param offset
+     *            The offset of the voxels in the bound buffer, in bytes.
+     * @param x
+     *            The offset of the region along the width, in voxels.
+     * @param y
+     *            The offset of the region along the height, in voxels.
+     * @param z
+     *            The offset of the region along the depth, in voxels.
+     * @param w
+     *            The width of the region in voxels.
+     * @param h
+     *            The height of the region in voxels.
+     * @param d
+     *            The depth of the region in voxels.
+     */
+    void update(GL3 gl, long offset, int x, int y, int z, int w, int h, int d) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        gl.glActiveTexture(getGlMultiTexUnit());
+        gl.glBindTexture(GL3.GL_TEXTURE_3D, pointer.get(0));
+        gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+        gl.glTexSubImage3D(GL3.GL_TEXTURE_3D, 0, x, y, z, w, h, d, GL3.GL_RGBA, GL3.GL_BYTE, offset);
+    }
 }
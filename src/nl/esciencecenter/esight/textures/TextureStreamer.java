@@ -0,0 +1,427 @@
+package nl.esciencecenter.esight.textures;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.media.opengl.GL3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jogamp.common.nio.Buffers;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Asynchronous uploader for texture data, for textures that change every few
+ * frames. Uploads go through a ring of GL_PIXEL_UNPACK_BUFFERs: on the render
+ * thread a free buffer is mapped, a worker thread copies the pixels into it,
+ * and on a later frame the buffer is unmapped and the texture is updated from
+ * it, which the driver can do without blocking. A fence keeps a buffer from
+ * being reused before the GPU has finished reading it.
+ *
+ * Requests can be made from any thread, {@link #process(GL3)} should be called
+ * once per frame from the render thread. A request that is still waiting for a
+ * buffer is replaced by a newer request for the same region of the same
+ * texture, so a slow GPU drops frames instead of falling behind.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class TextureStreamer {
+    private final static Logger logger = LoggerFactory.getLogger(TextureStreamer.class);
+
+    /** The default number of buffers in the ring. */
+    public static final int DEFAULT_BUFFERS = 3;
+
+    /** How long {@link #delete(GL3)} waits for copies underway. */
+    private static final long COPY_TIMEOUT_SECONDS = 10L;
+
+    private enum State {
+        FREE, FILLING, FILLED, IN_FLIGHT
+    }
+
+    private static class Slot {
+        volatile State state = State.FREE;
+        Upload upload;
+        long fence;
+    }
+
+    /** A pending update of a region of a texture. */
+    private abstract static class Upload {
+        final ByteBuffer region;
+
+        Upload(ByteBuffer region) {
+            this.region = region;
+        }
+
+        /** Whether this upload overwrites exactly what the other one does. */
+        abstract boolean replaces(Upload other);
+
+        /** Updates the texture from the bound unpack buffer. */
+        abstract void fromBuffer(GL3 gl);
+
+        /** Updates the texture from the region directly. */
+        abstract void fromRegion(GL3 gl);
+    }
+
+    private static class Upload2D extends Upload {
+        final Texture2D texture;
+        final int x, y, w, h;
+
+        Upload2D(Texture2D texture, ByteBuffer region, int x, int y, int w, int h) {
+            super(region);
+            this.texture = texture;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        @Override
+        boolean replaces(Upload other) {
+            if (!(other instanceof Upload2D)) {
+                return false;
+            }
+            Upload2D o = (Upload2D) other;
+            return texture == o.texture && x == o.x && y == o.y && w == o.w && h == o.h;
+        }
+
+        @Override
+        void fromBuffer(GL3 gl) {
+            texture.update(gl, 0L, x, y, w, h);
+        }
+
+        @Override
+        void fromRegion(GL3 gl) {
+            texture.update(gl, region, x, y, w, h);
+        }
+    }
+
+    private static class Upload3D extends Upload {
+        final Texture3D texture;
+        final int x, y, z, w, h, d;
+
+        Upload3D(Texture3D texture, ByteBuffer region, int x, int y, int z, int w, int h, int d) {
+            super(region);
+            this.texture = texture;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.w = w;
+            this.h = h;
+            this.d = d;
+        }
+
+        @Override
+        boolean replaces(Upload other) {
+            if (!(other instanceof Upload3D)) {
+                return false;
+            }
+            Upload3D o = (Upload3D) other;
+            return texture == o.texture && x == o.x && y == o.y && z == o.z && w == o.w && h == o.h && d == o.d;
+        }
+
+        @Override
+        void fromBuffer(GL3 gl) {
+            texture.update(gl, 0L, x, y, z, w, h, d);
+        }
+
+        @Override
+        void fromRegion(GL3 gl) {
+            texture.update(gl, region, x, y, z, w, h, d);
+        }
+    }
+
+    private final int bufferSize;
+    private final Slot[] slots;
+    private final LinkedList<Upload> queue = new LinkedList<Upload>();
+    private IntBuffer pointers;
+    private boolean initialized = false;
+
+    private final ExecutorService copier = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TextureStreamer copier");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Constructor for a ring of {@link #DEFAULT_BUFFERS} buffers. Do not forget
+     * to call {@link #init(GL3)} before use.
+     *
+     * @param bufferSize
+     *            The size of each buffer in bytes, the largest region that can
+     *            be streamed. Larger regions are uploaded synchronously.
+     */
+    public TextureStreamer(int bufferSize) {
+        this(DEFAULT_BUFFERS, bufferSize);
+    }
+
+    /**
+     * Constructor. Do not forget to call {@link #init(GL3)} before use.
+     *
+     * @param buffers
+     *            The number of buffers in the ring, the number of uploads that
+     *            can be underway at the same time.
+     * @param bufferSize
+     *            The size of each buffer in bytes, the largest region that can
+     *            be streamed. Larger regions are uploaded synchronously.
+     */
+    public TextureStreamer(int buffers, int bufferSize) {
+        this.bufferSize = bufferSize;
+
+        slots = new Slot[buffers];
+        for (int i = 0; i < buffers; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Allocates the buffers on the device.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     */
+    public void init(GL3 gl) {
+        if (!initialized) {
+            pointers = Buffers.newDirectIntBuffer(slots.length);
+            gl.glGenBuffers(slots.length, pointers);
+
+            for (int i = 0; i < slots.length; i++) {
+                gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, pointers.get(i));
+                gl.glBufferData(GL3.GL_PIXEL_UNPACK_BUFFER, bufferSize, null, GL3.GL_STREAM_DRAW);
+            }
+            gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+
+            initialized = true;
+        }
+    }
+
+    /**
+     * Requests an update of a region of a 2D texture. The region buffer should
+     * not be modified until the update has been made.
+     *
+     * @param texture
+     *            The texture to update.
+     * @param region
+     *            The new pixels, see
+     *            {@link Texture2D#update(GL3, ByteBuffer, int, int, int, int)}.
+     * @param x
+     *            The horizontal offset of the region in pixels.
+     * @param y
+     *            The vertical offset of the region in pixels.
+     * @param w
+     *            The width of the region in pixels.
+     * @param h
+     *            The height of the region in pixels.
+     */
+    public void stream(Texture2D texture, ByteBuffer region, int x, int y, int w, int h) {
+        enqueue(new Upload2D(texture, region, x, y, w, h));
+    }
+
+    /**
+     * Requests an update of a region of a 3D texture. The region buffer should
+     * not be modified until the update has been made.
+     *
+     * @param texture
+     *            The texture to update.
+     * @param region
+     *            The new voxels, see
+     *            {@link Texture3D#update(GL3, ByteBuffer, int, int, int, int, int, int)}
+     *            .
+     * @param x
+     *            The offset of the region along the width, in voxels.
+     * @param y
+     *            The offset of the region along the height, in voxels.
+     * @param z
+     *            The offset of the region along the depth, in voxels.
+     * @param w
+     *            The width of the region in voxels.
+     * @param h
+     *            The height of the region in voxels.
+     * @param d
+     *            The depth of the region in voxels.
+     */
+    public void stream(Texture3D texture, ByteBuffer region, int x, int y, int z, int w, int h, int d) {
+        enqueue(new Upload3D(texture, region, x, y, z, w, h, d));
+    }
+
+    private void enqueue(Upload upload) {
+        synchronized (queue) {
+            Iterator<Upload> it = queue.iterator();
+            while (it.hasNext()) {
+                if (upload.replaces(it.next())) {
+                    it.remove();
+                }
+            }
+            queue.add(upload);
+        }
+    }
+
+    private Upload poll() {
+        synchronized (queue) {
+            return queue.poll();
+        }
+    }
+
+    /**
+     * Per-frame processing, to be called from the render thread. Issues the
+     * texture updates for buffers that have been filled, recycles buffers the
+     * GPU is done with and hands free buffers to the copy thread.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     */
+    public void process(GL3 gl) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[i];
+
+            if (slot.state == State.IN_FLIGHT) {
+                int status = gl.glClientWaitSync(slot.fence, 0, 0L);
+                if (status == GL3.GL_ALREADY_SIGNALED || status == GL3.GL_CONDITION_SATISFIED) {
+                    gl.glDeleteSync(slot.fence);
+                    slot.state = State.FREE;
+                }
+            } else if (slot.state == State.FILLED) {
+                gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, pointers.get(i));
+                if (gl.glUnmapBuffer(GL3.GL_PIXEL_UNPACK_BUFFER)) {
+                    slot.upload.fromBuffer(gl);
+                } else {
+                    // The buffer contents were lost, upload the slow way.
+                    gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+                    slot.upload.fromRegion(gl);
+                }
+                slot.upload = null;
+                slot.fence = gl.glFenceSync(GL3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                slot.state = State.IN_FLIGHT;
+            }
+        }
+
+        for (int i = 0; i < slots.length; i++) {
+            final Slot slot = slots[i];
+            if (slot.state != State.FREE) {
+                continue;
+            }
+
+            final Upload upload = poll();
+            if (upload == null) {
+                break;
+            }
+
+            if (upload.region.remaining() > bufferSize) {
+                logger.warn("Region of " + upload.region.remaining() + " bytes does not fit in the " + bufferSize
+                        + " byte stream buffers, uploading synchronously.");
+                gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+                upload.fromRegion(gl);
+                continue;
+            }
+
+            // The fence guarantees the GPU is done with this buffer.
+            gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, pointers.get(i));
+            final ByteBuffer mapped = gl.glMapBufferRange(GL3.GL_PIXEL_UNPACK_BUFFER, 0, bufferSize,
+                    GL3.GL_MAP_WRITE_BIT | GL3.GL_MAP_INVALIDATE_BUFFER_BIT | GL3.GL_MAP_UNSYNCHRONIZED_BIT);
+            if (mapped == null) {
+                logger.error("Could not map stream buffer " + i + ", uploading synchronously.");
+                gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+                upload.fromRegion(gl);
+                continue;
+            }
+
+            slot.upload = upload;
+            slot.state = State.FILLING;
+            copier.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mapped.put(upload.region.duplicate());
+                    slot.state = State.FILLED;
+                }
+            });
+        }
+
+        // Leave no unpack buffer bound, or other texture uploads would read
+        // from it.
+        gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    /**
+     * Getter for the number of requests still waiting for a buffer.
+     *
+     * @return the number of waiting requests.
+     */
+    public int getQueued() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Deletes the buffers of this streamer and stops its copy thread. Requests
+     * that have not been processed yet are discarded. Copies already underway
+     * are waited for, since they write into mapped buffer memory.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     */
+    public void delete(GL3 gl) {
+        synchronized (queue) {
+            queue.clear();
+        }
+
+        copier.shutdown();
+        boolean stopped = false;
+        try {
+            stopped = copier.awaitTermination(COPY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!stopped) {
+            // Freeing a buffer the copier may still write into would corrupt
+            // memory, leaking it is the lesser evil.
+            logger.error("Stream buffer copies did not finish, not deleting the stream buffers.");
+            return;
+        }
+
+        if (initialized) {
+            for (int i = 0; i < slots.length; i++) {
+                Slot slot = slots[i];
+                if (slot.state == State.IN_FLIGHT) {
+                    gl.glDeleteSync(slot.fence);
+                } else if (slot.state == State.FILLING || slot.state == State.FILLED) {
+                    gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, pointers.get(i));
+                    gl.glUnmapBuffer(GL3.GL_PIXEL_UNPACK_BUFFER);
+                }
+                slot.upload = null;
+                slot.state = State.FREE;
+            }
+            gl.glBindBuffer(GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+            gl.glDeleteBuffers(slots.length, pointers);
+            initialized = false;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package nl.esciencecenter.esight.textures;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Iterator;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import nl.esciencecenter.esight.util.WorkerPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Builds a {@link TileStore} pyramid out of an image that is too large to fit
+ * in a single OpenGL texture. The image is read in bands of one tile row at a
+ * time, so it never has to be in memory completely. The tiles of every band,
+ * and the downsampled tiles of every next level, are produced in parallel.
+ * Tiles on the right and top edges of the image are padded with copies of
+ * their outermost texels, so neither filtering nor downsampling blends the
+ * edge of the image with black.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class TilePyramidBuilder {
+    private final static Logger logger = LoggerFactory.getLogger(TilePyramidBuilder.class);
+
+    /** The number of tiles below which a task is no longer split. */
+    private static final int TILES_PER_TASK = 4;
+
+    private final int tileSize;
+
+    /** Source of horizontal bands of ARGB pixels, top row first. */
+    private interface BandSource {
+        int[] read(int top, int rows) throws IOException;
+    }
+
+    /**
+     * Constructor for a builder of tiles of the given size.
+     *
+     * @param tileSize
+     *            The width and height of a single tile, should be an even
+     *            number.
+     */
+    public TilePyramidBuilder(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Builds a tile pyramid out of an image file.
+     *
+     * @param imageFile
+     *            The image to read.
+     * @param directory
+     *            The directory to store the pyramid in.
+     * @return The resulting tile store, opened for reading.
+     * @throws IOException
+     *             if the image could not be read or the pyramid could not be
+     *             written.
+     */
+    public TileStore build(File imageFile, File directory) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(imageFile);
+        if (iis == null) {
+            throw new IOException("Could not open " + imageFile);
+        }
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("No reader for image " + imageFile);
+            }
+            final ImageReader reader = readers.next();
+            reader.setInput(iis, true, true);
+
+            try {
+                final int width = reader.getWidth(0);
+                return build(width, reader.getHeight(0), directory, new BandSource() {
+                    @Override
+                    public int[] read(int top, int rows) throws IOException {
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, top, width, rows));
+                        BufferedImage band = reader.read(0, param);
+                        return band.getRGB(0, 0, width, rows, null, 0, width);
+                    }
+                });
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * Builds a tile pyramid out of an image that is already in memory.
+     *
+     * @param image
+     *            The image.
+     * @param directory
+     *            The directory to store the pyramid in.
+     * @return The resulting tile store, opened for reading.
+     * @throws IOException
+     *             if the pyramid could not be written.
+     */
+    public TileStore build(final BufferedImage image, File directory) throws IOException {
+        final int width = image.getWidth();
+        return build(width, image.getHeight(), directory, new BandSource() {
+            @Override
+            public int[] read(int top, int rows) {
+                return image.getRGB(0, top, width, rows, null, 0, width);
+            }
+        });
+    }
+
+    private TileStore build(int width, int height, File directory, BandSource source) throws IOException {
+        TileStore store = TileStore.create(directory, width, height, tileSize);
+
+        try {
+            for (int ty = 0; ty < store.getTilesY(0); ty++) {
+                // Tile rows are stored bottom-up, like ImageTexture does.
+                int glTop = Math.min((ty + 1) * tileSize, height);
+                int imageTop = height - glTop;
+                int rows = glTop - ty * tileSize;
+
+                int[] band = source.read(imageTop, rows);
+                invoke(new BandTask(store, band, ty, 0, store.getTilesX(0)));
+            }
+
+            for (int level = 1; level < store.getLevels(); level++) {
+                int tiles = store.getTilesX(level) * store.getTilesY(level);
+                invoke(new DownsampleTask(store, level, 0, tiles));
+                logger.debug("Built level " + level + " of " + store.getLevels() + " (" + tiles + " tiles)");
+            }
+        } finally {
+            store.close();
+        }
+
+        return TileStore.open(directory);
+    }
+
+    private void invoke(RecursiveAction task) throws IOException {
+        try {
+            WorkerPool.get().invoke(task);
+        } catch (TileException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    /** Wraps IOExceptions so they can pass through the fork/join pool. */
+    private static class TileException extends RuntimeException {
+        private static final long serialVersionUID = -6049286812584651014L;
+
+        TileException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Task that cuts a range of level 0 tiles out of a band of pixels.
+     */
+    private class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 8616497931870484218L;
+
+        private final TileStore store;
+        private final int[] band;
+        private final int ty, start, end;
+
+        BandTask(TileStore store, int[] band, int ty, int start, int end) {
+            this.store = store;
+            this.band = band;
+            this.ty = ty;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TILES_PER_TASK) {
+                try {
+                    for (int tx = start; tx < end; tx++) {
+                        cutTile(store, band, tx, ty);
+                    }
+                } catch (IOException e) {
+                    throw new TileException(e);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new BandTask(store, band, ty, start, middle), new BandTask(store, band, ty, middle, end));
+            }
+        }
+    }
+
+    private void cutTile(TileStore store, int[] band, int tx, int ty) throws IOException {
+        int width = store.getWidth();
+        int height = store.getHeight();
+        int rows = Math.min((ty + 1) * tileSize, height) - ty * tileSize;
+        int columns = Math.min(tileSize, width - tx * tileSize);
+
+        // A little-endian ARGB int is stored as the BGRA bytes ImageTexture
+        // uses.
+        IntBuffer tile = store.mapTile(0, tx, ty, true).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int row = 0; row < rows; row++) {
+            // The band is stored top row first, the tile bottom row first.
+            int bandRow = rows - 1 - row;
+            tile.position(row * tileSize);
+            tile.put(band, bandRow * width + tx * tileSize, columns);
+        }
+        clampEdges(tile, columns, rows);
+    }
+
+    /**
+     * Task that calculates a range of tiles of a level by downsampling the
+     * level below it.
+     */
+    private class DownsampleTask extends RecursiveAction {
+        private static final long serialVersionUID = 2954722373596004498L;
+
+        private final TileStore store;
+        private final int level, start, end;
+
+        DownsampleTask(TileStore store, int level, int start, int end) {
+            this.store = store;
+            this.level = level;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TILES_PER_TASK) {
+                try {
+                    for (int i = start; i < end; i++) {
+                        downsampleTile(store, level, i % store.getTilesX(level), i / store.getTilesX(level));
+                    }
+                } catch (IOException e) {
+                    throw new TileException(e);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new DownsampleTask(store, level, start, middle), new DownsampleTask(store, level, middle,
+                        end));
+            }
+        }
+    }
+
+    private void downsampleTile(TileStore store, int level, int tx, int ty) throws IOException {
+        ByteBuffer out = store.mapTile(level, tx, ty, true);
+        int half = tileSize / 2;
+
+        for (int dy = 0; dy < 2; dy++) {
+            for (int dx = 0; dx < 2; dx++) {
+                int cx = tx * 2 + dx;
+                int cy = ty * 2 + dy;
+                if (cx >= store.getTilesX(level - 1) || cy >= store.getTilesY(level - 1)) {
+                    // Outside the image, padded below.
+                    continue;
+                }
+
+                // The padding of the child repeats its edge, so a parent texel
+                // on the edge averages image texels only.
+                ByteBuffer child = store.mapTile(level - 1, cx, cy, false);
+                for (int y = 0; y < half; y++) {
+                    for (int x = 0; x < half; x++) {
+                        int src = ((y * 2) * tileSize + x * 2) * 4;
+                        int dst = ((dy * half + y) * tileSize + dx * half + x) * 4;
+                        for (int c = 0; c < 4; c++) {
+                            int sum = (child.get(src + c) & 0xff) + (child.get(src + 4 + c) & 0xff)
+                                    + (child.get(src + tileSize * 4 + c) & 0xff)
+                                    + (child.get(src + tileSize * 4 + 4 + c) & 0xff);
+                            out.put(dst + c, (byte) ((sum + 2) >> 2));
+                        }
+                    }
+                }
+            }
+        }
+
+        int levelWidth = (store.getWidth() + (1 << level) - 1) >> level;
+        int levelHeight = (store.getHeight() + (1 << level) - 1) >> level;
+        clampEdges(out.asIntBuffer(), Math.min(tileSize, levelWidth - tx * tileSize),
+                Math.min(tileSize, levelHeight - ty * tileSize));
+    }
+
+    /**
+     * Fills the part of a tile beyond the edge of the image with copies of
+     * the last column and row inside it.
+     *
+     * @param tile
+     *            The texels of the tile, bottom row first.
+     * @param columns
+     *            The number of columns inside the image.
+     * @param rows
+     *            The number of rows inside the image.
+     */
+    private void clampEdges(IntBuffer tile, int columns, int rows) {
+        if (columns < tileSize) {
+            for (int row = 0; row < rows; row++) {
+                int edge = tile.get(row * tileSize + columns - 1);
+                for (int column = columns; column < tileSize; column++) {
+                    tile.put(row * tileSize + column, edge);
+                }
+            }
+        }
+        for (int row = rows; row < tileSize; row++) {
+            for (int column = 0; column < tileSize; column++) {
+                tile.put(row * tileSize + column, tile.get((rows - 1) * tileSize + column));
+            }
+        }
+    }
+}
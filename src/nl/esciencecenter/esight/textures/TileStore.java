@@ -0,0 +1,241 @@
+package nl.esciencecenter.esight.textures;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import nl.esciencecenter.esight.util.TypedProperties;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * On-disk storage for a pyramid of square image tiles, as built by
+ * {@link TilePyramidBuilder} and displayed by {@link VirtualTexture}. Level 0
+ * holds the image at full resolution, every next level halves the resolution,
+ * up to the level that fits in a single tile. Every level is stored in its own
+ * file of fixed-size RGBA tiles, in the same byte and row order as
+ * {@link ImageTexture}, so any tile can be memory-mapped and uploaded without
+ * conversion.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class TileStore {
+    private static final String METADATA = "pyramid.properties";
+
+    private final File directory;
+    private final int width, height, tileSize, levels;
+    private final int[] tilesX, tilesY;
+    private final RandomAccessFile[] files;
+
+    private TileStore(File directory, int width, int height, int tileSize, boolean create) throws IOException {
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+
+        int levelsNeeded = 1;
+        while (tilesAtLevel(width, levelsNeeded - 1) > 1 || tilesAtLevel(height, levelsNeeded - 1) > 1) {
+            levelsNeeded++;
+        }
+        this.levels = levelsNeeded;
+
+        tilesX = new int[levels];
+        tilesY = new int[levels];
+        files = new RandomAccessFile[levels];
+        for (int level = 0; level < levels; level++) {
+            tilesX[level] = tilesAtLevel(width, level);
+            tilesY[level] = tilesAtLevel(height, level);
+
+            File file = new File(directory, "level-" + level + ".tiles");
+            files[level] = new RandomAccessFile(file, create ? "rw" : "r");
+            if (create) {
+                files[level].setLength((long) tilesX[level] * tilesY[level] * getTileBytes());
+            }
+        }
+    }
+
+    private int tilesAtLevel(int pixels, int level) {
+        int tiles = (pixels + tileSize - 1) / tileSize;
+        return (tiles + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * Creates a new, empty tile store, overwriting any store present in the
+     * directory.
+     *
+     * @param directory
+     *            The directory to store the tiles in.
+     * @param width
+     *            The width of the full resolution image.
+     * @param height
+     *            The height of the full resolution image.
+     * @param tileSize
+     *            The width and height of a single tile.
+     * @return The new tile store, opened for writing.
+     * @throws IOException
+     *             if the store could not be created.
+     */
+    public static TileStore create(File directory, int width, int height, int tileSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        TypedProperties props = new TypedProperties();
+        props.setProperty("WIDTH", Integer.toString(width));
+        props.setProperty("HEIGHT", Integer.toString(height));
+        props.setProperty("TILE_SIZE", Integer.toString(tileSize));
+
+        OutputStream out = new FileOutputStream(new File(directory, METADATA));
+        try {
+            props.store(out, "eSight tile pyramid");
+        } finally {
+            out.close();
+        }
+
+        return new TileStore(directory, width, height, tileSize, true);
+    }
+
+    /**
+     * Opens an existing tile store for reading.
+     *
+     * @param directory
+     *            The directory the tiles are stored in.
+     * @return The tile store.
+     * @throws IOException
+     *             if the store could not be opened.
+     */
+    public static TileStore open(File directory) throws IOException {
+        TypedProperties props = new TypedProperties();
+        InputStream in = new FileInputStream(new File(directory, METADATA));
+        try {
+            props.load(in);
+        } finally {
+            in.close();
+        }
+
+        try {
+            return new TileStore(directory, props.getIntProperty("WIDTH"), props.getIntProperty("HEIGHT"),
+                    props.getIntProperty("TILE_SIZE"), false);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt tile pyramid metadata in " + directory, e);
+        }
+    }
+
+    /**
+     * Maps a single tile into memory.
+     *
+     * @param level
+     *            The level of the tile.
+     * @param x
+     *            The column of the tile at that level.
+     * @param y
+     *            The row of the tile at that level (0 is the bottom row).
+     * @param writable
+     *            Whether the tile should be mapped for writing.
+     * @return The (direct) buffer holding the RGBA pixels of the tile.
+     * @throws IOException
+     *             if the tile could not be mapped.
+     */
+    public ByteBuffer mapTile(int level, int x, int y, boolean writable) throws IOException {
+        if (x < 0 || x >= tilesX[level] || y < 0 || y >= tilesY[level]) {
+            throw new IllegalArgumentException("Tile " + x + "," + y + " out of range at level " + level);
+        }
+
+        long offset = ((long) y * tilesX[level] + x) * getTileBytes();
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+
+        return files[level].getChannel().map(mode, offset, getTileBytes());
+    }
+
+    /**
+     * Closes the files of this store. Tiles mapped before remain valid.
+     *
+     * @throws IOException
+     *             if a file could not be closed.
+     */
+    public void close() throws IOException {
+        for (RandomAccessFile file : files) {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the width of the full resolution image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the full resolution image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the width and height of a single tile.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return the size of a single tile in bytes.
+     */
+    public int getTileBytes() {
+        return tileSize * tileSize * 4;
+    }
+
+    /**
+     * @return the number of levels in the pyramid.
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @param level
+     *            The level.
+     * @return the number of tile columns at the given level.
+     */
+    public int getTilesX(int level) {
+        return tilesX[level];
+    }
+
+    /**
+     * @param level
+     *            The level.
+     * @return the number of tile rows at the given level.
+     */
+    public int getTilesY(int level) {
+        return tilesY[level];
+    }
+}
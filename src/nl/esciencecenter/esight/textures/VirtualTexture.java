@@ -0,0 +1,583 @@
+package nl.esciencecenter.esight.textures;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.exceptions.InverseNotAvailableException;
+import nl.esciencecenter.esight.exceptions.UninitializedException;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.MatrixFMath;
+import nl.esciencecenter.esight.math.VecF2;
+import nl.esciencecenter.esight.math.VecF4;
+import nl.esciencecenter.esight.models.GeoSphere;
+import nl.esciencecenter.esight.shaders.ShaderProgram;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jogamp.common.nio.Buffers;
+
+/* Copyright 2013 Netherlands eScience Center
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License")
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Virtual texture for images that are too large for a single OpenGL texture,
+ * stored as a {@link TileStore} pyramid. Only the tiles that are visible, at
+ * the resolution they are seen at, are kept on the device, in a fixed-size
+ * atlas texture. An indirection texture tells the shader where in the atlas
+ * to find the best available tile for every part of the image; see
+ * shaders/fs_virtualTexture.fp for the lookup.
+ *
+ * Call {@link #update(GL3, MatF4, MatF4, int, int)} once per frame before
+ * drawing. It determines the tiles needed for the current view, has them
+ * loaded by a background thread and uploads a limited number of loaded tiles
+ * into the atlas, replacing the least recently used ones. Until a tile has
+ * arrived, its coarser parent is shown instead.
+ *
+ * By default the texture is assumed to be wrapped around a {@link GeoSphere},
+ * override {@link #surfacePoint(float, float)} and
+ * {@link #surfaceNormal(float, float)} for other surfaces.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ *
+ */
+public class VirtualTexture {
+    private final static Logger logger = LoggerFactory.getLogger(VirtualTexture.class);
+
+    /** The default maximum number of tiles uploaded per frame. */
+    public static final int DEFAULT_UPLOADS_PER_FRAME = 8;
+
+    private final TileStore store;
+    private final int atlasUnit, indirectionUnit;
+    private final int atlasSize, slotsPerSide;
+    private final float radius;
+    private int uploadsPerFrame = DEFAULT_UPLOADS_PER_FRAME;
+
+    private IntBuffer pointers;
+    private boolean initialized = false;
+
+    /** The atlas slots of the resident tiles, least recently used first. */
+    private final LinkedHashMap<Long, Integer> resident = new LinkedHashMap<Long, Integer>(16, 0.75f, true);
+    private final Deque<Integer> freeSlots = new ArrayDeque<Integer>();
+    private final Set<Long> pending = new HashSet<Long>();
+    private final ConcurrentLinkedQueue<LoadedTile> loaded = new ConcurrentLinkedQueue<LoadedTile>();
+    private boolean indirectionChanged = true;
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "VirtualTexture tile loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static class LoadedTile {
+        final long key;
+        final ByteBuffer pixels;
+
+        LoadedTile(long key, ByteBuffer pixels) {
+            this.key = key;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * Constructor for a virtual texture wrapped around a {@link GeoSphere}. Do
+     * not forget to call {@link #init(GL3)} before use.
+     *
+     * @param store
+     *            The tile pyramid holding the image.
+     * @param atlasUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) the atlas
+     *            uses.
+     * @param indirectionUnit
+     *            The OpenGL-internal MultitexUnit (GL.GL_TEXTUREX) the
+     *            indirection texture uses.
+     * @param atlasSize
+     *            The width and height of the atlas texture, a multiple of the
+     *            tile size.
+     * @param radius
+     *            The radius of the sphere the texture is wrapped around.
+     */
+    public VirtualTexture(TileStore store, int atlasUnit, int indirectionUnit, int atlasSize, float radius) {
+        this.store = store;
+        this.atlasUnit = atlasUnit;
+        this.indirectionUnit = indirectionUnit;
+        this.atlasSize = atlasSize;
+        this.radius = radius;
+
+        slotsPerSide = atlasSize / store.getTileSize();
+        for (int i = 0; i < slotsPerSide * slotsPerSide; i++) {
+            freeSlots.add(i);
+        }
+
+        int top = store.getLevels() - 1;
+        if (store.getTilesX(top) * store.getTilesY(top) >= slotsPerSide * slotsPerSide) {
+            throw new IllegalArgumentException("Atlas of " + atlasSize + " pixels is too small for this pyramid");
+        }
+    }
+
+    /**
+     * Allocates the atlas and indirection textures on the device, and uploads
+     * the (always resident) coarsest level of the pyramid.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     */
+    public void init(GL3 gl) {
+        if (!initialized) {
+            pointers = Buffers.newDirectIntBuffer(2);
+            gl.glGenTextures(2, pointers);
+
+            gl.glActiveTexture(atlasUnit);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, pointers.get(0));
+            setParameters(gl, GL3.GL_LINEAR);
+            gl.glTexImage2D(GL3.GL_TEXTURE_2D, 0, GL3.GL_RGBA8, atlasSize, atlasSize, 0, GL3.GL_RGBA,
+                    GL3.GL_UNSIGNED_BYTE, (Buffer) null);
+
+            gl.glActiveTexture(indirectionUnit);
+            gl.glBindTexture(GL3.GL_TEXTURE_2D, pointers.get(1));
+            setParameters(gl, GL3.GL_NEAREST);
+            gl.glTexImage2D(GL3.GL_TEXTURE_2D, 0, GL3.GL_RGBA32F, store.getTilesX(0), store.getTilesY(0), 0,
+                    GL3.GL_RGBA, GL3.GL_FLOAT, (Buffer) null);
+
+            // The coarsest level is the fallback for everything else.
+            int top = store.getLevels() - 1;
+            for (int y = 0; y < store.getTilesY(top); y++) {
+                for (int x = 0; x < store.getTilesX(top); x++) {
+                    long key = key(top, x, y);
+                    loaded.add(new LoadedTile(key, loadTile(key)));
+                }
+            }
+            uploadLoadedTiles(gl, Integer.MAX_VALUE, new HashSet<Long>());
+            updateIndirection(gl);
+
+            initialized = true;
+        }
+    }
+
+    private void setParameters(GL3 gl, int filter) {
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_S, GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_WRAP_T, GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MIN_FILTER, filter);
+        gl.glTexParameteri(GL3.GL_TEXTURE_2D, GL3.GL_TEXTURE_MAG_FILTER, filter);
+    }
+
+    /**
+     * Per-frame update. Determines the tiles needed for the current view,
+     * requests the missing ones from the loader thread and uploads tiles that
+     * have finished loading.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix of the surface the texture is on.
+     * @param viewportWidth
+     *            The width of the viewport in pixels.
+     * @param viewportHeight
+     *            The height of the viewport in pixels.
+     */
+    public void update(GL3 gl, MatF4 p, MatF4 mv, int viewportWidth, int viewportHeight) {
+        if (!initialized) {
+            init(gl);
+        }
+
+        Set<Long> needed = neededTiles(p, mv, viewportWidth, viewportHeight);
+        for (Long key : needed) {
+            if (resident.containsKey(key)) {
+                // Mark as recently used
+                resident.get(key);
+            } else if (!pending.contains(key)) {
+                request(key);
+            }
+        }
+
+        uploadLoadedTiles(gl, uploadsPerFrame, needed);
+
+        if (indirectionChanged) {
+            updateIndirection(gl);
+        }
+    }
+
+    /**
+     * Determines the tiles needed for a view: the visible tiles at the
+     * resolution they are seen at, and all their ancestors.
+     *
+     * @param p
+     *            The projection matrix.
+     * @param mv
+     *            The modelview matrix of the surface the texture is on.
+     * @param viewportWidth
+     *            The width of the viewport in pixels.
+     * @param viewportHeight
+     *            The height of the viewport in pixels.
+     * @return the keys of the needed tiles.
+     */
+    Set<Long> neededTiles(MatF4 p, MatF4 mv, int viewportWidth, int viewportHeight) {
+        VecF4 camera = null;
+        try {
+            camera = MatrixFMath.inverse(mv).mul(new VecF4(0f, 0f, 0f, 1f));
+        } catch (InverseNotAvailableException e) {
+            logger.debug("Singular modelview matrix, skipping the backface test.");
+        }
+
+        MatF4 mvp = p.mul(mv);
+        Set<Long> needed = new HashSet<Long>();
+        int top = store.getLevels() - 1;
+        for (int y = 0; y < store.getTilesY(top); y++) {
+            for (int x = 0; x < store.getTilesX(top); x++) {
+                select(top, x, y, mvp, camera, viewportWidth, viewportHeight, needed);
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * Recursively selects the visible tiles, refining until a tile has at
+     * least one texel per pixel on screen. All ancestors of a selected tile
+     * are selected as well, so they can be shown while it loads.
+     */
+    private void select(int level, int x, int y, MatF4 mvp, VecF4 camera, int viewportWidth, int viewportHeight,
+            Set<Long> needed) {
+        int tilePixels = store.getTileSize() << level;
+        float u0 = Math.min(1f, (float) x * tilePixels / store.getWidth());
+        float u1 = Math.min(1f, (float) (x + 1) * tilePixels / store.getWidth());
+        float v0 = Math.min(1f, (float) y * tilePixels / store.getHeight());
+        float v1 = Math.min(1f, (float) (y + 1) * tilePixels / store.getHeight());
+
+        // Nine samples can all miss the facing part of a tile that covers a
+        // large part of the surface, so such tiles are never culled.
+        boolean facing = camera == null || u1 - u0 > 0.25f || v1 - v0 > 0.25f;
+        boolean behindCamera = false;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 3; i++) {
+                float u = u0 + (u1 - u0) * i * 0.5f;
+                float v = v0 + (v1 - v0) * j * 0.5f;
+                VecF4 point = surfacePoint(u, v);
+
+                if (!facing) {
+                    VecF4 normal = surfaceNormal(u, v);
+                    float dot = normal.getX() * (camera.getX() - point.getX()) + normal.getY()
+                            * (camera.getY() - point.getY()) + normal.getZ() * (camera.getZ() - point.getZ());
+                    facing = dot > 0f;
+                }
+
+                VecF4 clip = mvp.mul(point);
+                if (clip.getW() <= 0f) {
+                    behindCamera = true;
+                } else {
+                    float ndcX = clip.getX() / clip.getW();
+                    float ndcY = clip.getY() / clip.getW();
+                    minX = Math.min(minX, ndcX);
+                    maxX = Math.max(maxX, ndcX);
+                    minY = Math.min(minY, ndcY);
+                    maxY = Math.max(maxY, ndcY);
+                }
+            }
+        }
+
+        boolean inFrustum = behindCamera || (maxX >= -1f && minX <= 1f && maxY >= -1f && minY <= 1f);
+        if (!facing || !inFrustum) {
+            return;
+        }
+
+        needed.add(key(level, x, y));
+
+        float extent = Float.MAX_VALUE;
+        if (!behindCamera) {
+            extent = Math.max((maxX - minX) * viewportWidth, (maxY - minY) * viewportHeight) * 0.5f;
+        }
+
+        if (level > 0 && extent > store.getTileSize()) {
+            for (int cy = y * 2; cy < Math.min(y * 2 + 2, store.getTilesY(level - 1)); cy++) {
+                for (int cx = x * 2; cx < Math.min(x * 2 + 2, store.getTilesX(level - 1)); cx++) {
+                    select(level - 1, cx, cy, mvp, camera, viewportWidth, viewportHeight, needed);
+                }
+            }
+        }
+    }
+
+    /**
+     * The point on the surface that the given texture coordinates map to, in
+     * model coordinates. Uses the {@link GeoSphere} mapping by default.
+     *
+     * @param u
+     *            The horizontal texture coordinate.
+     * @param v
+     *            The vertical texture coordinate.
+     * @return The point on the surface.
+     */
+    protected VecF4 surfacePoint(float u, float v) {
+        VecF4 normal = surfaceNormal(u, v);
+        return new VecF4(normal.getX() * radius, normal.getY() * radius, normal.getZ() * radius, 1f);
+    }
+
+    /**
+     * The outward normal of the surface at the given texture coordinates.
+     * Uses the {@link GeoSphere} mapping by default.
+     *
+     * @param u
+     *            The horizontal texture coordinate.
+     * @param v
+     *            The vertical texture coordinate.
+     * @return The normal of the surface.
+     */
+    protected VecF4 surfaceNormal(float u, float v) {
+        double lon = 2.0 * Math.PI * u;
+        double lat = Math.PI * v;
+
+        return new VecF4((float) (Math.sin(lat) * Math.cos(lon)), (float) Math.cos(lat),
+                (float) (Math.sin(lat) * Math.sin(lon)), 0f);
+    }
+
+    private void request(final long key) {
+        pending.add(key);
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                loaded.add(new LoadedTile(key, loadTile(key)));
+            }
+        });
+    }
+
+    /**
+     * Copies a tile out of the store. Called on the loader thread, so the disk
+     * access caused by touching the mapped file does not stall rendering.
+     */
+    private ByteBuffer loadTile(long key) {
+        try {
+            ByteBuffer mapped = store.mapTile(level(key), x(key), y(key), false);
+            ByteBuffer result = Buffers.newDirectByteBuffer(mapped.capacity());
+            result.put(mapped);
+            result.rewind();
+            return result;
+        } catch (IOException e) {
+            logger.error("Could not load tile " + level(key) + "/" + x(key) + "/" + y(key) + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void uploadLoadedTiles(GL3 gl, int budget, Set<Long> needed) {
+        int tileSize = store.getTileSize();
+        int uploads = 0;
+
+        gl.glActiveTexture(atlasUnit);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, pointers.get(0));
+        gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+
+        while (uploads < budget && !loaded.isEmpty()) {
+            LoadedTile tile = loaded.poll();
+            pending.remove(tile.key);
+
+            if (tile.pixels == null || resident.containsKey(tile.key)) {
+                continue;
+            }
+
+            Integer slot = allocateSlot(needed);
+            if (slot == null) {
+                // Everything in the atlas is in use, try again next frame.
+                continue;
+            }
+
+            int slotX = slot % slotsPerSide;
+            int slotY = slot / slotsPerSide;
+            gl.glTexSubImage2D(GL3.GL_TEXTURE_2D, 0, slotX * tileSize, slotY * tileSize, tileSize, tileSize,
+                    GL3.GL_RGBA, GL3.GL_UNSIGNED_BYTE, tile.pixels);
+
+            resident.put(tile.key, slot);
+            indirectionChanged = true;
+            uploads++;
+        }
+    }
+
+    /**
+     * Finds a free atlas slot, evicting the least recently used tile that is
+     * not needed for the current frame (and not part of the coarsest level) if
+     * necessary.
+     */
+    private Integer allocateSlot(Set<Long> needed) {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.poll();
+        }
+
+        int top = store.getLevels() - 1;
+        Iterator<Map.Entry<Long, Integer>> it = resident.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Integer> entry = it.next();
+            long key = entry.getKey();
+            if (level(key) != top && !needed.contains(key)) {
+                it.remove();
+                indirectionChanged = true;
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rebuilds the indirection texture. Every level 0 tile gets the atlas
+     * position and scale of the finest resident tile covering it.
+     */
+    private void updateIndirection(GL3 gl) {
+        int levels = store.getLevels();
+
+        int[][] slots = new int[levels][];
+        int[][] slotLevels = new int[levels][];
+        for (int level = 0; level < levels; level++) {
+            slots[level] = new int[store.getTilesX(level) * store.getTilesY(level)];
+            slotLevels[level] = new int[slots[level].length];
+            Arrays.fill(slots[level], -1);
+        }
+        for (Map.Entry<Long, Integer> entry : resident.entrySet()) {
+            long key = entry.getKey();
+            int level = level(key);
+            int index = y(key) * store.getTilesX(level) + x(key);
+            slots[level][index] = entry.getValue();
+            slotLevels[level][index] = level;
+        }
+
+        // Inherit from the parent where a tile is not resident.
+        for (int level = levels - 2; level >= 0; level--) {
+            int tilesX = store.getTilesX(level);
+            for (int index = 0; index < slots[level].length; index++) {
+                if (slots[level][index] < 0) {
+                    int parent = ((index / tilesX) / 2) * store.getTilesX(level + 1) + (index % tilesX) / 2;
+                    slots[level][index] = slots[level + 1][parent];
+                    slotLevels[level][index] = slotLevels[level + 1][parent];
+                }
+            }
+        }
+
+        float slotSize = 1f / slotsPerSide;
+        FloatBuffer entries = Buffers.newDirectFloatBuffer(slots[0].length * 4);
+        for (int index = 0; index < slots[0].length; index++) {
+            int slot = Math.max(0, slots[0][index]);
+            entries.put((slot % slotsPerSide) * slotSize);
+            entries.put((slot / slotsPerSide) * slotSize);
+            entries.put(1f / (1 << slotLevels[0][index]));
+            entries.put(slotLevels[0][index]);
+        }
+        entries.rewind();
+
+        gl.glActiveTexture(indirectionUnit);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, pointers.get(1));
+        gl.glPixelStorei(GL3.GL_UNPACK_ALIGNMENT, 1);
+        gl.glTexSubImage2D(GL3.GL_TEXTURE_2D, 0, 0, 0, store.getTilesX(0), store.getTilesY(0), GL3.GL_RGBA,
+                GL3.GL_FLOAT, entries);
+
+        indirectionChanged = false;
+    }
+
+    /**
+     * Binds the atlas and indirection textures and stages the uniforms used by
+     * shaders/fs_virtualTexture.fp.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     * @param program
+     *            The shader program that is going to sample this texture.
+     * @throws UninitializedException
+     *             if this texture was not initialized.
+     */
+    public void use(GL3 gl, ShaderProgram program) throws UninitializedException {
+        if (!initialized) {
+            throw new UninitializedException();
+        }
+
+        gl.glActiveTexture(atlasUnit);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, pointers.get(0));
+        gl.glActiveTexture(indirectionUnit);
+        gl.glBindTexture(GL3.GL_TEXTURE_2D, pointers.get(1));
+
+        program.setUniform("atlas_map", atlasUnit - GL3.GL_TEXTURE0);
+        program.setUniform("indirection_map", indirectionUnit - GL3.GL_TEXTURE0);
+        program.setUniformVector("ImageSize", new VecF2(store.getWidth(), store.getHeight()));
+        program.setUniformVector("IndirectionSize", new VecF2(store.getTilesX(0), store.getTilesY(0)));
+        program.setUniform("TileSize", (float) store.getTileSize());
+        program.setUniform("AtlasSize", (float) atlasSize);
+    }
+
+    /**
+     * Deletes the textures of this virtual texture and stops its loader.
+     *
+     * @param gl
+     *            The current OpenGL instance.
+     */
+    public void delete(GL3 gl) {
+        loader.shutdownNow();
+        if (initialized) {
+            gl.glDeleteTextures(2, pointers);
+            initialized = false;
+        }
+    }
+
+    static long key(int level, int x, int y) {
+        return ((long) level << 48) | ((long) y << 24) | x;
+    }
+
+    private static int level(long key) {
+        return (int) (key >>> 48);
+    }
+
+    private static int x(long key) {
+        return (int) (key & 0xffffff);
+    }
+
+    private static int y(long key) {
+        return (int) ((key >>> 24) & 0xffffff);
+    }
+
+    /**
+     * Getter for the number of tiles currently resident in the atlas.
+     *
+     * @return the number of resident tiles.
+     */
+    public int getResidentTiles() {
+        return resident.size();
+    }
+
+    /**
+     * Setter for the maximum number of tiles uploaded per frame.
+     *
+     * @param uploadsPerFrame
+     *            the maximum number of tiles uploaded per frame.
+     */
+    public void setUploadsPerFrame(int uploadsPerFrame) {
+        this.uploadsPerFrame = uploadsPerFrame;
+    }
+}
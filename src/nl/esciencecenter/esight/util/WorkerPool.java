@@ -0,0 +1,45 @@
+package nl.esciencecenter.esight.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork/join pool shared by all parallel work in the library, with one
+ * worker per processor. Every class submitting its tasks here, rather than to
+ * a pool of its own, keeps the number of busy threads at the number of
+ * processors. The workers are daemon threads, so the pool never keeps an
+ * application from exiting.
+ *
+ * @author Maarten van Meersbergen <m.van.meersbergen@esciencecenter.nl>
+ */
+public final class WorkerPool {
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private WorkerPool() {
+        // Utility class
+    }
+
+    /**
+     * Getter for the shared pool.
+     *
+     * @return the pool.
+     */
+    public static ForkJoinPool get() {
+        return POOL;
+    }
+
+    /**
+     * The number of elements per task that splits work into about one task
+     * per worker. Tasks that accumulate into a partial result of their own
+     * then need only one partial per worker.
+     *
+     * @param elements
+     *            The number of elements of the work.
+     * @param minimum
+     *            The smallest number of elements worth a task.
+     * @return the number of elements per task.
+     */
+    public static int chunkSize(int elements, int minimum) {
+        int workers = POOL.getParallelism();
+        return Math.max(minimum, (int) ((elements + (long) workers - 1) / workers));
+    }
+}
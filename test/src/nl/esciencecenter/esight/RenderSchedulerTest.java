@@ -0,0 +1,127 @@
+package nl.esciencecenter.esight;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.opengl.GLAutoDrawable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RenderSchedulerTest {
+    private static final long MILLISECOND = 1000000L;
+
+    /** What display() does, if anything */
+    private volatile Runnable onDisplay;
+    /** The clock time of every call to display() */
+    private final List<Long> displays = new ArrayList<Long>();
+
+    /** A clock that only moves when slept on */
+    private long now = 1000000 * MILLISECOND;
+    private long slept = 0L;
+
+    private RenderScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        GLAutoDrawable drawable = (GLAutoDrawable) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { GLAutoDrawable.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("display")) {
+                            displays.add(now);
+                            if (onDisplay != null) {
+                                onDisplay.run();
+                            }
+                        }
+                        return null;
+                    }
+                });
+        RenderScheduler.Clock clock = new RenderScheduler.Clock() {
+            @Override
+            public long nanoTime() {
+                return now;
+            }
+
+            @Override
+            public void sleep(long nanos) {
+                now += nanos;
+                slept += nanos;
+            }
+        };
+        scheduler = new RenderScheduler(drawable, clock);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void testOnDemand() throws InterruptedException {
+        scheduler.start();
+        scheduler.awaitIdle();
+        assertEquals(1, scheduler.getFrames());
+
+        scheduler.requestRedraw();
+        scheduler.awaitIdle();
+        assertEquals(2, scheduler.getFrames());
+
+        RenderScheduler.requestRedrawAll();
+        scheduler.awaitIdle();
+        assertEquals(3, scheduler.getFrames());
+
+        // No cap, so no frame waited.
+        assertEquals(0L, slept);
+    }
+
+    @Test
+    public void testAnimationWithCap() throws InterruptedException {
+        scheduler.setMaxFrameRate(20f);
+        onDisplay = new Runnable() {
+            @Override
+            public void run() {
+                if (displays.size() == 10) {
+                    scheduler.stopAnimation();
+                }
+            }
+        };
+        scheduler.startAnimation();
+        scheduler.start();
+        scheduler.awaitIdle();
+
+        // Ten animated frames and the final state, 50 ms apart
+        assertEquals(11, scheduler.getFrames());
+        for (int i = 1; i < displays.size(); i++) {
+            assertEquals(50 * MILLISECOND, displays.get(i) - displays.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testFailingFrame() throws InterruptedException {
+        onDisplay = new Runnable() {
+            @Override
+            public void run() {
+                if (displays.size() == 1) {
+                    throw new IllegalStateException("Broken first frame");
+                }
+            }
+        };
+        scheduler.start();
+        scheduler.awaitIdle();
+        assertEquals(1, displays.size());
+        assertEquals(0, scheduler.getFrames());
+
+        // The scheduler keeps running.
+        scheduler.requestRedraw();
+        scheduler.awaitIdle();
+        assertEquals(2, displays.size());
+        assertEquals(1, scheduler.getFrames());
+    }
+}
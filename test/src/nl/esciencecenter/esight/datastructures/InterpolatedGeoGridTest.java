@@ -0,0 +1,221 @@
+package nl.esciencecenter.esight.datastructures;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InterpolatedGeoGridTest {
+    private static double greatCircle(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1), phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1, dLambda = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dPhi / 2) * Math.sin(dPhi / 2) + Math.cos(phi1) * Math.cos(phi2)
+                * Math.sin(dLambda / 2) * Math.sin(dLambda / 2);
+        return 2 * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    @Test
+    public void testNoStations() {
+        assertNull(new InterpolatedGeoGrid(4, 2).calculate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedFields() {
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(4, 2);
+        grid.addData(0f, 0f, new float[] { 1f });
+        grid.addData(0f, 0f, new float[] { 1f, 2f });
+    }
+
+    @Test
+    public void testNearestMatchesBruteForce() {
+        Random random = new Random(7);
+        int n = 2000;
+        float[] lats = new float[n], lons = new float[n];
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(4, 2);
+        for (int i = 0; i < n; i++) {
+            lats[i] = random.nextFloat() * 180f - 90f;
+            lons[i] = random.nextFloat() * 360f - 180f;
+            assertEquals(i, grid.addData(lats[i], lons[i], new float[] { i }));
+        }
+
+        for (int q = 0; q < 200; q++) {
+            float lat = random.nextFloat() * 180f - 90f, lon = random.nextFloat() * 360f - 180f;
+            int[] nearest = grid.nearest(lat, lon, 5);
+            assertEquals(5, nearest.length);
+
+            // No station outside the result is closer than the farthest in it.
+            double farthest = greatCircle(lat, lon, lats[nearest[4]], lons[nearest[4]]);
+            int closer = 0;
+            for (int i = 0; i < n; i++) {
+                if (greatCircle(lat, lon, lats[i], lons[i]) < farthest - 1E-5) {
+                    closer++;
+                }
+            }
+            assertEquals(4, closer);
+        }
+    }
+
+    @Test
+    public void testAntimeridian() {
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(4, 2);
+        grid.addData(0f, 179f, new float[] { 1f });
+        grid.addData(0f, -179f, new float[] { 2f });
+        grid.addData(0f, 150f, new float[] { 3f });
+        grid.addData(80f, 0f, new float[] { 4f });
+
+        assertArrayEquals(new int[] { 1, 0 }, grid.nearest(0f, -179.5f, 2));
+        assertArrayEquals(new int[] { 0, 1 }, grid.nearest(0f, 540f - 0.5f, 2));
+    }
+
+    @Test
+    public void testInverseDistanceWeights() {
+        // A 4x2 grid has its cell centers at latitudes -45 and 45, and
+        // longitudes -135, -45, 45 and 135.
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(4, 2);
+        grid.setNeighbours(2);
+        grid.addData(45f, 45f, new float[] { 10f, 1f });
+        grid.addData(45f, 135f, new float[] { 20f, 2f });
+        grid.addData(-45f, 45f, new float[] { 30f, 3f });
+        grid.addData(-45f, 135f, new float[] { 40f, 4f });
+
+        float[] result = grid.interpolate(null);
+        assertEquals(4 * 2 * 2, result.length);
+
+        // Cells on a station take its values.
+        int cell = 1 * 4 + 2;
+        assertEquals(10f, result[cell * 2], 0f);
+        assertEquals(1f, result[cell * 2 + 1], 0f);
+
+        // Cell (45, -45) is 90 degrees from station 0, and 180 degrees from
+        // station 1 around the equator but closer over the pole.
+        cell = 1 * 4 + 1;
+        double d0 = greatCircle(45, -45, 45, 45), d1 = greatCircle(45, -45, 45, 135);
+        double w0 = 1 / (d0 * d0), w1 = 1 / (d1 * d1);
+        assertEquals((10 * w0 + 20 * w1) / (w0 + w1), result[cell * 2], 1E-4);
+
+        float[][] cells = grid.calculate();
+        assertEquals(8, cells.length);
+        assertEquals(result[cell * 2 + 1], cells[cell][1], 0f);
+
+        assertEquals(10f, grid.getMin(0), 0f);
+        assertEquals(4f, grid.getMax(1), 0f);
+    }
+
+    @Test
+    public void testPower() {
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(4, 2);
+        grid.addData(45f, 0f, new float[] { 0f });
+        grid.addData(45f, 135f, new float[] { 1f });
+        grid.setNeighbours(2);
+
+        int cell = 1 * 4 + 1;
+        float squared = grid.interpolate(null)[cell];
+        grid.setPower(8f);
+        float steep = grid.interpolate(null)[cell];
+        assertEquals(0f, steep, 0.01f);
+        assertTrue(steep < squared);
+    }
+
+    private static InterpolatedGeoGrid randomGrid(Random random, int stations) {
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(256, 128);
+        for (int i = 0; i < stations; i++) {
+            grid.addData(random.nextFloat() * 180f - 90f, random.nextFloat() * 360f - 180f,
+                    new float[] { random.nextFloat(), random.nextFloat() });
+        }
+        return grid;
+    }
+
+    @Test
+    public void testRefreshMatchesFullInterpolation() {
+        Random random = new Random(11);
+        InterpolatedGeoGrid grid = randomGrid(random, 500);
+
+        assertNull(grid.getResult());
+        assertEquals(8 * 4, grid.refresh());
+        assertArrayEquals(grid.interpolate(null), grid.getResult(), 1E-6f);
+
+        // Nothing changed.
+        assertEquals(0, grid.refresh());
+        assertEquals(0, grid.getChangedTiles().length);
+    }
+
+    @Test
+    public void testUpdateDataOnlyReweighsDependentTiles() {
+        Random random = new Random(12);
+        InterpolatedGeoGrid grid = randomGrid(random, 500);
+        grid.refresh();
+        float[] before = grid.getResult().clone();
+
+        grid.updateData(42, new float[] { 100f, -100f });
+        int changed = grid.refresh();
+        assertTrue(changed > 0);
+        assertTrue(changed < 8 * 4);
+
+        float[] after = grid.getResult();
+        assertArrayEquals(grid.interpolate(null), after, 1E-4f);
+
+        // Cells outside the changed tiles are the same as before.
+        boolean[] inChanged = new boolean[256 * 128];
+        for (int tile : grid.getChangedTiles()) {
+            int[] region = grid.getTileRegion(tile);
+            for (int y = region[1]; y < region[1] + region[3]; y++) {
+                for (int x = region[0]; x < region[0] + region[2]; x++) {
+                    inChanged[y * 256 + x] = true;
+                }
+            }
+        }
+        for (int cell = 0; cell < inChanged.length; cell++) {
+            if (!inChanged[cell]) {
+                assertEquals(before[cell * 2], after[cell * 2], 0f);
+            }
+        }
+
+        // The back buffer catches up with the tiles it missed.
+        grid.updateData(7, new float[] { 5f, 5f });
+        grid.refresh();
+        assertArrayEquals(grid.interpolate(null), grid.getResult(), 1E-4f);
+    }
+
+    @Test
+    public void testAddAndRemoveData() {
+        Random random = new Random(13);
+        InterpolatedGeoGrid grid = randomGrid(random, 300);
+        grid.refresh();
+
+        int station = grid.addData(10f, 20f, new float[] { 50f, 50f });
+        int changed = grid.refresh();
+        assertTrue(changed > 0);
+        assertTrue(changed < 8 * 4);
+        assertArrayEquals(grid.interpolate(null), grid.getResult(), 1E-4f);
+
+        grid.removeData(station);
+        grid.removeData(3);
+        assertEquals(299, grid.getNumStations());
+        grid.refresh();
+        assertArrayEquals(grid.interpolate(null), grid.getResult(), 1E-4f);
+
+        grid.setNeighbours(6);
+        assertEquals(8 * 4, grid.refresh());
+        assertArrayEquals(grid.interpolate(null), grid.getResult(), 1E-4f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpdateRemovedStation() {
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(4, 2);
+        grid.addData(0f, 0f, new float[] { 1f });
+        grid.removeData(0);
+        grid.updateData(0, new float[] { 2f });
+    }
+
+    @Test
+    public void testTileRegions() {
+        InterpolatedGeoGrid grid = new InterpolatedGeoGrid(40, 70);
+        assertArrayEquals(new int[] { 0, 0, 32, 32 }, grid.getTileRegion(0));
+        assertArrayEquals(new int[] { 32, 0, 8, 32 }, grid.getTileRegion(1));
+        assertArrayEquals(new int[] { 32, 64, 8, 6 }, grid.getTileRegion(5));
+    }
+}
@@ -0,0 +1,59 @@
+package nl.esciencecenter.esight.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.jogamp.newt.event.InputEvent;
+import com.jogamp.newt.event.MouseEvent;
+
+public class InputHandlerTest {
+    private static MouseEvent event(short type, int modifiers, int x, int y, float wheel) {
+        return new MouseEvent(type, InputHandlerTest.class, 0L, modifiers, x, y, (short) 1, MouseEvent.BUTTON1,
+                new float[] { 0f, wheel, 0f }, 1f);
+    }
+
+    @Test
+    public void testCoalescing() {
+        InputHandler handler = new InputHandler();
+        Camera before = handler.getCamera();
+
+        handler.mousePressed(event(MouseEvent.EVENT_MOUSE_PRESSED, InputEvent.BUTTON1_MASK, 100, 100, 0f));
+        handler.mouseDragged(event(MouseEvent.EVENT_MOUSE_DRAGGED, InputEvent.BUTTON1_MASK, 110, 100, 0f));
+        handler.mouseDragged(event(MouseEvent.EVENT_MOUSE_DRAGGED, InputEvent.BUTTON1_MASK, 120, 100, 0f));
+        handler.mouseDragged(event(MouseEvent.EVENT_MOUSE_DRAGGED, InputEvent.BUTTON1_MASK, 130, 105, 0f));
+        handler.mouseWheelMoved(event(MouseEvent.EVENT_MOUSE_WHEEL_MOVED, 0, 130, 105, 1f));
+        handler.mouseWheelMoved(event(MouseEvent.EVENT_MOUSE_WHEEL_MOVED, 0, 130, 105, 1f));
+
+        // Nothing changes until the input is applied.
+        assertSame(before, handler.getCamera());
+
+        assertTrue(handler.applyInput());
+        assertTrue(handler.isCameraChanged());
+        Camera after = handler.getCamera();
+        assertEquals(5f, after.getRotationX(), 0f);
+        assertEquals(30f, after.getRotationY(), 0f);
+        assertEquals(before.getViewDist() - 4f, after.getViewDist(), 0f);
+
+        assertFalse(handler.applyInput());
+        assertFalse(handler.isCameraChanged());
+        assertSame(after, handler.getCamera());
+    }
+
+    @Test
+    public void testSuccessiveDrags() {
+        InputHandler handler = new InputHandler();
+
+        handler.mousePressed(event(MouseEvent.EVENT_MOUSE_PRESSED, InputEvent.BUTTON1_MASK, 0, 0, 0f));
+        handler.mouseDragged(event(MouseEvent.EVENT_MOUSE_DRAGGED, InputEvent.BUTTON1_MASK, -20, 0, 0f));
+        handler.mouseReleased(event(MouseEvent.EVENT_MOUSE_RELEASED, 0, -20, 0, 0f));
+        handler.mousePressed(event(MouseEvent.EVENT_MOUSE_PRESSED, InputEvent.BUTTON1_MASK, 0, 0, 0f));
+        handler.mouseDragged(event(MouseEvent.EVENT_MOUSE_DRAGGED, InputEvent.BUTTON1_MASK, -10, 0, 0f));
+
+        assertTrue(handler.applyInput());
+        assertEquals(330f, handler.getCamera().getRotationY(), 0f);
+    }
+}
@@ -0,0 +1,173 @@
+package nl.esciencecenter.esight.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jogamp.newt.event.InputEvent;
+import com.jogamp.newt.event.KeyAdapter;
+import com.jogamp.newt.event.KeyEvent;
+import com.jogamp.newt.event.MouseAdapter;
+import com.jogamp.newt.event.MouseEvent;
+
+public class InputReplayerTest {
+    private static MouseEvent mouse(short type, int modifiers, int x, int y) {
+        return new MouseEvent(type, InputReplayerTest.class, 0L, modifiers, x, y, (short) 1, MouseEvent.BUTTON1,
+                new float[] { 0f, 0f, 0f }, 1f);
+    }
+
+    private static byte[] record() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputRecorder recorder = new InputRecorder(bytes);
+
+        recorder.nextFrame();
+        recorder.mousePressed(mouse(MouseEvent.EVENT_MOUSE_PRESSED, InputEvent.BUTTON1_MASK, 0, 0));
+        recorder.nextFrame();
+        recorder.mouseDragged(mouse(MouseEvent.EVENT_MOUSE_DRAGGED, InputEvent.BUTTON1_MASK, 10, 0));
+        recorder.keyPressed(KeyEvent.create(KeyEvent.EVENT_KEY_PRESSED, InputReplayerTest.class, 0L, 0,
+                KeyEvent.VK_A, KeyEvent.VK_A, 'a'));
+        recorder.nextFrame();
+        TouchPoint point = new TouchPoint();
+        point.setId(7);
+        point.setState(1);
+        point.setTx(0.25f);
+        point.setTy(0.75f);
+        recorder.onTouchPoints(1.5, new TouchPoint[] { point }, 1);
+        recorder.close();
+
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testFrameSynchronisedReplay() throws IOException {
+        final List<String> keys = new ArrayList<String>();
+        final List<TouchPoint> touches = new ArrayList<TouchPoint>();
+        InputHandler handler = new InputHandler();
+
+        InputReplayer replayer = new InputReplayer(new ByteArrayInputStream(record()), handler, new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                keys.add(String.valueOf(e.getKeyChar()));
+            }
+        }, new TouchEventHandler() {
+            @Override
+            public void onTouchPoints(double timestamp, TouchPoint[] points, int n) {
+                assertEquals(1.5, timestamp, 0.0);
+                for (int i = 0; i < n; i++) {
+                    touches.add(points[i]);
+                }
+            }
+        });
+
+        // Frame 1 replays the frame marker only.
+        assertTrue(replayer.nextFrame());
+        assertFalse(handler.applyInput());
+
+        // Frame 2 replays the press.
+        assertTrue(replayer.nextFrame());
+        handler.applyInput();
+        assertEquals(0f, handler.getCamera().getRotationY(), 0f);
+        assertTrue(keys.isEmpty());
+
+        // Frame 3 replays the drag and the key.
+        assertTrue(replayer.nextFrame());
+        assertTrue(handler.applyInput());
+        assertEquals(10f, handler.getCamera().getRotationY(), 0f);
+        assertEquals(1, keys.size());
+        assertEquals("a", keys.get(0));
+        assertTrue(touches.isEmpty());
+
+        // Frame 4 replays the touch event, which is the last one.
+        assertFalse(replayer.nextFrame());
+        assertTrue(replayer.isFinished());
+        assertEquals(1, touches.size());
+        assertEquals(7, touches.get(0).getId());
+        assertEquals(1, touches.get(0).getState());
+        assertEquals(0.25f, touches.get(0).getTx(), 0f);
+        assertEquals(0.75f, touches.get(0).getTy(), 0f);
+
+        assertEquals(3, replayer.getFrameTimes().length);
+    }
+
+    @Test
+    public void testTimedReplay() throws IOException {
+        long start = System.nanoTime();
+        byte[] log = record();
+        long recordingMillis = (System.nanoTime() - start) / 1000000L;
+
+        // Every event as "type@time", the time in milliseconds since the
+        // recording started.
+        final List<String> events = new ArrayList<String>();
+        final List<Long> times = new ArrayList<Long>();
+        InputReplayer replayer = new InputReplayer(new ByteArrayInputStream(log), new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                events.add("pressed");
+                times.add(e.getWhen());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                events.add("dragged " + e.getX());
+                times.add(e.getWhen());
+            }
+        }, new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                events.add("key " + e.getKeyChar());
+                times.add(e.getWhen());
+            }
+        }, new TouchEventHandler() {
+            @Override
+            public void onTouchPoints(double timestamp, TouchPoint[] points, int n) {
+                events.add("touch " + points[0].getId() + " at " + timestamp);
+            }
+        });
+        replayer.setSpeed(1E6f);
+
+        // Every event was recorded within a second, so it is due within a
+        // microsecond of replay.
+        int frames = 0;
+        while (replayer.nextFrame()) {
+            frames++;
+            assertTrue("Replay did not finish", frames < 1000000);
+        }
+        assertTrue(replayer.isFinished());
+
+        assertEquals(4, events.size());
+        assertEquals("pressed", events.get(0));
+        assertEquals("dragged 10", events.get(1));
+        assertEquals("key a", events.get(2));
+        assertEquals("touch 7 at 1.5", events.get(3));
+
+        // The events carry their recorded times, in order.
+        assertEquals(3, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertTrue(times.get(i) >= (i == 0 ? 0L : times.get(i - 1)));
+            assertTrue(times.get(i) <= recordingMillis);
+        }
+    }
+
+    @Test
+    public void testSummary() throws IOException {
+        InputReplayer replayer = new InputReplayer(new ByteArrayInputStream(record()), null, null, null);
+        assertEquals("No frames", replayer.getSummary());
+
+        replayer.nextFrame();
+        replayer.nextFrame();
+        assertTrue(replayer.getSummary().startsWith("1 frames"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidLog() throws IOException {
+        new InputReplayer(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5, 6 }), null, null, null);
+    }
+}
@@ -0,0 +1,181 @@
+package nl.esciencecenter.esight.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TouchServerTest {
+    private TouchServer server;
+    private final List<float[]> received = new ArrayList<float[]>();
+
+    private final TouchEventHandler handler = new TouchEventHandler() {
+        @Override
+        public void onTouchPoints(double timestamp, TouchPoint[] points, int n) {
+            for (int i = 0; i < n; i++) {
+                received.add(new float[] { (float) timestamp, points[i].getId(), points[i].getState(),
+                        points[i].getTx(), points[i].getTy() });
+            }
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TouchServer(0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static byte[] message(double timestamp, int... ids) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 12 + ids.length * 16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(12 + ids.length * 16);
+        buffer.putDouble(timestamp);
+        buffer.putInt(ids.length);
+        for (int id : ids) {
+            buffer.putInt(id).putInt(1).putFloat(id * 0.5f).putFloat(id * 0.25f);
+        }
+        return buffer.array();
+    }
+
+    private void awaitPoints(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            server.poll(handler);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testMessages() throws IOException, InterruptedException {
+        Socket client = new Socket("localhost", server.getPort());
+        OutputStream out = client.getOutputStream();
+
+        // Two messages in one write.
+        byte[] first = message(1.0, 1, 2);
+        byte[] second = message(2.0, 3);
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        out.write(both);
+        out.flush();
+
+        // One message split over several writes.
+        byte[] third = message(3.0, 4, 5, 6);
+        for (int i = 0; i < third.length; i += 7) {
+            out.write(third, i, Math.min(7, third.length - i));
+            out.flush();
+            Thread.sleep(2);
+        }
+
+        awaitPoints(6);
+        client.close();
+
+        assertEquals(6, received.size());
+        for (int i = 0; i < 6; i++) {
+            float[] point = received.get(i);
+            assertEquals(i + 1, point[1], 0f);
+            assertEquals(1, point[2], 0f);
+            assertEquals((i + 1) * 0.5f, point[3], 0f);
+            assertEquals((i + 1) * 0.25f, point[4], 0f);
+        }
+        assertEquals(1.0, received.get(1)[0], 0f);
+        assertEquals(2.0, received.get(2)[0], 0f);
+        assertEquals(3.0, received.get(5)[0], 0f);
+    }
+
+    @Test
+    public void testMultipleClients() throws IOException, InterruptedException {
+        Socket a = new Socket("localhost", server.getPort());
+        Socket b = new Socket("localhost", server.getPort());
+        a.getOutputStream().write(message(1.0, 1));
+        b.getOutputStream().write(message(1.0, 2));
+
+        awaitPoints(2);
+        a.close();
+        b.close();
+
+        assertEquals(2, received.size());
+    }
+
+    private static ByteBuffer header(int length, int numTouches) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 12).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(length).putDouble(1.0).putInt(numTouches);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testTruncatedMessage() {
+        // Room for no touch points, but one announced
+        assertFalse(server.parse(header(12, 1)));
+        assertEquals(0, server.poll(handler));
+    }
+
+    @Test
+    public void testOversizedTouchCount() {
+        // 12 + count * 16 overflows to 12, which would fit the length.
+        assertFalse(server.parse(header(12, 1 << 28)));
+        assertEquals(0, server.poll(handler));
+    }
+
+    private static void awaitDisconnect(Socket client) throws IOException {
+        client.setSoTimeout(5000);
+        InputStream in = client.getInputStream();
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testInvalidClientIsDropped() throws IOException, InterruptedException {
+        Socket bad = new Socket("localhost", server.getPort());
+        bad.getOutputStream().write(header(12, 1 << 28).array());
+        awaitDisconnect(bad);
+        bad.close();
+
+        // The others are still served.
+        Socket good = new Socket("localhost", server.getPort());
+        good.getOutputStream().write(message(1.0, 1));
+        awaitPoints(1);
+        good.close();
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testCloseDisconnectsClients() throws IOException, InterruptedException {
+        Socket client = new Socket("localhost", server.getPort());
+        client.getOutputStream().write(message(1.0, 1));
+        awaitPoints(1);
+
+        server.close();
+        awaitDisconnect(client);
+        client.close();
+    }
+
+    @Test
+    public void testRingFull() {
+        TouchEventRing ring = new TouchEventRing(4, 2);
+        for (int i = 0; i < 6; i++) {
+            if (ring.begin(i)) {
+                ring.add(i, 0, 0f, 0f);
+                ring.publish();
+            }
+        }
+        assertEquals(2, ring.getDropped());
+        assertEquals(4, ring.drain(handler));
+        assertEquals(3f, received.get(3)[1], 0f);
+    }
+}
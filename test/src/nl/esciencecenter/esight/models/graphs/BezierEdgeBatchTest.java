@@ -0,0 +1,86 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.MatrixFMath;
+import nl.esciencecenter.esight.math.VecF3;
+
+import org.junit.Test;
+
+public class BezierEdgeBatchTest {
+    private static final MatF4 IDENTITY = new MatF4();
+
+    @Test
+    public void testAdaptiveSteps() {
+        BezierEdgeBatch batch = new BezierEdgeBatch();
+        // A straight edge with evenly spaced control points, and a strongly
+        // curved one.
+        VecF3 third = new VecF3(1f / 3f, 0f, 0f);
+        batch.addEdge(new VecF3(-0.5f, 0f, 0f), third, third, new VecF3(0.5f, 0f, 0f), Color4.WHITE, 1f);
+        batch.addEdge(new VecF3(-0.5f, 0f, 0f), new VecF3(0f, 0.8f, 0f), new VecF3(0f, -0.8f, 0f), new VecF3(0.5f,
+                0f, 0f), Color4.WHITE, 1f);
+
+        batch.tessellate(IDENTITY, IDENTITY, 800, 600);
+        assertEquals(1, batch.getSteps(0));
+        int curved = batch.getSteps(1);
+        assertTrue(curved > 4);
+
+        // Zooming in makes the curve larger on screen, so it needs more steps.
+        batch.tessellate(IDENTITY, MatrixFMath.scale(4f), 800, 600);
+        assertEquals(1, batch.getSteps(0));
+        assertTrue(batch.getSteps(1) > curved);
+
+        batch.setMaxSteps(8);
+        batch.tessellate(IDENTITY, MatrixFMath.scale(4f), 800, 600);
+        assertEquals(8, batch.getSteps(1));
+    }
+
+    @Test
+    public void testLineStripsWithRestart() {
+        BezierEdgeBatch batch = new BezierEdgeBatch();
+        for (int i = 0; i < 2000; i++) {
+            float y = i / 2000f - 0.5f;
+            batch.addEdge(new VecF3(-0.5f, y, 0f), new VecF3(0.1f, 0.3f, 0f), new VecF3(0.1f, -0.3f, 0f),
+                    new VecF3(0.5f, y, 0f), i % 2 == 0 ? Color4.RED : Color4.BLUE, 1f + i % 3);
+        }
+        int numVertices = batch.tessellate(IDENTITY, IDENTITY, 1024, 768);
+        assertEquals(numVertices, batch.getNumVertices());
+
+        int[] indices = batch.getIndices();
+        assertEquals(numVertices + 2000, indices.length);
+
+        int vertex = 0, position = 0;
+        for (int edge = 0; edge < 2000; edge++) {
+            int steps = batch.getSteps(edge);
+            for (int i = 0; i <= steps; i++) {
+                assertEquals(vertex + i, indices[position + i]);
+            }
+            assertEquals(BezierEdgeBatch.RESTART_INDEX, indices[position + steps + 1]);
+
+            // The strip runs from the start to the end of the edge.
+            float y = edge / 2000f - 0.5f;
+            assertEquals(-0.5f, batch.getVertex(vertex).getX(), 1E-6f);
+            assertEquals(y, batch.getVertex(vertex).getY(), 1E-6f);
+            assertEquals(0.5f, batch.getVertex(vertex + steps).getX(), 1E-6f);
+            assertEquals(y, batch.getVertex(vertex + steps).getY(), 1E-6f);
+
+            vertex += steps + 1;
+            position += steps + 2;
+        }
+    }
+
+    @Test
+    public void testBehindCamera() {
+        BezierEdgeBatch batch = new BezierEdgeBatch();
+        batch.setMaxSteps(16);
+        batch.addEdge(new VecF3(0f, 0f, 0f), new VecF3(), new VecF3(), new VecF3(1f, 0f, 0f), Color4.WHITE, 1f);
+
+        // A projection with w = -z puts points at z = 0 on the eye plane.
+        MatF4 p = MatrixFMath.perspective(60f, 1f, 0.1f, 100f);
+        batch.tessellate(p, IDENTITY, 100, 100);
+        assertEquals(16, batch.getSteps(0));
+    }
+}
@@ -0,0 +1,120 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BinnedHistogramTest {
+    private static float[] randomValues(int size, long seed) {
+        Random random = new Random(seed);
+        float[] values = new float[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = (float) random.nextGaussian() * 30f + 50f;
+        }
+        return values;
+    }
+
+    @Test
+    public void testBinScheme() {
+        BinScheme linear = BinScheme.linear(0f, 10f, 5);
+        assertEquals(0, linear.bin(0f));
+        assertEquals(0, linear.bin(1.99f));
+        assertEquals(1, linear.bin(2f));
+        assertEquals(4, linear.bin(10f));
+        assertEquals(-1, linear.bin(-0.01f));
+        assertEquals(-1, linear.bin(10.01f));
+        assertEquals(-1, linear.bin(Float.NaN));
+        assertEquals(4f, linear.getLowerBound(2), 1E-6f);
+
+        BinScheme log = BinScheme.logarithmic(1f, 1000f, 3);
+        assertEquals(0, log.bin(5f));
+        assertEquals(1, log.bin(50f));
+        assertEquals(2, log.bin(500f));
+        assertEquals(100f, log.getLowerBound(2), 1E-3f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLogarithmicNeedsPositiveMinimum() {
+        BinScheme.logarithmic(0f, 10f, 4);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        float[] values = randomValues(1000003, 1L);
+        BinScheme bins = BinScheme.linear(0f, 100f, 37);
+
+        long[] expected = new long[bins.getBins()];
+        long outOfRange = 0L;
+        for (float value : values) {
+            int bin = bins.bin(value);
+            if (bin < 0) {
+                outOfRange++;
+            } else {
+                expected[bin]++;
+            }
+        }
+
+        BinnedHistogram histogram = new BinnedHistogram(bins);
+        histogram.add(values);
+        assertArrayEquals(expected, histogram.getCounts());
+        assertEquals(outOfRange, histogram.getOutOfRange());
+
+        // The same counts from a direct buffer.
+        FloatBuffer buffer = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(values);
+        buffer.rewind();
+        BinnedHistogram fromBuffer = new BinnedHistogram(bins);
+        fromBuffer.add(buffer);
+        assertArrayEquals(expected, fromBuffer.getCounts());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testChunksAndMerge() {
+        float[] values = randomValues(300000, 2L);
+        BinScheme bins = BinScheme.logarithmic(1f, 200f, 20);
+
+        BinnedHistogram whole = new BinnedHistogram(bins);
+        whole.add(values);
+
+        BinnedHistogram first = new BinnedHistogram(bins);
+        first.add(values, 0, 100000);
+        BinnedHistogram second = new BinnedHistogram(bins);
+        second.add(values, 100000, 200000);
+        first.merge(second);
+
+        assertArrayEquals(whole.getCounts(), first.getCounts());
+        assertEquals(whole.getOutOfRange(), first.getOutOfRange());
+    }
+
+    @Test
+    public void test2D() {
+        BinnedHistogram histogram = new BinnedHistogram(BinScheme.linear(0f, 4f, 4), BinScheme.linear(0f, 2f, 2));
+        histogram.add(new float[] { 0.5f, 3.5f, 3.5f, 9f }, new float[] { 0.5f, 1.5f, 1.5f, 0f });
+        histogram.add(1.5f, 0.5f);
+
+        assertEquals(8, histogram.getNumBins());
+        assertEquals(1L, histogram.getCount(0, 0));
+        assertEquals(1L, histogram.getCount(1, 0));
+        assertEquals(2L, histogram.getCount(3, 1));
+        assertEquals(2L, histogram.getCount(7));
+        assertEquals(1L, histogram.getOutOfRange());
+
+        float[] bars = histogram.toBarValues();
+        assertEquals(1f, bars[7], 0f);
+        assertEquals(0.5f, bars[0], 0f);
+        assertEquals(0f, bars[2], 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongDimensions() {
+        new BinnedHistogram(BinScheme.linear(0f, 1f, 2)).add(new float[1], new float[1]);
+    }
+}
@@ -0,0 +1,41 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF4;
+
+import org.junit.Test;
+
+public class DecimatedLineTest {
+    private static DecimatedLine line() {
+        DecimatedLine line = new DecimatedLine(Color4.WHITE, 100);
+        for (int i = 0; i < 10; i++) {
+            line.addData(i * 10f, i);
+        }
+        return line;
+    }
+
+    @Test
+    public void testDataRangeOfVisibleSamples() {
+        DecimatedLine line = line();
+        line.setVisibleRange(15f, 45f);
+        line.decimate(100);
+
+        // Samples 2 to 4 are inside, 1 and 5 only connect the line to the edges.
+        assertEquals(new VecF4(15f, 45f, 2f, 4f), line.getDataRange());
+
+        line.showAll();
+        line.decimate(100);
+        assertEquals(new VecF4(0f, 90f, 0f, 9f), line.getDataRange());
+    }
+
+    @Test
+    public void testEmptyVisibleRange() {
+        DecimatedLine line = line();
+        line.setVisibleRange(21f, 29f);
+        line.decimate(100);
+
+        assertEquals(new VecF4(21f, 29f, 0f, 0f), line.getDataRange());
+    }
+}
@@ -0,0 +1,104 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DecimationPyramidTest {
+    private static DecimationPyramid randomSeries(int size, long seed) {
+        DecimationPyramid pyramid = new DecimationPyramid();
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            pyramid.add(i, random.nextFloat() * 100f - 50f);
+        }
+        return pyramid;
+    }
+
+    @Test
+    public void testLevels() {
+        DecimationPyramid pyramid = randomSeries(1000, 1L);
+        assertEquals(1000, pyramid.size());
+        // 2^9 = 512 is the largest bucket that fits.
+        assertEquals(9, pyramid.getNumLevels());
+
+        assertEquals(0, pyramid.levelFor(100, 200));
+        assertEquals(2, pyramid.levelFor(1000, 200));
+        assertEquals(9, pyramid.levelFor(1000000, 1));
+    }
+
+    @Test
+    public void testSmallRangeIsExact() {
+        DecimationPyramid pyramid = randomSeries(1000, 2L);
+        FloatBuffer result = pyramid.decimate(100f, 110f, 800);
+
+        // The samples in the range, plus one on either side.
+        assertEquals(13 * 2, result.limit());
+        for (int i = 0; i < 13; i++) {
+            assertEquals(99f + i, result.get(i * 2), 0f);
+        }
+    }
+
+    @Test
+    public void testDecimationKeepsExtremesAndOrder() {
+        int size = 100003;
+        DecimationPyramid pyramid = randomSeries(size, 3L);
+        int pixels = 300;
+
+        FloatBuffer result = pyramid.decimate(0f, size, pixels);
+        int vertices = result.limit() / 2;
+        assertTrue(vertices <= pixels * 4 + 4 * pyramid.getNumLevels() + 2);
+
+        float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+        Random random = new Random(3L);
+        for (int i = 0; i < size; i++) {
+            float value = random.nextFloat() * 100f - 50f;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        float resultMin = Float.MAX_VALUE, resultMax = -Float.MAX_VALUE;
+        float previousTime = -1f;
+        for (int i = 0; i < vertices; i++) {
+            assertTrue(result.get(i * 2) > previousTime);
+            previousTime = result.get(i * 2);
+            resultMin = Math.min(resultMin, result.get(i * 2 + 1));
+            resultMax = Math.max(resultMax, result.get(i * 2 + 1));
+        }
+        assertEquals(0f, result.get(0), 0f);
+        assertEquals(size - 1, result.get((vertices - 1) * 2), 0f);
+        assertEquals(min, resultMin, 0f);
+        assertEquals(max, resultMax, 0f);
+    }
+
+    @Test
+    public void testVertexCountIsConstantWhileZooming() {
+        DecimationPyramid pyramid = randomSeries(1 << 20, 4L);
+        int pixels = 500;
+
+        for (int width = 1 << 20; width >= 2000; width /= 2) {
+            int vertices = pyramid.decimate(1000f, 1000f + width, pixels).limit() / 2;
+            assertTrue(vertices >= pixels);
+            assertTrue(vertices <= pixels * 4 + 4 * pyramid.getNumLevels() + 2);
+        }
+    }
+
+    @Test
+    public void testLttb() {
+        DecimationPyramid pyramid = randomSeries(50000, 5L);
+
+        FloatBuffer result = pyramid.lttb(0f, 50000f, 200);
+        assertEquals(200 * 2, result.limit());
+        assertEquals(0f, result.get(0), 0f);
+        assertEquals(49999f, result.get(398), 0f);
+        for (int i = 1; i < 200; i++) {
+            assertTrue(result.get(i * 2) > result.get(i * 2 - 2));
+        }
+
+        // Ranges that already fit are returned as they are.
+        assertEquals(12 * 2, pyramid.lttb(10f, 19f, 200).limit());
+    }
+}
@@ -0,0 +1,161 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.VecF3;
+
+import org.junit.Test;
+
+public class DensityGridTest {
+    private static final MatF4 IDENTITY = new MatF4();
+
+    private static int total(DensityGrid grid, int width, int height) {
+        int sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sum += grid.getCount(x, y);
+            }
+        }
+        return sum;
+    }
+
+    @Test
+    public void testScreenCells() {
+        DensityGrid grid = new DensityGrid(4, 4, 4, 0);
+        grid.add(-0.9f, -0.9f, 0f);
+        grid.add(-0.8f, -0.6f, 0f);
+        grid.add(0.9f, 0.1f, 0f);
+        grid.add(2f, 0f, 0f);
+
+        assertTrue(grid.update(IDENTITY, IDENTITY));
+        assertEquals(2, grid.getCount(0, 0));
+        assertEquals(1, grid.getCount(3, 2));
+        assertEquals(3, total(grid, 4, 4));
+        assertTrue(grid.isComplete());
+
+        // Nothing new to count for the same view.
+        assertFalse(grid.update(IDENTITY, IDENTITY));
+    }
+
+    @Test
+    public void testParallelCountMatchesSequential() {
+        Random random = new Random(42);
+        int n = 300000;
+        FloatBuffer vertices = FloatBuffer.allocate(n * 4);
+        int[] expected = new int[8 * 8];
+        for (int i = 0; i < n; i++) {
+            float x = random.nextFloat() * 2f - 1f, y = random.nextFloat() * 2f - 1f;
+            vertices.put(x).put(y).put(0f).put(1f);
+            expected[(int) ((y * 0.5f + 0.5f) * 8) * 8 + (int) ((x * 0.5f + 0.5f) * 8)]++;
+        }
+        vertices.flip();
+
+        DensityGrid grid = new DensityGrid(8, 8, 4, 0);
+        grid.addAll(vertices, 4);
+        assertEquals(0, vertices.position());
+        assertEquals(n, grid.size());
+
+        grid.update(IDENTITY, IDENTITY);
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                assertEquals(expected[y * 8 + x], grid.getCount(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelVoxelCountMatchesSequential() {
+        // More voxels than points, so the voxels are counted into directly.
+        Random random = new Random(7);
+        int n = 100000, voxels = 64;
+        int[] expected = new int[voxels * voxels * voxels];
+        DensityGrid grid = new DensityGrid(4, 4, voxels, 0);
+        grid.setMode(DensityGrid.Mode.VOXEL);
+        grid.setVoxelBounds(new VecF3(0f, 0f, 0f), new VecF3(1f, 1f, 1f));
+        for (int i = 0; i < n; i++) {
+            float x = random.nextFloat(), y = random.nextFloat(), z = random.nextFloat() * 0.1f;
+            grid.add(x, y, z);
+            expected[((int) (z * voxels) * voxels + (int) (y * voxels)) * voxels + (int) (x * voxels)]++;
+        }
+
+        grid.update(IDENTITY, IDENTITY);
+        for (int z = 0; z < voxels; z++) {
+            for (int y = 0; y < voxels; y++) {
+                for (int x = 0; x < voxels; x++) {
+                    assertEquals(expected[(z * voxels + y) * voxels + x], grid.getVoxelCount(x, y, z));
+                }
+            }
+        }
+        assertEquals(n, total(grid, 4, 4));
+    }
+
+    @Test
+    public void testRefinesOverFrames() {
+        DensityGrid grid = new DensityGrid(2, 2, 2, 0);
+        grid.setPointsPerFrame(10);
+        for (int i = 0; i < 25; i++) {
+            grid.add(0.5f, 0.5f, 0f);
+        }
+
+        grid.update(IDENTITY, IDENTITY);
+        assertEquals(10, grid.getCount(1, 1));
+        assertFalse(grid.isComplete());
+        grid.update(IDENTITY, IDENTITY);
+        grid.update(IDENTITY, IDENTITY);
+        assertEquals(25, grid.getCount(1, 1));
+        assertTrue(grid.isComplete());
+
+        // Points streaming in are added to the count.
+        grid.add(0.5f, 0.5f, 0f);
+        grid.update(IDENTITY, IDENTITY);
+        assertEquals(26, grid.getCount(1, 1));
+
+        // A new view starts over.
+        grid.update(IDENTITY, new MatF4(-1f, 0f, 0f, 0f, 0f, -1f, 0f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 0f, 1f));
+        assertEquals(0, grid.getCount(1, 1));
+        assertEquals(10, grid.getCount(0, 0));
+    }
+
+    @Test
+    public void testVoxels() {
+        DensityGrid grid = new DensityGrid(2, 2, 2, 0);
+        grid.setMode(DensityGrid.Mode.VOXEL);
+        grid.setVoxelBounds(new VecF3(0f, 0f, 0f), new VecF3(2f, 2f, 2f));
+        grid.add(0.5f, 0.5f, 0.5f);
+        grid.add(0.6f, 0.4f, 1.5f);
+        grid.add(1.5f, 1.5f, 1.5f);
+        grid.add(3f, 0.5f, 0.5f);
+
+        grid.update(IDENTITY, IDENTITY);
+        assertEquals(1, grid.getVoxelCount(0, 0, 0));
+        assertEquals(1, grid.getVoxelCount(0, 0, 1));
+        assertEquals(1, grid.getVoxelCount(1, 1, 1));
+
+        // Voxel centers at 0.5 project into the upper right cell, those at 1.5
+        // outside the viewport.
+        assertEquals(2, grid.getCount(1, 1));
+        assertEquals(2, total(grid, 2, 2));
+    }
+
+    @Test
+    public void testColorize() {
+        DensityGrid grid = new DensityGrid(2, 1, 2, 0);
+        grid.setColormap(new Color4[] { Color4.BLUE, Color4.RED });
+        grid.add(0.5f, 0f, 0f);
+        grid.update(IDENTITY, IDENTITY);
+
+        ByteBuffer pixels = grid.colorize();
+        assertEquals(0, pixels.getInt(0));
+        assertEquals((byte) 255, pixels.get(4));
+        assertEquals(0, pixels.get(6));
+        assertEquals((byte) 255, pixels.get(7));
+    }
+}
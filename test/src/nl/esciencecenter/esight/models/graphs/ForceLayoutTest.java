@@ -0,0 +1,145 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ForceLayoutTest {
+    /** The exact repulsion on a node, without edges or gravity. */
+    private static float[] bruteForce(float[] positions, int node) {
+        float[] force = new float[3];
+        int n = positions.length / 3;
+        for (int j = 0; j < n; j++) {
+            if (j != node) {
+                float dx = positions[node * 3] - positions[j * 3];
+                float dy = positions[node * 3 + 1] - positions[j * 3 + 1];
+                float dz = positions[node * 3 + 2] - positions[j * 3 + 2];
+                float d2 = dx * dx + dy * dy + dz * dz;
+                force[0] += dx / d2;
+                force[1] += dy / d2;
+                force[2] += dz / d2;
+            }
+        }
+        return force;
+    }
+
+    @Test
+    public void testExactWithoutApproximation() {
+        ForceLayout layout = new ForceLayout(300, 3);
+        layout.setGravity(0f);
+        layout.setTheta(0f);
+        layout.computeForces();
+
+        assertEquals(300f, layout.getRootMass(), 0f);
+
+        float[] positions = layout.acquireSnapshot();
+        for (int i = 0; i < 300; i += 7) {
+            float[] expected = bruteForce(positions, i);
+            assertEquals(expected[0], layout.getForceX(i), 1E-3f * Math.abs(expected[0]) + 1E-3f);
+            assertEquals(expected[1], layout.getForceY(i), 1E-3f * Math.abs(expected[1]) + 1E-3f);
+            assertEquals(expected[2], layout.getForceZ(i), 1E-3f * Math.abs(expected[2]) + 1E-3f);
+        }
+    }
+
+    @Test
+    public void testBarnesHutApproximation() {
+        ForceLayout layout = new ForceLayout(5000, 2);
+        layout.setGravity(0f);
+        layout.computeForces();
+
+        float[] positions = layout.acquireSnapshot();
+        double totalError = 0.0, totalForce = 0.0;
+        for (int i = 0; i < 5000; i += 13) {
+            float[] expected = bruteForce(positions, i);
+            float ex = expected[0] - layout.getForceX(i);
+            float ey = expected[1] - layout.getForceY(i);
+            totalError += Math.sqrt(ex * ex + ey * ey);
+            totalForce += Math.sqrt(expected[0] * expected[0] + expected[1] * expected[1]);
+            assertEquals(0f, layout.getForceZ(i), 0f);
+        }
+        assertTrue(totalError / totalForce < 0.05);
+    }
+
+    @Test
+    public void testConnectedNodesEndUpClose() {
+        // Two rings of 50 nodes, joined by a single edge.
+        int[] from = new int[101], to = new int[101];
+        for (int i = 0; i < 50; i++) {
+            from[i] = i;
+            to[i] = (i + 1) % 50;
+            from[50 + i] = 50 + i;
+            to[50 + i] = 50 + (i + 1) % 50;
+        }
+        from[100] = 0;
+        to[100] = 50;
+
+        ForceLayout layout = new ForceLayout(100, 2);
+        layout.setEdges(from, to);
+        while (!layout.isConverged()) {
+            layout.step();
+        }
+
+        float[] positions = layout.acquireSnapshot();
+        double edgeLength = 0.0, allLength = 0.0;
+        for (int e = 0; e < from.length; e++) {
+            edgeLength += distance(positions, from[e], to[e]);
+        }
+        edgeLength /= from.length;
+        for (int i = 0; i < 100; i++) {
+            for (int j = i + 1; j < 100; j++) {
+                allLength += distance(positions, i, j);
+            }
+        }
+        allLength /= 100 * 99 / 2;
+        assertTrue(edgeLength * 3 < allLength);
+
+        // The centers of the rings are apart.
+        float c0x = 0f, c0y = 0f, c1x = 0f, c1y = 0f;
+        for (int i = 0; i < 50; i++) {
+            c0x += positions[i * 3] / 50f;
+            c0y += positions[i * 3 + 1] / 50f;
+            c1x += positions[(50 + i) * 3] / 50f;
+            c1y += positions[(50 + i) * 3 + 1] / 50f;
+        }
+        assertTrue(Math.hypot(c0x - c1x, c0y - c1y) > edgeLength);
+    }
+
+    private static double distance(float[] positions, int i, int j) {
+        float dx = positions[i * 3] - positions[j * 3];
+        float dy = positions[i * 3 + 1] - positions[j * 3 + 1];
+        float dz = positions[i * 3 + 2] - positions[j * 3 + 2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    @Test
+    public void testSnapshots() {
+        ForceLayout layout = new ForceLayout(10, 3);
+        float[] first = layout.acquireSnapshot();
+        assertSame(first, layout.acquireSnapshot());
+
+        float before = first[0];
+        layout.step();
+        // The old snapshot is left alone, the new one has moved on.
+        assertEquals(before, first[0], 0f);
+        float[] second = layout.acquireSnapshot();
+        assertNotSame(first, second);
+        assertFalse(before == second[0]);
+    }
+
+    @Test(timeout = 10000)
+    public void testRunsOnThread() throws InterruptedException {
+        ForceLayout layout = new ForceLayout(2000, 3);
+        layout.setEdges(new int[] { 0, 1, 2 }, new int[] { 1, 2, 3 });
+        layout.start();
+        while (layout.isRunning()) {
+            layout.acquireSnapshot();
+            Thread.sleep(5);
+        }
+        assertTrue(layout.isConverged());
+        assertTrue(layout.getIterations() > 0);
+    }
+}
@@ -0,0 +1,74 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF3;
+
+import org.junit.Test;
+
+public class ImpostorSpheresTest {
+    @Test
+    public void testAdd() {
+        ImpostorSpheres spheres = new ImpostorSpheres();
+        assertEquals(0, spheres.add(new VecF3(1f, 2f, 3f), 0.5f, Color4.RED));
+        assertEquals(1, spheres.add(new VecF3(4f, 5f, 6f), 0.25f, Color4.BLUE));
+
+        assertEquals(2, spheres.size());
+        assertEquals(new VecF3(4f, 5f, 6f), spheres.getCenter(1));
+        assertEquals(0.5f, spheres.getRadius(0), 0f);
+        assertEquals(2, spheres.getPending());
+    }
+
+    @Test
+    public void testAddAllGrows() {
+        int n = 3000;
+        FloatBuffer centers = FloatBuffer.allocate(n * 3);
+        FloatBuffer radii = FloatBuffer.allocate(n);
+        FloatBuffer colors = FloatBuffer.allocate(n * 4);
+        for (int i = 0; i < n; i++) {
+            centers.put(i).put(-i).put(0f);
+            radii.put(i * 0.001f);
+            colors.put(1f).put(0f).put(0f).put(1f);
+        }
+        centers.flip();
+        radii.flip();
+        colors.flip();
+
+        ImpostorSpheres spheres = new ImpostorSpheres();
+        spheres.add(new VecF3(), 1f, Color4.WHITE);
+        spheres.addAll(centers, radii, colors);
+
+        assertEquals(n + 1, spheres.size());
+        assertEquals(0, centers.position());
+        assertEquals(new VecF3(2999f, -2999f, 0f), spheres.getCenter(n));
+        assertEquals(2.999f, spheres.getRadius(n), 1E-6f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddAllMismatch() {
+        new ImpostorSpheres().addAll(FloatBuffer.allocate(6), FloatBuffer.allocate(2), FloatBuffer.allocate(4));
+    }
+
+    @Test
+    public void testChangesArePending() {
+        ImpostorSpheres spheres = new ImpostorSpheres();
+        for (int i = 0; i < 10; i++) {
+            spheres.add(new VecF3(i, 0f, 0f), 1f, Color4.WHITE);
+        }
+        spheres.clear();
+        assertEquals(0, spheres.getPending());
+
+        for (int i = 0; i < 10; i++) {
+            spheres.add(new VecF3(i, 0f, 0f), 1f, Color4.WHITE);
+        }
+        spheres.setRadius(3, 2f);
+        spheres.setCenter(7, new VecF3(0f, 1f, 0f));
+        spheres.setColor(5, Color4.GREEN);
+        assertEquals(10, spheres.getPending());
+        assertEquals(2f, spheres.getRadius(3), 0f);
+        assertEquals(new VecF3(0f, 1f, 0f), spheres.getCenter(7));
+    }
+}
@@ -0,0 +1,110 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.math.Color4;
+
+import org.junit.Test;
+
+public class SegmentedLineTest {
+    private static final int SEGMENTS = 10;
+
+    /** The heights of all bins, as drawn */
+    private static float[] heights(SegmentedLine line) {
+        FloatBuffer points = line.pointsAsBuffer();
+        float[] result = new float[SEGMENTS + 1];
+        for (int i = 0; i < SEGMENTS; i++) {
+            result[i] = points.get(i * 2 * 4 + 1);
+        }
+        result[SEGMENTS] = points.get(((SEGMENTS - 1) * 2 + 1) * 4 + 1);
+        return result;
+    }
+
+    /** The heights the bins of the line should have for the given data */
+    private static float[] expected(SegmentedLine line, float[] horizontals, int count) {
+        float[] result = new float[SEGMENTS + 1];
+        for (int i = 0; i < count; i++) {
+            int bin = (int) ((horizontals[i] - line.getBinOrigin()) / line.getBinWidth());
+            result[bin] += 1f / count;
+        }
+        return result;
+    }
+
+    @Test
+    public void testStreamingMatchesRecount() {
+        SegmentedLine line = new SegmentedLine(SEGMENTS, 0.1f, Color4.WHITE);
+        Random random = new Random(42);
+
+        float[] horizontals = new float[500];
+        for (int i = 0; i < horizontals.length; i++) {
+            // Mostly growing, as a stream would, with the odd step back.
+            horizontals[i] = i + random.nextInt(20) - 10;
+            line.addData(horizontals[i], 1f);
+
+            if (i > 0) {
+                assertEquals(line.getMinHorizontal(), line.getBinOrigin(), 0f);
+                assertArrayEquals(expected(line, horizontals, i + 1), heights(line), 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void testAppendUploadsOneBin() {
+        // A GL that does nothing but record the buffer uploads
+        final List<long[]> uploads = new ArrayList<long[]>();
+        GL3 gl = (GL3) Proxy.newProxyInstance(GL3.class.getClassLoader(), new Class<?>[] { GL3.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("glBufferSubData")) {
+                            uploads.add(new long[] { ((Number) args[1]).longValue(), ((Number) args[2]).longValue() });
+                        }
+                        return null;
+                    }
+                });
+
+        SegmentedLine line = new SegmentedLine(SEGMENTS, 0.1f, Color4.WHITE);
+        line.addData(0f, 1f);
+        line.addData(100f, 1f);
+        line.init(gl);
+        assertNull(line.getDirtyVertices());
+
+        // Inside the range: only the two vertices of bin 5, which ends segment
+        // 4 and starts segment 5.
+        uploads.clear();
+        line.addData(55f, 1f);
+        line.upload(gl);
+        assertEquals(1, uploads.size());
+        assertEquals(9 * 4 * 4L, uploads.get(0)[0]);
+        assertEquals(2 * 4 * 4L, uploads.get(0)[1]);
+    }
+
+    @Test
+    public void testImposedBinning() {
+        SegmentedLine first = new SegmentedLine(SEGMENTS, 0.1f, Color4.WHITE);
+        SegmentedLine second = new SegmentedLine(SEGMENTS, 0.1f, Color4.WHITE);
+        float[] horizontals = new float[] { 0f, 3f, 7f, 30f };
+        for (float horizontal : horizontals) {
+            second.addData(horizontal, 1f);
+        }
+        first.addData(0f, 1f);
+        first.addData(95f, 1f);
+
+        second.applyNewDimensions(first.getMinHorizontal(), first.getMaxHorizontal(), first.getMinVertical(),
+                first.getMaxVertical(), first.getBinOrigin(), first.getBinWidth());
+        assertEquals(first.getBinWidth(), second.getBinWidth(), 0f);
+        assertArrayEquals(expected(second, horizontals, horizontals.length), heights(second), 1e-6f);
+    }
+}
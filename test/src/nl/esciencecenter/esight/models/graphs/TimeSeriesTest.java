@@ -0,0 +1,69 @@
+package nl.esciencecenter.esight.models.graphs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import nl.esciencecenter.esight.math.Color4;
+
+import org.junit.Test;
+
+public class TimeSeriesTest {
+    @Test
+    public void testSlidingWindow() {
+        TimeSeries series = new TimeSeries(4, Color4.WHITE);
+        assertEquals(0, series.size());
+
+        for (int i = 0; i < 6; i++) {
+            series.addData(i, i * 10f);
+        }
+        assertEquals(4, series.size());
+        assertEquals(2f, series.getMinTime(), 0f);
+        assertEquals(5f, series.getMaxTime(), 0f);
+        assertEquals(20f, series.getValue(0), 0f);
+        assertEquals(50f, series.getValue(3), 0f);
+        assertEquals(3f, series.getTime(1), 0f);
+    }
+
+    @Test
+    public void testMinMaxMatchesBruteForce() {
+        int capacity = 37;
+        TimeSeries series = new TimeSeries(capacity, Color4.WHITE);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1000; i++) {
+            series.addData(i, random.nextInt(50) - 25f);
+
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+            for (int j = 0; j < series.size(); j++) {
+                min = Math.min(min, series.getValue(j));
+                max = Math.max(max, series.getValue(j));
+            }
+            assertEquals(min, series.getMinValue(), 0f);
+            assertEquals(max, series.getMaxValue(), 0f);
+        }
+    }
+
+    @Test
+    public void testPendingIsBoundedByCapacity() {
+        TimeSeries series = new TimeSeries(8, Color4.WHITE);
+        series.addData(0f, 1f);
+        series.addData(1f, 1f);
+        assertEquals(2, series.getPending());
+
+        for (int i = 2; i < 100; i++) {
+            series.addData(i, 1f);
+        }
+        assertEquals(8, series.getPending());
+
+        series.clear();
+        assertEquals(0, series.size());
+        assertEquals(0, series.getPending());
+        assertEquals(0f, series.getMaxValue(), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooSmall() {
+        new TimeSeries(1, Color4.WHITE);
+    }
+}
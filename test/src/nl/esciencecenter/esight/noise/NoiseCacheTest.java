@@ -0,0 +1,118 @@
+package nl.esciencecenter.esight.noise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NoiseCacheTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("noisecache", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public final void testFloatsMatchGenerator() {
+        NoiseCache cache = new NoiseCache(directory, Long.MAX_VALUE);
+        FloatBuffer expected = new Noise(4, 16, 8, 4).getFloats();
+
+        // Cold, then warm
+        for (int run = 0; run < 2; run++) {
+            FloatBuffer result = cache.getFloats(4, 16, 8, 4);
+            assertEquals(expected.capacity(), result.capacity());
+            for (int i = 0; i < expected.capacity(); i++) {
+                assertEquals(expected.get(i), result.get(i), 0f);
+            }
+        }
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public final void testFloatsLargerThanAWriteMatchGenerator() {
+        NoiseCache cache = new NoiseCache(directory, Long.MAX_VALUE);
+        // More floats than are written at once, and not a multiple of it
+        FloatBuffer expected = new Noise(4, 64, 64, 24, 3L).getFloats();
+        FloatBuffer result = cache.getFloats(4, 64, 64, 24, 3L);
+
+        assertEquals(expected.capacity(), result.capacity());
+        for (int i = 0; i < expected.capacity(); i++) {
+            assertEquals(expected.get(i), result.get(i), 0f);
+        }
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test
+    public final void testPixelBufferMatchesGenerator() {
+        NoiseCache cache = new NoiseCache(directory, Long.MAX_VALUE);
+        ByteBuffer expected = new Noise(4, 8, 8, 8, 7L).getPixelBuffer();
+        ByteBuffer result = cache.getPixelBuffer(4, 8, 8, 8, 7L);
+
+        assertTrue(result.isDirect());
+        assertEquals(expected, result);
+    }
+
+    @Test
+    public final void testKey() {
+        String key = NoiseCache.key(4, 8, 8, 8, false, 0L, NoiseCache.Format.FLOATS);
+
+        assertEquals(key, NoiseCache.key(4, 8, 8, 8, false, 0L, NoiseCache.Format.FLOATS));
+        assertFalse(key.equals(NoiseCache.key(4, 8, 8, 8, true, 0L, NoiseCache.Format.FLOATS)));
+        assertFalse(key.equals(NoiseCache.key(4, 8, 8, 8, false, 0L, NoiseCache.Format.RGBA_BYTES)));
+        assertFalse(key.equals(NoiseCache.key(5, 8, 8, 8, false, 0L, NoiseCache.Format.FLOATS)));
+    }
+
+    @Test
+    public final void testLeastRecentlyUsedCleanup() {
+        // Room for two 8x8x8 RGBA fields (2048 bytes each)
+        NoiseCache cache = new NoiseCache(directory, 4096);
+
+        cache.getPixelBuffer(1, 8, 8, 8, 1L);
+        cache.getPixelBuffer(1, 8, 8, 8, 2L);
+        File first = new File(directory, NoiseCache.key(1, 8, 8, 8, true, 1L, NoiseCache.Format.RGBA_BYTES)
+                + ".noise");
+        File second = new File(directory, NoiseCache.key(1, 8, 8, 8, true, 2L, NoiseCache.Format.RGBA_BYTES)
+                + ".noise");
+        assertTrue(first.setLastModified(1000L));
+        assertTrue(second.setLastModified(2000L));
+
+        cache.getPixelBuffer(1, 8, 8, 8, 3L);
+
+        assertEquals(2, directory.listFiles().length);
+        assertFalse(first.exists());
+        assertTrue(second.exists());
+    }
+
+    @Test
+    public final void testFailedStoreLeavesNoTemporaryFiles() throws IOException {
+        // A directory in the way of the cache file makes the rename fail.
+        File blocker = new File(directory, NoiseCache.key(1, 8, 8, 8, true, 5L, NoiseCache.Format.RGBA_BYTES)
+                + ".noise");
+        assertTrue(blocker.mkdir());
+        assertTrue(new File(blocker, "occupied").createNewFile());
+
+        NoiseCache cache = new NoiseCache(directory, Long.MAX_VALUE);
+        ByteBuffer result = cache.getPixelBuffer(1, 8, 8, 8, 5L);
+
+        assertEquals(new Noise(1, 8, 8, 8, 5L).getPixelBuffer(), result);
+        assertEquals(1, directory.listFiles().length);
+        assertTrue(blocker.isDirectory());
+    }
+}
@@ -0,0 +1,153 @@
+package nl.esciencecenter.esight.noise;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class NoiseTest {
+
+    // Sequential per-sample reference implementation of the 3D generator.
+    private static float referenceNoise3D(int channels, int x, int y, int z) {
+        float total = 0f;
+        float p = .75f;
+
+        float amplitude = 128.0f;
+        float frequency = 0.05f;
+
+        for (int i = 0; i < channels; i++) {
+            total += (float) ImprovedPerlinNoise.noise(x * frequency, y * frequency, z * frequency) * amplitude;
+
+            amplitude *= p;
+            frequency *= 2;
+        }
+        return total + 128f;
+    }
+
+    // Sequential per-sample reference implementation of the 2D generator.
+    private static float referenceNoise2D(int channels, int x, int y) {
+        float total = 0f;
+        float p = .75f;
+
+        float amplitude = 128.0f;
+        float frequency = 0.05f;
+
+        for (int i = 0; i < channels; i++) {
+            total += interpolatedNoise(x * frequency, y * frequency) * amplitude;
+
+            amplitude *= p;
+            frequency *= 2;
+        }
+
+        return total + 128f;
+    }
+
+    private static float interpolatedNoise(float xf, float yf) {
+        int x = (int) xf;
+        int y = (int) yf;
+        float fracX = xf - x;
+        float fracY = yf - y;
+
+        float i1 = cosInterpolate(smoothNoise(x, y), smoothNoise(x + 1, y), fracX);
+        float i2 = cosInterpolate(smoothNoise(x, y + 1), smoothNoise(x + 1, y + 1), fracX);
+
+        return cosInterpolate(i1, i2, fracY);
+    }
+
+    private static float smoothNoise(int x, int y) {
+        float corners = (noise2(x - 1, y - 1) + noise2(x + 1, y - 1) + noise2(x - 1, y + 1) + noise2(x + 1, y + 1)) / 16f;
+        float sides = (noise2(x - 1, y) + noise2(x + 1, y) + noise2(x, y - 1) + noise2(x, y + 1)) / 8f;
+        float center = noise2(x, y) / 4f;
+
+        return corners + sides + center;
+    }
+
+    private static float noise2(int x, int y) {
+        int n = x + y * 57;
+        n = (n << 13) ^ n;
+
+        return (1.0f - ((n * (n * n * 15731 + 789221) + 1376312589) & 0x7fffffff) / 1073741824f);
+    }
+
+    private static float cosInterpolate(float a, float b, float x) {
+        float ft = x * 3.1415927f;
+        float f = (1f - (float) Math.cos(ft)) * .5f;
+
+        return a * (1 - f) + b * f;
+    }
+
+    @Test
+    public final void testNoise3DMatchesReference() {
+        int width = 21, height = 13, depth = 37;
+        FloatBuffer result = new Noise(4, width, height, depth).getFloats();
+
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                for (int z = 0; z < depth; z++) {
+                    assertEquals(Float.floatToIntBits(referenceNoise3D(4, x, y, z)),
+                            Float.floatToIntBits(result.get()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public final void testNoise2DMatchesReference() {
+        int width = 97, height = 33;
+        FloatBuffer result = new Noise(8, width, height, 1).getFloats();
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(Float.floatToIntBits(referenceNoise2D(8, x, y)), Float.floatToIntBits(result.get()));
+            }
+        }
+    }
+
+    @Test
+    public final void testNoiseRow() {
+        int[] perm = ImprovedPerlinNoise.getPermutation();
+        float[] row = new float[50];
+        ImprovedPerlinNoise.noiseRow(perm, 1.3, -7.25, 0.1f, 3, row, 0, row.length);
+
+        for (int i = 0; i < row.length; i++) {
+            assertEquals(Float.floatToIntBits((float) ImprovedPerlinNoise.noise(1.3, -7.25, (i + 3) * 0.1f)),
+                    Float.floatToIntBits(row[i]));
+        }
+    }
+
+    @Test
+    public final void testSeededNoise() {
+        float[] a = toArray(new Noise(4, 8, 8, 8, 42L).getFloats());
+        float[] b = toArray(new Noise(4, 8, 8, 8, 42L).getFloats());
+        float[] c = toArray(new Noise(4, 8, 8, 8, 43L).getFloats());
+
+        assertArrayEquals(a, b, 0f);
+        assertFalse(Arrays.equals(a, c));
+    }
+
+    @Test
+    public final void testPixelBuffer() {
+        Noise noise = new Noise(4, 5, 6, 7);
+        FloatBuffer floats = noise.getFloats();
+        ByteBuffer pixels = noise.getPixelBuffer();
+
+        assertEquals(5 * 6 * 7 * 4, pixels.capacity());
+        for (int i = 0; i < floats.capacity(); i++) {
+            byte expected = (byte) floats.get(i);
+            for (int c = 0; c < 4; c++) {
+                assertEquals(expected, pixels.get(i * 4 + c));
+            }
+        }
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] result = new float[buffer.capacity()];
+        buffer.get(result);
+        return result;
+    }
+}
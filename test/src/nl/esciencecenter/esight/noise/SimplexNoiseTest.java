@@ -0,0 +1,94 @@
+package nl.esciencecenter.esight.noise;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SimplexNoiseTest {
+    private final int[] perm = ImprovedPerlinNoise.getPermutation();
+
+    @Test
+    public final void testRange() {
+        Random random = new Random(1L);
+        for (int i = 0; i < 10000; i++) {
+            double x = random.nextDouble() * 512 - 256;
+            double y = random.nextDouble() * 512 - 256;
+            double z = random.nextDouble() * 512 - 256;
+            double w = random.nextDouble() * 512 - 256;
+
+            assertTrue(Math.abs(SimplexNoise.noise(perm, x, y)) <= 1.0);
+            assertTrue(Math.abs(SimplexNoise.noise(perm, x, y, z)) <= 1.0);
+            assertTrue(Math.abs(SimplexNoise.noise(perm, x, y, z, w)) <= 1.0);
+        }
+    }
+
+    @Test
+    public final void testOriginIsZero() {
+        // The origin is a simplex corner, and all other corners are too far
+        // away to contribute.
+        assertEquals(0.0, SimplexNoise.noise(perm, 0, 0), 1E-9);
+        assertEquals(0.0, SimplexNoise.noise(perm, 0, 0, 0), 1E-9);
+        assertEquals(0.0, SimplexNoise.noise(perm, 0, 0, 0, 0), 1E-9);
+    }
+
+    @Test
+    public final void testNoiseRow() {
+        float[] row = new float[40];
+
+        SimplexNoise.noiseRow(perm, 1.5, 2.25, 0.1f, 5, row, 0, row.length);
+        for (int i = 0; i < row.length; i++) {
+            assertEquals((float) SimplexNoise.noise(perm, 1.5, 2.25, (i + 5) * 0.1f), row[i], 0f);
+        }
+
+        SimplexNoise.noiseRow(perm, 1.5, 2.25, -3.0, 0.1f, 5, row, 0, row.length);
+        for (int i = 0; i < row.length; i++) {
+            assertEquals((float) SimplexNoise.noise(perm, 1.5, 2.25, -3.0, (i + 5) * 0.1f), row[i], 0f);
+        }
+    }
+
+    @Test
+    public final void testNoiseRowAcrossCells() {
+        // Long rows with negative coordinates cross many cells, each of which
+        // needs its own corner gradients.
+        float[] row = new float[200];
+        for (double x = -4.3; x < 4; x += 1.7) {
+            for (double y = -2.9; y < 3; y += 1.3) {
+                SimplexNoise.noiseRow(perm, x, y, 0.37f, -100, row, 0, row.length);
+                for (int i = 0; i < row.length; i++) {
+                    assertEquals((float) SimplexNoise.noise(perm, x, y, (i - 100) * 0.37f), row[i], 0f);
+                }
+
+                SimplexNoise.noiseRow(perm, x, y, x * y, 0.37f, -100, row, 0, row.length);
+                for (int i = 0; i < row.length; i++) {
+                    assertEquals((float) SimplexNoise.noise(perm, x, y, x * y, (i - 100) * 0.37f), row[i], 0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public final void testTileable() {
+        for (double x = 0; x < 8; x += 0.37) {
+            for (double y = 0; y < 4; y += 0.41) {
+                double expected = SimplexNoise.tileableNoise(perm, x, y, 8, 4);
+                assertEquals(expected, SimplexNoise.tileableNoise(perm, x + 8, y, 8, 4), 1E-4);
+                assertEquals(expected, SimplexNoise.tileableNoise(perm, x, y + 4, 8, 4), 1E-4);
+            }
+        }
+    }
+
+    @Test
+    public final void testLooping() {
+        float[] row = new float[33];
+        SimplexNoise.loopingNoiseRow(perm, 0.7, 1.9, 0.05f, 32, 0, row, 0, row.length);
+
+        assertEquals(row[0], row[32], 0f);
+        // Consecutive frames should differ, but only slightly.
+        for (int i = 1; i < row.length; i++) {
+            assertTrue(Math.abs(row[i] - row[i - 1]) < 0.25f);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package nl.esciencecenter.esight.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import nl.esciencecenter.esight.text.GlyphMeshCache.GlyphMesh;
+import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
+import nl.esciencecenter.esight.text.jogampexperimental.GlyphShape;
+import nl.esciencecenter.esight.text.jogampexperimental.OutlineShape;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.jogamp.graph.geom.Triangle;
+import com.jogamp.graph.geom.Vertex;
+import com.jogamp.graph.geom.opengl.SVertex;
+
+public class GlyphMeshCacheTest {
+    private static TypecastFont font;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+    }
+
+    @Test
+    public final void testShared() {
+        GlyphMeshCache cache = GlyphMeshCache.getInstance();
+        GlyphMesh mesh = cache.get(font, '7', 24);
+
+        assertTrue(mesh.getNumVertices() > 0);
+        assertEquals(0, mesh.getNumVertices() % 3);
+        assertSame(mesh, cache.get(font, '7', 24));
+        assertTrue(mesh != cache.get(font, '7', 25));
+    }
+
+    @Test
+    public final void testWhitespace() {
+        GlyphMesh space = GlyphMeshCache.getInstance().get(font, ' ', 24);
+
+        assertEquals(0, space.getNumVertices());
+        assertTrue(space.getAdvance() > 0f);
+    }
+
+    @Test
+    public final void testBounded() {
+        GlyphMeshCache cache = GlyphMeshCache.getInstance();
+        GlyphMesh recent = cache.get(font, '7', 24);
+        GlyphMesh oldest = cache.get(font, ' ', 1000f);
+
+        // Whitespace is cheap to make, so use it to overflow the cache
+        for (int i = 1; i <= GlyphMeshCache.MAX_CACHED_GLYPHS; i++) {
+            cache.get(font, ' ', 1000f + i);
+            if (i % 100 == 0) {
+                assertSame(recent, cache.get(font, '7', 24));
+            }
+        }
+        assertEquals(GlyphMeshCache.MAX_CACHED_GLYPHS, cache.size());
+
+        // The most recently used glyph survives, the oldest has gone
+        assertSame(recent, cache.get(font, '7', 24));
+        assertTrue(oldest != cache.get(font, ' ', 1000f));
+    }
+
+    @Test
+    public final void testMatchesOutlineRenderer() {
+        // The second glyph of a string should be the cached glyph, moved by
+        // the advance of the first. The triangulations themselves may differ
+        // slightly, as they depend on the position of the outline.
+        List<OutlineShape> shapes = font.getOutlineShapes("AB", 24, SVertex.factory());
+        List<Triangle> triangles = new GlyphShape(SVertex.factory(), shapes.get(1)).triangulate();
+
+        GlyphMesh a = GlyphMeshCache.getInstance().get(font, 'A', 24);
+        GlyphMesh b = GlyphMeshCache.getInstance().get(font, 'B', 24);
+        float[] expected = { Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (Triangle t : triangles) {
+            for (Vertex v : t.getVertices()) {
+                expected[0] = Math.min(expected[0], v.getX());
+                expected[1] = Math.min(expected[1], v.getY());
+                expected[2] = Math.max(expected[2], v.getX());
+                expected[3] = Math.max(expected[3], v.getY());
+            }
+        }
+
+        float[] cached = { Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        float[] vertices = b.getVertices();
+        for (int i = 0; i < vertices.length; i += 2) {
+            cached[0] = Math.min(cached[0], vertices[i] + a.getAdvance());
+            cached[1] = Math.min(cached[1], vertices[i + 1]);
+            cached[2] = Math.max(cached[2], vertices[i] + a.getAdvance());
+            cached[3] = Math.max(cached[3], vertices[i + 1]);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected[i], cached[i], 1E-3f);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package nl.esciencecenter.esight.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.MatrixFMath;
+import nl.esciencecenter.esight.math.VecF3;
+import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LabelDeclutterTest {
+    private static final int SIZE = 800;
+    private static final MatF4 P = MatrixFMath.ortho(0f, SIZE, 0f, SIZE, -1f, 1f);
+    private static final MatF4 MV = new MatF4();
+
+    private static SDFGlyphAtlas atlas;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TypecastFont font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+        atlas = new SDFGlyphAtlas(font, GL3.GL_TEXTURE0);
+    }
+
+    private static int add(LabelLayer layer, float x, float y) {
+        return layer.add("Label", new VecF3(x, y, 0f), 20f, Color4.WHITE, LabelLayer.Anchor.CENTER);
+    }
+
+    @Test
+    public final void testPriority() {
+        LabelLayer layer = new LabelLayer(atlas);
+        int low = add(layer, 400f, 400f);
+        int high = add(layer, 405f, 402f);
+        int far = add(layer, 100f, 100f);
+
+        LabelDeclutter declutter = new LabelDeclutter(layer);
+        declutter.setPriority(high, 1f);
+        assertTrue(declutter.update(P, MV, SIZE, SIZE));
+
+        assertFalse(layer.isVisible(low));
+        assertTrue(layer.isVisible(high));
+        assertTrue(layer.isVisible(far));
+        assertEquals(2, declutter.getNumShown());
+
+        // Nothing changed, so nothing needs to be done.
+        assertFalse(declutter.update(P, MV, SIZE, SIZE));
+    }
+
+    @Test
+    public final void testHysteresis() {
+        LabelLayer layer = new LabelLayer(atlas);
+        int first = add(layer, 400f, 400f);
+        int second = add(layer, 400f, 400f);
+        float width = layer.getPixelBounds(first)[2] - layer.getPixelBounds(first)[0];
+
+        LabelDeclutter declutter = new LabelDeclutter(layer, 64, 4f);
+        declutter.update(P, MV, SIZE, SIZE);
+        assertFalse(layer.isVisible(second));
+
+        // Just clear of the first label, but within the hysteresis margin.
+        layer.setPosition(second, new VecF3(400f + width + 2f, 400f, 0f));
+        declutter.update(P, MV, SIZE, SIZE);
+        assertFalse(layer.isVisible(second));
+
+        layer.setPosition(second, new VecF3(400f + width + 6f, 400f, 0f));
+        declutter.update(P, MV, SIZE, SIZE);
+        assertTrue(layer.isVisible(second));
+
+        // Once shown, it stays shown while it does not overlap.
+        layer.setPosition(second, new VecF3(400f + width + 2f, 400f, 0f));
+        declutter.update(P, MV, SIZE, SIZE);
+        assertTrue(layer.isVisible(second));
+    }
+
+    @Test
+    public final void testBudget() {
+        LabelLayer layer = new LabelLayer(atlas);
+        for (int i = 0; i < 10; i++) {
+            add(layer, 40f + i * 70f, 400f);
+        }
+
+        LabelDeclutter declutter = new LabelDeclutter(layer);
+        declutter.setBudget(4);
+        assertFalse(declutter.update(P, MV, SIZE, SIZE));
+        assertFalse(declutter.update(P, MV, SIZE, SIZE));
+        assertTrue(declutter.update(P, MV, SIZE, SIZE));
+        assertEquals(10, declutter.getNumShown());
+    }
+}
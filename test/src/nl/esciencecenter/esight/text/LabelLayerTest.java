@@ -0,0 +1,106 @@
+package nl.esciencecenter.esight.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF3;
+import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class LabelLayerTest {
+    private static SDFGlyphAtlas atlas;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TypecastFont font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+        atlas = new SDFGlyphAtlas(font, GL3.GL_TEXTURE0);
+    }
+
+    @Test
+    public final void testAnchors() {
+        LabelLayer layer = new LabelLayer(atlas);
+        int bottomLeft = layer.add("Label", new VecF3(), 20f, Color4.WHITE, LabelLayer.Anchor.BOTTOM_LEFT);
+        int center = layer.add("Label", new VecF3(), 20f, Color4.WHITE, LabelLayer.Anchor.CENTER);
+        int topRight = layer.add("Label", new VecF3(), 20f, Color4.WHITE, LabelLayer.Anchor.TOP_RIGHT);
+
+        float[] b = layer.getPixelBounds(bottomLeft);
+        assertEquals(0f, b[0], 1E-4f);
+        assertEquals(0f, b[1], 1E-4f);
+        assertTrue(b[2] > 0f && b[3] > 0f);
+
+        float[] c = layer.getPixelBounds(center);
+        assertEquals(0f, c[0] + c[2], 1E-4f);
+        assertEquals(0f, c[1] + c[3], 1E-4f);
+
+        float[] t = layer.getPixelBounds(topRight);
+        assertEquals(0f, t[2], 1E-4f);
+        assertEquals(0f, t[3], 1E-4f);
+        assertEquals(b[2] - b[0], t[2] - t[0], 1E-4f);
+    }
+
+    @Test
+    public final void testIdsAndCompaction() {
+        LabelLayer layer = new LabelLayer(atlas);
+        int[] ids = new int[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = layer.add("Station " + i, new VecF3(i, 0f, 0f), 12f, Color4.WHITE, LabelLayer.Anchor.BOTTOM);
+        }
+        assertEquals(ids.length, layer.size());
+        int full = layer.getNumVertices();
+
+        // Removing three out of four labels leaves more garbage than labels.
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 4 != 0) {
+                layer.remove(ids[i]);
+            }
+        }
+        assertEquals(ids.length / 4, layer.size());
+        assertTrue(layer.getNumVertices() < full);
+
+        int reused = layer.add("Station", new VecF3(), 12f, Color4.WHITE, LabelLayer.Anchor.BOTTOM);
+        assertTrue(reused % 4 != 0);
+
+        float width = layer.getPixelBounds(ids[0])[2] - layer.getPixelBounds(ids[0])[0];
+        layer.setText(ids[0], "A much longer name for this station");
+        assertTrue(layer.getPixelBounds(ids[0])[2] - layer.getPixelBounds(ids[0])[0] > width);
+        assertEquals(ids.length / 4 + 1, layer.getIds().length);
+    }
+
+    @Test
+    public final void testGrowingLabelsAreCompacted() {
+        LabelLayer layer = new LabelLayer(atlas);
+        int id = layer.add("x", new VecF3(), 12f, Color4.WHITE, LabelLayer.Anchor.BOTTOM_LEFT);
+        layer.add("y", new VecF3(), 12f, Color4.WHITE, LabelLayer.Anchor.BOTTOM_LEFT);
+
+        // Every longer text moves the label to a new range.
+        String text = "x";
+        for (int i = 0; i < 50; i++) {
+            text += "x";
+            layer.setText(id, text);
+        }
+        int used = (text.length() + 1) * 6;
+        assertTrue(layer.getNumVertices() <= used * 2);
+    }
+
+    @Test
+    public final void testLineBreakGoesDown() {
+        LabelLayer layer = new LabelLayer(atlas);
+        layer.add("A\nA", new VecF3(), 20f, Color4.WHITE, LabelLayer.Anchor.BOTTOM_LEFT);
+        assertTrue(atlas.getLineAdvance() > 0f);
+
+        // The bottom left corners of the quads of both glyphs
+        FloatBuffer offsets = layer.getOffsets();
+        assertEquals(offsets.get(0), offsets.get(12), 1E-4f);
+        assertEquals(atlas.getLineAdvance() * 20f, offsets.get(1) - offsets.get(13), 1E-4f);
+    }
+}
@@ -0,0 +1,129 @@
+package nl.esciencecenter.esight.text;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF4;
+import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MultiColorTextTest {
+    private static final int SIZE = 24;
+
+    private static TypecastFont font;
+
+    /** The (offset, size) in bytes of every glBufferSubData call */
+    private final List<long[]> uploads = new ArrayList<long[]>();
+    private GL3 gl;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+    }
+
+    @Before
+    public void setUp() {
+        // A GL that does nothing but record the buffer uploads
+        gl = (GL3) Proxy.newProxyInstance(GL3.class.getClassLoader(), new Class<?>[] { GL3.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("glBufferSubData")) {
+                            uploads.add(new long[] { ((Number) args[1]).longValue(), ((Number) args[2]).longValue() });
+                        }
+                        Class<?> type = method.getReturnType();
+                        if (type == boolean.class) {
+                            return false;
+                        } else if (type == int.class) {
+                            return 0;
+                        } else if (type == long.class) {
+                            return 0L;
+                        } else if (type == float.class) {
+                            return 0f;
+                        } else if (type == double.class) {
+                            return 0.0;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static int vertices(String text) {
+        int count = 0;
+        for (char c : text.toCharArray()) {
+            if (c != '\n') {
+                count += GlyphMeshCache.getInstance().get(font, c, SIZE).getNumVertices();
+            }
+        }
+        return count;
+    }
+
+    private static void assertColor(Color4 expected, FloatBuffer colors, int firstVertex, int numVertices) {
+        for (int v = firstVertex; v < firstVertex + numVertices; v++) {
+            assertEquals(new VecF4(expected), new VecF4(colors.get(v * 4), colors.get(v * 4 + 1), colors
+                    .get(v * 4 + 2), colors.get(v * 4 + 3)));
+        }
+    }
+
+    @Test
+    public final void testColorLayout() {
+        String text = "ab\nba";
+        MultiColorText model = new MultiColorText(gl, font, text, Color4.RED, SIZE);
+
+        int numVertices = vertices(text);
+        assertEquals(numVertices, model.getNumVertices());
+        assertEquals(numVertices * 4, model.getVertexColors().capacity());
+        assertColor(Color4.RED, model.getVertexColors(), 0, numVertices);
+    }
+
+    @Test
+    public final void testSubstringColorUploadsItsRange() {
+        String text = "ab ba ab";
+        MultiColorText model = new MultiColorText(gl, font, text, Color4.RED, SIZE);
+        uploads.clear();
+
+        model.setSubstringColorWordBounded(gl, "ba", Color4.BLUE);
+        model.finalizeColorScheme(gl);
+
+        int before = vertices("ab "), inside = vertices("ba"), total = vertices(text);
+        FloatBuffer colors = model.getVertexColors();
+        assertColor(Color4.RED, colors, 0, before);
+        assertColor(Color4.BLUE, colors, before, inside);
+        assertColor(Color4.RED, colors, before + inside, total - before - inside);
+
+        // Only the colors of "ba", which follow all vertex positions
+        assertEquals(1, uploads.size());
+        assertEquals((total + before) * 4L * 4L, uploads.get(0)[0]);
+        assertEquals(inside * 4L * 4L, uploads.get(0)[1]);
+    }
+
+    @Test
+    public final void testRecolorKeepsGeometry() {
+        String text = "ab ab";
+        MultiColorText model = new MultiColorText(gl, font, text, Color4.RED, SIZE);
+        model.setString(gl, text, Color4.GREEN, SIZE);
+
+        assertEquals(vertices(text), model.getNumVertices());
+        assertColor(Color4.GREEN, model.getVertexColors(), 0, vertices(text));
+
+        // Nothing left to upload
+        uploads.clear();
+        model.finalizeColorScheme(gl);
+        assertEquals(0, uploads.size());
+    }
+}
@@ -0,0 +1,75 @@
+package nl.esciencecenter.esight.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SDFGlyphAtlasTest {
+    private static SDFGlyphAtlas atlas;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TypecastFont font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+        atlas = new SDFGlyphAtlas(font, GL3.GL_TEXTURE0);
+    }
+
+    @Test
+    public final void testDistanceTransform() {
+        int w = 7, h = 5;
+        boolean[] targets = new boolean[w * h];
+        targets[3 * w + 2] = true;
+
+        float[] result = SDFGlyphAtlas.distanceTransform(targets, w, h);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                assertEquals((x - 2) * (x - 2) + (y - 3) * (y - 3), result[y * w + x], 0f);
+            }
+        }
+    }
+
+    @Test
+    public final void testGlyphs() {
+        SDFGlyphAtlas.Glyph a = atlas.getGlyph('A');
+        assertTrue(a.isVisible());
+        assertTrue(a.getAdvance() > 0f);
+        assertTrue(a.getRight() > a.getLeft());
+        assertTrue(a.getTop() > a.getBottom());
+        assertTrue(a.getU0() >= 0f && a.getU1() <= 1f && a.getU1() > a.getU0());
+        assertTrue(a.getV0() >= 0f && a.getV1() <= 1f && a.getV1() > a.getV0());
+
+        // The quad has the same aspect ratio in the atlas and on screen.
+        assertEquals((a.getRight() - a.getLeft()) / (a.getTop() - a.getBottom()),
+                (a.getU1() - a.getU0()) / (a.getV1() - a.getV0()), 1E-4f);
+
+        SDFGlyphAtlas.Glyph space = atlas.getGlyph(' ');
+        assertFalse(space.isVisible());
+        assertTrue(space.getAdvance() > 0f);
+
+        assertSame(atlas.getGlyph('?'), atlas.getGlyph('\u20AC'));
+    }
+
+    @Test
+    public final void testNoOverlap() {
+        for (char c1 = 33; c1 < 127; c1++) {
+            for (char c2 = (char) (c1 + 1); c2 < 127; c2++) {
+                SDFGlyphAtlas.Glyph g1 = atlas.getGlyph(c1);
+                SDFGlyphAtlas.Glyph g2 = atlas.getGlyph(c2);
+                boolean overlap = g1.getU0() < g2.getU1() && g2.getU0() < g1.getU1() && g1.getV0() < g2.getV1()
+                        && g2.getV0() < g1.getV1();
+                assertFalse(c1 + " and " + c2 + " overlap", overlap);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package nl.esciencecenter.esight.text;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.math.Color4;
+import nl.esciencecenter.esight.math.VecF4;
+import nl.esciencecenter.esight.text.jogampexperimental.FontFactory;
+import nl.esciencecenter.esight.text.jogampexperimental.TypecastFont;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SDFTextTest {
+    private static final int VERTICES_PER_GLYPH = 6;
+
+    private static SDFGlyphAtlas atlas;
+
+    /** The (offset, size) in bytes of every glBufferSubData call */
+    private final List<long[]> uploads = new ArrayList<long[]>();
+    private GL3 gl;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        TypecastFont font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+        atlas = new SDFGlyphAtlas(font, GL3.GL_TEXTURE0);
+    }
+
+    @Before
+    public void setUp() {
+        // A GL that does nothing but record the buffer uploads
+        gl = (GL3) Proxy.newProxyInstance(GL3.class.getClassLoader(), new Class<?>[] { GL3.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("glBufferSubData")) {
+                            uploads.add(new long[] { ((Number) args[1]).longValue(), ((Number) args[2]).longValue() });
+                        }
+                        Class<?> type = method.getReturnType();
+                        if (type == boolean.class) {
+                            return false;
+                        } else if (type == int.class) {
+                            return 0;
+                        } else if (type == long.class) {
+                            return 0L;
+                        } else if (type == float.class) {
+                            return 0f;
+                        } else if (type == double.class) {
+                            return 0.0;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static void assertColor(Color4 expected, FloatBuffer colors, int firstVertex, int numVertices) {
+        for (int v = firstVertex; v < firstVertex + numVertices; v++) {
+            assertEquals(new VecF4(expected), new VecF4(colors.get(v * 4), colors.get(v * 4 + 1), colors
+                    .get(v * 4 + 2), colors.get(v * 4 + 3)));
+        }
+    }
+
+    @Test
+    public final void testSubstringAtIndexColorUploadsItsRange() {
+        // Five visible glyphs, the spaces have no quad
+        String text = "ab ba ab";
+        SDFText model = new SDFText(gl, atlas, text, Color4.RED, 24f);
+        int total = model.getNumVertices();
+        assertEquals(6 * VERTICES_PER_GLYPH, total);
+        uploads.clear();
+
+        model.setSubstringAtIndexColor(gl, 3, "ba", Color4.BLUE);
+        model.finalizeColorScheme(gl);
+
+        int before = 2 * VERTICES_PER_GLYPH, inside = 2 * VERTICES_PER_GLYPH;
+        FloatBuffer colors = model.getVertexColors();
+        assertColor(Color4.RED, colors, 0, before);
+        assertColor(Color4.BLUE, colors, before, inside);
+        assertColor(Color4.RED, colors, before + inside, total - before - inside);
+
+        // Only the colors of "ba", which follow the positions and texture coordinates
+        assertEquals(1, uploads.size());
+        assertEquals((total * 4L + total * 2L + before * 4L) * 4L, uploads.get(0)[0]);
+        assertEquals(inside * 4L * 4L, uploads.get(0)[1]);
+    }
+
+    @Test
+    public final void testUnchangedColorsUploadNothing() {
+        SDFText model = new SDFText(gl, atlas, "ab ba", Color4.RED, 24f);
+        uploads.clear();
+
+        model.finalizeColorScheme(gl);
+        assertEquals(0, uploads.size());
+
+        // A whitespace-only range has no vertices to upload
+        model.setSubstringAtIndexColor(gl, 2, " ", Color4.BLUE);
+        model.finalizeColorScheme(gl);
+        assertEquals(0, uploads.size());
+    }
+}
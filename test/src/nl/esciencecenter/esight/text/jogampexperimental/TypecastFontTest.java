@@ -0,0 +1,110 @@
+package nl.esciencecenter.esight.text.jogampexperimental;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import jogamp.graph.font.typecast.ot.table.KernSubtable;
+import jogamp.graph.font.typecast.ot.table.KernTable;
+import jogamp.graph.font.typecast.ot.table.KerningPair;
+import jogamp.graph.font.typecast.ot.table.Table;
+import nl.esciencecenter.esight.exceptions.FontException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TypecastFontTest {
+    private static TypecastFont font;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        font = (TypecastFont) FontFactory.get(new File("fonts/Ubuntu-R.ttf"));
+    }
+
+    @Test
+    public final void testShared() throws IOException {
+        assertSame(font, FontFactory.get(new File("fonts/../fonts/Ubuntu-R.ttf")));
+    }
+
+    @Test
+    public final void testAdvances() {
+        for (char c = 32; c < 127; c++) {
+            int id = font.getGlyphId(c);
+            assertEquals(font.getFont().getHmtxTable().getAdvanceWidth(id), font.getAdvanceWidth(c));
+        }
+        assertEquals(font.getAdvanceWidth('M') * font.getMetrics().getScale(20f), font.getAdvance('M', 20f), 1E-6f);
+        assertTrue(font.getAdvance('W', 20f) > font.getAdvance('i', 20f));
+    }
+
+    @Test
+    public final void testKerning() {
+        // The pairs as the kern table of the font lists them
+        KernTable kern = (KernTable) font.getFont().getTable(Table.kern);
+        assertNotNull(kern);
+        float scale = font.getMetrics().getScale(20f);
+
+        float av = tableKerning(kern, 'A', 'V') * scale;
+        assertTrue(av < 0f);
+        assertEquals(av, font.getKerning('A', 'V', 20f), 1E-6f);
+        assertEquals(tableKerning(kern, 'T', 'o') * scale, font.getKerning('T', 'o', 20f), 1E-6f);
+
+        // Pairs that are not kerned have no adjustment.
+        assertEquals(0, tableKerning(kern, 'l', 'l'));
+        assertEquals(0f, font.getKerning('l', 'l', 20f), 0f);
+    }
+
+    private static int tableKerning(KernTable kern, char left, char right) {
+        int leftId = font.getGlyphId(left), rightId = font.getGlyphId(right);
+        for (int i = 0; i < kern.getSubtableCount(); i++) {
+            KernSubtable subtable = kern.getSubtable(i);
+            for (int j = 0; subtable != null && j < subtable.getKerningPairCount(); j++) {
+                KerningPair pair = subtable.getKerningPair(j);
+                if (pair.getLeft() == leftId && pair.getRight() == rightId) {
+                    return pair.getValue();
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public final void testLayoutIsKerned() {
+        float kerned = font.getAdvance('A', 20f) + font.getKerning('A', 'V', 20f) + font.getAdvance('V', 20f);
+        assertEquals(kerned, font.getStringBounds("AV", 20f).getWidth(), 1E-4f);
+        // A and V move closer together.
+        assertTrue(font.getStringBounds("AV", 20f).getWidth() < font.getAdvance('A', 20f) + font.getAdvance('V', 20f));
+    }
+
+    @Test
+    public final void testPreloadStartsOneThread() {
+        for (int i = 0; i < 20; i++) {
+            FontFactory.preload(FontFactory.UBUNTU);
+        }
+        assertNotNull(FontFactory.get(FontFactory.UBUNTU).getDefault());
+
+        int loaders = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("Font loader")) {
+                loaders++;
+            }
+        }
+        assertTrue(loaders <= 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testPreloadUnknownFontSet() {
+        FontFactory.preload(FontFactory.UBUNTU + 1);
+    }
+
+    @Test
+    public final void testLazyOutline() throws FontException {
+        TypecastGlyph glyph = (TypecastGlyph) font.getGlyph('g');
+        assertNotNull(glyph.getPath());
+        assertSame(glyph.getPath(), glyph.getPath());
+        assertSame(glyph, font.getGlyph('g'));
+    }
+}
@@ -0,0 +1,229 @@
+package nl.esciencecenter.esight.textures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.opengl.GL3;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TextureStreamerTest {
+    private static final int BUFFER_SIZE = 64;
+
+    /** The names of all GL calls, in order */
+    private final List<String> calls = new ArrayList<String>();
+    /** The last argument of every glTexSubImage call: a region or an offset */
+    private final List<Object> texUpdates = new ArrayList<Object>();
+    /** Every buffer handed out by glMapBufferRange */
+    private final List<ByteBuffer> mapped = new ArrayList<ByteBuffer>();
+
+    /** Whether the fences report the GPU as done */
+    private volatile boolean signaled = false;
+
+    private GL3 gl;
+
+    @Before
+    public void setUp() {
+        // A GL that records its calls, maps buffers to heap memory and
+        // signals fences on demand
+        gl = (GL3) Proxy.newProxyInstance(GL3.class.getClassLoader(), new Class<?>[] { GL3.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        synchronized (calls) {
+                            calls.add(name);
+                        }
+                        if (name.equals("glTexSubImage2D") || name.equals("glTexSubImage3D")) {
+                            texUpdates.add(args[args.length - 1]);
+                        } else if (name.equals("glMapBufferRange")) {
+                            ByteBuffer buffer = ByteBuffer.allocate(((Number) args[2]).intValue());
+                            mapped.add(buffer);
+                            return buffer;
+                        } else if (name.equals("glUnmapBuffer")) {
+                            return true;
+                        } else if (name.equals("glClientWaitSync")) {
+                            return signaled ? GL3.GL_ALREADY_SIGNALED : GL3.GL_TIMEOUT_EXPIRED;
+                        } else if (name.equals("glFenceSync")) {
+                            return 1L;
+                        }
+
+                        Class<?> type = method.getReturnType();
+                        if (type == boolean.class) {
+                            return false;
+                        } else if (type == int.class) {
+                            return 0;
+                        } else if (type == long.class) {
+                            return 0L;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static Texture2D texture2D() {
+        Texture2D texture = new Texture2D(GL3.GL_TEXTURE0) {
+        };
+        texture.setWidth(16);
+        texture.setHeight(16);
+        texture.setPixelBuffer(ByteBuffer.allocate(16 * 16 * 4));
+        return texture;
+    }
+
+    private static ByteBuffer region(int size, int fill) {
+        ByteBuffer region = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            region.put((byte) fill);
+        }
+        region.flip();
+        return region;
+    }
+
+    /** Processes frames until the given number of buffered updates is made. */
+    private void processUntil(TextureStreamer streamer, int bufferedUpdates) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (count(Long.class) < bufferedUpdates && System.currentTimeMillis() < deadline) {
+            streamer.process(gl);
+            Thread.sleep(1L);
+        }
+        assertEquals(bufferedUpdates, count(Long.class));
+    }
+
+    private int count(Class<?> type) {
+        int count = 0;
+        for (Object update : texUpdates) {
+            if (type.isInstance(update)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testTextureUpdate() {
+        Texture2D texture = texture2D();
+        ByteBuffer region = region(16, 1);
+        texture.update(gl, region, 2, 3, 2, 2);
+
+        // The first update initializes the texture.
+        assertTrue(texture.isInitialized());
+        assertTrue(calls.indexOf("glTexImage2D") < calls.indexOf("glTexSubImage2D"));
+        assertEquals(1, texUpdates.size());
+        assertTrue(region == texUpdates.get(0));
+    }
+
+    @Test
+    public void testSlotCycling() throws InterruptedException {
+        TextureStreamer streamer = new TextureStreamer(2, BUFFER_SIZE);
+        Texture2D texture = texture2D();
+        for (int i = 0; i < 3; i++) {
+            streamer.stream(texture, region(16, i + 1), i * 2, 0, 2, 2);
+        }
+
+        // Two buffers are filled and updated from, the third request waits
+        // until the GPU is done with one of them.
+        processUntil(streamer, 2);
+        assertEquals(2, mapped.size());
+        assertEquals(1, streamer.getQueued());
+        assertEquals(1, mapped.get(0).get(0));
+        assertEquals(2, mapped.get(1).get(15));
+
+        streamer.process(gl);
+        assertEquals(2, mapped.size());
+
+        signaled = true;
+        processUntil(streamer, 3);
+        assertEquals(3, mapped.size());
+        assertEquals(0, streamer.getQueued());
+        assertEquals(3, mapped.get(2).get(0));
+        assertEquals(0, count(ByteBuffer.class));
+
+        streamer.delete(gl);
+    }
+
+    @Test
+    public void testNewerRequestReplacesWaiting() throws InterruptedException {
+        TextureStreamer streamer = new TextureStreamer(1, BUFFER_SIZE);
+        Texture2D texture = texture2D();
+        streamer.stream(texture, region(16, 1), 0, 0, 2, 2);
+        streamer.stream(texture, region(16, 2), 0, 0, 2, 2);
+        assertEquals(1, streamer.getQueued());
+
+        processUntil(streamer, 1);
+        assertEquals(2, mapped.get(0).get(0));
+
+        streamer.delete(gl);
+    }
+
+    @Test
+    public void testOversizeRegionIsSynchronous() {
+        TextureStreamer streamer = new TextureStreamer(2, BUFFER_SIZE);
+        Texture2D texture = texture2D();
+        ByteBuffer region = region(BUFFER_SIZE * 2, 1);
+        streamer.stream(texture, region, 0, 0, 8, 4);
+
+        streamer.process(gl);
+        assertEquals(0, mapped.size());
+        assertEquals(1, texUpdates.size());
+        assertTrue(region == texUpdates.get(0));
+        assertEquals(0, streamer.getQueued());
+
+        streamer.delete(gl);
+    }
+
+    @Test
+    public void testStream3D() throws InterruptedException {
+        TextureStreamer streamer = new TextureStreamer(2, BUFFER_SIZE);
+        Texture3D texture = new Texture3D(GL3.GL_TEXTURE0) {
+        };
+        texture.setWidth(4);
+        texture.setHeight(4);
+        texture.setDepth(4);
+        texture.setPixelBuffer(ByteBuffer.allocate(4 * 4 * 4 * 4));
+        streamer.stream(texture, region(32, 5), 0, 0, 1, 2, 2, 2);
+
+        processUntil(streamer, 1);
+        assertTrue(calls.contains("glTexSubImage3D"));
+        assertEquals(5, mapped.get(0).get(31));
+
+        streamer.delete(gl);
+    }
+
+    @Test
+    public void testDeleteWithUploadsInFlight() {
+        int size = 8 << 20;
+        TextureStreamer streamer = new TextureStreamer(2, size);
+        Texture2D texture = texture2D();
+        streamer.stream(texture, region(size, 7), 0, 0, 1024, 2048);
+        streamer.stream(texture, region(size, 8), 0, 0, 2048, 1024);
+        streamer.stream(texture, region(16, 9), 0, 0, 2, 2);
+
+        // Both buffers are mapped and being filled when the streamer goes.
+        streamer.process(gl);
+        streamer.delete(gl);
+
+        // The copies finished before any buffer was unmapped or deleted.
+        assertEquals(7, mapped.get(0).get(size - 1));
+        assertEquals(8, mapped.get(1).get(size - 1));
+        assertEquals(0, streamer.getQueued());
+
+        int deleted = calls.lastIndexOf("glDeleteBuffers");
+        int lastMap = calls.lastIndexOf("glMapBufferRange");
+        int unmaps = 0;
+        for (int i = lastMap; i < deleted; i++) {
+            if (calls.get(i).equals("glUnmapBuffer")) {
+                unmaps++;
+            }
+        }
+        assertEquals(2, unmaps);
+        assertEquals(0, texUpdates.size());
+    }
+}
@@ -0,0 +1,141 @@
+package nl.esciencecenter.esight.textures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TilePyramidBuilderTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("tilepyramid", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0xff000000 | (x << 16) | (y << 8) | ((x + y) & 0xff));
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public final void testLevels() throws IOException {
+        TileStore store = new TilePyramidBuilder(16).build(gradient(100, 40), directory);
+
+        // 7x3, 4x2, 2x1, 1x1 tiles
+        assertEquals(4, store.getLevels());
+        assertEquals(7, store.getTilesX(0));
+        assertEquals(3, store.getTilesY(0));
+        assertEquals(4, store.getTilesX(1));
+        assertEquals(2, store.getTilesY(1));
+        assertEquals(1, store.getTilesX(3));
+        assertEquals(1, store.getTilesY(3));
+        store.close();
+
+        TileStore reopened = TileStore.open(directory);
+        assertEquals(100, reopened.getWidth());
+        assertEquals(40, reopened.getHeight());
+        assertEquals(16, reopened.getTileSize());
+        assertEquals(4, reopened.getLevels());
+        reopened.close();
+    }
+
+    @Test
+    public final void testLevelZeroMatchesImage() throws IOException {
+        int width = 100, height = 40;
+        BufferedImage image = gradient(width, height);
+        TileStore store = new TilePyramidBuilder(16).build(image, directory);
+
+        for (int glY = 0; glY < height; glY++) {
+            for (int x = 0; x < width; x++) {
+                ByteBuffer tile = store.mapTile(0, x / 16, glY / 16, false);
+                int index = ((glY % 16) * 16 + x % 16) * 4;
+
+                // Bottom row first, BGRA, like ImageTexture
+                int argb = image.getRGB(x, height - 1 - glY);
+                assertEquals(argb & 0xff, tile.get(index) & 0xff);
+                assertEquals((argb >> 8) & 0xff, tile.get(index + 1) & 0xff);
+                assertEquals((argb >> 16) & 0xff, tile.get(index + 2) & 0xff);
+                assertEquals((argb >>> 24), tile.get(index + 3) & 0xff);
+            }
+        }
+        store.close();
+    }
+
+    @Test
+    public final void testDownsample() throws IOException {
+        BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                // Checkerboard of 0 and 200 in the blue channel
+                image.setRGB(x, y, 0xff000000 | (((x + y) % 2) * 200));
+            }
+        }
+        TileStore store = new TilePyramidBuilder(16).build(image, directory);
+        assertEquals(2, store.getLevels());
+
+        ByteBuffer top = store.mapTile(1, 0, 0, false);
+        for (int i = 0; i < 16 * 16; i++) {
+            assertEquals(100, top.get(i * 4) & 0xff);
+            assertEquals(255, top.get(i * 4 + 3) & 0xff);
+        }
+        store.close();
+    }
+
+    @Test
+    public final void testEdgeTilesRepeatTheEdge() throws IOException {
+        TileStore store = new TilePyramidBuilder(16).build(gradient(100, 40), directory);
+
+        // Tile (6, 2) holds 4 columns and 8 rows of the image.
+        ByteBuffer tile = store.mapTile(0, 6, 2, false);
+        for (int row = 0; row < 16; row++) {
+            for (int column = 0; column < 16; column++) {
+                int edge = (Math.min(row, 7) * 16 + Math.min(column, 3)) * 4;
+                assertEquals(tile.getInt(edge), tile.getInt((row * 16 + column) * 4));
+            }
+        }
+        store.close();
+    }
+
+    @Test
+    public final void testDownsampleEdgeIsNotBlack() throws IOException {
+        // A level 1 tile of 9x9 texels from four partly filled level 0 tiles
+        BufferedImage image = new BufferedImage(17, 17, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 17; y++) {
+            for (int x = 0; x < 17; x++) {
+                image.setRGB(x, y, 0xff406080);
+            }
+        }
+        TileStore store = new TilePyramidBuilder(16).build(image, directory);
+        assertEquals(2, store.getLevels());
+
+        ByteBuffer top = store.mapTile(1, 0, 0, false);
+        for (int i = 0; i < 16 * 16; i++) {
+            assertEquals(0x80, top.get(i * 4) & 0xff);
+            assertEquals(0x60, top.get(i * 4 + 1) & 0xff);
+            assertEquals(0x40, top.get(i * 4 + 2) & 0xff);
+            assertEquals(0xff, top.get(i * 4 + 3) & 0xff);
+        }
+        store.close();
+    }
+}
@@ -0,0 +1,78 @@
+package nl.esciencecenter.esight.textures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import javax.media.opengl.GL3;
+
+import nl.esciencecenter.esight.math.MatF4;
+import nl.esciencecenter.esight.math.MatrixFMath;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VirtualTextureTest {
+    private static final MatF4 PERSPECTIVE = MatrixFMath.perspective(45f, 1f, 0.1f, 100f);
+
+    private File directory;
+    private TileStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("virtualtexture", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+
+        // 16x8, 8x4, 4x2, 2x1 and 1x1 tiles
+        store = new TilePyramidBuilder(16).build(new BufferedImage(256, 128, BufferedImage.TYPE_INT_ARGB),
+                directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testAtlasTooSmall() {
+        // One slot, all of it needed for the coarsest level
+        new VirtualTexture(store, GL3.GL_TEXTURE0, GL3.GL_TEXTURE1, 16, 1f);
+    }
+
+    @Test
+    public final void testDistantViewNeedsCoarsestLevel() {
+        VirtualTexture texture = new VirtualTexture(store, GL3.GL_TEXTURE0, GL3.GL_TEXTURE1, 128, 1f);
+        assertEquals(0, texture.getResidentTiles());
+
+        Set<Long> needed = texture.neededTiles(PERSPECTIVE, MatrixFMath.translate(0f, 0f, -50f), 100, 100);
+        assertEquals(1, needed.size());
+        assertTrue(needed.contains(VirtualTexture.key(4, 0, 0)));
+    }
+
+    @Test
+    public final void testCloseViewRefinesFacingTiles() {
+        VirtualTexture texture = new VirtualTexture(store, GL3.GL_TEXTURE0, GL3.GL_TEXTURE1, 128, 1f);
+        Set<Long> needed = texture.neededTiles(PERSPECTIVE, MatrixFMath.translate(0f, 0f, -3f), 1000, 1000);
+
+        // The equator facing the camera, at full resolution, with all its
+        // ancestors.
+        assertTrue(needed.contains(VirtualTexture.key(0, 4, 4)));
+        assertTrue(needed.contains(VirtualTexture.key(1, 2, 2)));
+        assertTrue(needed.contains(VirtualTexture.key(2, 1, 1)));
+        assertTrue(needed.contains(VirtualTexture.key(3, 0, 0)));
+        assertTrue(needed.contains(VirtualTexture.key(4, 0, 0)));
+
+        // The equator on the far side of the sphere
+        assertFalse(needed.contains(VirtualTexture.key(0, 12, 4)));
+        assertFalse(needed.contains(VirtualTexture.key(1, 6, 2)));
+    }
+}